@@ -45,6 +45,14 @@ public abstract class AnomalyDetector extends ScheduledItem {
         return properties.getProperty(key, def);
     }
 
+    /**
+     * Returns the number of data points a history of one point per period holds, including
+     * the point added in the current period before older points are expired.
+     */
+    protected final int getHistoryCapacity() {
+        return historyLengthInSeconds / periodInSeconds + 1;
+    }
+
     public long getLastAnomalyTime(String operation) {
         Long lastAnomaly = lastAnomalyAt.get(operation);
         if (lastAnomaly != null) {
@@ -22,6 +22,9 @@ public class AnomalyDetectorFactory {
     private static final String DETECTOR_DTW_INCREASE_THRESHOLD = "dtwIncreaseThreshold";
     private static final String DETECTOR_DTW_MEAN_THRESHOLD = "dtwMeanThreshold";
     private static final String DETECTOR_DTW_ANALYSIS = "dtwAnalysis";
+    private static final String DETECTOR_DTW_ENGINE = "dtwEngine";
+    private static final String DETECTOR_DTW_WINDOW = "dtwWindow";
+    private static final String DETECTOR_DTW_NORMALIZE = "dtwNormalize";
 
     private static final String DETECTOR_RESPONSE_TIME_UPPER_BOUND = "responseTimeUpperBound";
     private static final String DETECTOR_SLO_PERCENTAGE = "sloPercentage";
@@ -94,6 +97,21 @@ public class AnomalyDetectorFactory {
         if (!Strings.isNullOrEmpty(dtwAnalysis)) {
             builder.setDtwAnalysis(dtwAnalysis);
         }
+
+        String dtwEngine = properties.getProperty(DETECTOR_DTW_ENGINE);
+        if (!Strings.isNullOrEmpty(dtwEngine)) {
+            builder.setDtwEngine(dtwEngine);
+        }
+
+        String dtwWindow = properties.getProperty(DETECTOR_DTW_WINDOW);
+        if (!Strings.isNullOrEmpty(dtwWindow)) {
+            builder.setDtwWindow(Integer.parseInt(dtwWindow));
+        }
+
+        String dtwNormalize = properties.getProperty(DETECTOR_DTW_NORMALIZE);
+        if (!Strings.isNullOrEmpty(dtwNormalize)) {
+            builder.setDtwNormalize(Boolean.parseBoolean(dtwNormalize));
+        }
         return builder;
     }
 
@@ -7,7 +7,12 @@ import edu.ucsb.cs.roots.data.DataStore;
 import edu.ucsb.cs.roots.data.DataStoreException;
 import edu.ucsb.cs.roots.data.ResponseTimeSummary;
 import edu.ucsb.cs.roots.rlang.RClient;
+import edu.ucsb.cs.roots.utils.DynamicTimeWarping;
+import edu.ucsb.cs.roots.utils.IncrementalDynamicTimeWarping;
+import edu.ucsb.cs.roots.utils.SlidingCorrelation;
 import edu.ucsb.cs.roots.utils.StatSummary;
+import edu.ucsb.cs.roots.utils.TimeSeriesHistory;
+import edu.ucsb.cs.roots.utils.TimeSeriesRing;
 
 import java.util.*;
 
@@ -30,12 +35,37 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
     private static final ImmutableSet<String> DTW_ANALYSIS =
             ImmutableSet.of(DTW_ANALYSIS_COMPARE_TO_LAST, DTW_ANALYSIS_COMPARE_TO_ALL);
 
-    private final ListMultimap<String,ResponseTimeSummary> history;
-    private final ListMultimap<String,DTWDistance> dtwTrends;
+    /**
+     * Compute DTW distances in R, using the dtw package.
+     */
+    public static final String DTW_ENGINE_R = "r";
+
+    /**
+     * Compute DTW distances in Java, without a round trip to R.
+     */
+    public static final String DTW_ENGINE_JAVA = "java";
+
+    private static final ImmutableSet<String> DTW_ENGINES =
+            ImmutableSet.of(DTW_ENGINE_R, DTW_ENGINE_JAVA);
+
+    // Columns of the history
+    private static final int REQUEST_COUNT = 0;
+    private static final int RESPONSE_TIME = 1;
+
+    // Number of history evictions between rebuilds of the running correlations
+    private static final int REBUILD_INTERVAL = 100;
+
+    private final TimeSeriesHistory<String> history;
+    private final TimeSeriesHistory<String> dtwTrends;
+    private final Map<String,SlidingCorrelation> correlations = new HashMap<>();
+    private long evictions = 0L;
     private final double correlationThreshold;
     private final String dtwAnalysis;
     private final double dtwMeanThreshold;
     private final double dtwIncreaseThreshold;
+    private final int dtwWindow;
+    private final boolean dtwNormalize;
+    private final DynamicTimeWarping dtw;
 
     private long end = -1L;
 
@@ -48,12 +78,23 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
                 "Unsupported DTW analysis method: %s", builder.dtwAnalysis);
         checkArgument(builder.dtwMeanThreshold > 0, "DTW mean threshold must be positive");
         checkArgument(builder.dtwIncreaseThreshold > 0, "DTW increase threshold must be positive");
-        this.history = ArrayListMultimap.create();
-        this.dtwTrends = ArrayListMultimap.create();
+        checkArgument(DTW_ENGINES.contains(builder.dtwEngine),
+                "Unsupported DTW engine: %s", builder.dtwEngine);
+        checkArgument(builder.dtwWindow >= 0 || builder.dtwWindow == DynamicTimeWarping.NO_WINDOW,
+                "Invalid DTW window: %s", builder.dtwWindow);
+        this.history = new TimeSeriesHistory<>(2, getHistoryCapacity());
+        this.dtwTrends = new TimeSeriesHistory<>(1, getHistoryCapacity());
         this.correlationThreshold = builder.correlationThreshold;
         this.dtwAnalysis = builder.dtwAnalysis;
         this.dtwMeanThreshold = builder.dtwMeanThreshold;
         this.dtwIncreaseThreshold = builder.dtwIncreaseThreshold;
+        this.dtwWindow = builder.dtwWindow;
+        this.dtwNormalize = builder.dtwNormalize;
+        if (DTW_ENGINE_JAVA.equals(builder.dtwEngine)) {
+            this.dtw = new DynamicTimeWarping(dtwWindow, dtwNormalize);
+        } else {
+            this.dtw = null;
+        }
     }
 
     @Override
@@ -62,7 +103,9 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         try {
             long tempStart, tempEnd;
             if (end < 0) {
+                // Align windows to the period, so that they map on to stored rollups
                 tempEnd = now - 60 * 1000 - periodInSeconds * 1000;
+                tempEnd -= Math.floorMod(tempEnd, periodInSeconds * 1000L);
                 tempStart = tempEnd - historyLengthInSeconds * 1000;
                 initFullHistory(tempStart, tempEnd);
                 end = tempEnd;
@@ -78,8 +121,8 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         }
 
         long cutoff = end - historyLengthInSeconds * 1000;
-        history.values().removeIf(s -> s.getTimestamp() < cutoff);
-        dtwTrends.values().removeIf(d -> d.timestamp < cutoff);
+        evictHistory(cutoff);
+        dtwTrends.expire(cutoff);
         history.keySet().stream()
                 .filter(k -> requestTypes.contains(k) && history.get(k).size() > 2)
                 .map(k -> computeCorrelation(k, history.get(k)))
@@ -97,10 +140,12 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         ImmutableListMultimap<String,ResponseTimeSummary> summaries =
                 ds.getResponseTimeHistory(application, windowStart, windowEnd,
                         periodInSeconds * 1000);
-        history.putAll(summaries);
-        history.keySet().stream()
-                .filter(op -> history.get(op).size() > 2)
-                .forEach(op -> dtwTrends.putAll(op, computeDTWTrend(history.get(op))));
+        summaries.entries().forEach(e -> addToHistory(e.getKey(), e.getValue()));
+        history.forEach((op, series) -> {
+            if (series.size() > 2) {
+                computeDTWTrend(series, dtwTrends.getOrCreate(op));
+            }
+        });
     }
 
     private Collection<String> updateHistory(long windowStart,
@@ -113,30 +158,68 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         DataStore ds = environment.getDataStoreService().get(this.dataStore);
         ImmutableMap<String,ResponseTimeSummary> summaries = ds.getResponseTimeSummary(
                 application, windowStart, windowEnd);
-        summaries.forEach(history::put);
+        summaries.forEach(this::addToHistory);
         return ImmutableList.copyOf(summaries.keySet());
     }
 
-    private Correlation computeCorrelation(String operation, List<ResponseTimeSummary> summaries) {
-        double[] requests = new double[summaries.size()];
-        double[] responseTime = new double[summaries.size()];
-        for (int i = 0; i < summaries.size(); i++) {
-            ResponseTimeSummary s = summaries.get(i);
-            requests[i] = s.getRequestCount();
-            responseTime[i] = s.getMeanResponseTime();
+    private void addToHistory(String operation, ResponseTimeSummary summary) {
+        history.append(operation, summary.getTimestamp(), summary.getRequestCount(),
+                summary.getMeanResponseTime());
+        correlations.computeIfAbsent(operation, k -> new SlidingCorrelation())
+                .add(summary.getRequestCount(), summary.getMeanResponseTime());
+    }
+
+    /**
+     * Remove the data points older than the cutoff from the history, and from the running
+     * correlation of each operation.
+     */
+    private void evictHistory(long cutoff) {
+        history.forEach((op, series) -> {
+            SlidingCorrelation correlation = correlations.get(op);
+            while (!series.isEmpty() && series.getTimestamp(0) < cutoff) {
+                correlation.remove(series.get(REQUEST_COUNT, 0), series.get(RESPONSE_TIME, 0));
+                series.removeFirst();
+            }
+        });
+        history.expire(cutoff);
+        correlations.keySet().removeIf(k -> !history.containsKey(k));
+
+        // Rebuild the running correlations now and then, so rounding errors left by the
+        // removals do not build up
+        if (++evictions % REBUILD_INTERVAL == 0) {
+            correlations.forEach((op, correlation) -> {
+                TimeSeriesRing series = history.get(op);
+                correlation.clear();
+                for (int i = 0; i < series.size(); i++) {
+                    correlation.add(series.get(REQUEST_COUNT, i), series.get(RESPONSE_TIME, i));
+                }
+            });
         }
+    }
+
+    private Correlation computeCorrelation(String operation, TimeSeriesRing series) {
+        // Maintained as the history is updated, so no need to go through the data points
+        double correlation = correlations.get(operation).getCorrelation();
+        double[] requests = series.toArray(REQUEST_COUNT);
+        double[] responseTime = series.toArray(RESPONSE_TIME);
 
         if (log.isDebugEnabled()) {
             log.debug("Request Counts: {}", Arrays.toString(requests));
             log.debug("Response Times: {}", Arrays.toString(responseTime));
         }
 
+        if (dtw != null) {
+            double distance = dtw.distance(requests, responseTime);
+            log.info("Correlation analysis output [{}]: {} {} {}", operation, correlation,
+                    distance, requests.length);
+            return new Correlation(operation, correlation, distance);
+        }
+
         RClient r = environment.getRService().borrow();
         try {
             r.assign("x", requests);
             r.assign("y", responseTime);
-            double correlation = r.evalToDouble("cor(x, y, method='pearson')");
-            r.evalAndAssign("time_warp", "dtw(x, y)");
+            r.evalAndAssign("time_warp", dtwExpression());
             double distance = r.evalToDouble("time_warp$distance");
             log.info("Correlation analysis output [{}]: {} {} {}", operation, correlation,
                     distance, requests.length);
@@ -149,46 +232,67 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         }
     }
 
-    private List<DTWDistance> computeDTWTrend(List<ResponseTimeSummary> summaries) {
-        log.debug("Computing historical DTW trend with {} data points", summaries.size());
-        List<DTWDistance> trend = new ArrayList<>();
-        RClient r = environment.getRService().borrow();
-        try {
-            r.evalAndAssign("x", "c()");
-            r.evalAndAssign("y", "c()");
-            int count = 0;
-            for (ResponseTimeSummary summary : summaries) {
-                r.evalAndAssign("x", String.format("c(x,%f)", summary.getRequestCount()));
-                r.evalAndAssign("y", String.format("c(y,%f)", summary.getMeanResponseTime()));
-                if (++count > 2) {
-                    r.evalAndAssign("time_warp", "dtw(x, y)");
-                    double dtw = r.evalToDouble("time_warp$distance");
-                    trend.add(new DTWDistance(summary.getTimestamp(), dtw));
-
-                    StatSummary statistics = StatSummary.calculate(trend.stream()
-                            .mapToDouble(d -> d.dtw));
-                    cleanUpDTWTrend(trend, statistics, summary.getTimestamp());
+    /**
+     * Compute the DTW distance of every prefix (of at least 3 points) of the history, in a
+     * single pass. The cost matrix of each prefix is extended by one row and one column to
+     * obtain the next, unless the series are normalized (in which case the costs of a prefix
+     * depend on all of its points).
+     */
+    private void computeDTWTrend(TimeSeriesRing series, TimeSeriesRing trend) {
+        log.debug("Computing historical DTW trend with {} data points", series.size());
+        if (dtwNormalize) {
+            DynamicTimeWarping prefixDtw = dtw != null ? dtw :
+                    new DynamicTimeWarping(dtwWindow, true);
+            double[] x = series.toArray(REQUEST_COUNT);
+            double[] y = series.toArray(RESPONSE_TIME);
+            for (int i = 2; i < series.size(); i++) {
+                double distance = prefixDtw.distance(x, i + 1, y, i + 1,
+                        Double.POSITIVE_INFINITY);
+                addToDTWTrend(trend, series.getTimestamp(i), distance);
+            }
+        } else {
+            IncrementalDynamicTimeWarping incremental = new IncrementalDynamicTimeWarping(
+                    dtwWindow);
+            for (int i = 0; i < series.size(); i++) {
+                double distance = incremental.append(series.get(REQUEST_COUNT, i),
+                        series.get(RESPONSE_TIME, i));
+                if (incremental.size() > 2) {
+                    addToDTWTrend(trend, series.getTimestamp(i), distance);
                 }
             }
-        } catch (Exception e) {
-            log.error("Error computing the DTW trend", e);
-        } finally {
-            environment.getRService().release(r);
         }
-        return ImmutableList.copyOf(trend);
+    }
+
+    private void addToDTWTrend(TimeSeriesRing trend, long timestamp, double distance) {
+        trend.append(timestamp, distance);
+        StatSummary statistics = trend.summarize(0);
+        cleanUpDTWTrend(trend, statistics, timestamp);
+    }
+
+    /**
+     * Returns the R expression that computes the DTW alignment of x and y, honoring the
+     * configured window and normalization.
+     */
+    private String dtwExpression() {
+        String x = dtwNormalize ? "as.vector(scale(x))" : "x";
+        String y = dtwNormalize ? "as.vector(scale(y))" : "y";
+        if (dtwWindow == DynamicTimeWarping.NO_WINDOW) {
+            return String.format("dtw(%s, %s)", x, y);
+        }
+        return String.format("dtw(%s, %s, window.type='sakoechiba', window.size=%d)",
+                x, y, dtwWindow);
     }
 
     private void checkForAnomalies(long start, long end, Correlation correlation) {
         final long currentTimestamp = end - periodInSeconds * 1000;
-        dtwTrends.put(correlation.operation, new DTWDistance(currentTimestamp, correlation.dtw));
-
-        List<DTWDistance> trend = dtwTrends.get(correlation.operation);
-        StatSummary statistics = StatSummary.calculate(trend.stream().mapToDouble(d -> d.dtw));
+        TimeSeriesRing trend = dtwTrends.getOrCreate(correlation.operation);
+        trend.append(currentTimestamp, correlation.dtw);
+        StatSummary statistics = trend.summarize(0);
 
         boolean dtwIncreased = false;
         if (DTW_ANALYSIS_COMPARE_TO_LAST.equals(dtwAnalysis)) {
             if (trend.size() > 2) {
-                double penultimate = trend.get(trend.size() - 2).dtw;
+                double penultimate = trend.get(trend.size() - 2);
                 double increase = (correlation.dtw - penultimate) * 100.0 / penultimate;
                 log.debug("DTW increase from the last value: {}%", increase);
                 dtwIncreased = increase > dtwIncreaseThreshold;
@@ -218,11 +322,11 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
     }
 
     private void cleanUpDTWTrend(
-            List<DTWDistance> trend, StatSummary statistics, long timestamp) {
-        final double dtw = Iterables.getLast(trend).dtw;
+            TimeSeriesRing trend, StatSummary statistics, long timestamp) {
+        final double dtw = trend.getLast(0);
         if (statistics.isAnomaly(dtw, dtwMeanThreshold)) {
             log.debug("Cleaning up DTW history up to {}", timestamp);
-            trend.removeIf(d -> d.timestamp < timestamp);
+            trend.expire(timestamp);
         }
     }
 
@@ -239,17 +343,6 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         }
     }
 
-    private static class DTWDistance {
-
-        private final long timestamp;
-        private final double dtw;
-
-        private DTWDistance(long timestamp, double dtw) {
-            this.timestamp = timestamp;
-            this.dtw = dtw;
-        }
-    }
-
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -260,6 +353,9 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
         private String dtwAnalysis = DTW_ANALYSIS_COMPARE_TO_ALL;
         private double dtwMeanThreshold = 2.0;
         private double dtwIncreaseThreshold = 200.0;
+        private String dtwEngine = DTW_ENGINE_R;
+        private int dtwWindow = DynamicTimeWarping.NO_WINDOW;
+        private boolean dtwNormalize = false;
 
         private Builder() {
         }
@@ -284,6 +380,21 @@ public final class CorrelationBasedDetector extends AnomalyDetector {
             return this;
         }
 
+        public Builder setDtwEngine(String dtwEngine) {
+            this.dtwEngine = dtwEngine;
+            return this;
+        }
+
+        public Builder setDtwWindow(int dtwWindow) {
+            this.dtwWindow = dtwWindow;
+            return this;
+        }
+
+        public Builder setDtwNormalize(boolean dtwNormalize) {
+            this.dtwNormalize = dtwNormalize;
+            return this;
+        }
+
         public CorrelationBasedDetector build(RootsEnvironment environment) {
             return new CorrelationBasedDetector(environment, this);
         }
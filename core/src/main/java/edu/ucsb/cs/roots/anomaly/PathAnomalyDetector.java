@@ -2,10 +2,12 @@ package edu.ucsb.cs.roots.anomaly;
 
 import com.google.common.collect.*;
 import edu.ucsb.cs.roots.RootsEnvironment;
-import edu.ucsb.cs.roots.data.ApplicationRequest;
 import edu.ucsb.cs.roots.data.DataStore;
 import edu.ucsb.cs.roots.data.DataStoreException;
+import edu.ucsb.cs.roots.data.PathDictionary;
 import edu.ucsb.cs.roots.utils.StatSummary;
+import edu.ucsb.cs.roots.utils.TimeSeriesHistory;
+import edu.ucsb.cs.roots.utils.TimeSeriesRing;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -14,8 +16,10 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 public final class PathAnomalyDetector extends AnomalyDetector {
 
-    private final Map<String,ListMultimap<String,PathRatio>> pathLevelHistory = new HashMap<>();
-    private final ListMultimap<String,PathRatio> operationLevelHistory = ArrayListMultimap.create();
+    // Request ratios (percentages) of each path of each operation, and of each operation
+    private final Map<String,TimeSeriesHistory<Long>> pathLevelHistory = new HashMap<>();
+    private final PathDictionary paths = new PathDictionary();
+    private final TimeSeriesHistory<String> operationLevelHistory;
     private final double meanThreshold;
     private final boolean operationAnomalies;
 
@@ -26,6 +30,7 @@ public final class PathAnomalyDetector extends AnomalyDetector {
         checkArgument(builder.meanThreshold > 0, "Mean threshold must be positive");
         this.meanThreshold = builder.meanThreshold;
         this.operationAnomalies = builder.operationAnomalies;
+        this.operationLevelHistory = new TimeSeriesHistory<>(1, getHistoryCapacity());
     }
 
     @Override
@@ -50,37 +55,33 @@ public final class PathAnomalyDetector extends AnomalyDetector {
         }
 
         long cutoff = end - historyLengthInSeconds * 1000;
-        pathLevelHistory.values().forEach(opHistory -> opHistory.values()
-                .removeIf(pr -> pr.timestamp < cutoff));
-        operationLevelHistory.values().removeIf(pr -> pr.timestamp < cutoff);
+        pathLevelHistory.values().forEach(opHistory -> opHistory.expire(cutoff));
+        operationLevelHistory.expire(cutoff);
         pathLevelHistory.forEach((op, data) ->
                 analyzePathDistributions(cutoff, end, op, data));
         if (operationAnomalies) {
-            operationLevelHistory.keySet().forEach(op ->
+            operationLevelHistory.forEach((op, ratios) ->
                     analyzePathRatioTrend(String.format("Operation [%s: %s]", application, op),
-                            operationLevelHistory.get(op), cutoff, end));
+                            ratios, cutoff, end));
         }
     }
 
     private void analyzePathDistributions(long start, long end, String op,
-                                          ListMultimap<String,PathRatio> pathData) {
-        pathData.keySet().forEach(path -> {
-            List<PathRatio> pathRatios = pathData.get(path);
-            analyzePathRatioTrend(String.format("Path [%s: %s] %s", application, op, path),
-                    pathRatios, start, end);
-        });
+                                          TimeSeriesHistory<Long> pathData) {
+        pathData.forEach((path, pathRatios) ->
+                analyzePathRatioTrend(String.format("Path [%s: %s] %s", application, op,
+                        paths.getPath(path)), pathRatios, start, end));
     }
 
-    private void analyzePathRatioTrend(String label, List<PathRatio> ratios, long start, long end) {
-        StatSummary statistics = StatSummary.calculate(ratios.stream()
-                .mapToDouble(v -> v.ratio));
+    private void analyzePathRatioTrend(String label, TimeSeriesRing ratios, long start, long end) {
+        StatSummary statistics = ratios.summarize(0);
         log.info("{} - Mean: {}, Std.Dev: {}, Count: {}", label, statistics.getMean(),
                 statistics.getStandardDeviation(), ratios.size());
-        PathRatio last = Iterables.getLast(ratios);
-        if (statistics.isAnomaly(last.ratio, meanThreshold)) {
+        double last = ratios.getLast(0);
+        if (statistics.isAnomaly(last, meanThreshold)) {
             String desc = String.format("Request distribution changed for - %s [%f%%]", label,
-                    statistics.percentageDifference(last.ratio));
-            ratios.removeIf(v -> v.timestamp < last.timestamp);
+                    statistics.percentageDifference(last));
+            ratios.expire(ratios.getLastTimestamp());
             Anomaly anomaly = Anomaly.newBuilder()
                     .setDetector(this)
                     .setStart(start)
@@ -99,92 +100,95 @@ public final class PathAnomalyDetector extends AnomalyDetector {
                     new Date(windowEnd));
         }
         DataStore ds = environment.getDataStoreService().get(this.dataStore);
-        ImmutableListMultimap<String,ApplicationRequest> requests = ds.getRequestInfo(
+        ImmutableTable<String,String,Integer> distribution = ds.getPathDistribution(
                 application, windowStart, windowEnd);
-        requests.keySet().forEach(op -> updateOperationHistory(op, requests.get(op), windowStart));
+        distribution.rowKeySet().forEach(op -> updateOperationHistory(op, distribution.row(op),
+                windowStart));
 
-        pathLevelHistory.keySet().stream().filter(op -> !requests.containsKey(op)).forEach(op -> {
+        pathLevelHistory.keySet().stream().filter(op -> !distribution.containsRow(op)).forEach(op -> {
             // Inject 0's for operations not invoked in this window
-            ListMultimap<String, PathRatio> pathData = pathLevelHistory.get(op);
-            pathData.keySet().forEach(path -> {
-                log.debug("No requests found for operation: {}, path: {}", op, path);
-                pathData.put(path, PathRatio.zero(windowStart));
+            TimeSeriesHistory<Long> pathData = pathLevelHistory.get(op);
+            pathData.forEach((path, ratios) -> {
+                log.debug("No requests found for operation: {}, path: {}", op,
+                        paths.getPath(path));
+                ratios.append(windowStart, 0.0);
             });
         });
 
-        long total = requests.size();
-        List<PathRatio> longestPathHistory = getLongestHistory(operationLevelHistory);
+        Map<String,Long> requests = distribution.rowMap().entrySet().stream().collect(
+                Collectors.toMap(Map.Entry::getKey, e -> sum(e.getValue().values())));
+        long total = requests.values().stream().mapToLong(Long::longValue).sum();
+        TimeSeriesRing longestPathHistory = operationLevelHistory.getLongest();
+        int longestSize = longestPathHistory == null ? 0 : longestPathHistory.size();
         requests.keySet().forEach(op -> {
             if (!operationLevelHistory.containsKey(op)) {
                 log.info("New operation detected. Application: {}; Operation: {}", application, op);
-                longestPathHistory.forEach(p -> operationLevelHistory.put(op, PathRatio.zero(p.timestamp)));
+                injectZeros(operationLevelHistory, op, longestPathHistory, longestSize);
             }
-            operationLevelHistory.put(op, new PathRatio(windowStart, requests.get(op).size(), total));
+            operationLevelHistory.append(op, windowStart, ratio(requests.get(op), total));
         });
 
         // Inject 0's for operations not invoked in this window
-        operationLevelHistory.keySet().stream()
-                .filter(op -> !requests.containsKey(op))
-                .forEach(op -> operationLevelHistory.put(op, PathRatio.zero(windowStart)));
+        operationLevelHistory.forEach((op, ratios) -> {
+            if (!requests.containsKey(op)) {
+                ratios.append(windowStart, 0.0);
+            }
+        });
     }
 
-    private List<PathRatio> getLongestHistory(ListMultimap<String,PathRatio> map) {
-        return map.keySet().stream().reduce((k1, k2) -> {
-            if (map.get(k1).size() > map.get(k2).size()) {
-                return k1;
-            }
-            return k2;
-        }).map(map::get).orElse(ImmutableList.of());
+    /**
+     * Add a 0 ratio to the given key, for each of the first size points of the template.
+     */
+    private static <K> void injectZeros(TimeSeriesHistory<K> history, K key,
+                                        TimeSeriesRing template, int size) {
+        for (int i = 0; i < size; i++) {
+            history.append(key, template.getTimestamp(i), 0.0);
+        }
+    }
+
+    private static long sum(Collection<Integer> counts) {
+        return counts.stream().mapToLong(Integer::longValue).sum();
+    }
+
+    private static double ratio(long count, long total) {
+        checkArgument(total > 0, "Division by zero");
+        return (count * 100.0)/total;
     }
 
-    private void updateOperationHistory(String op, ImmutableList<ApplicationRequest> perOpRequests,
+    private void updateOperationHistory(String op, Map<String,Integer> pathRequests,
                                         long windowStart) {
-        ListMultimap<String,PathRatio> opHistory;
+        TimeSeriesHistory<Long> opHistory;
         if (pathLevelHistory.containsKey(op)) {
             opHistory = pathLevelHistory.get(op);
         } else {
-            opHistory = ArrayListMultimap.create();
+            opHistory = new TimeSeriesHistory<>(1, getHistoryCapacity());
             pathLevelHistory.put(op, opHistory);
         }
 
-        List<PathRatio> longestPathHistory = getLongestHistory(opHistory);
-        Map<String,Integer> pathRequests = perOpRequests.stream()
-                .collect(Collectors.groupingBy(ApplicationRequest::getPathAsString))
-                .entrySet().stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().size()));
-        long totalRequests = pathRequests.values().stream().mapToInt(Integer::intValue).sum();
-        pathRequests.forEach((path,count) -> {
+        TimeSeriesRing longestPathHistory = opHistory.getLongest();
+        int longestSize = longestPathHistory == null ? 0 : longestPathHistory.size();
+        long totalRequests = sum(pathRequests.values());
+        Set<Long> invoked = new HashSet<>();
+        pathRequests.forEach((pathString,count) -> {
+            long path = paths.getKey(pathString);
+            invoked.add(path);
             if (!opHistory.containsKey(path)) {
                 log.info("New path detected. Application: {}; Operation: {}, Path: {}",
-                        application, op, path);
-                longestPathHistory.forEach(p -> opHistory.put(path, PathRatio.zero(p.timestamp)));
+                        application, op, pathString);
+                injectZeros(opHistory, path, longestPathHistory, longestSize);
             }
-            PathRatio pr = new PathRatio(windowStart, count, totalRequests);
-            log.debug("Path ratio update. {}: {}", path, pr.ratio);
-            opHistory.put(path, pr);
+            double ratio = ratio(count, totalRequests);
+            log.debug("Path ratio update. {}: {}", pathString, ratio);
+            opHistory.append(path, windowStart, ratio);
         });
         // Inject 0's for paths not invoked in this window
-        opHistory.keySet().stream()
-                .filter(path -> !pathRequests.containsKey(path))
-                .forEach(path -> {
-                    log.debug("No requests found for operation: {}, path: {}", op, path);
-                    opHistory.put(path, PathRatio.zero(windowStart));
-                });
-    }
-
-    private final static class PathRatio {
-        private final long timestamp;
-        private final double ratio;
-
-        PathRatio(long timestamp, long count, long total) {
-            checkArgument(total > 0, "Division by zero");
-            this.timestamp = timestamp;
-            this.ratio = (count * 100.0)/total;
-        }
-
-        static PathRatio zero(long timestamp) {
-            return new PathRatio(timestamp, 0, 1);
-        }
+        opHistory.forEach((path, ratios) -> {
+            if (!invoked.contains(path)) {
+                log.debug("No requests found for operation: {}, path: {}", op,
+                        paths.getPath(path));
+                ratios.append(windowStart, 0.0);
+            }
+        });
     }
 
     public static Builder newBuilder() {
@@ -5,7 +5,8 @@ import edu.ucsb.cs.roots.RootsEnvironment;
 import edu.ucsb.cs.roots.data.BenchmarkResult;
 import edu.ucsb.cs.roots.data.DataStore;
 import edu.ucsb.cs.roots.data.DataStoreException;
-import edu.ucsb.cs.roots.utils.ImmutableCollectors;
+import edu.ucsb.cs.roots.utils.TimeSeriesHistory;
+import edu.ucsb.cs.roots.utils.TimeSeriesRing;
 
 import java.util.*;
 
@@ -13,7 +14,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 public final class SLOBasedDetector extends AnomalyDetector {
 
-    private final ListMultimap<String,BenchmarkResult> history;
+    private final TimeSeriesHistory<String> history;
     private final int responseTimeUpperBound;
     private final double sloPercentage;
     private final double minimumSamples;
@@ -28,7 +29,9 @@ public final class SLOBasedDetector extends AnomalyDetector {
                 "Response time upper bound must be positive");
         checkArgument(builder.sloPercentage > 0 && builder.sloPercentage < 100,
                 "SLO percentage must be in the interval (0,100)");
-        this.history = ArrayListMultimap.create();
+        // Response times. Grows beyond the initial capacity if there are several benchmark
+        // results per period.
+        this.history = new TimeSeriesHistory<>(1, getHistoryCapacity());
         this.responseTimeUpperBound = builder.responseTimeUpperBound;
         this.sloPercentage = builder.sloPercentage;
         this.minimumSamples = builder.minimumSamples;
@@ -56,7 +59,7 @@ public final class SLOBasedDetector extends AnomalyDetector {
         }
 
         long cutoff = end - historyLengthInSeconds * 1000;
-        history.values().removeIf(l -> l.getTimestamp() < cutoff);
+        history.expire(cutoff);
         history.keySet().stream()
                 .filter(op -> requestTypes.contains(op) &&
                         history.get(op).size() >= minimumSamples)
@@ -73,27 +76,30 @@ public final class SLOBasedDetector extends AnomalyDetector {
         DataStore ds = environment.getDataStoreService().get(this.dataStore);
         ImmutableListMultimap<String,BenchmarkResult> summaries =
                 ds.getBenchmarkResults(application, windowStart, windowEnd);
-        history.putAll(summaries);
+        summaries.entries().forEach(e -> history.append(e.getKey(),
+                e.getValue().getTimestamp(), e.getValue().getResponseTime()));
         return ImmutableList.copyOf(summaries.keySet());
     }
 
-    private void computeSLO(long start, long end, String operation,
-                            Collection<BenchmarkResult> results) {
+    private void computeSLO(long start, long end, String operation, TimeSeriesRing results) {
         long lastAnomaly = getLastAnomalyTime(operation);
-        ImmutableList<BenchmarkResult> filteredResults = results.stream()
-                .filter(r -> r.getTimestamp() >= lastAnomaly)
-                .collect(ImmutableCollectors.toList());
+        int sampleSize = 0;
+        long satisfied = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (results.getTimestamp(i) >= lastAnomaly) {
+                sampleSize++;
+                if (results.get(i) <= responseTimeUpperBound) {
+                    satisfied++;
+                }
+            }
+        }
 
-        int sampleSize = filteredResults.size();
         if (sampleSize < minimumSamples) {
             log.debug("Insufficient samples to calculate SLO. Required {}, got {}",
                     minimumSamples, sampleSize);
             return;
         }
         log.debug("Calculating SLO with {} data points.", sampleSize);
-        long satisfied = filteredResults.stream()
-                .filter(r -> r.getResponseTime() <= responseTimeUpperBound)
-                .count();
         double sloSupported = satisfied * 100.0 / sampleSize;
         log.info("SLO metrics. Supported: {}, Expected: {}", sloSupported, sloPercentage);
         if (sloSupported < sloPercentage) {
@@ -3,20 +3,14 @@ package edu.ucsb.cs.roots.bi;
 import com.google.common.collect.ImmutableList;
 import edu.ucsb.cs.roots.RootsEnvironment;
 import edu.ucsb.cs.roots.anomaly.Anomaly;
-import edu.ucsb.cs.roots.data.ApiCall;
-import edu.ucsb.cs.roots.data.ApplicationRequest;
 import edu.ucsb.cs.roots.data.DataStore;
 import edu.ucsb.cs.roots.data.DataStoreException;
-import edu.ucsb.cs.roots.utils.ImmutableCollectors;
+import edu.ucsb.cs.roots.data.RequestBatch;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 
 import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -39,90 +33,75 @@ public final class PercentileBasedFinder extends BottleneckFinder {
         long start = anomaly.getEnd() - 3 * history;
         DataStore ds = environment.getDataStoreService().get(anomaly.getDataStore());
         try {
-            ImmutableList<ApplicationRequest> requests = ds.getRequestInfo(
+            RequestBatch batch = ds.getRequestBatch(
                     anomaly.getApplication(), anomaly.getOperation(), start, anomaly.getEnd());
-            log.debug("Received {} requests for analysis", requests.size());
-            Map<String,List<ApplicationRequest>> perPathRequests = requests.stream().collect(
-                    Collectors.groupingBy(ApplicationRequest::getPathAsString));
-            perPathRequests.forEach(this::analyze);
+            log.debug("Received {} requests for analysis", batch.size());
+            batch.getPaths().forEach(this::analyze);
         } catch (DataStoreException e) {
             anomalyLog.error(anomaly, "Error while retrieving API call data", e);
         }
     }
 
-    private void analyze(String path, List<ApplicationRequest> requests) {
+    private void analyze(RequestBatch.Path requests) {
+        String path = Long.toHexString(requests.getPathFingerprint());
         if (log.isDebugEnabled()) {
-            log.debug("Analyzing program path: {} ({})", path, path.hashCode());
+            log.debug("Analyzing program path: {} ({})", requests.getPathAsString(), path);
         }
 
-        ImmutableList<ApplicationRequest> oldRequests = requests.stream()
-                .filter(r -> r.getTimestamp() < anomaly.getStart())
-                .collect(ImmutableCollectors.toList());
-        if (oldRequests.isEmpty()) {
+        // Requests are sorted by timestamp, so the old requests form a prefix of the path
+        int split = requests.indexOf(anomaly.getStart());
+        if (split == 0) {
             log.warn("Insufficient data to compute percentiles");
             return;
         }
-        double[] percentiles = computePercentiles(oldRequests);
+        double[] percentiles = computePercentiles(requests.slice(0, split));
         if (log.isDebugEnabled()) {
             log.debug("Percentiles computed using {} data points: {}",
-                    oldRequests.size(), Arrays.toString(percentiles));
+                    split, Arrays.toString(percentiles));
         }
-        requests.stream().filter(r -> r.getTimestamp() >= anomaly.getStart())
-                .forEach(r -> checkForAnomalies(r, percentiles, path));
-    }
-
-    /**
-     * Returns an array of length n+1 where the first n entries correspond to the response time of
-     * n API calls made by the request. The last entry corresponds to the LOCAL response time
-     * (i.e. Total - sum(apiCalls)).
-     */
-    static int[] getResponseTimeVector(ApplicationRequest r) {
-        int apiCalls = r.getApiCalls().size();
-        int[] timeValues = new int[apiCalls + 1];
-        for (int i = 0; i < apiCalls; i++) {
-            timeValues[i] = r.getApiCalls().get(i).getTimeElapsed();
+        for (int row = split; row < requests.size(); row++) {
+            checkForAnomalies(requests, row, percentiles, path);
         }
-        timeValues[apiCalls] = r.getResponseTime() - IntStream.of(timeValues).sum();
-        return timeValues;
     }
 
-    private void checkForAnomalies(ApplicationRequest r, double[] percentiles, String path) {
-        int[] timeValues = getResponseTimeVector(r);
+    private void checkForAnomalies(RequestBatch.Path requests, int row, double[] percentiles,
+                                   String path) {
+        int[] timeValues = requests.getResponseTimeVector(row);
         if (log.isDebugEnabled()) {
             log.debug("Response time vector (check): {}", Arrays.toString(timeValues));
         }
 
-        int apiCalls = r.getApiCalls().size();
+        int apiCalls = requests.getCallCount();
         for (int i = 0; i < apiCalls; i++) {
             if (timeValues[i] > percentiles[i]) {
                 anomalyLog.info(
                         anomaly, "Anomalous API call execution in path {} at {} in {}: {} [> {} ({}p)]",
-                        path.hashCode(), new Date(r.getTimestamp()), r.getApiCalls().get(i).name(),
-                        timeValues[i], percentiles[i], percentile);
+                        path, new Date(requests.getTimestamp(row)),
+                        requests.getCallName(i), timeValues[i], percentiles[i], percentile);
             }
         }
 
         if (timeValues[apiCalls] > percentiles[apiCalls]) {
             anomalyLog.info(
                     anomaly, "Anomalous local execution in path {} at {} in LOCAL: {} [> {} ({}p)]",
-                    path.hashCode(), new Date(r.getTimestamp()), timeValues[apiCalls],
+                    path, new Date(requests.getTimestamp(row)), timeValues[apiCalls],
                     percentiles[apiCalls], percentile);
         }
     }
 
-    private double[] computePercentiles(List<ApplicationRequest> requests) {
-        ImmutableList<ApiCall> apiCalls = requests.get(0).getApiCalls();
-        ImmutableList<DescriptiveStatistics> stats = initStatistics(apiCalls.size());
-        requests.forEach(r -> {
-            int[] timeValues = getResponseTimeVector(r);
+    private double[] computePercentiles(RequestBatch.Path requests) {
+        int apiCalls = requests.getCallCount();
+        ImmutableList<DescriptiveStatistics> stats = initStatistics(apiCalls);
+        for (int row = 0; row < requests.size(); row++) {
             if (log.isDebugEnabled()) {
-                log.debug("Response time vector (learn): {}", Arrays.toString(timeValues));
+                log.debug("Response time vector (learn): {}",
+                        Arrays.toString(requests.getResponseTimeVector(row)));
             }
-
-            for (int i = 0; i < timeValues.length; i++) {
-                stats.get(i).addValue(timeValues[i]);
+            for (int i = 0; i < apiCalls; i++) {
+                stats.get(i).addValue(requests.getTimeElapsed(i, row));
             }
-        });
+            stats.get(apiCalls).addValue(requests.getLocalTime(row));
+        }
 
         return stats.stream().mapToDouble(s -> s.getPercentile(percentile)).toArray();
     }
@@ -1,11 +1,9 @@
 package edu.ucsb.cs.roots.bi;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import edu.ucsb.cs.roots.anomaly.Anomaly;
 import edu.ucsb.cs.roots.anomaly.AnomalyLog;
-import edu.ucsb.cs.roots.data.ApiCall;
-import edu.ucsb.cs.roots.data.ApplicationRequest;
+import edu.ucsb.cs.roots.data.RequestBatch;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import java.util.*;
@@ -13,15 +11,15 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class PercentileBasedVerifier {
 
-    private final Map<Long,List<ApplicationRequest>> requests;
+    private final Map<Long,RequestBatch.Path> requests;
     private final Bottleneck bottleneck;
     private final AnomalyLog anomalyLog;
-    private final ImmutableList<ApiCall> apiCalls;
+    private final ImmutableList<String> apiCalls;
     private final double percentile;
 
-    public PercentileBasedVerifier(Map<Long, List<ApplicationRequest>> requests,
+    public PercentileBasedVerifier(Map<Long,RequestBatch.Path> requests,
                                    Bottleneck bottleneck, AnomalyLog anomalyLog,
-                                   ImmutableList<ApiCall> apiCalls, double percentile) {
+                                   ImmutableList<String> apiCalls, double percentile) {
         this.requests = requests;
         this.bottleneck = bottleneck;
         this.anomalyLog = anomalyLog;
@@ -37,23 +35,23 @@ public class PercentileBasedVerifier {
         }
 
         ImmutableList<DescriptiveStatistics> stats = PercentileBasedFinder.initStatistics(apiCalls.size());
-        ApplicationRequest cutoff = null;
+        RequestBatch.Path cutoff = null;
         for (long timestamp : requests.keySet()) {
             if (timestamp < anomaly.getStart()) {
                 continue;
             }
-            List<ApplicationRequest> batch = requests.get(timestamp);
-            batch.forEach(r -> {
-                int[] timeValues = PercentileBasedFinder.getResponseTimeVector(r);
+            RequestBatch.Path batch = requests.get(timestamp);
+            for (int row = 0; row < batch.size(); row++) {
+                int[] timeValues = batch.getResponseTimeVector(row);
                 for (int i = 0; i < timeValues.length; i++) {
                     stats.get(i).addValue(timeValues[i]);
                 }
-            });
-            cutoff = Iterables.getLast(batch);
+            }
+            cutoff = batch;
         }
         if (cutoff != null) {
             anomalyLog.info(anomaly, "Cut off request vector: {}",
-                    Arrays.toString(RelativeImportanceBasedFinder.getResponseTimeVector(cutoff)));
+                    Arrays.toString(cutoff.getTotalTimeVector(cutoff.size() - 1)));
         }
 
         double[] percentileResults = new double[stats.size()];
@@ -61,7 +59,7 @@ public class PercentileBasedVerifier {
             double value = stats.get(i).getPercentile(percentile);
             String apiCall;
             if (i != stats.size() - 1) {
-                apiCall = apiCalls.get(i).name();
+                apiCall = apiCalls.get(i);
             } else {
                 apiCall = "LOCAL";
             }
@@ -89,17 +87,17 @@ public class PercentileBasedVerifier {
             if (timestamp < anomaly.getStart()) {
                 continue;
             }
-            List<ApplicationRequest> batch = requests.get(timestamp);
-            batch.forEach(r -> {
+            RequestBatch.Path batch = requests.get(timestamp);
+            for (int row = 0; row < batch.size(); row++) {
                 counter.incrementAndGet();
-                int[] vector = PercentileBasedFinder.getResponseTimeVector(r);
+                int[] vector = batch.getResponseTimeVector(row);
                 for (int i = 0; i < vector.length; i++) {
                     if (vector[i] > percentileResults[i]) {
                         anomalousValues.add(new AnomalousValue(i, vector[i], percentileResults[i],
-                                r.getTimestamp()));
+                                batch.getTimestamp(row)));
                     }
                 }
-            });
+            }
         }
         Collections.sort(anomalousValues, Collections.reverseOrder());
         for (int i = 0; i < 5; i++) {
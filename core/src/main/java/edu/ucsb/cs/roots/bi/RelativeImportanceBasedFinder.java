@@ -4,15 +4,13 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.ListMultimap;
-import com.google.common.primitives.Doubles;
 import edu.ucsb.cs.roots.RootsEnvironment;
 import edu.ucsb.cs.roots.anomaly.Anomaly;
 import edu.ucsb.cs.roots.changepoint.CustomPELTChangePointDetector;
 import edu.ucsb.cs.roots.changepoint.Segment;
-import edu.ucsb.cs.roots.data.ApiCall;
-import edu.ucsb.cs.roots.data.ApplicationRequest;
 import edu.ucsb.cs.roots.data.DataStore;
 import edu.ucsb.cs.roots.data.DataStoreException;
+import edu.ucsb.cs.roots.data.RequestBatch;
 import edu.ucsb.cs.roots.rlang.RClient;
 import edu.ucsb.cs.roots.utils.ImmutableCollectors;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
@@ -45,34 +43,31 @@ public final class RelativeImportanceBasedFinder extends BottleneckFinder {
         long start = Math.max(anomaly.getEnd() - 2 * history, anomaly.getPreviousAnomalyTime());
         DataStore ds = environment.getDataStoreService().get(anomaly.getDataStore());
         try {
-            ImmutableList<ApplicationRequest> requests = ds.getRequestInfo(
+            RequestBatch batch = ds.getRequestBatch(
                     anomaly.getApplication(), anomaly.getOperation(), start, anomaly.getEnd());
-            log.debug("Received {} requests for analysis", requests.size());
-            Map<String,List<ApplicationRequest>> perPathRequests = requests.stream().collect(
-                    Collectors.groupingBy(ApplicationRequest::getPathAsString));
-            perPathRequests.forEach((path,list) -> analyzePath(path, list, start));
+            log.debug("Received {} requests for analysis", batch.size());
+            batch.getPaths().forEach(requests -> analyzePath(requests, start));
         } catch (DataStoreException e) {
             anomalyLog.error(anomaly, "Error while retrieving API call data", e);
         }
     }
 
-    private void analyzePath(String path, List<ApplicationRequest> requests, long start) {
-        ImmutableList<ApiCall> apiCalls = requests.get(0).getApiCalls();
+    private void analyzePath(RequestBatch.Path requests, long start) {
+        ImmutableList<String> apiCalls = requests.getCallNames();
         int callCount = apiCalls.size();
         if (callCount == 0) {
             return;
         } else if (requests.size() < callCount + 2) {
             anomalyLog.warn(anomaly, "Insufficient data to perform a bottleneck identification");
             return;
-        } else if (!requests.stream().anyMatch(r -> r.getTimestamp() >= anomaly.getStart())) {
+        } else if (requests.getTimestamp(requests.size() - 1) < anomaly.getStart()) {
             anomalyLog.info(anomaly, "No data points in anomaly window");
             return;
         }
 
+        String path = requests.getPathAsString();
         long period = anomaly.getPeriodInSeconds() * 1000;
-        Map<Long,List<ApplicationRequest>> groupedByTime = requests.stream()
-                .collect(Collectors.groupingBy(r -> groupByTime(r, start, period),
-                        TreeMap::new, Collectors.toList()));
+        Map<Long,RequestBatch.Path> groupedByTime = requests.groupByTime(start, period);
 
         try {
             ListMultimap<Long,RelativeImportance> results = computeRankings(apiCalls, groupedByTime);
@@ -169,19 +164,12 @@ public final class RelativeImportanceBasedFinder extends BottleneckFinder {
         return onsetTime;
     }
 
-    private long groupByTime(ApplicationRequest r, long start, long period) {
-        long index = (r.getTimestamp() - start) / period;
-        return index * period + start;
-    }
-
     private ListMultimap<Long,RelativeImportance> computeRankings(
-            List<ApiCall> apiCalls, Map<Long, List<ApplicationRequest>> groupedByTime) throws Exception {
+            List<String> apiCalls, Map<Long,RequestBatch.Path> groupedByTime) throws Exception {
         long requestCount = 0;
 
         VectorDataSummary vectorSummary = new VectorDataSummary();
-        groupedByTime.keySet().stream().forEach(timestamp ->
-            groupedByTime.get(timestamp).forEach(vectorSummary::add)
-        );
+        groupedByTime.values().forEach(vectorSummary::add);
         if (log.isDebugEnabled()) {
             log.debug("Cutoff limit on local: {}", vectorSummary.getLimit());
         }
@@ -192,8 +180,9 @@ public final class RelativeImportanceBasedFinder extends BottleneckFinder {
         try {
             client.evalAndAssign("df", "data.frame()");
             for (long timestamp : groupedByTime.keySet()) {
-                for (ApplicationRequest request : groupedByTime.get(timestamp)) {
-                    double[] responseTimeVector = getResponseTimeVector(request);
+                RequestBatch.Path requests = groupedByTime.get(timestamp);
+                for (int row = 0; row < requests.size(); row++) {
+                    double[] responseTimeVector = requests.getTotalTimeVector(row);
                     if (vectorSummary.isOutlier(responseTimeVector)) {
                         if (log.isDebugEnabled()) {
                             log.debug("Response time vector: {} (skipped)",
@@ -239,13 +228,13 @@ public final class RelativeImportanceBasedFinder extends BottleneckFinder {
      * importance metric.
      */
     private List<RelativeImportance> computeRankings(RClient client,
-                                                     List<ApiCall> apiCalls) throws Exception {
+                                                     List<String> apiCalls) throws Exception {
         client.evalAndAssign("model", "lm(Total ~ ., data=df)");
         client.evalAndAssign("rankings", "calc.relimp(model, type=c('lmg'))");
         double[] rankings = client.evalToDoubles("rankings$lmg");
         List<RelativeImportance> result = new ArrayList<>(rankings.length);
         for (int i = 0; i < rankings.length; i++) {
-            result.add(new RelativeImportance(apiCalls.get(i).name(), rankings[i]));
+            result.add(new RelativeImportance(apiCalls.get(i), rankings[i]));
         }
         result.add(new RelativeImportance(LOCAL, 1.0 - result.stream()
                 .mapToDouble(RelativeImportance::getImportance).sum()));
@@ -274,13 +263,6 @@ public final class RelativeImportanceBasedFinder extends BottleneckFinder {
         return names;
     }
 
-    static double[] getResponseTimeVector(ApplicationRequest request) {
-        List<Integer> vector = request.getApiCalls().stream().map(ApiCall::getTimeElapsed)
-                .collect(Collectors.toCollection(ArrayList::new));
-        vector.add(request.getResponseTime());
-        return Doubles.toArray(vector);
-    }
-
     private String getLogEntry(String path, List<RelativeImportance> result) {
         StringBuilder sb = new StringBuilder();
         sb.append("Relative importance metrics for path: ").append(path).append('\n');
@@ -296,9 +278,10 @@ public final class RelativeImportanceBasedFinder extends BottleneckFinder {
 
         private final SummaryStatistics totalSummary = new SummaryStatistics();
 
-        public void add(ApplicationRequest r) {
-            int[] vector = PercentileBasedFinder.getResponseTimeVector(r);
-            totalSummary.addValue(vector[vector.length - 1]);
+        public void add(RequestBatch.Path requests) {
+            for (int row = 0; row < requests.size(); row++) {
+                totalSummary.addValue(requests.getLocalTime(row));
+            }
         }
 
         private double getLimit() {
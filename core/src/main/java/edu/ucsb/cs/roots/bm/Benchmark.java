@@ -41,6 +41,7 @@ public final class Benchmark extends ScheduledItem {
 
     public void run(long now) {
         DataStore ds = environment.getDataStoreService().get(dataStore);
+        List<BenchmarkResult> results = new ArrayList<>(calls.size());
         calls.forEach(c -> {
             try {
                 long time = c.execute(client);
@@ -48,17 +49,20 @@ public final class Benchmark extends ScheduledItem {
                     log.debug("Benchmark result for {} [{} {}]: {} ms", application, c.getMethod(),
                             c.getPath(), time);
                 }
-                BenchmarkResult result = new BenchmarkResult(now, application, c.getMethod(),
-                        c.getPath(), (int) time);
-                ds.recordBenchmarkResult(result);
+                results.add(new BenchmarkResult(now, application, c.getMethod(),
+                        c.getPath(), (int) time));
             } catch (IOException e) {
                 log.error("Error while calling {} [{} {}]", application, c.getMethod(),
                         c.getPath(), e);
-            } catch (DataStoreException e) {
-                log.error("Error while recording benchmark result for {} [{} {}]", application,
-                        c.getMethod(), c.getPath(), e);
             }
         });
+
+        try {
+            ds.recordBenchmarkResults(results);
+        } catch (DataStoreException e) {
+            log.error("Error while recording {} benchmark results for {}", results.size(),
+                    application, e);
+        }
     }
 
     public static Builder newBuilder() {
@@ -2,6 +2,8 @@ package edu.ucsb.cs.roots.data;
 
 import com.google.common.base.Strings;
 
+import java.util.Comparator;
+
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
@@ -11,12 +13,21 @@ import static com.google.common.base.Preconditions.checkArgument;
  */
 public final class ApiCall {
 
+    /**
+     * Orders the calls made by a request in the order they were invoked.
+     */
+    public static final Comparator<ApiCall> SEQUENCE_ORDER = Comparator
+            .comparingLong(ApiCall::getRequestTimestamp)
+            .thenComparingInt(ApiCall::getSequenceNumber)
+            .thenComparingLong(ApiCall::getTimestamp);
+
     private final long requestTimestamp;
     private final long timestamp;
     private final String service;
     private final String operation;
     private final String requestOperation;
     private final int timeElapsed;
+    private final int sequenceNumber;
 
     private ApiCall(Builder builder) {
         checkArgument(builder.requestTimestamp > 0, "Request timestamp must be positive");
@@ -31,6 +42,7 @@ public final class ApiCall {
         this.operation = builder.operation;
         this.requestOperation = builder.requestOperation;
         this.timeElapsed = builder.timeElapsed;
+        this.sequenceNumber = builder.sequenceNumber;
     }
 
     public long getTimestamp() {
@@ -45,6 +57,14 @@ public final class ApiCall {
         return requestOperation;
     }
 
+    public String getService() {
+        return service;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
     public String name() {
         return service + ":" + operation;
     }
@@ -53,6 +73,10 @@ public final class ApiCall {
         return timeElapsed;
     }
 
+    public int getSequenceNumber() {
+        return sequenceNumber;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -65,6 +89,7 @@ public final class ApiCall {
         private String operation;
         private String requestOperation;
         private int timeElapsed;
+        private int sequenceNumber;
 
         private Builder() {
         }
@@ -99,6 +124,11 @@ public final class ApiCall {
             return this;
         }
 
+        public Builder setSequenceNumber(int sequenceNumber) {
+            this.sequenceNumber = sequenceNumber;
+            return this;
+        }
+
         public ApiCall build() {
             return new ApiCall(this);
         }
@@ -4,7 +4,6 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 
 import java.util.Comparator;
-import java.util.Optional;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -25,6 +24,7 @@ public final class ApplicationRequest {
     private final String operation;
     private final ImmutableList<ApiCall> apiCalls;
     private final int responseTime;
+    private final long pathFingerprint;
 
     public ApplicationRequest(String requestId, long timestamp, String application,
                               String operation, ImmutableList<ApiCall> apiCalls) {
@@ -46,6 +46,7 @@ public final class ApplicationRequest {
         this.operation = operation;
         this.apiCalls = apiCalls;
         this.responseTime = responseTime;
+        this.pathFingerprint = PathDictionary.fingerprint(apiCalls);
     }
 
     public String getRequestId() {
@@ -72,12 +73,23 @@ public final class ApplicationRequest {
         return responseTime;
     }
 
+    /**
+     * Returns a 64-bit fingerprint of the execution path taken by this request (i.e. the
+     * sequence of API calls it made). Requests with different paths may share a fingerprint,
+     * so use a PathDictionary when grouping requests by path.
+     */
+    public long getPathFingerprint() {
+        return pathFingerprint;
+    }
+
     public String getPathAsString() {
-        Optional<String> path = apiCalls.stream().map(ApiCall::name).reduce((a, b) -> a + ", " + b);
-        if (path.isPresent()) {
-            return path.get();
-        } else {
-            return "";
+        StringBuilder path = new StringBuilder();
+        for (ApiCall call : apiCalls) {
+            if (path.length() > 0) {
+                path.append(", ");
+            }
+            path.append(call.getService()).append(':').append(call.getOperation());
         }
+        return path.toString();
     }
 }
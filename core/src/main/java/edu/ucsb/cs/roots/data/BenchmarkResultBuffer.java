@@ -0,0 +1,174 @@
+package edu.ucsb.cs.roots.data;
+
+import edu.ucsb.cs.roots.utils.RootsThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A bounded write-behind buffer for BenchmarkResult instances. Results are handed over to a
+ * background thread, which writes them out in batches when either the batch size is reached,
+ * or the oldest buffered result exceeds the maximum age. When the buffer is full, writers block
+ * for up to the configured offer timeout, and then fail with a DataStoreException.
+ *
+ * Once the buffer is closed, new results are rejected with a DataStoreException. Every
+ * result accepted before that is written out, unless closing times out.
+ */
+final class BenchmarkResultBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(BenchmarkResultBuffer.class);
+
+    @FunctionalInterface
+    interface Writer {
+        void write(List<BenchmarkResult> batch) throws DataStoreException;
+    }
+
+    private final BlockingQueue<BenchmarkResult> queue;
+    private final int batchSize;
+    private final long maxAge;
+    private final long offerTimeout;
+    private final Writer writer;
+    private final Thread flusher;
+
+    // Writers hold the read lock from the closed check until their result is queued, so
+    // that close cannot slip in between, and strand a result after the final drain
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    BenchmarkResultBuffer(String name, int capacity, int batchSize, long maxAge,
+                          long offerTimeout, Writer writer) {
+        checkArgument(capacity > 0, "Capacity must be positive");
+        checkArgument(batchSize > 0 && batchSize <= capacity,
+                "Batch size must be in the interval (0, capacity]");
+        checkArgument(maxAge > 0, "Maximum age must be positive");
+        checkArgument(offerTimeout >= 0, "Offer timeout must be non-negative");
+        checkNotNull(writer, "Writer is required");
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.maxAge = maxAge;
+        this.offerTimeout = offerTimeout;
+        this.writer = writer;
+        this.flusher = new RootsThreadFactory(name + "-bulk-writer").newThread(this::flushLoop);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    void add(BenchmarkResult result) throws DataStoreException {
+        checkNotNull(result, "Result is required");
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new DataStoreException("Benchmark result buffer is closed");
+            }
+            if (!queue.offer(result, offerTimeout, TimeUnit.MILLISECONDS)) {
+                throw new DataStoreException("Benchmark result buffer is full");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted while buffering benchmark result", e);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    void addAll(Collection<BenchmarkResult> results) throws DataStoreException {
+        for (BenchmarkResult result : results) {
+            add(result);
+        }
+    }
+
+    /**
+     * Stop accepting new results, and wait for the buffered results to be written out.
+     * Writers blocked on a full buffer may delay closing by up to the offer timeout.
+     *
+     * @return true if all the buffered results were handed over to the writer, or false if
+     * the background thread is still running (i.e. closing timed out)
+     */
+    boolean close(long timeout) {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        flusher.interrupt();
+        try {
+            flusher.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (flusher.isAlive()) {
+            log.warn("Timed out while flushing benchmark results; {} results dropped",
+                    queue.size());
+            return false;
+        }
+
+        // Nothing can be queued any more, but drain anyway in case the flusher died
+        List<BenchmarkResult> batch = new ArrayList<>(batchSize);
+        while (!queue.isEmpty()) {
+            queue.drainTo(batch, batchSize);
+            flush(batch);
+        }
+        return true;
+    }
+
+    private void flushLoop() {
+        List<BenchmarkResult> batch = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                BenchmarkResult first = queue.poll(maxAge, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + maxAge;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    BenchmarkResult next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Closed while waiting; flush whatever we have below
+            }
+            flush(batch);
+        }
+
+        while (!queue.isEmpty()) {
+            queue.drainTo(batch, batchSize);
+            flush(batch);
+        }
+    }
+
+    private void flush(List<BenchmarkResult> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            writer.write(batch);
+        } catch (DataStoreException e) {
+            log.error("Failed to write {} benchmark results", batch.size(), e);
+        } catch (RuntimeException e) {
+            log.error("Unexpected error while writing {} benchmark results", batch.size(), e);
+        } finally {
+            batch.clear();
+        }
+    }
+}
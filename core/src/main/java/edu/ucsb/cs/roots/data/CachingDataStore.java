@@ -0,0 +1,588 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A DataStore decorator that caches the results of request info, response time history and
+ * workload summary queries. Only immutable windows (i.e. windows that end before the ingestion
+ * delay) are cached, since more recent data may still be changing in the underlying store.
+ * Request info queries are widened to align with the configured alignment period, so that
+ * overlapping windows map on to the same cache entries. Request info queries by operation are
+ * served from per-operation time segments, so that only the time ranges not seen before are
+ * fetched from the underlying data store. Segments that end more than the segment retention
+ * period before the latest requested window are dropped. Entries are evicted in LRU order when
+ * either the entry count, or the estimated memory footprint exceeds the configured limits.
+ */
+public final class CachingDataStore implements DataStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingDataStore.class);
+
+    private static final String REQUEST_INFO = "REQUEST_INFO";
+    private static final String REQUEST_INFO_BY_OPERATION = "REQUEST_INFO_BY_OPERATION";
+    private static final String RESPONSE_TIME_HISTORY = "RESPONSE_TIME_HISTORY";
+    private static final String WORKLOAD_SUMMARY = "WORKLOAD_SUMMARY";
+    private static final String PATH_DISTRIBUTION = "PATH_DISTRIBUTION";
+
+    private final DataStore delegate;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ingestionDelay;
+    private final long alignment;
+    private final long segmentRetention;
+
+    private final LinkedHashMap<QueryKey,Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0L;
+
+    private final AtomicLong hits = new AtomicLong(0L);
+    private final AtomicLong misses = new AtomicLong(0L);
+    private final AtomicLong evictions = new AtomicLong(0L);
+
+    private CachingDataStore(Builder builder) {
+        checkNotNull(builder.delegate, "Delegate DataStore is required");
+        checkArgument(builder.maxEntries > 0, "Maximum entry count must be positive");
+        checkArgument(builder.maxBytes > 0, "Maximum cache size must be positive");
+        checkArgument(builder.ingestionDelay >= 0, "Ingestion delay must be non-negative");
+        checkArgument(builder.alignment > 0, "Alignment must be positive");
+        checkArgument(builder.segmentRetention >= 0, "Segment retention must be non-negative");
+        this.delegate = builder.delegate;
+        this.maxEntries = builder.maxEntries;
+        this.maxBytes = builder.maxBytes;
+        this.ingestionDelay = builder.ingestionDelay;
+        this.alignment = builder.alignment;
+        this.segmentRetention = builder.segmentRetention;
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public void destroy() {
+        log.info("Cache statistics - hits: {}, misses: {}, evictions: {}", hits.get(),
+                misses.get(), evictions.get());
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0L;
+        }
+        delegate.destroy();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    @Override
+    public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+            String application, long start, long end) throws DataStoreException {
+        return delegate.getResponseTimeSummary(application, start, end);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) throws DataStoreException {
+        if (!isImmutable(end)) {
+            return delegate.getResponseTimeHistory(application, start, end, period);
+        }
+        QueryKey key = new QueryKey(RESPONSE_TIME_HISTORY, application, null, start, end, period);
+        ImmutableListMultimap<String,ResponseTimeSummary> result = get(key);
+        if (result == null) {
+            result = delegate.getResponseTimeHistory(application, start, end, period);
+            put(key, result, estimateSummaries(result.size()));
+        }
+        return result;
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        return delegate.getResponseTimeRollups(application, start, end, period);
+    }
+
+    @Override
+    public ImmutableList<Double> getWorkloadSummary(
+            String application, String operation, long start, long end,
+            long period) throws DataStoreException {
+        if (!isImmutable(end)) {
+            return delegate.getWorkloadSummary(application, operation, start, end, period);
+        }
+        QueryKey key = new QueryKey(WORKLOAD_SUMMARY, application, operation, start, end, period);
+        ImmutableList<Double> result = get(key);
+        if (result == null) {
+            result = delegate.getWorkloadSummary(application, operation, start, end, period);
+            put(key, result, 16L * result.size() + 64L);
+        }
+        return result;
+    }
+
+    @Override
+    public ImmutableTable<String, String, Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        if (!isImmutable(end)) {
+            return delegate.getPathDistribution(application, start, end);
+        }
+        QueryKey key = new QueryKey(PATH_DISTRIBUTION, application, start, end);
+        ImmutableTable<String,String,Integer> result = get(key);
+        if (result == null) {
+            result = delegate.getPathDistribution(application, start, end);
+            put(key, result, estimatePaths(result));
+        }
+        return result;
+    }
+
+    @Override
+    public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
+            String application, long start, long end) throws DataStoreException {
+        return delegate.getBenchmarkResults(application, start, end);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ApplicationRequest> getRequestInfo(
+            String application, long start, long end) throws DataStoreException {
+        long alignedStart = alignDown(start);
+        long alignedEnd = alignUp(end);
+        if (!isImmutable(alignedEnd)) {
+            return delegate.getRequestInfo(application, start, end);
+        }
+        QueryKey key = new QueryKey(REQUEST_INFO, application, alignedStart, alignedEnd);
+        ImmutableListMultimap<String,ApplicationRequest> result = get(key);
+        if (result == null) {
+            result = delegate.getRequestInfo(application, alignedStart, alignedEnd);
+            put(key, result, estimateRequests(result.values()));
+        }
+        if (alignedStart == start && alignedEnd == end) {
+            return result;
+        }
+
+        ImmutableListMultimap.Builder<String,ApplicationRequest> builder =
+                ImmutableListMultimap.builder();
+        result.entries().stream()
+                .filter(e -> inRange(e.getValue(), start, end))
+                .forEach(builder::put);
+        return builder.build();
+    }
+
+    /**
+     * Serves request info by operation from a set of cached time segments. Only the ranges not
+     * covered by the segments are fetched from the underlying data store, and the portion of
+     * the window newer than the ingestion delay is always fetched without being cached.
+     */
+    @Override
+    public ImmutableList<ApplicationRequest> getRequestInfo(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        long cachedEnd = Math.min(end, System.currentTimeMillis() - ingestionDelay);
+        if (cachedEnd <= start) {
+            return delegate.getRequestInfo(application, operation, start, end);
+        }
+
+        QueryKey key = new QueryKey(REQUEST_INFO_BY_OPERATION, application, operation,
+                0L, 0L, -1L);
+        RequestSegments segments = getSegments(key);
+
+        ImmutableList.Builder<ApplicationRequest> builder = ImmutableList.builder();
+        long bytes;
+        synchronized (segments) {
+            List<long[]> missing = segments.missingRanges(start, cachedEnd);
+            if (missing.isEmpty()) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            for (long[] range : missing) {
+                log.debug("Fetching missing range for {}: {} - {}", operation, range[0], range[1]);
+                segments.addMissing(range[0], range[1],
+                        delegate.getRequestInfo(application, operation, range[0], range[1]));
+            }
+            segments.collect(start, cachedEnd, builder);
+            segments.trim(start, segmentRetention);
+            bytes = segments.estimateBytes();
+        }
+        put(key, segments, bytes);
+
+        if (cachedEnd < end) {
+            builder.addAll(delegate.getRequestInfo(application, operation, cachedEnd, end));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public CompletableFuture<ImmutableMap<String, ResponseTimeSummary>> getResponseTimeSummaryAsync(
+            String application, long start, long end) {
+        return delegate.getResponseTimeSummaryAsync(application, start, end);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeSummary>> getResponseTimeHistoryAsync(
+            String application, long start, long end, long period) {
+        if (!isImmutable(end)) {
+            return delegate.getResponseTimeHistoryAsync(application, start, end, period);
+        }
+        QueryKey key = new QueryKey(RESPONSE_TIME_HISTORY, application, null, start, end, period);
+        ImmutableListMultimap<String,ResponseTimeSummary> cached = get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return delegate.getResponseTimeHistoryAsync(application, start, end, period)
+                .thenApply(result -> {
+                    put(key, result, estimateSummaries(result.size()));
+                    return result;
+                });
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeRollup>> getResponseTimeRollupsAsync(
+            String application, long start, long end, long period) {
+        return delegate.getResponseTimeRollupsAsync(application, start, end, period);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<Double>> getWorkloadSummaryAsync(
+            String application, String operation, long start, long end, long period) {
+        if (!isImmutable(end)) {
+            return delegate.getWorkloadSummaryAsync(application, operation, start, end, period);
+        }
+        QueryKey key = new QueryKey(WORKLOAD_SUMMARY, application, operation, start, end, period);
+        ImmutableList<Double> cached = get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return delegate.getWorkloadSummaryAsync(application, operation, start, end, period)
+                .thenApply(result -> {
+                    put(key, result, 16L * result.size() + 64L);
+                    return result;
+                });
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, BenchmarkResult>> getBenchmarkResultsAsync(
+            String application, long start, long end) {
+        return delegate.getBenchmarkResultsAsync(application, start, end);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ApplicationRequest>> getRequestInfoAsync(
+            String application, long start, long end) {
+        long alignedStart = alignDown(start);
+        long alignedEnd = alignUp(end);
+        if (!isImmutable(alignedEnd)) {
+            return delegate.getRequestInfoAsync(application, start, end);
+        }
+        QueryKey key = new QueryKey(REQUEST_INFO, application, alignedStart, alignedEnd);
+        ImmutableListMultimap<String,ApplicationRequest> cached = get(key);
+        CompletableFuture<ImmutableListMultimap<String,ApplicationRequest>> future;
+        if (cached != null) {
+            future = CompletableFuture.completedFuture(cached);
+        } else {
+            future = delegate.getRequestInfoAsync(application, alignedStart, alignedEnd)
+                    .thenApply(result -> {
+                        put(key, result, estimateRequests(result.values()));
+                        return result;
+                    });
+        }
+        if (alignedStart == start && alignedEnd == end) {
+            return future;
+        }
+        return future.thenApply(result -> {
+            ImmutableListMultimap.Builder<String,ApplicationRequest> builder =
+                    ImmutableListMultimap.builder();
+            result.entries().stream()
+                    .filter(e -> inRange(e.getValue(), start, end))
+                    .forEach(builder::put);
+            return builder.build();
+        });
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<ApplicationRequest>> getRequestInfoAsync(
+            String application, String operation, long start, long end) {
+        long cachedEnd = Math.min(end, System.currentTimeMillis() - ingestionDelay);
+        if (cachedEnd <= start) {
+            return delegate.getRequestInfoAsync(application, operation, start, end);
+        }
+
+        QueryKey key = new QueryKey(REQUEST_INFO_BY_OPERATION, application, operation,
+                0L, 0L, -1L);
+        RequestSegments segments = getSegments(key);
+
+        List<long[]> missing;
+        synchronized (segments) {
+            missing = segments.missingRanges(start, cachedEnd);
+        }
+        if (missing.isEmpty()) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
+        List<CompletableFuture<ImmutableList<ApplicationRequest>>> fetches = new ArrayList<>();
+        missing.forEach(range -> fetches.add(delegate.getRequestInfoAsync(
+                application, operation, range[0], range[1])));
+        CompletableFuture<ImmutableList<ApplicationRequest>> tail = cachedEnd < end ?
+                delegate.getRequestInfoAsync(application, operation, cachedEnd, end) :
+                CompletableFuture.completedFuture(ImmutableList.of());
+        fetches.add(tail);
+
+        return CompletableFuture.allOf(fetches.toArray(new CompletableFuture<?>[fetches.size()]))
+                .thenApply(v -> {
+                    ImmutableList.Builder<ApplicationRequest> builder = ImmutableList.builder();
+                    long bytes;
+                    synchronized (segments) {
+                        for (int i = 0; i < missing.size(); i++) {
+                            long[] range = missing.get(i);
+                            segments.addMissing(range[0], range[1], fetches.get(i).join());
+                        }
+                        segments.collect(start, cachedEnd, builder);
+                        segments.trim(start, segmentRetention);
+                        bytes = segments.estimateBytes();
+                    }
+                    put(key, segments, bytes);
+                    builder.addAll(tail.join());
+                    return builder.build();
+                });
+    }
+
+    @Override
+    public CompletableFuture<ImmutableTable<String, String, Integer>> getPathDistributionAsync(
+            String application, long start, long end) {
+        if (!isImmutable(end)) {
+            return delegate.getPathDistributionAsync(application, start, end);
+        }
+        QueryKey key = new QueryKey(PATH_DISTRIBUTION, application, start, end);
+        ImmutableTable<String,String,Integer> cached = get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return delegate.getPathDistributionAsync(application, start, end)
+                .thenApply(result -> {
+                    put(key, result, estimatePaths(result));
+                    return result;
+                });
+    }
+
+    /**
+     * Builds the batch from the cached requests of the operation. Windows that are too recent
+     * to be cached are fetched from the underlying data store as a batch.
+     */
+    @Override
+    public RequestBatch getRequestBatch(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        if (Math.min(end, System.currentTimeMillis() - ingestionDelay) <= start) {
+            return delegate.getRequestBatch(application, operation, start, end);
+        }
+        return RequestBatch.of(application, operation,
+                getRequestInfo(application, operation, start, end));
+    }
+
+    @Override
+    public CompletableFuture<RequestBatch> getRequestBatchAsync(
+            String application, String operation, long start, long end) {
+        if (Math.min(end, System.currentTimeMillis() - ingestionDelay) <= start) {
+            return delegate.getRequestBatchAsync(application, operation, start, end);
+        }
+        return getRequestInfoAsync(application, operation, start, end)
+                .thenApply(requests -> RequestBatch.of(application, operation, requests));
+    }
+
+    @Override
+    public void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
+        delegate.recordBenchmarkResult(result);
+    }
+
+    @Override
+    public void recordBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        delegate.recordBenchmarkResults(results);
+    }
+
+    /**
+     * Returns the segments of an operation, registering an empty set in the cache if there is
+     * none, so that concurrent callers share the same instance.
+     */
+    private RequestSegments getSegments(QueryKey key) {
+        synchronized (cache) {
+            return (RequestSegments) cache.computeIfAbsent(key,
+                    k -> new Entry(new RequestSegments(), 0L)).value;
+        }
+    }
+
+    private boolean isImmutable(long end) {
+        return end <= System.currentTimeMillis() - ingestionDelay;
+    }
+
+    private long alignDown(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, alignment);
+    }
+
+    private long alignUp(long timestamp) {
+        long mod = Math.floorMod(timestamp, alignment);
+        return mod == 0 ? timestamp : timestamp - mod + alignment;
+    }
+
+    private static boolean inRange(ApplicationRequest r, long start, long end) {
+        return r.getTimestamp() >= start && r.getTimestamp() < end;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(QueryKey key) {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return (T) entry.value;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void put(QueryKey key, Object value, long bytes) {
+        synchronized (cache) {
+            if (bytes > maxBytes) {
+                log.debug("Result too large to cache: {} ({} bytes)", key, bytes);
+                Entry old = cache.remove(key);
+                if (old != null) {
+                    cachedBytes -= old.bytes;
+                }
+                return;
+            }
+
+            Entry old = cache.put(key, new Entry(value, bytes));
+            if (old != null) {
+                cachedBytes -= old.bytes;
+            }
+            cachedBytes += bytes;
+
+            Iterator<Map.Entry<QueryKey,Entry>> iterator = cache.entrySet().iterator();
+            while (iterator.hasNext() && (cache.size() > maxEntries || cachedBytes > maxBytes)) {
+                Map.Entry<QueryKey,Entry> eldest = iterator.next();
+                cachedBytes -= eldest.getValue().bytes;
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Rough estimate of the heap space occupied by a collection of ApplicationRequests.
+     */
+    static long estimateRequests(Collection<ApplicationRequest> requests) {
+        long bytes = 64L;
+        for (ApplicationRequest r : requests) {
+            bytes += 160L + 96L * r.getApiCalls().size();
+        }
+        return bytes;
+    }
+
+    private static long estimateSummaries(int count) {
+        return 64L + 48L * count;
+    }
+
+    private static long estimatePaths(ImmutableTable<String,String,Integer> paths) {
+        long bytes = 64L;
+        for (String path : paths.columnKeySet()) {
+            bytes += 48L + 2L * path.length();
+        }
+        return bytes + 64L * paths.size();
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long bytes;
+
+        private Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private DataStore delegate;
+        private int maxEntries = 1000;
+        private long maxBytes = 64L * 1024 * 1024;
+        private long ingestionDelay = 60 * 1000L;
+        private long alignment = 60 * 1000L;
+        private long segmentRetention = 60 * 60 * 1000L;
+
+        private Builder() {
+        }
+
+        public Builder setDelegate(DataStore delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        public Builder setMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public Builder setMaxBytes(long maxBytes) {
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder setIngestionDelay(long ingestionDelay) {
+            this.ingestionDelay = ingestionDelay;
+            return this;
+        }
+
+        public Builder setAlignment(long alignment) {
+            this.alignment = alignment;
+            return this;
+        }
+
+        public Builder setSegmentRetention(long segmentRetention) {
+            this.segmentRetention = segmentRetention;
+            return this;
+        }
+
+        public CachingDataStore build() {
+            return new CachingDataStore(this);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A DataStore decorator that deduplicates identical concurrent queries (single-flight).
+ * When a query is already in flight, subsequent callers with the same query key wait for,
+ * and share the result of the pending query instead of issuing their own.
+ */
+public final class CoalescingDataStore implements DataStore {
+
+    private static final Logger log = LoggerFactory.getLogger(CoalescingDataStore.class);
+
+    private static final String RESPONSE_TIME_SUMMARY = "RESPONSE_TIME_SUMMARY";
+    private static final String RESPONSE_TIME_HISTORY = "RESPONSE_TIME_HISTORY";
+    private static final String RESPONSE_TIME_ROLLUPS = "RESPONSE_TIME_ROLLUPS";
+    private static final String WORKLOAD_SUMMARY = "WORKLOAD_SUMMARY";
+    private static final String BENCHMARK_RESULTS = "BENCHMARK_RESULTS";
+    private static final String REQUEST_INFO = "REQUEST_INFO";
+    private static final String REQUEST_INFO_BY_OPERATION = "REQUEST_INFO_BY_OPERATION";
+    private static final String PATH_DISTRIBUTION = "PATH_DISTRIBUTION";
+    private static final String REQUEST_BATCH = "REQUEST_BATCH";
+
+    @FunctionalInterface
+    private interface DataStoreQuery<T> {
+        T execute() throws DataStoreException;
+    }
+
+    private final DataStore delegate;
+    private final ConcurrentHashMap<QueryKey,CompletableFuture<Object>> inFlight =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong(0L);
+    private final AtomicLong savedCalls = new AtomicLong(0L);
+
+    public CoalescingDataStore(DataStore delegate) {
+        checkNotNull(delegate, "Delegate DataStore is required");
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public void destroy() {
+        log.info("Coalescing statistics - calls: {}, saved calls: {}", calls.get(),
+                savedCalls.get());
+        delegate.destroy();
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Returns the number of queries that were served from the result of another
+     * in-flight query, instead of being sent to the underlying data store.
+     */
+    public long getSavedCalls() {
+        return savedCalls.get();
+    }
+
+    @Override
+    public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+            String application, long start, long end) throws DataStoreException {
+        return execute(new QueryKey(RESPONSE_TIME_SUMMARY, application, start, end),
+                () -> delegate.getResponseTimeSummary(application, start, end));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) throws DataStoreException {
+        return execute(new QueryKey(RESPONSE_TIME_HISTORY, application, null, start, end, period),
+                () -> delegate.getResponseTimeHistory(application, start, end, period));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        return execute(new QueryKey(RESPONSE_TIME_ROLLUPS, application, null, start, end, period),
+                () -> delegate.getResponseTimeRollups(application, start, end, period));
+    }
+
+    @Override
+    public ImmutableList<Double> getWorkloadSummary(
+            String application, String operation, long start, long end,
+            long period) throws DataStoreException {
+        return execute(new QueryKey(WORKLOAD_SUMMARY, application, operation, start, end, period),
+                () -> delegate.getWorkloadSummary(application, operation, start, end, period));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
+            String application, long start, long end) throws DataStoreException {
+        return execute(new QueryKey(BENCHMARK_RESULTS, application, start, end),
+                () -> delegate.getBenchmarkResults(application, start, end));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ApplicationRequest> getRequestInfo(
+            String application, long start, long end) throws DataStoreException {
+        return execute(new QueryKey(REQUEST_INFO, application, start, end),
+                () -> delegate.getRequestInfo(application, start, end));
+    }
+
+    @Override
+    public ImmutableList<ApplicationRequest> getRequestInfo(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        return execute(new QueryKey(REQUEST_INFO_BY_OPERATION, application, operation,
+                start, end, -1L),
+                () -> delegate.getRequestInfo(application, operation, start, end));
+    }
+
+    @Override
+    public ImmutableTable<String, String, Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        return execute(new QueryKey(PATH_DISTRIBUTION, application, start, end),
+                () -> delegate.getPathDistribution(application, start, end));
+    }
+
+    @Override
+    public RequestBatch getRequestBatch(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        return execute(new QueryKey(REQUEST_BATCH, application, operation, start, end, -1L),
+                () -> delegate.getRequestBatch(application, operation, start, end));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableMap<String, ResponseTimeSummary>> getResponseTimeSummaryAsync(
+            String application, long start, long end) {
+        return executeAsync(new QueryKey(RESPONSE_TIME_SUMMARY, application, start, end),
+                () -> delegate.getResponseTimeSummaryAsync(application, start, end));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeSummary>> getResponseTimeHistoryAsync(
+            String application, long start, long end, long period) {
+        return executeAsync(new QueryKey(RESPONSE_TIME_HISTORY, application, null, start, end, period),
+                () -> delegate.getResponseTimeHistoryAsync(application, start, end, period));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeRollup>> getResponseTimeRollupsAsync(
+            String application, long start, long end, long period) {
+        return executeAsync(new QueryKey(RESPONSE_TIME_ROLLUPS, application, null, start, end, period),
+                () -> delegate.getResponseTimeRollupsAsync(application, start, end, period));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<Double>> getWorkloadSummaryAsync(
+            String application, String operation, long start, long end, long period) {
+        return executeAsync(new QueryKey(WORKLOAD_SUMMARY, application, operation, start, end, period),
+                () -> delegate.getWorkloadSummaryAsync(application, operation, start, end, period));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, BenchmarkResult>> getBenchmarkResultsAsync(
+            String application, long start, long end) {
+        return executeAsync(new QueryKey(BENCHMARK_RESULTS, application, start, end),
+                () -> delegate.getBenchmarkResultsAsync(application, start, end));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ApplicationRequest>> getRequestInfoAsync(
+            String application, long start, long end) {
+        return executeAsync(new QueryKey(REQUEST_INFO, application, start, end),
+                () -> delegate.getRequestInfoAsync(application, start, end));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<ApplicationRequest>> getRequestInfoAsync(
+            String application, String operation, long start, long end) {
+        return executeAsync(new QueryKey(REQUEST_INFO_BY_OPERATION, application, operation,
+                start, end, -1L),
+                () -> delegate.getRequestInfoAsync(application, operation, start, end));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableTable<String, String, Integer>> getPathDistributionAsync(
+            String application, long start, long end) {
+        return executeAsync(new QueryKey(PATH_DISTRIBUTION, application, start, end),
+                () -> delegate.getPathDistributionAsync(application, start, end));
+    }
+
+    @Override
+    public CompletableFuture<RequestBatch> getRequestBatchAsync(
+            String application, String operation, long start, long end) {
+        return executeAsync(new QueryKey(REQUEST_BATCH, application, operation, start, end, -1L),
+                () -> delegate.getRequestBatchAsync(application, operation, start, end));
+    }
+
+    @Override
+    public void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
+        delegate.recordBenchmarkResult(result);
+    }
+
+    @Override
+    public void recordBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        delegate.recordBenchmarkResults(results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T execute(QueryKey key, DataStoreQuery<T> query) throws DataStoreException {
+        calls.incrementAndGet();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> pending = inFlight.putIfAbsent(key, future);
+        if (pending != null) {
+            savedCalls.incrementAndGet();
+            log.debug("Joining in-flight query: {}", key);
+            return (T) await(pending);
+        }
+
+        try {
+            T result = query.execute();
+            future.complete(result);
+            return result;
+        } catch (DataStoreException | RuntimeException | Error e) {
+            // Errors must be shared too, or the joined callers would wait forever
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Async counterpart of execute. Shares the same in-flight table, so blocking and
+     * non-blocking callers of the same query are coalesced with each other.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> executeAsync(QueryKey key,
+                                                  Supplier<CompletableFuture<T>> query) {
+        calls.incrementAndGet();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> pending = inFlight.putIfAbsent(key, future);
+        if (pending != null) {
+            savedCalls.incrementAndGet();
+            log.debug("Joining in-flight query: {}", key);
+            // Hand out a dependent future, so callers cannot complete the shared one
+            return pending.thenApply(result -> (T) result);
+        }
+
+        CompletableFuture<T> result;
+        try {
+            result = query.get();
+        } catch (RuntimeException | Error e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+        }
+        result.whenComplete((value, error) -> {
+            inFlight.remove(key, future);
+            if (error == null) {
+                future.complete(value);
+            } else if (error instanceof CompletionException && error.getCause() != null) {
+                future.completeExceptionally(error.getCause());
+            } else {
+                future.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    private Object await(CompletableFuture<Object> pending) throws DataStoreException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted while waiting for in-flight query", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DataStoreException("Error while executing in-flight query", cause);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package edu.ucsb.cs.roots.data;
+
+/**
+ * A point-in-time snapshot of an HTTP connection pool used to talk to ElasticSearch.
+ * Lease wait times measure how long callers were blocked waiting for a pooled connection,
+ * and can be used to size the pool.
+ */
+public final class ConnectionPoolMetrics {
+
+    private final int leased;
+    private final int pending;
+    private final int available;
+    private final int max;
+    private final long leases;
+    private final long totalLeaseWaitNanos;
+    private final long maxLeaseWaitNanos;
+
+    ConnectionPoolMetrics(int leased, int pending, int available, int max, long leases,
+                          long totalLeaseWaitNanos, long maxLeaseWaitNanos) {
+        this.leased = leased;
+        this.pending = pending;
+        this.available = available;
+        this.max = max;
+        this.leases = leases;
+        this.totalLeaseWaitNanos = totalLeaseWaitNanos;
+        this.maxLeaseWaitNanos = maxLeaseWaitNanos;
+    }
+
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * Returns the number of callers currently waiting for a connection.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    public int getAvailable() {
+        return available;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getLeases() {
+        return leases;
+    }
+
+    public long getTotalLeaseWaitNanos() {
+        return totalLeaseWaitNanos;
+    }
+
+    public long getMaxLeaseWaitNanos() {
+        return maxLeaseWaitNanos;
+    }
+
+    public double getMeanLeaseWaitMillis() {
+        if (leases == 0) {
+            return 0.0;
+        }
+        return totalLeaseWaitNanos / 1e6 / leases;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("leased: %d, pending: %d, available: %d, max: %d, leases: %d, " +
+                "mean wait: %.3fms, max wait: %.3fms", leased, pending, available, max, leases,
+                getMeanLeaseWaitMillis(), maxLeaseWaitNanos / 1e6);
+    }
+}
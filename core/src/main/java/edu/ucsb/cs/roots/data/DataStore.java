@@ -1,8 +1,14 @@
 package edu.ucsb.cs.roots.data;
 
+import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 public interface DataStore {
 
@@ -42,6 +48,28 @@ public interface DataStore {
         return ImmutableListMultimap.of();
     }
 
+    /**
+     * Similar to getResponseTimeHistory, but returns mergeable per-period rollups, which
+     * additionally carry the minimum and maximum response times, and a sketch of the latency
+     * distribution. The default implementation approximates the rollups from the result of
+     * getResponseTimeHistory. Data stores that can compute the distribution of response times
+     * should override this method.
+     *
+     * @param application Name of the application
+     * @param start Start time of the interval (inclusive)
+     * @param end End time of the interval (exclusive)
+     * @param period Length of each period
+     * @return A Map of request types (String) and response time rollups as a timeseries
+     */
+    default ImmutableListMultimap<String,ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        ImmutableListMultimap.Builder<String,ResponseTimeRollup> builder =
+                ImmutableListMultimap.builder();
+        getResponseTimeHistory(application, start, end, period).entries().forEach(
+                e -> builder.put(e.getKey(), ResponseTimeRollup.of(e.getValue())));
+        return builder.build();
+    }
+
     default ImmutableList<Double> getWorkloadSummary(
             String application, String operation, long start, long end,
             long period) throws DataStoreException {
@@ -93,6 +121,108 @@ public interface DataStore {
         return ImmutableList.of();
     }
 
+    /**
+     * Retrieve the number of requests that took each execution path, for each operation of
+     * the specified application, during the specified time interval. Paths are identified by
+     * the sequence of API calls made by a request (see ApplicationRequest.getPathAsString()).
+     * The default implementation derives the counts from getRequestInfo. Data stores that can
+     * compute them without retrieving the individual requests should override this method.
+     *
+     * @param application Name of the application
+     * @param start Start time of the interval (inclusive)
+     * @param end End time of the interval (exclusive)
+     * @return A Table of request counts, keyed by operation (row) and path (column)
+     */
+    default ImmutableTable<String,String,Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        PathDictionary dictionary = new PathDictionary();
+        Table<String,Long,Integer> counts = HashBasedTable.create();
+        getRequestInfo(application, start, end).entries().forEach(e -> {
+            long path = dictionary.getKey(e.getValue());
+            Integer count = counts.get(e.getKey(), path);
+            counts.put(e.getKey(), path, count == null ? 1 : count + 1);
+        });
+        ImmutableTable.Builder<String,String,Integer> builder = ImmutableTable.builder();
+        counts.cellSet().forEach(c -> builder.put(c.getRowKey(),
+                dictionary.getPath(c.getColumnKey()), c.getValue()));
+        return builder.build();
+    }
+
+    /**
+     * Retrieve the requests of a single operation during the specified time interval, as
+     * a columnar RequestBatch. The default implementation converts the result of
+     * getRequestInfo. Data stores that can build the batch directly should override this
+     * method.
+     *
+     * @param application Name of the application
+     * @param operation Name of the operation
+     * @param start Start time of the interval (inclusive)
+     * @param end End time of the interval (exclusive)
+     * @return A RequestBatch grouping the requests by execution path
+     */
+    default RequestBatch getRequestBatch(
+            String application, String operation, long start, long end) throws DataStoreException {
+        return RequestBatch.of(application, operation,
+                getRequestInfo(application, operation, start, end));
+    }
+
+    /*
+     * Non-blocking variants of the query methods. The returned futures complete exceptionally
+     * with a DataStoreException when the query fails. Data stores that are backed by
+     * a non-blocking client should override these methods. The default implementations run
+     * the blocking version of the query on the calling thread.
+     */
+
+    default CompletableFuture<ImmutableMap<String,ResponseTimeSummary>> getResponseTimeSummaryAsync(
+            String application, long start, long end) {
+        return DataStoreFutures.completed(() -> getResponseTimeSummary(application, start, end));
+    }
+
+    default CompletableFuture<ImmutableListMultimap<String,ResponseTimeSummary>> getResponseTimeHistoryAsync(
+            String application, long start, long end, long period) {
+        return DataStoreFutures.completed(() -> getResponseTimeHistory(
+                application, start, end, period));
+    }
+
+    default CompletableFuture<ImmutableListMultimap<String,ResponseTimeRollup>> getResponseTimeRollupsAsync(
+            String application, long start, long end, long period) {
+        return DataStoreFutures.completed(() -> getResponseTimeRollups(
+                application, start, end, period));
+    }
+
+    default CompletableFuture<ImmutableList<Double>> getWorkloadSummaryAsync(
+            String application, String operation, long start, long end, long period) {
+        return DataStoreFutures.completed(() -> getWorkloadSummary(
+                application, operation, start, end, period));
+    }
+
+    default CompletableFuture<ImmutableListMultimap<String,BenchmarkResult>> getBenchmarkResultsAsync(
+            String application, long start, long end) {
+        return DataStoreFutures.completed(() -> getBenchmarkResults(application, start, end));
+    }
+
+    default CompletableFuture<ImmutableListMultimap<String,ApplicationRequest>> getRequestInfoAsync(
+            String application, long start, long end) {
+        return DataStoreFutures.completed(() -> getRequestInfo(application, start, end));
+    }
+
+    default CompletableFuture<ImmutableList<ApplicationRequest>> getRequestInfoAsync(
+            String application, String operation, long start, long end) {
+        return DataStoreFutures.completed(() -> getRequestInfo(
+                application, operation, start, end));
+    }
+
+    default CompletableFuture<ImmutableTable<String,String,Integer>> getPathDistributionAsync(
+            String application, long start, long end) {
+        return DataStoreFutures.completed(() -> getPathDistribution(application, start, end));
+    }
+
+    default CompletableFuture<RequestBatch> getRequestBatchAsync(
+            String application, String operation, long start, long end) {
+        return DataStoreFutures.completed(() -> getRequestBatch(
+                application, operation, start, end));
+    }
+
     /**
      * Write a BenchmarkResult to the underlying persistent store.
      *
@@ -101,4 +231,18 @@ public interface DataStore {
     default void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
     }
 
+    /**
+     * Write a batch of BenchmarkResult instances to the underlying persistent store. Data
+     * stores that support batched writes should override this method to store the whole
+     * batch at once.
+     *
+     * @param results the results to be stored
+     */
+    default void recordBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        for (BenchmarkResult result : results) {
+            recordBenchmarkResult(result);
+        }
+    }
+
 }
@@ -0,0 +1,31 @@
+package edu.ucsb.cs.roots.data;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Adapts blocking DataStore calls to the CompletableFuture based async API.
+ */
+final class DataStoreFutures {
+
+    @FunctionalInterface
+    interface Call<T> {
+        T call() throws DataStoreException;
+    }
+
+    private DataStoreFutures() {
+    }
+
+    /**
+     * Run the specified call on the calling thread, and return a future that is already
+     * completed with its outcome.
+     */
+    static <T> CompletableFuture<T> completed(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(call.call());
+        } catch (DataStoreException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+}
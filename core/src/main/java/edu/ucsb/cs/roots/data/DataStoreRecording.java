@@ -0,0 +1,423 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk format of the DataStore calls captured by RecordingDataStore, and served back by
+ * ReplayDataStore. A recording is a gzip compressed stream of calls, each consisting of the
+ * query method, its arguments, the time it took, and its result (or error message). Strings
+ * are written once, and referred to by index afterwards, so that the repeated application,
+ * operation and SDK call names only take a few bytes each.
+ */
+final class DataStoreRecording {
+
+    private static final Logger log = LoggerFactory.getLogger(DataStoreRecording.class);
+
+    private static final int MAGIC = 0x52445352;
+    private static final int VERSION = 1;
+
+    enum Method {
+        RESPONSE_TIME_SUMMARY,
+        RESPONSE_TIME_HISTORY,
+        WORKLOAD_SUMMARY,
+        BENCHMARK_RESULTS,
+        REQUEST_INFO,
+        REQUEST_INFO_BY_OPERATION,
+        PATH_DISTRIBUTION,
+        RESPONSE_TIME_ROLLUPS
+    }
+
+    static final class Call {
+
+        final Method method;
+        final String application;
+        final String operation;
+        final long start;
+        final long end;
+        final long period;
+        final long elapsedNanos;
+        final Object result;
+        final String error;
+
+        Call(Method method, String application, String operation, long start, long end,
+             long period, long elapsedNanos, Object result, String error) {
+            this.method = method;
+            this.application = application;
+            this.operation = operation;
+            this.start = start;
+            this.end = end;
+            this.period = period;
+            this.elapsedNanos = elapsedNanos;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final Map<String,Integer> strings = new HashMap<>();
+
+        Writer(File file) throws IOException {
+            this.out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file))));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        synchronized void write(Call call) throws IOException {
+            out.writeByte(call.method.ordinal());
+            writeString(call.application);
+            writeString(call.operation);
+            out.writeLong(call.start);
+            out.writeLong(call.end);
+            out.writeLong(call.period);
+            out.writeLong(call.elapsedNanos);
+            if (call.error != null) {
+                out.writeBoolean(false);
+                out.writeUTF(call.error);
+            } else {
+                out.writeBoolean(true);
+                writeResult(call.method, call.result);
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeResult(Method method, Object result) throws IOException {
+            switch (method) {
+                case RESPONSE_TIME_SUMMARY:
+                    ImmutableMap<String,ResponseTimeSummary> summaries =
+                            (ImmutableMap<String,ResponseTimeSummary>) result;
+                    out.writeInt(summaries.size());
+                    for (Map.Entry<String,ResponseTimeSummary> e : summaries.entrySet()) {
+                        writeString(e.getKey());
+                        writeSummary(e.getValue());
+                    }
+                    break;
+                case RESPONSE_TIME_HISTORY:
+                    writeMultimap((ImmutableListMultimap<String,ResponseTimeSummary>) result,
+                            this::writeSummary);
+                    break;
+                case WORKLOAD_SUMMARY:
+                    ImmutableList<Double> workload = (ImmutableList<Double>) result;
+                    out.writeInt(workload.size());
+                    for (Double d : workload) {
+                        out.writeDouble(d);
+                    }
+                    break;
+                case BENCHMARK_RESULTS:
+                    writeMultimap((ImmutableListMultimap<String,BenchmarkResult>) result,
+                            this::writeBenchmarkResult);
+                    break;
+                case REQUEST_INFO:
+                    writeMultimap((ImmutableListMultimap<String,ApplicationRequest>) result,
+                            this::writeRequest);
+                    break;
+                case REQUEST_INFO_BY_OPERATION:
+                    ImmutableList<ApplicationRequest> requests =
+                            (ImmutableList<ApplicationRequest>) result;
+                    out.writeInt(requests.size());
+                    for (ApplicationRequest r : requests) {
+                        writeRequest(r);
+                    }
+                    break;
+                case PATH_DISTRIBUTION:
+                    ImmutableTable<String,String,Integer> paths =
+                            (ImmutableTable<String,String,Integer>) result;
+                    out.writeInt(paths.size());
+                    for (ImmutableTable.Cell<String,String,Integer> c : paths.cellSet()) {
+                        writeString(c.getRowKey());
+                        writeString(c.getColumnKey());
+                        out.writeInt(c.getValue());
+                    }
+                    break;
+                case RESPONSE_TIME_ROLLUPS:
+                    writeMultimap((ImmutableListMultimap<String,ResponseTimeRollup>) result,
+                            this::writeRollup);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported method: " + method);
+            }
+        }
+
+        private <V> void writeMultimap(ImmutableListMultimap<String,V> multimap,
+                                       ValueWriter<V> writer) throws IOException {
+            out.writeInt(multimap.keySet().size());
+            for (String key : multimap.keySet()) {
+                writeString(key);
+                Collection<V> values = multimap.get(key);
+                out.writeInt(values.size());
+                for (V value : values) {
+                    writer.write(value);
+                }
+            }
+        }
+
+        private void writeSummary(ResponseTimeSummary s) throws IOException {
+            out.writeLong(s.getTimestamp());
+            out.writeDouble(s.getMeanResponseTime());
+            out.writeDouble(s.getRequestCount());
+        }
+
+        private void writeRollup(ResponseTimeRollup r) throws IOException {
+            out.writeLong(r.getTimestamp());
+            out.writeLong(r.getCount());
+            out.writeDouble(r.getSum());
+            out.writeDouble(r.getMin());
+            out.writeDouble(r.getMax());
+            r.getSketch().writeTo(out);
+        }
+
+        private void writeBenchmarkResult(BenchmarkResult r) throws IOException {
+            out.writeLong(r.getTimestamp());
+            writeString(r.getApplication());
+            writeString(r.getMethod());
+            writeString(r.getPath());
+            out.writeInt(r.getResponseTime());
+        }
+
+        private void writeRequest(ApplicationRequest r) throws IOException {
+            out.writeUTF(r.getRequestId());
+            out.writeLong(r.getTimestamp());
+            writeString(r.getApplication());
+            writeString(r.getOperation());
+            out.writeInt(r.getResponseTime());
+            out.writeInt(r.getApiCalls().size());
+            for (ApiCall call : r.getApiCalls()) {
+                out.writeLong(call.getRequestTimestamp());
+                out.writeLong(call.getTimestamp());
+                writeString(call.getService());
+                writeString(call.getOperation());
+                writeString(call.getRequestOperation());
+                out.writeInt(call.getTimeElapsed());
+                out.writeInt(call.getSequenceNumber());
+            }
+        }
+
+        /**
+         * Strings are written as an index into the table of strings seen so far. New strings
+         * get the next index, and are written out in full right after it.
+         */
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index != null) {
+                out.writeInt(index);
+            } else {
+                index = strings.size();
+                strings.put(s, index);
+                out.writeInt(index);
+                out.writeUTF(s);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueWriter<V> {
+        void write(V value) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ValueReader<V> {
+        V read() throws IOException;
+    }
+
+    /**
+     * Read all the calls in a recording. A truncated call at the end of the file (e.g. due to
+     * the recording process being killed) is ignored.
+     */
+    static List<Call> read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a DataStore recording: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported recording version: " + version);
+            }
+            Reader reader = new Reader(in);
+            List<Call> calls = new ArrayList<>();
+            while (true) {
+                int method;
+                try {
+                    method = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    calls.add(reader.read(Method.values()[method]));
+                } catch (EOFException e) {
+                    log.warn("Ignoring truncated call at the end of {}", file);
+                    break;
+                }
+            }
+            return calls;
+        }
+    }
+
+    private static final class Reader {
+
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private Call read(Method method) throws IOException {
+            String application = readString();
+            String operation = readString();
+            long start = in.readLong();
+            long end = in.readLong();
+            long period = in.readLong();
+            long elapsedNanos = in.readLong();
+            if (in.readBoolean()) {
+                return new Call(method, application, operation, start, end, period,
+                        elapsedNanos, readResult(method), null);
+            } else {
+                return new Call(method, application, operation, start, end, period,
+                        elapsedNanos, null, in.readUTF());
+            }
+        }
+
+        private Object readResult(Method method) throws IOException {
+            switch (method) {
+                case RESPONSE_TIME_SUMMARY:
+                    ImmutableMap.Builder<String,ResponseTimeSummary> summaries =
+                            ImmutableMap.builder();
+                    int size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        summaries.put(readString(), readSummary());
+                    }
+                    return summaries.build();
+                case RESPONSE_TIME_HISTORY:
+                    return readMultimap(this::readSummary);
+                case WORKLOAD_SUMMARY:
+                    ImmutableList.Builder<Double> workload = ImmutableList.builder();
+                    size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        workload.add(in.readDouble());
+                    }
+                    return workload.build();
+                case BENCHMARK_RESULTS:
+                    return readMultimap(this::readBenchmarkResult);
+                case REQUEST_INFO:
+                    return readMultimap(this::readRequest);
+                case REQUEST_INFO_BY_OPERATION:
+                    ImmutableList.Builder<ApplicationRequest> requests = ImmutableList.builder();
+                    size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        requests.add(readRequest());
+                    }
+                    return requests.build();
+                case PATH_DISTRIBUTION:
+                    ImmutableTable.Builder<String,String,Integer> paths = ImmutableTable.builder();
+                    size = in.readInt();
+                    for (int i = 0; i < size; i++) {
+                        paths.put(readString(), readString(), in.readInt());
+                    }
+                    return paths.build();
+                case RESPONSE_TIME_ROLLUPS:
+                    return readMultimap(this::readRollup);
+                default:
+                    throw new IllegalArgumentException("Unsupported method: " + method);
+            }
+        }
+
+        private <V> ImmutableListMultimap<String,V> readMultimap(
+                ValueReader<V> reader) throws IOException {
+            ImmutableListMultimap.Builder<String,V> builder = ImmutableListMultimap.builder();
+            int keys = in.readInt();
+            for (int i = 0; i < keys; i++) {
+                String key = readString();
+                int values = in.readInt();
+                for (int j = 0; j < values; j++) {
+                    builder.put(key, reader.read());
+                }
+            }
+            return builder.build();
+        }
+
+        private ResponseTimeSummary readSummary() throws IOException {
+            return new ResponseTimeSummary(in.readLong(), in.readDouble(), in.readDouble());
+        }
+
+        private ResponseTimeRollup readRollup() throws IOException {
+            return new ResponseTimeRollup(in.readLong(), in.readLong(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), LatencySketch.readFrom(in));
+        }
+
+        private BenchmarkResult readBenchmarkResult() throws IOException {
+            return new BenchmarkResult(in.readLong(), readString(), readString(), readString(),
+                    in.readInt());
+        }
+
+        private ApplicationRequest readRequest() throws IOException {
+            String requestId = in.readUTF();
+            long timestamp = in.readLong();
+            String application = readString();
+            String operation = readString();
+            int responseTime = in.readInt();
+            int callCount = in.readInt();
+            ImmutableList.Builder<ApiCall> calls = ImmutableList.builder();
+            for (int i = 0; i < callCount; i++) {
+                calls.add(ApiCall.newBuilder()
+                        .setRequestTimestamp(in.readLong())
+                        .setTimestamp(in.readLong())
+                        .setService(readString())
+                        .setOperation(readString())
+                        .setRequestOperation(readString())
+                        .setTimeElapsed(in.readInt())
+                        .setSequenceNumber(in.readInt())
+                        .build());
+            }
+            return new ApplicationRequest(requestId, timestamp, application, operation,
+                    calls.build(), responseTime);
+        }
+
+        private String readString() throws IOException {
+            int index = in.readInt();
+            if (index < 0) {
+                return null;
+            } else if (index < strings.size()) {
+                return strings.get(index);
+            }
+            if (index != strings.size()) {
+                throw new IOException("Corrupted string table in recording");
+            }
+            String s = in.readUTF();
+            strings.add(s);
+            return s;
+        }
+    }
+
+    private DataStoreRecording() {
+    }
+}
@@ -4,20 +4,44 @@ import com.google.common.base.Strings;
 import edu.ucsb.cs.roots.ConfigLoader;
 import edu.ucsb.cs.roots.ManagedService;
 import edu.ucsb.cs.roots.RootsEnvironment;
+import edu.ucsb.cs.roots.utils.RootsThreadFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public final class DataStoreService extends ManagedService {
 
+    private static final String QUERY_METRICS_LOG_INTERVAL = "dataStore.metrics.logInterval";
+
     private static final String DATA_STORE_NAME = "name";
     private static final String DATA_STORE_TYPE = "type";
+    private static final String DATA_STORE_COALESCE = "coalesce";
+    private static final String DATA_STORE_RECORD = "record";
+    private static final String DATA_STORE_CACHE = "cache";
+    private static final String DATA_STORE_CACHE_MAX_ENTRIES = "cache.maxEntries";
+    private static final String DATA_STORE_CACHE_MAX_BYTES = "cache.maxBytes";
+    private static final String DATA_STORE_CACHE_INGESTION_DELAY = "cache.ingestionDelay";
+    private static final String DATA_STORE_CACHE_ALIGNMENT = "cache.alignment";
+    private static final String DATA_STORE_CACHE_SEGMENT_RETENTION = "cache.segmentRetention";
+    private static final String DATA_STORE_ROLLUP = "rollup";
+    private static final String DATA_STORE_ROLLUP_PERIOD = "rollup.period";
+    private static final String DATA_STORE_ROLLUP_RETENTION = "rollup.retention";
+    private static final String DATA_STORE_ROLLUP_INGESTION_DELAY = "rollup.ingestionDelay";
     private static final String DATA_STORE_ES_HOST = "host";
     private static final String DATA_STORE_ES_PORT = "port";
+    private static final String DATA_STORE_ES_HOSTS = "hosts";
+    private static final String DATA_STORE_ES_ROUTING = "routing";
+    private static final String DATA_STORE_ES_HEALTH_FAILURE_THRESHOLD = "health.failureThreshold";
+    private static final String DATA_STORE_ES_HEALTH_RETRY_INTERVAL = "health.retryInterval";
     private static final String DATA_STORE_ES_CONNECT_TIMEOUT = "connect.timeout";
     private static final String DATA_STORE_ES_SO_TIMEOUT = "socket.timeout";
     private static final String DATA_STORE_ES_ACCESS_LOG_INDEX = "accessLog.index";
@@ -25,8 +49,34 @@ public final class DataStoreService extends ManagedService {
     private static final String DATA_STORE_ES_API_CALL_INDEX = "apiCall.index";
     private static final String DATA_STORE_ES_FIELD = "field.";
     private static final String DATA_STORE_ES_RAW_STRING_FILTER = "raw.filter";
+    private static final String DATA_STORE_ES_PAGE_SIZE = "page.size";
+    private static final String DATA_STORE_ES_SCROLL_TIMEOUT = "scroll.timeout";
+    private static final String DATA_STORE_ES_SCROLL_SLICES = "scroll.slices";
+    private static final String DATA_STORE_ES_BULK_SIZE = "bulk.size";
+    private static final String DATA_STORE_ES_BULK_CAPACITY = "bulk.capacity";
+    private static final String DATA_STORE_ES_BULK_FLUSH_INTERVAL = "bulk.flushInterval";
+    private static final String DATA_STORE_ES_BULK_OFFER_TIMEOUT = "bulk.offerTimeout";
+    private static final String DATA_STORE_ES_POOL_MAX_TOTAL = "pool.maxTotal";
+    private static final String DATA_STORE_ES_POOL_MAX_PER_ROUTE = "pool.maxPerRoute";
+    private static final String DATA_STORE_ES_POOL_KEEP_ALIVE = "pool.keepAlive";
+    private static final String DATA_STORE_ES_POOL_LEASE_TIMEOUT = "pool.leaseTimeout";
+    private static final String DATA_STORE_ES_COMPRESSION = "compression";
+    private static final String DATA_STORE_ES_HEDGE_PERCENTILE = "hedge.percentile";
+    private static final String DATA_STORE_ES_HEDGE_MIN_DELAY = "hedge.minDelay";
+    private static final String DATA_STORE_MAPPED_DIRECTORY = "directory";
+    private static final String DATA_STORE_MAPPED_PARTITION_SIZE = "segment.partitionSize";
+    private static final String DATA_STORE_MAPPED_SEGMENT_SIZE = "segment.size";
+    private static final String DATA_STORE_REPLAY_FILE = "replay.file";
+    private static final String DATA_STORE_REPLAY_SPEED = "replay.speed";
+    private static final String DATA_STORE_REPLAY_SEQUENTIAL = "replay.sequential";
+    private static final String DATA_STORE_RANDOM_SEED = "random.seed";
+    private static final String DATA_STORE_RANDOM_TICK = "random.tick";
+    private static final String DATA_STORE_RANDOM_OPERATION = "random.operation.";
+    private static final String DATA_STORE_RANDOM_ANOMALY = "random.anomaly.";
 
     private final Map<String,DataStore> dataStores = new ConcurrentHashMap<>();
+    private final QueryMetrics queryMetrics = new QueryMetrics();
+    private ScheduledExecutorService metricsLogger;
 
     public DataStoreService(RootsEnvironment environment) {
         super(environment);
@@ -39,11 +89,39 @@ public final class DataStoreService extends ManagedService {
             dataStores.put(name, createDataStore(p));
         });
         dataStores.values().stream().forEach(DataStore::init);
+
+        long logInterval = Long.parseLong(environment.getProperty(
+                QUERY_METRICS_LOG_INTERVAL, "0"));
+        if (logInterval > 0) {
+            metricsLogger = Executors.newSingleThreadScheduledExecutor(
+                    new RootsThreadFactory(environment.getId() + "-query-metrics"));
+            metricsLogger.scheduleWithFixedDelay(this::logQueryMetrics, logInterval,
+                    logInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
     public synchronized void doDestroy() {
+        if (metricsLogger != null) {
+            metricsLogger.shutdownNow();
+            metricsLogger = null;
+        }
         dataStores.values().stream().forEach(DataStore::destroy);
         dataStores.clear();
+        logQueryMetrics();
+    }
+
+    /**
+     * Returns the registry of query statistics shared by all the data stores of this
+     * environment.
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    private void logQueryMetrics() {
+        if (!queryMetrics.getStats().isEmpty()) {
+            log.info("Query statistics:\n{}", queryMetrics.dump());
+        }
     }
 
     public DataStore get(String name) {
@@ -57,14 +135,79 @@ public final class DataStoreService extends ManagedService {
     }
 
     private DataStore createDataStore(Properties properties) {
+        DataStore dataStore = createBaseDataStore(properties);
+        String recording = properties.getProperty(DATA_STORE_RECORD);
+        if (!Strings.isNullOrEmpty(recording)) {
+            try {
+                dataStore = new RecordingDataStore(dataStore, new File(recording));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to create recording: " + recording, e);
+            }
+        }
+        if (Boolean.parseBoolean(properties.getProperty(DATA_STORE_CACHE))) {
+            CachingDataStore.Builder builder = CachingDataStore.newBuilder()
+                    .setDelegate(dataStore);
+            String maxEntries = properties.getProperty(DATA_STORE_CACHE_MAX_ENTRIES);
+            if (!Strings.isNullOrEmpty(maxEntries)) {
+                builder.setMaxEntries(Integer.parseInt(maxEntries));
+            }
+            String maxBytes = properties.getProperty(DATA_STORE_CACHE_MAX_BYTES);
+            if (!Strings.isNullOrEmpty(maxBytes)) {
+                builder.setMaxBytes(Long.parseLong(maxBytes));
+            }
+            String ingestionDelay = properties.getProperty(DATA_STORE_CACHE_INGESTION_DELAY);
+            if (!Strings.isNullOrEmpty(ingestionDelay)) {
+                builder.setIngestionDelay(Long.parseLong(ingestionDelay));
+            }
+            String alignment = properties.getProperty(DATA_STORE_CACHE_ALIGNMENT);
+            if (!Strings.isNullOrEmpty(alignment)) {
+                builder.setAlignment(Long.parseLong(alignment));
+            }
+            String segmentRetention = properties.getProperty(
+                    DATA_STORE_CACHE_SEGMENT_RETENTION);
+            if (!Strings.isNullOrEmpty(segmentRetention)) {
+                builder.setSegmentRetention(Long.parseLong(segmentRetention));
+            }
+            dataStore = builder.build();
+        }
+        if (Boolean.parseBoolean(properties.getProperty(DATA_STORE_ROLLUP))) {
+            RollupDataStore.Builder builder = RollupDataStore.newBuilder()
+                    .setDelegate(dataStore);
+            String period = properties.getProperty(DATA_STORE_ROLLUP_PERIOD);
+            if (!Strings.isNullOrEmpty(period)) {
+                builder.setPeriod(Long.parseLong(period));
+            }
+            String retention = properties.getProperty(DATA_STORE_ROLLUP_RETENTION);
+            if (!Strings.isNullOrEmpty(retention)) {
+                builder.setRetention(Long.parseLong(retention));
+            }
+            String ingestionDelay = properties.getProperty(DATA_STORE_ROLLUP_INGESTION_DELAY);
+            if (!Strings.isNullOrEmpty(ingestionDelay)) {
+                builder.setIngestionDelay(Long.parseLong(ingestionDelay));
+            }
+            dataStore = builder.build();
+        }
+        if (Boolean.parseBoolean(properties.getProperty(DATA_STORE_COALESCE))) {
+            dataStore = new CoalescingDataStore(dataStore);
+        }
+        return dataStore;
+    }
+
+    private DataStore createBaseDataStore(Properties properties) {
         String dataStore = getRequired(properties, DATA_STORE_TYPE);
         if (RandomDataStore.class.getSimpleName().equals(dataStore)) {
-            return new RandomDataStore();
+            return createRandomDataStore(properties);
         } else if (ElasticSearchDataStore.class.getSimpleName().equals(dataStore)) {
             ElasticSearchConfig.Builder builder = ElasticSearchConfig.newBuilder()
-                    .setHost(getRequired(properties, DATA_STORE_ES_HOST))
-                    .setPort(getRequiredInt(properties, DATA_STORE_ES_PORT))
-                    .setAccessLogIndex(properties.getProperty(DATA_STORE_ES_ACCESS_LOG_INDEX))
+                    .setQueryMetrics(queryMetrics);
+            String hosts = properties.getProperty(DATA_STORE_ES_HOSTS);
+            if (!Strings.isNullOrEmpty(hosts)) {
+                builder.addEndpoints(hosts);
+            } else {
+                builder.setHost(getRequired(properties, DATA_STORE_ES_HOST))
+                        .setPort(getRequiredInt(properties, DATA_STORE_ES_PORT));
+            }
+            builder.setAccessLogIndex(properties.getProperty(DATA_STORE_ES_ACCESS_LOG_INDEX))
                     .setBenchmarkIndex(properties.getProperty(DATA_STORE_ES_BENCHMARK_INDEX))
                     .setApiCallIndex(properties.getProperty(DATA_STORE_ES_API_CALL_INDEX));
             String timeout = properties.getProperty(DATA_STORE_ES_CONNECT_TIMEOUT);
@@ -80,15 +223,189 @@ public final class DataStoreService extends ManagedService {
             if (!Strings.isNullOrEmpty(rawFilter)) {
                 builder.setRawStringFilters(Boolean.parseBoolean(rawFilter));
             }
+            String pageSize = properties.getProperty(DATA_STORE_ES_PAGE_SIZE);
+            if (!Strings.isNullOrEmpty(pageSize)) {
+                builder.setPageSize(Integer.parseInt(pageSize));
+            }
+            String scrollTimeout = properties.getProperty(DATA_STORE_ES_SCROLL_TIMEOUT);
+            if (!Strings.isNullOrEmpty(scrollTimeout)) {
+                builder.setScrollTimeout(scrollTimeout);
+            }
+            String scrollSlices = properties.getProperty(DATA_STORE_ES_SCROLL_SLICES);
+            if (!Strings.isNullOrEmpty(scrollSlices)) {
+                builder.setScrollSlices(Integer.parseInt(scrollSlices));
+            }
+            String bulkSize = properties.getProperty(DATA_STORE_ES_BULK_SIZE);
+            if (!Strings.isNullOrEmpty(bulkSize)) {
+                builder.setBulkSize(Integer.parseInt(bulkSize));
+            }
+            String bulkCapacity = properties.getProperty(DATA_STORE_ES_BULK_CAPACITY);
+            if (!Strings.isNullOrEmpty(bulkCapacity)) {
+                builder.setBulkCapacity(Integer.parseInt(bulkCapacity));
+            }
+            String bulkFlushInterval = properties.getProperty(DATA_STORE_ES_BULK_FLUSH_INTERVAL);
+            if (!Strings.isNullOrEmpty(bulkFlushInterval)) {
+                builder.setBulkFlushInterval(Long.parseLong(bulkFlushInterval));
+            }
+            String bulkOfferTimeout = properties.getProperty(DATA_STORE_ES_BULK_OFFER_TIMEOUT);
+            if (!Strings.isNullOrEmpty(bulkOfferTimeout)) {
+                builder.setBulkOfferTimeout(Long.parseLong(bulkOfferTimeout));
+            }
+            String routing = properties.getProperty(DATA_STORE_ES_ROUTING);
+            if (!Strings.isNullOrEmpty(routing)) {
+                builder.setRouting(EndpointSelector.Routing.valueOf(routing.toUpperCase()));
+            }
+            String failureThreshold = properties.getProperty(
+                    DATA_STORE_ES_HEALTH_FAILURE_THRESHOLD);
+            if (!Strings.isNullOrEmpty(failureThreshold)) {
+                builder.setFailureThreshold(Integer.parseInt(failureThreshold));
+            }
+            String retryInterval = properties.getProperty(DATA_STORE_ES_HEALTH_RETRY_INTERVAL);
+            if (!Strings.isNullOrEmpty(retryInterval)) {
+                builder.setRetryInterval(Long.parseLong(retryInterval));
+            }
+            String maxTotal = properties.getProperty(DATA_STORE_ES_POOL_MAX_TOTAL);
+            if (!Strings.isNullOrEmpty(maxTotal)) {
+                builder.setMaxConnections(Integer.parseInt(maxTotal));
+            }
+            String maxPerRoute = properties.getProperty(DATA_STORE_ES_POOL_MAX_PER_ROUTE);
+            if (!Strings.isNullOrEmpty(maxPerRoute)) {
+                builder.setMaxConnectionsPerRoute(Integer.parseInt(maxPerRoute));
+            }
+            String keepAlive = properties.getProperty(DATA_STORE_ES_POOL_KEEP_ALIVE);
+            if (!Strings.isNullOrEmpty(keepAlive)) {
+                builder.setKeepAlive(Long.parseLong(keepAlive));
+            }
+            String leaseTimeout = properties.getProperty(DATA_STORE_ES_POOL_LEASE_TIMEOUT);
+            if (!Strings.isNullOrEmpty(leaseTimeout)) {
+                builder.setLeaseTimeout(Integer.parseInt(leaseTimeout));
+            }
+            String compression = properties.getProperty(DATA_STORE_ES_COMPRESSION);
+            if (!Strings.isNullOrEmpty(compression)) {
+                builder.setCompression(Boolean.parseBoolean(compression));
+            }
+            String hedgePercentile = properties.getProperty(DATA_STORE_ES_HEDGE_PERCENTILE);
+            if (!Strings.isNullOrEmpty(hedgePercentile)) {
+                builder.setHedgePercentile(Double.parseDouble(hedgePercentile));
+            }
+            String hedgeMinDelay = properties.getProperty(DATA_STORE_ES_HEDGE_MIN_DELAY);
+            if (!Strings.isNullOrEmpty(hedgeMinDelay)) {
+                builder.setHedgeMinDelay(Long.parseLong(hedgeMinDelay));
+            }
             properties.stringPropertyNames().stream()
                     .filter(k -> k.startsWith(DATA_STORE_ES_FIELD))
                     .forEach(k -> builder.setFieldMapping(k, properties.getProperty(k)));
             return new ElasticSearchDataStore(builder);
+        } else if (MappedDataStore.class.getSimpleName().equals(dataStore)) {
+            MappedDataStore.Builder builder = MappedDataStore.newBuilder()
+                    .setDirectory(getRequired(properties, DATA_STORE_MAPPED_DIRECTORY));
+            String partitionSize = properties.getProperty(DATA_STORE_MAPPED_PARTITION_SIZE);
+            if (!Strings.isNullOrEmpty(partitionSize)) {
+                builder.setPartitionSize(Long.parseLong(partitionSize));
+            }
+            String segmentSize = properties.getProperty(DATA_STORE_MAPPED_SEGMENT_SIZE);
+            if (!Strings.isNullOrEmpty(segmentSize)) {
+                builder.setSegmentSize(Integer.parseInt(segmentSize));
+            }
+            return builder.build();
+        } else if (ReplayDataStore.class.getSimpleName().equals(dataStore)) {
+            ReplayDataStore.Builder builder = ReplayDataStore.newBuilder()
+                    .setFile(getRequired(properties, DATA_STORE_REPLAY_FILE));
+            String speed = properties.getProperty(DATA_STORE_REPLAY_SPEED);
+            if (!Strings.isNullOrEmpty(speed)) {
+                builder.setSpeed(Double.parseDouble(speed));
+            }
+            String sequential = properties.getProperty(DATA_STORE_REPLAY_SEQUENTIAL);
+            if (!Strings.isNullOrEmpty(sequential)) {
+                builder.setSequential(Boolean.parseBoolean(sequential));
+            }
+            try {
+                return builder.build();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to load recording", e);
+            }
         } else {
             throw new IllegalArgumentException("Unknown data store type: " + dataStore);
         }
     }
 
+    /**
+     * Operations are configured as random.operation.N.{name,rate,localTime,localJitter}, with
+     * paths random.operation.N.path.M.{weight,calls} where calls is a comma separated list of
+     * service:operation:mean:jitter. Anomalies are configured as
+     * random.anomaly.N.{type,operation,target,start,end,factor}.
+     */
+    private DataStore createRandomDataStore(Properties properties) {
+        String seed = properties.getProperty(DATA_STORE_RANDOM_SEED);
+        long seedValue = Strings.isNullOrEmpty(seed) ? 0L : Long.parseLong(seed);
+        String firstOperation = properties.getProperty(DATA_STORE_RANDOM_OPERATION + "0.name");
+        if (Strings.isNullOrEmpty(firstOperation)) {
+            return new RandomDataStore(RandomDataStore.defaultWorkload(seedValue));
+        }
+
+        SyntheticWorkload.Builder builder = SyntheticWorkload.newBuilder().setSeed(seedValue);
+        String tick = properties.getProperty(DATA_STORE_RANDOM_TICK);
+        if (!Strings.isNullOrEmpty(tick)) {
+            builder.setTick(Long.parseLong(tick));
+        }
+        for (int i = 0; ; i++) {
+            String prefix = DATA_STORE_RANDOM_OPERATION + i + ".";
+            String name = properties.getProperty(prefix + "name");
+            if (Strings.isNullOrEmpty(name)) {
+                break;
+            }
+            builder.addOperation(name,
+                    Double.parseDouble(getRequired(properties, prefix + "rate")),
+                    Integer.parseInt(properties.getProperty(prefix + "localTime", "0")),
+                    Integer.parseInt(properties.getProperty(prefix + "localJitter", "0")));
+            for (int j = 0; ; j++) {
+                String calls = properties.getProperty(prefix + "path." + j + ".calls");
+                if (Strings.isNullOrEmpty(calls)) {
+                    break;
+                }
+                builder.addPath(name, Double.parseDouble(properties.getProperty(
+                        prefix + "path." + j + ".weight", "1")), parseCalls(calls));
+            }
+        }
+        for (int i = 0; ; i++) {
+            String prefix = DATA_STORE_RANDOM_ANOMALY + i + ".";
+            String type = properties.getProperty(prefix + "type");
+            if (Strings.isNullOrEmpty(type)) {
+                break;
+            }
+            String operation = getRequired(properties, prefix + "operation");
+            long start = Long.parseLong(getRequired(properties, prefix + "start"));
+            long end = Long.parseLong(getRequired(properties, prefix + "end"));
+            double factor = Double.parseDouble(getRequired(properties, prefix + "factor"));
+            switch (SyntheticWorkload.InjectionType.valueOf(type.toUpperCase())) {
+                case LATENCY:
+                    builder.injectLatency(operation, getRequired(properties, prefix + "target"),
+                            start, end, factor);
+                    break;
+                case WORKLOAD:
+                    builder.injectWorkload(operation, start, end, factor);
+                    break;
+                case PATH:
+                    builder.injectPathShift(operation, getRequiredInt(properties,
+                            prefix + "target"), start, end, factor);
+                    break;
+            }
+        }
+        return new RandomDataStore(builder.build());
+    }
+
+    private SyntheticWorkload.CallProfile[] parseCalls(String calls) {
+        String[] specs = calls.split(",");
+        SyntheticWorkload.CallProfile[] profiles = new SyntheticWorkload.CallProfile[specs.length];
+        for (int i = 0; i < specs.length; i++) {
+            String[] segments = specs[i].trim().split(":");
+            checkArgument(segments.length == 4, "Invalid API call specification: %s", specs[i]);
+            profiles[i] = SyntheticWorkload.call(segments[0], segments[1],
+                    Integer.parseInt(segments[2]), Integer.parseInt(segments[3]));
+        }
+        return profiles;
+    }
+
     private String getRequired(Properties properties, String name) {
         String value = properties.getProperty(name);
         checkArgument(!Strings.isNullOrEmpty(value), "Property %s is required", name);
@@ -1,60 +1,193 @@
 package edu.ucsb.cs.roots.data;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import edu.ucsb.cs.roots.utils.RootsThreadFactory;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
-
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public final class ElasticSearchConfig {
 
-    private final String host;
-    private final int port;
+    private static final Logger log = LoggerFactory.getLogger(ElasticSearchConfig.class);
+
+    // Same interval the blocking client uses to evict expired connections
+    private static final long EVICTION_INTERVAL = 10000;
+
+    private final EndpointSelector endpoints;
     private final ImmutableMap<String,String> fieldMappings;
     private final boolean rawStringFilters;
     private final String accessLogIndex;
     private final String benchmarkIndex;
     private final String apiCallIndex;
+    private final int pageSize;
+    private final String scrollTimeout;
+    private final int scrollSlices;
+    private final int bulkSize;
+    private final int bulkCapacity;
+    private final long bulkFlushInterval;
+    private final long bulkOfferTimeout;
+    private final int maxConnections;
+    private final int maxConnectionsPerRoute;
+    private final long keepAlive;
+    private final boolean compression;
+    private final InstrumentedConnectionManager connectionManager;
+    private final ConnectionKeepAliveStrategy keepAliveStrategy;
     private final CloseableHttpClient client;
+    private final RequestConfig requestConfig;
+    private volatile CloseableHttpAsyncClient asyncClient;
+    private InstrumentedAsyncConnectionManager asyncConnectionManager;
+    private ScheduledExecutorService evictor;
+    private ExecutorService decodeExecutor;
+    private final ExecutorService scrollExecutor;
+    private final QueryMetrics queryMetrics;
+    private final RequestHedger requestHedger;
 
     private ElasticSearchConfig(Builder builder) {
-        checkArgument(!Strings.isNullOrEmpty(builder.host), "Host is required");
-        checkArgument(builder.port > 0 && builder.port < 65535, "Port number is invalid");
+        List<ElasticSearchEndpoint> endpoints = builder.endpoints;
+        if (endpoints.isEmpty()) {
+            endpoints = ImmutableList.of(new ElasticSearchEndpoint(builder.host, builder.port));
+        }
         checkNotNull(builder.fieldMappings, "Field mappings are required");
         checkArgument(builder.connectTimeout >= -1);
         checkArgument(builder.socketTimeout >= -1);
-        this.host = builder.host;
-        this.port = builder.port;
+        checkArgument(builder.pageSize > 0, "Page size must be positive");
+        checkArgument(!Strings.isNullOrEmpty(builder.scrollTimeout), "Scroll timeout is required");
+        checkArgument(builder.scrollSlices > 0, "Scroll slice count must be positive");
+        checkArgument(builder.bulkSize >= 0, "Bulk size must be non-negative");
+        checkArgument(builder.bulkSize <= builder.bulkCapacity,
+                "Bulk size must not exceed the bulk buffer capacity");
+        checkArgument(builder.bulkFlushInterval > 0, "Bulk flush interval must be positive");
+        checkArgument(builder.bulkOfferTimeout >= 0, "Bulk offer timeout must be non-negative");
+        checkArgument(builder.maxConnections > 0, "Maximum connection count must be positive");
+        checkArgument(builder.maxConnectionsPerRoute > 0,
+                "Maximum connection count per route must be positive");
+        checkArgument(builder.maxConnectionsPerRoute <= builder.maxConnections,
+                "Maximum connection count per route must not exceed the total");
+        checkArgument(builder.leaseTimeout >= -1);
+        checkNotNull(builder.queryMetrics, "Query metrics registry is required");
+        checkArgument(builder.hedgePercentile >= 0 && builder.hedgePercentile < 1,
+                "Hedging percentile must be in the interval [0,1)");
+        checkArgument(builder.hedgeMinDelay >= 0, "Minimum hedging delay must be non-negative");
+        this.endpoints = new EndpointSelector(endpoints, builder.routing,
+                builder.failureThreshold, builder.retryInterval);
         this.fieldMappings = ImmutableMap.copyOf(builder.fieldMappings);
         this.rawStringFilters = builder.rawStringFilters;
         this.accessLogIndex = builder.accessLogIndex;
         this.benchmarkIndex = builder.benchmarkIndex;
         this.apiCallIndex = builder.apiCallIndex;
+        this.pageSize = builder.pageSize;
+        this.scrollTimeout = builder.scrollTimeout;
+        this.scrollSlices = builder.scrollSlices;
+        this.bulkSize = builder.bulkSize;
+        this.bulkCapacity = builder.bulkCapacity;
+        this.bulkFlushInterval = builder.bulkFlushInterval;
+        this.bulkOfferTimeout = builder.bulkOfferTimeout;
+        // Make sure all the slices of a scroll can hold a connection at the same time
+        this.maxConnectionsPerRoute = Math.max(builder.maxConnectionsPerRoute, scrollSlices);
+        this.maxConnections = Math.max(builder.maxConnections, maxConnectionsPerRoute);
+        this.keepAlive = builder.keepAlive;
+        this.compression = builder.compression;
+        this.queryMetrics = builder.queryMetrics;
 
         RequestConfig requestConfig = RequestConfig.custom()
                 .setConnectTimeout(builder.connectTimeout)
                 .setSocketTimeout(builder.socketTimeout)
+                .setConnectionRequestTimeout(builder.leaseTimeout)
                 .build();
-        this.client = HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
+        // Honor the keep-alive advertised by the server, and fall back to the configured value
+        this.keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                    response, context);
+            return duration > 0 ? duration : keepAlive;
+        };
+        this.connectionManager = new InstrumentedConnectionManager(-1);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        // Response decompression is enabled by default on the blocking client
+        this.client = HttpClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .evictExpiredConnections()
+                .build();
+        this.requestConfig = requestConfig;
+        if (builder.hedgePercentile > 0 && endpoints.size() < 2) {
+            log.warn("Request hedging requires at least two endpoints; hedging disabled");
+            this.requestHedger = null;
+        } else if (builder.hedgePercentile > 0) {
+            this.requestHedger = new RequestHedger(builder.hedgePercentile,
+                    builder.hedgeMinDelay, "es-hedge-" + getHost());
+        } else {
+            this.requestHedger = null;
+        }
+        if (scrollSlices > 1) {
+            this.scrollExecutor = Executors.newFixedThreadPool(scrollSlices,
+                    new RootsThreadFactory("es-scroll-" + getHost()));
+        } else {
+            this.scrollExecutor = null;
+        }
     }
 
-    void cleanup() {
+    synchronized void cleanup() {
+        if (scrollExecutor != null) {
+            scrollExecutor.shutdownNow();
+        }
+        if (requestHedger != null) {
+            requestHedger.close();
+        }
         IOUtils.closeQuietly(client);
+        if (asyncClient != null) {
+            evictor.shutdownNow();
+            IOUtils.closeQuietly(asyncClient);
+            decodeExecutor.shutdownNow();
+        }
     }
 
+    /**
+     * Returns the host name of the first configured endpoint.
+     */
     public String getHost() {
-        return host;
+        return endpoints.getEndpoints().get(0).getHost();
     }
 
+    /**
+     * Returns the port of the first configured endpoint.
+     */
     public int getPort() {
-        return port;
+        return endpoints.getEndpoints().get(0).getPort();
+    }
+
+    /**
+     * Returns the EndpointSelector used to route requests across the configured
+     * ElasticSearch nodes.
+     */
+    public EndpointSelector getEndpoints() {
+        return endpoints;
     }
 
     public String field(String name, String def) {
@@ -84,10 +217,162 @@ public final class ElasticSearchConfig {
         return apiCallIndex;
     }
 
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public String getScrollTimeout() {
+        return scrollTimeout;
+    }
+
+    public int getScrollSlices() {
+        return scrollSlices;
+    }
+
+    /**
+     * Returns the number of benchmark results written per bulk request by the write-behind
+     * buffer, or 0 if write-behind is disabled.
+     */
+    public int getBulkSize() {
+        return bulkSize;
+    }
+
+    public int getBulkCapacity() {
+        return bulkCapacity;
+    }
+
+    public long getBulkFlushInterval() {
+        return bulkFlushInterval;
+    }
+
+    public long getBulkOfferTimeout() {
+        return bulkOfferTimeout;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Returns the time in milliseconds an idle connection is kept alive, when the server does
+     * not specify a keep-alive timeout. A non-positive value keeps connections indefinitely.
+     */
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Returns true if request bodies should be gzip compressed, and compressed responses
+     * requested from the server.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns a snapshot of the blocking client's connection pool, including the time
+     * spent waiting to lease connections.
+     */
+    public ConnectionPoolMetrics getConnectionPoolMetrics() {
+        return connectionManager.getMetrics();
+    }
+
+    /**
+     * Returns a snapshot of the non-blocking client's connection pool, or null if the
+     * client has not been started yet.
+     */
+    public synchronized ConnectionPoolMetrics getAsyncConnectionPoolMetrics() {
+        return asyncConnectionManager != null ? asyncConnectionManager.getMetrics() : null;
+    }
+
+    /**
+     * Returns the registry where the latency, payload size and hit counts of each query
+     * are recorded.
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Returns the RequestHedger used to hedge slow searches on another endpoint, or null
+     * if request hedging is not enabled.
+     */
+    public RequestHedger getRequestHedger() {
+        return requestHedger;
+    }
+
     public CloseableHttpClient getClient() {
         return client;
     }
 
+    /**
+     * Returns the non-blocking HTTP client used by async queries. The client (and its I/O
+     * reactor threads) is started on first use. Its connection pool is instrumented, and
+     * honors the same lease timeout and keep-alive settings as the blocking client.
+     */
+    public CloseableHttpAsyncClient getAsyncClient() {
+        CloseableHttpAsyncClient result = asyncClient;
+        if (result == null) {
+            synchronized (this) {
+                result = asyncClient;
+                if (result == null) {
+                    decodeExecutor = Executors.newFixedThreadPool(Math.max(2, scrollSlices),
+                            new RootsThreadFactory("es-decode-" + getHost()));
+                    try {
+                        asyncConnectionManager = new InstrumentedAsyncConnectionManager();
+                    } catch (IOReactorException e) {
+                        throw new IllegalStateException("Failed to create I/O reactor", e);
+                    }
+                    // Async queries may run several sliced scrolls concurrently
+                    int perRoute = Math.max(maxConnectionsPerRoute, 2 * scrollSlices);
+                    asyncConnectionManager.setDefaultMaxPerRoute(perRoute);
+                    asyncConnectionManager.setMaxTotal(Math.max(maxConnections, perRoute));
+                    // The async client builder cannot evict expired connections by itself
+                    evictor = Executors.newSingleThreadScheduledExecutor(
+                            new RootsThreadFactory("es-evict-" + getHost()));
+                    evictor.scheduleWithFixedDelay(
+                            asyncConnectionManager::closeExpiredConnections,
+                            EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+                    HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                            .setDefaultRequestConfig(requestConfig)
+                            .setConnectionManager(asyncConnectionManager)
+                            .setKeepAliveStrategy(keepAliveStrategy);
+                    if (compression) {
+                        builder.addInterceptorLast(new RequestAcceptEncoding())
+                                .addInterceptorLast(new ResponseContentEncoding());
+                    }
+                    result = builder.build();
+                    result.start();
+                    asyncClient = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the executor on which the responses of async queries are decoded, off the I/O
+     * reactor threads and the common ForkJoinPool. Started along with the async client.
+     */
+    public ExecutorService getDecodeExecutor() {
+        getAsyncClient();
+        synchronized (this) {
+            return decodeExecutor;
+        }
+    }
+
+    /**
+     * Returns the executor used to run the slices of a sliced scroll in parallel, or null
+     * if sliced scrolling is not enabled.
+     */
+    public ExecutorService getScrollExecutor() {
+        return scrollExecutor;
+    }
+
 
     public static Builder newBuilder() {
         return new Builder();
@@ -103,6 +388,26 @@ public final class ElasticSearchConfig {
         private int connectTimeout = -1;
         private int socketTimeout = -1;
         private boolean rawStringFilters = true;
+        private int pageSize = 4000;
+        private String scrollTimeout = "1m";
+        private int scrollSlices = 1;
+        private int bulkSize = 0;
+        private int bulkCapacity = 10000;
+        private long bulkFlushInterval = 5000;
+        private long bulkOfferTimeout = 1000;
+        private int maxConnections = 20;
+        private int maxConnectionsPerRoute = 10;
+        private long keepAlive = 60000;
+        private int leaseTimeout = -1;
+        private boolean compression = false;
+        private EndpointSelector.Routing routing = EndpointSelector.Routing.ROUND_ROBIN;
+        private int failureThreshold = 3;
+        private long retryInterval = 30000;
+        private QueryMetrics queryMetrics = new QueryMetrics();
+        private double hedgePercentile = 0.0;
+        private long hedgeMinDelay = 10;
+
+        private final List<ElasticSearchEndpoint> endpoints = new ArrayList<>();
 
         private final Map<String,String> fieldMappings = new HashMap<>();
 
@@ -119,6 +424,34 @@ public final class ElasticSearchConfig {
             return this;
         }
 
+        public Builder addEndpoint(String host, int port) {
+            this.endpoints.add(new ElasticSearchEndpoint(host, port));
+            return this;
+        }
+
+        /**
+         * Add endpoints from a comma separated list of host:port pairs.
+         */
+        public Builder addEndpoints(String hosts) {
+            this.endpoints.addAll(EndpointSelector.parseEndpoints(hosts));
+            return this;
+        }
+
+        public Builder setRouting(EndpointSelector.Routing routing) {
+            this.routing = routing;
+            return this;
+        }
+
+        public Builder setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        public Builder setRetryInterval(long retryInterval) {
+            this.retryInterval = retryInterval;
+            return this;
+        }
+
         public Builder setAccessLogIndex(String accessLogIndex) {
             this.accessLogIndex = accessLogIndex;
             return this;
@@ -154,6 +487,85 @@ public final class ElasticSearchConfig {
             return this;
         }
 
+        public Builder setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Builder setScrollTimeout(String scrollTimeout) {
+            this.scrollTimeout = scrollTimeout;
+            return this;
+        }
+
+        public Builder setScrollSlices(int scrollSlices) {
+            this.scrollSlices = scrollSlices;
+            return this;
+        }
+
+        public Builder setBulkSize(int bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        public Builder setBulkCapacity(int bulkCapacity) {
+            this.bulkCapacity = bulkCapacity;
+            return this;
+        }
+
+        public Builder setBulkFlushInterval(long bulkFlushInterval) {
+            this.bulkFlushInterval = bulkFlushInterval;
+            return this;
+        }
+
+        public Builder setBulkOfferTimeout(long bulkOfferTimeout) {
+            this.bulkOfferTimeout = bulkOfferTimeout;
+            return this;
+        }
+
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public Builder setKeepAlive(long keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder setLeaseTimeout(int leaseTimeout) {
+            this.leaseTimeout = leaseTimeout;
+            return this;
+        }
+
+        public Builder setCompression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder setQueryMetrics(QueryMetrics queryMetrics) {
+            this.queryMetrics = queryMetrics;
+            return this;
+        }
+
+        /**
+         * Hedge searches that take longer than the given percentile (e.g. 0.95) of the
+         * recent latency. 0 disables hedging.
+         */
+        public Builder setHedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public Builder setHedgeMinDelay(long hedgeMinDelay) {
+            this.hedgeMinDelay = hedgeMinDelay;
+            return this;
+        }
+
         public ElasticSearchConfig build() {
             return new ElasticSearchConfig(this);
         }
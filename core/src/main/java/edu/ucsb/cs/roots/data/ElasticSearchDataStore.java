@@ -3,33 +3,96 @@ package edu.ucsb.cs.roots.data;
 import com.google.common.collect.*;
 import edu.ucsb.cs.roots.data.es.*;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class ElasticSearchDataStore implements DataStore {
 
+    private static final Logger log = LoggerFactory.getLogger(ElasticSearchDataStore.class);
+
     private final ElasticSearchConfig es;
+    private final BenchmarkResultBuffer buffer;
 
     public ElasticSearchDataStore(ElasticSearchConfig.Builder builder) {
         checkNotNull(builder, "ElasticSearchConfig builder is required");
         this.es = builder.build();
+        if (es.getBulkSize() > 0) {
+            this.buffer = new BenchmarkResultBuffer(es.getHost(), es.getBulkCapacity(),
+                    es.getBulkSize(), es.getBulkFlushInterval(), es.getBulkOfferTimeout(),
+                    this::writeBenchmarkResults);
+        } else {
+            this.buffer = null;
+        }
     }
 
     @Override
     public void destroy() {
-        es.cleanup();
+        boolean flushed = buffer == null || buffer.close(es.getBulkFlushInterval() * 2);
+        log.info("Connection pool statistics - {}", es.getConnectionPoolMetrics());
+        if (es.getAsyncConnectionPoolMetrics() != null) {
+            log.info("Async connection pool statistics - {}",
+                    es.getAsyncConnectionPoolMetrics());
+        }
+        if (es.getRequestHedger() != null) {
+            log.info("Request hedging statistics - {}", es.getRequestHedger());
+        }
+        if (flushed) {
+            es.cleanup();
+        } else {
+            // Closing the clients would fail the bulk request still in flight
+            log.warn("Benchmark results are still being written; skipping cleanup of the " +
+                    "ElasticSearch clients for {}", es.getHost());
+        }
     }
 
+    /**
+     * Run the query, recording its latency and outcome in the query metrics registry.
+     */
     private <T> T runQuery(Query<T> query) throws DataStoreException {
+        QueryMetrics.Stats stats = query.getStats(es);
+        long start = System.nanoTime();
+        boolean failed = true;
         try {
-            return query.run(es);
+            T result = query.run(es);
+            failed = false;
+            return result;
         } catch (IOException e) {
             throw new DataStoreException("Error while querying ElasticSearch", e);
+        } finally {
+            stats.recordQuery(System.nanoTime() - start, failed);
         }
     }
 
+    private <T> CompletableFuture<T> runQueryAsync(Query<T> query) {
+        QueryMetrics.Stats stats = query.getStats(es);
+        long start = System.nanoTime();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        query.runAsync(es).whenComplete((result, error) -> {
+            stats.recordQuery(System.nanoTime() - start, error != null);
+            if (error == null) {
+                future.complete(result);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                    error.getCause() : error;
+            if (cause instanceof IOException) {
+                future.completeExceptionally(new DataStoreException(
+                        "Error while querying ElasticSearch", cause));
+            } else {
+                future.completeExceptionally(cause);
+            }
+        });
+        return future;
+    }
+
     @Override
     public ImmutableMap<String,ResponseTimeSummary> getResponseTimeSummary(
             String application, long start, long end) throws DataStoreException {
@@ -53,6 +116,18 @@ public class ElasticSearchDataStore implements DataStore {
         return runQuery(query);
     }
 
+    @Override
+    public ImmutableListMultimap<String,ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        ResponseTimeRollupQuery query = ResponseTimeRollupQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setPeriod(period)
+                .setApplication(application)
+                .build();
+        return runQuery(query);
+    }
+
     @Override
     public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
             String application, long start, long end) throws DataStoreException {
@@ -104,9 +179,154 @@ public class ElasticSearchDataStore implements DataStore {
         return runQuery(query);
     }
 
+    @Override
+    public ImmutableTable<String,String,Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        PathDistributionQuery query = PathDistributionQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .build();
+        return runQuery(query);
+    }
+
+    @Override
+    public RequestBatch getRequestBatch(
+            String application, String operation, long start, long end) throws DataStoreException {
+        RequestBatchQuery query = RequestBatchQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .setOperation(operation)
+                .build();
+        return runQuery(query);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableMap<String,ResponseTimeSummary>> getResponseTimeSummaryAsync(
+            String application, long start, long end) {
+        return runQueryAsync(ResponseTimeSummaryQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String,ResponseTimeSummary>> getResponseTimeHistoryAsync(
+            String application, long start, long end, long period) {
+        return runQueryAsync(ResponseTimeHistoryQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setPeriod(period)
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String,ResponseTimeRollup>> getResponseTimeRollupsAsync(
+            String application, long start, long end, long period) {
+        return runQueryAsync(ResponseTimeRollupQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setPeriod(period)
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<Double>> getWorkloadSummaryAsync(
+            String application, String operation, long start, long end, long period) {
+        int separator = operation.indexOf(' ');
+        checkArgument(separator != -1, "Invalid operation string: %s", operation);
+        return runQueryAsync(WorkloadSummaryQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setPeriod(period)
+                .setMethod(operation.substring(0, separator))
+                .setPath(operation.substring(separator + 1))
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String,BenchmarkResult>> getBenchmarkResultsAsync(
+            String application, long start, long end) {
+        return runQueryAsync(BenchmarkResultsQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String,ApplicationRequest>> getRequestInfoAsync(
+            String application, long start, long end) {
+        return runQueryAsync(RequestInfoQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<ApplicationRequest>> getRequestInfoAsync(
+            String application, String operation, long start, long end) {
+        return runQueryAsync(RequestInfoByOperationQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .setOperation(operation)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<ImmutableTable<String,String,Integer>> getPathDistributionAsync(
+            String application, long start, long end) {
+        return runQueryAsync(PathDistributionQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .build());
+    }
+
+    @Override
+    public CompletableFuture<RequestBatch> getRequestBatchAsync(
+            String application, String operation, long start, long end) {
+        return runQueryAsync(RequestBatchQuery.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .setApplication(application)
+                .setOperation(operation)
+                .build());
+    }
+
     @Override
     public void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
-        RecordBenchmarkResultQuery query = new RecordBenchmarkResultQuery(result);
+        if (buffer != null) {
+            buffer.add(result);
+        } else {
+            RecordBenchmarkResultQuery query = new RecordBenchmarkResultQuery(result);
+            runQuery(query);
+        }
+    }
+
+    @Override
+    public void recordBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        if (results.isEmpty()) {
+            return;
+        }
+        if (buffer != null) {
+            buffer.addAll(results);
+        } else {
+            writeBenchmarkResults(results);
+        }
+    }
+
+    private void writeBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        RecordBenchmarkResultsQuery query = new RecordBenchmarkResultsQuery(results);
         runQuery(query);
     }
 }
@@ -0,0 +1,83 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.base.Strings;
+import org.apache.http.HttpHost;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A single ElasticSearch node that queries can be sent to. Keeps track of the number of
+ * outstanding requests, and of consecutive connection failures (passive health checking).
+ */
+public final class ElasticSearchEndpoint {
+
+    private final HttpHost host;
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private final AtomicInteger failures = new AtomicInteger(0);
+    private volatile long downUntil = 0L;
+
+    ElasticSearchEndpoint(String host, int port) {
+        checkArgument(!Strings.isNullOrEmpty(host), "Host is required");
+        checkArgument(port > 0 && port <= 65535, "Port number is invalid");
+        this.host = new HttpHost(host, port);
+    }
+
+    public String getHost() {
+        return host.getHostName();
+    }
+
+    public int getPort() {
+        return host.getPort();
+    }
+
+    public HttpHost getHttpHost() {
+        return host;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns true if the endpoint has not been marked as down, or if it has been down long
+     * enough to be tried again.
+     */
+    public boolean isAvailable(long now) {
+        return now >= downUntil;
+    }
+
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    void succeeded() {
+        outstanding.decrementAndGet();
+        failures.set(0);
+        downUntil = 0L;
+    }
+
+    void failed(int threshold, long retryInterval, long now) {
+        outstanding.decrementAndGet();
+        if (failures.incrementAndGet() >= threshold) {
+            downUntil = now + retryInterval;
+        }
+    }
+
+    /**
+     * Completes a request that failed for reasons unrelated to the health of the endpoint.
+     */
+    void released() {
+        outstanding.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return host.toHostString();
+    }
+}
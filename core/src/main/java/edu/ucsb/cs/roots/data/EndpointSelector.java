@@ -0,0 +1,242 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.http.HttpHost;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Routes requests across a set of ElasticSearch endpoints. Endpoints that repeatedly fail to
+ * respond are taken out of rotation for a while. Requests that fail before reaching a node
+ * are retried on a different node. Requests that may have reached a node before failing are
+ * only retried when they are idempotent (e.g. searches).
+ */
+public final class EndpointSelector {
+
+    private static final Logger log = LoggerFactory.getLogger(EndpointSelector.class);
+
+    public enum Routing {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING
+    }
+
+    @FunctionalInterface
+    public interface EndpointCall<T> {
+        T call(HttpHost host) throws IOException;
+    }
+
+    private final ImmutableList<ElasticSearchEndpoint> endpoints;
+    private final Routing routing;
+    private final int failureThreshold;
+    private final long retryInterval;
+    private final int maxAttempts;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    EndpointSelector(List<ElasticSearchEndpoint> endpoints, Routing routing,
+                     int failureThreshold, long retryInterval) {
+        checkArgument(!endpoints.isEmpty(), "At least one endpoint is required");
+        checkNotNull(routing, "Routing policy is required");
+        checkArgument(failureThreshold > 0, "Failure threshold must be positive");
+        checkArgument(retryInterval >= 0, "Retry interval must be non-negative");
+        this.endpoints = ImmutableList.copyOf(endpoints);
+        this.routing = routing;
+        this.failureThreshold = failureThreshold;
+        this.retryInterval = retryInterval;
+        this.maxAttempts = endpoints.size();
+    }
+
+    public ImmutableList<ElasticSearchEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * Select an endpoint for the next request, ignoring the specified endpoints. Healthy
+     * endpoints are always preferred. If none of the candidates are healthy, one of them is
+     * returned anyway, so that requests are never refused outright.
+     */
+    ElasticSearchEndpoint select(Set<ElasticSearchEndpoint> exclude) {
+        long now = System.currentTimeMillis();
+        int size = endpoints.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        ElasticSearchEndpoint selected = null;
+        ElasticSearchEndpoint fallback = null;
+        for (int i = 0; i < size; i++) {
+            ElasticSearchEndpoint candidate = endpoints.get((start + i) % size);
+            if (exclude.contains(candidate)) {
+                continue;
+            } else if (!candidate.isAvailable(now)) {
+                if (fallback == null) {
+                    fallback = candidate;
+                }
+                continue;
+            }
+
+            if (routing == Routing.ROUND_ROBIN) {
+                return candidate;
+            } else if (selected == null ||
+                    candidate.getOutstanding() < selected.getOutstanding()) {
+                selected = candidate;
+            }
+        }
+        return selected != null ? selected : fallback;
+    }
+
+    /**
+     * Execute a blocking request against one of the endpoints, failing over to other
+     * endpoints as permitted by the idempotent flag.
+     */
+    public <T> T execute(EndpointCall<T> call, boolean idempotent) throws IOException {
+        Set<ElasticSearchEndpoint> tried = new HashSet<>();
+        while (true) {
+            ElasticSearchEndpoint endpoint = select(tried);
+            tried.add(endpoint);
+            endpoint.begin();
+            try {
+                T result = call.call(endpoint.getHttpHost());
+                endpoint.succeeded();
+                return result;
+            } catch (IOException e) {
+                if (!onFailure(endpoint, e, idempotent, tried.size())) {
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                endpoint.released();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Non-blocking variant of execute. Cancelling the returned future cancels the request
+     * currently in flight.
+     */
+    public <T> CompletableFuture<T> executeAsync(Function<HttpHost,CompletableFuture<T>> call,
+                                                 boolean idempotent) {
+        return executeAsync(call, idempotent, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * Non-blocking variant of execute, that avoids the specified endpoints. Endpoints tried
+     * by this request are added to the set, so the set must be thread-safe.
+     */
+    <T> CompletableFuture<T> executeAsync(Function<HttpHost,CompletableFuture<T>> call,
+                                          boolean idempotent,
+                                          Set<ElasticSearchEndpoint> tried) {
+        ElasticSearchEndpoint endpoint = select(tried);
+        tried.add(endpoint);
+        endpoint.begin();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> attempt = call.apply(endpoint.getHttpHost());
+        propagateCancel(result, attempt);
+        attempt.whenComplete((value, error) -> {
+            if (error == null) {
+                endpoint.succeeded();
+                result.complete(value);
+                return;
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                    error.getCause() : error;
+            if (cause instanceof IOException && !result.isDone() &&
+                    onFailure(endpoint, (IOException) cause, idempotent, tried.size())) {
+                CompletableFuture<T> retry = executeAsync(call, idempotent, tried);
+                propagateCancel(result, retry);
+                retry.whenComplete((retryValue, retryError) -> {
+                    if (retryError == null) {
+                        result.complete(retryValue);
+                    } else {
+                        result.completeExceptionally(retryError);
+                    }
+                });
+            } else {
+                if (!(cause instanceof IOException)) {
+                    endpoint.released();
+                } else if (result.isDone()) {
+                    onFailure(endpoint, (IOException) cause, idempotent, maxAttempts);
+                }
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
+    }
+
+    private static void propagateCancel(CompletableFuture<?> from, CompletableFuture<?> to) {
+        from.whenComplete((value, error) -> {
+            if (from.isCancelled()) {
+                to.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Update the health of the endpoint after a failed request, and decide whether the
+     * request should be retried on a different endpoint.
+     */
+    private boolean onFailure(ElasticSearchEndpoint endpoint, IOException e, boolean idempotent,
+                              int attempts) {
+        if (isConnectionFailure(e)) {
+            endpoint.failed(failureThreshold, retryInterval, System.currentTimeMillis());
+        } else {
+            endpoint.released();
+        }
+        boolean retry = attempts < maxAttempts && (isConnectFailure(e) ||
+                (idempotent && e instanceof NoHttpResponseException));
+        if (retry) {
+            log.warn("Request to {} failed: {}; retrying on another endpoint", endpoint,
+                    e.getMessage());
+        }
+        return retry;
+    }
+
+    /**
+     * Returns true if the request never reached the server.
+     */
+    private static boolean isConnectFailure(IOException e) {
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException ||
+                e instanceof NoRouteToHostException || e instanceof UnknownHostException;
+    }
+
+    private static boolean isConnectionFailure(IOException e) {
+        return isConnectFailure(e) || e instanceof NoHttpResponseException ||
+                e instanceof SocketTimeoutException;
+    }
+
+    static List<ElasticSearchEndpoint> parseEndpoints(String hosts) {
+        List<ElasticSearchEndpoint> endpoints = new ArrayList<>();
+        for (String entry : hosts.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int index = trimmed.lastIndexOf(':');
+            checkArgument(index > 0, "Endpoint must be of the form host:port: %s", trimmed);
+            endpoints.add(new ElasticSearchEndpoint(trimmed.substring(0, index),
+                    Integer.parseInt(trimmed.substring(index + 1))));
+        }
+        return endpoints;
+    }
+}
@@ -0,0 +1,63 @@
+package edu.ucsb.cs.roots.data;
+
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.NHttpClientConnection;
+import org.apache.http.nio.reactor.IOReactorException;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The non-blocking counterpart of InstrumentedConnectionManager. Unlike the blocking pool,
+ * a lease only completes once the connection is established, so lease wait times include
+ * the time spent connecting new connections.
+ */
+final class InstrumentedAsyncConnectionManager extends PoolingNHttpClientConnectionManager {
+
+    private final LeaseWaitStats leaseWaits = new LeaseWaitStats();
+
+    InstrumentedAsyncConnectionManager() throws IOReactorException {
+        super(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT));
+    }
+
+    @Override
+    public Future<NHttpClientConnection> requestConnection(
+            HttpRoute route, Object state, long connectTimeout, long leaseTimeout,
+            TimeUnit tunit, FutureCallback<NHttpClientConnection> callback) {
+        long start = System.nanoTime();
+        return super.requestConnection(route, state, connectTimeout, leaseTimeout, tunit,
+                new FutureCallback<NHttpClientConnection>() {
+            @Override
+            public void completed(NHttpClientConnection connection) {
+                leaseWaits.record(System.nanoTime() - start);
+                if (callback != null) {
+                    callback.completed(connection);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                leaseWaits.record(System.nanoTime() - start);
+                if (callback != null) {
+                    callback.failed(e);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                leaseWaits.record(System.nanoTime() - start);
+                if (callback != null) {
+                    callback.cancelled();
+                }
+            }
+        });
+    }
+
+    ConnectionPoolMetrics getMetrics() {
+        return leaseWaits.toMetrics(getTotalStats());
+    }
+}
@@ -0,0 +1,49 @@
+package edu.ucsb.cs.roots.data;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pooling connection manager that keeps track of how long callers wait to lease a
+ * connection from the pool.
+ */
+final class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final LeaseWaitStats leaseWaits = new LeaseWaitStats();
+
+    InstrumentedConnectionManager(long timeToLive) {
+        super(timeToLive, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit unit) throws
+                    InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                long start = System.nanoTime();
+                try {
+                    return request.get(timeout, unit);
+                } finally {
+                    leaseWaits.record(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    ConnectionPoolMetrics getMetrics() {
+        return leaseWaits.toMetrics(getTotalStats());
+    }
+}
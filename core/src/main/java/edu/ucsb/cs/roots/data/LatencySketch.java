@@ -0,0 +1,147 @@
+package edu.ucsb.cs.roots.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A mergeable sketch of a latency distribution. Values are counted in logarithmically sized
+ * buckets, so that quantile estimates are within a fixed relative error of the true value,
+ * and sketches of adjacent periods can be merged without loss of accuracy. Values below
+ * 1 ms are counted in a single bucket.
+ */
+public final class LatencySketch {
+
+    public static final double DEFAULT_ACCURACY = 0.01;
+
+    private final double accuracy;
+    private final double logGamma;
+    private long[] counts = new long[0];
+    private int offset = 0;
+    private long zeroCount = 0L;
+    private long count = 0L;
+
+    public LatencySketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    public LatencySketch(double accuracy) {
+        checkArgument(accuracy > 0 && accuracy < 1, "Accuracy must be in the interval (0,1)");
+        this.accuracy = accuracy;
+        this.logGamma = Math.log((1 + accuracy) / (1 - accuracy));
+    }
+
+    public void add(double value) {
+        add(value, 1L);
+    }
+
+    public void add(double value, long times) {
+        checkArgument(times >= 0, "Count must be non-negative");
+        if (times == 0) {
+            return;
+        }
+        if (value < 1.0) {
+            zeroCount += times;
+        } else {
+            int index = (int) Math.ceil(Math.log(value) / logGamma);
+            ensureCapacity(index, index);
+            counts[index - offset] += times;
+        }
+        count += times;
+    }
+
+    public void merge(LatencySketch other) {
+        checkArgument(other.accuracy == accuracy, "Cannot merge sketches of different accuracy");
+        if (other.counts.length > 0) {
+            ensureCapacity(other.offset, other.offset + other.counts.length - 1);
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[other.offset + i - offset] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    public LatencySketch copy() {
+        LatencySketch copy = new LatencySketch(accuracy);
+        copy.merge(this);
+        return copy;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns an estimate of the q-th quantile (0 <= q <= 1), or NaN if the sketch is empty.
+     */
+    public double getQuantile(double q) {
+        checkArgument(q >= 0 && q <= 1, "Quantile must be in the interval [0,1]");
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (q * (count - 1));
+        if (rank < zeroCount) {
+            return 0.0;
+        }
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return 2 * Math.exp((i + offset) * logGamma) / (1 + Math.exp(logGamma));
+            }
+        }
+        throw new IllegalStateException("Inconsistent sketch");
+    }
+
+    /**
+     * Write the sketch in a compact binary form, which can be read back with readFrom.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeDouble(accuracy);
+        out.writeLong(zeroCount);
+        out.writeInt(offset);
+        out.writeInt(counts.length);
+        for (long c : counts) {
+            out.writeLong(c);
+        }
+    }
+
+    static LatencySketch readFrom(DataInput in) throws IOException {
+        LatencySketch sketch = new LatencySketch(in.readDouble());
+        sketch.zeroCount = in.readLong();
+        sketch.offset = in.readInt();
+        sketch.counts = new long[in.readInt()];
+        sketch.count = sketch.zeroCount;
+        for (int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = in.readLong();
+            sketch.count += sketch.counts[i];
+        }
+        return sketch;
+    }
+
+    private void ensureCapacity(int min, int max) {
+        if (counts.length == 0) {
+            counts = new long[max - min + 1];
+            offset = min;
+            return;
+        }
+        int newOffset = Math.min(offset, min);
+        int newEnd = Math.max(offset + counts.length - 1, max);
+        if (newOffset == offset && newEnd == offset + counts.length - 1) {
+            return;
+        }
+        long[] newCounts = new long[newEnd - newOffset + 1];
+        System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+        counts = newCounts;
+        offset = newOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencySketch{count=" + count + ", buckets=" + Arrays.toString(counts) + "}";
+    }
+}
@@ -0,0 +1,28 @@
+package edu.ucsb.cs.roots.data;
+
+import org.apache.http.pool.PoolStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of how long callers wait to lease a connection from an HTTP connection pool.
+ * Shared by the connection managers of the blocking and the non-blocking clients.
+ */
+final class LeaseWaitStats {
+
+    private final AtomicLong leases = new AtomicLong(0L);
+    private final AtomicLong totalLeaseWait = new AtomicLong(0L);
+    private final AtomicLong maxLeaseWait = new AtomicLong(0L);
+
+    void record(long nanos) {
+        leases.incrementAndGet();
+        totalLeaseWait.addAndGet(nanos);
+        maxLeaseWait.accumulateAndGet(nanos, Math::max);
+    }
+
+    ConnectionPoolMetrics toMetrics(PoolStats stats) {
+        return new ConnectionPoolMetrics(stats.getLeased(), stats.getPending(),
+                stats.getAvailable(), stats.getMax(), leases.get(), totalLeaseWait.get(),
+                maxLeaseWait.get());
+    }
+}
@@ -0,0 +1,382 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A DataStore that keeps access log entries, API calls and benchmark results in local,
+ * append-only, memory-mapped segment files (see MappedSegment). Records of each application
+ * are stored in separate directories, and partitioned by time. Queries only visit the
+ * segments (and the index buckets within them) that overlap with the requested interval.
+ *
+ * Access log entries and API calls are loaded through the ingest methods. Benchmark results
+ * are recorded through the regular DataStore API.
+ */
+public final class MappedDataStore implements DataStore {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedDataStore.class);
+
+    private static final String ACCESS_LOG = "accessLog";
+    private static final String API_CALL = "apiCall";
+    private static final String BENCHMARK = "benchmark";
+
+    // Same set of methods reported by the ElasticSearch response time queries
+    private static final ImmutableList<String> METHODS = ImmutableList.of(
+            "GET", "POST", "PUT", "DELETE");
+
+    private final File directory;
+    private final long partitionSize;
+    private final int segmentSize;
+    private final ConcurrentHashMap<String,MappedRecordLog> logs = new ConcurrentHashMap<>();
+
+    private MappedDataStore(Builder builder) {
+        checkNotNull(builder.directory, "Directory is required");
+        checkArgument(builder.partitionSize > 0, "Partition size must be positive");
+        checkArgument(builder.segmentSize > 0, "Segment size must be positive");
+        this.directory = builder.directory;
+        this.partitionSize = builder.partitionSize;
+        this.segmentSize = builder.segmentSize;
+    }
+
+    @Override
+    public void destroy() {
+        logs.values().forEach(MappedRecordLog::close);
+        logs.clear();
+    }
+
+    /**
+     * Flush all ingested records to disk.
+     */
+    public void flush() {
+        logs.values().forEach(MappedRecordLog::force);
+    }
+
+    public void ingest(AccessLogEntry entry) throws DataStoreException {
+        ByteBuffer payload = ByteBuffer.allocate(4 + MappedSegment.stringSize(entry.getRequestId())
+                + MappedSegment.stringSize(entry.getMethod())
+                + MappedSegment.stringSize(entry.getPath()));
+        payload.putInt(entry.getResponseTime());
+        MappedSegment.putString(payload, entry.getRequestId());
+        MappedSegment.putString(payload, entry.getMethod());
+        MappedSegment.putString(payload, entry.getPath());
+        append(entry.getApplication(), ACCESS_LOG, entry.getTimestamp(), payload.array());
+    }
+
+    /**
+     * Ingest an API call made by the specified request. API calls are partitioned and
+     * queried by the timestamp of the request that made them.
+     */
+    public void ingest(String application, String requestId, ApiCall call) throws DataStoreException {
+        checkArgument(!Strings.isNullOrEmpty(requestId), "Request ID is required");
+        ByteBuffer payload = ByteBuffer.allocate(16 + MappedSegment.stringSize(requestId)
+                + MappedSegment.stringSize(call.getRequestOperation())
+                + MappedSegment.stringSize(call.getService())
+                + MappedSegment.stringSize(call.getOperation()));
+        payload.putLong(call.getTimestamp());
+        payload.putInt(call.getTimeElapsed());
+        payload.putInt(call.getSequenceNumber());
+        MappedSegment.putString(payload, requestId);
+        MappedSegment.putString(payload, call.getRequestOperation());
+        MappedSegment.putString(payload, call.getService());
+        MappedSegment.putString(payload, call.getOperation());
+        append(application, API_CALL, call.getRequestTimestamp(), payload.array());
+    }
+
+    @Override
+    public void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
+        ByteBuffer payload = ByteBuffer.allocate(4 + MappedSegment.stringSize(result.getMethod())
+                + MappedSegment.stringSize(result.getPath()));
+        payload.putInt(result.getResponseTime());
+        MappedSegment.putString(payload, result.getMethod());
+        MappedSegment.putString(payload, result.getPath());
+        append(result.getApplication(), BENCHMARK, result.getTimestamp(), payload.array());
+    }
+
+    @Override
+    public void recordBenchmarkResults(Collection<BenchmarkResult> results) throws DataStoreException {
+        for (BenchmarkResult result : results) {
+            recordBenchmarkResult(result);
+        }
+    }
+
+    @Override
+    public ImmutableMap<String,ResponseTimeSummary> getResponseTimeSummary(
+            String application, long start, long end) throws DataStoreException {
+        Map<String,double[]> totals = new TreeMap<>();
+        scan(application, ACCESS_LOG, start, end, (timestamp, payload) -> {
+            int responseTime = payload.getInt();
+            skipString(payload);
+            String requestType = requestType(payload);
+            if (requestType != null) {
+                double[] total = totals.computeIfAbsent(requestType, k -> new double[2]);
+                total[0] += responseTime;
+                total[1]++;
+            }
+        });
+        ImmutableMap.Builder<String,ResponseTimeSummary> builder = ImmutableMap.builder();
+        totals.forEach((requestType, total) -> builder.put(requestType,
+                new ResponseTimeSummary(start, total[0] / total[1], total[1])));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableListMultimap<String,ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) throws DataStoreException {
+        checkArgument(period > 0, "Period must be positive");
+        Map<String,TreeMap<Long,double[]>> totals = new TreeMap<>();
+        scan(application, ACCESS_LOG, start, end, (timestamp, payload) -> {
+            int responseTime = payload.getInt();
+            skipString(payload);
+            String requestType = requestType(payload);
+            if (requestType != null) {
+                long bucket = Math.floorDiv(timestamp - start, period) * period + start;
+                double[] total = totals.computeIfAbsent(requestType, k -> new TreeMap<>())
+                        .computeIfAbsent(bucket, k -> new double[2]);
+                total[0] += responseTime;
+                total[1]++;
+            }
+        });
+        ImmutableListMultimap.Builder<String,ResponseTimeSummary> builder =
+                ImmutableListMultimap.builder();
+        totals.forEach((requestType, periods) -> periods.forEach((timestamp, total) ->
+                builder.put(requestType, new ResponseTimeSummary(timestamp,
+                        total[0] / total[1], total[1]))));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableListMultimap<String,ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        checkArgument(period > 0, "Period must be positive");
+        Map<String,TreeMap<Long,ResponseTimeRollup.Builder>> rollups = new TreeMap<>();
+        scan(application, ACCESS_LOG, start, end, (timestamp, payload) -> {
+            int responseTime = payload.getInt();
+            skipString(payload);
+            String requestType = requestType(payload);
+            if (requestType != null) {
+                long bucket = Math.floorDiv(timestamp - start, period) * period + start;
+                rollups.computeIfAbsent(requestType, k -> new TreeMap<>())
+                        .computeIfAbsent(bucket, ResponseTimeRollup::newBuilder)
+                        .add(responseTime);
+            }
+        });
+        ImmutableListMultimap.Builder<String,ResponseTimeRollup> builder =
+                ImmutableListMultimap.builder();
+        rollups.forEach((requestType, periods) -> periods.values().forEach(r ->
+                builder.put(requestType, r.build())));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableListMultimap<String,BenchmarkResult> getBenchmarkResults(
+            String application, long start, long end) throws DataStoreException {
+        List<BenchmarkResult> results = new ArrayList<>();
+        scan(application, BENCHMARK, start, end, (timestamp, payload) -> {
+            int responseTime = payload.getInt();
+            String method = MappedSegment.getString(payload);
+            String path = MappedSegment.getString(payload);
+            results.add(new BenchmarkResult(timestamp, application, method, path, responseTime));
+        });
+        results.sort((r1, r2) -> Long.compare(r1.getTimestamp(), r2.getTimestamp()));
+        ImmutableListMultimap.Builder<String,BenchmarkResult> builder =
+                ImmutableListMultimap.builder();
+        results.forEach(r -> builder.put(r.getRequestType(), r));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableListMultimap<String,ApplicationRequest> getRequestInfo(
+            String application, long start, long end) throws DataStoreException {
+        Map<String,List<ApiCall>> apiCalls = getApiCalls(application, null, start, end);
+        ImmutableListMultimap.Builder<String,ApplicationRequest> builder =
+                ImmutableListMultimap.builder();
+        toRequests(application, apiCalls, null).forEach(r -> builder.put(r.getOperation(), r));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableList<ApplicationRequest> getRequestInfo(
+            String application, String operation, long start, long end) throws DataStoreException {
+        checkArgument(!Strings.isNullOrEmpty(operation), "Operation is required");
+        Map<String,List<ApiCall>> apiCalls = getApiCalls(application, operation, start, end);
+        Map<String,Integer> responseTimes = new HashMap<>();
+        scan(application, ACCESS_LOG, start, end, (timestamp, payload) -> {
+            int responseTime = payload.getInt();
+            String requestId = MappedSegment.getString(payload);
+            if (apiCalls.containsKey(requestId)) {
+                responseTimes.put(requestId, responseTime);
+            }
+        });
+        return ImmutableList.copyOf(toRequests(application, apiCalls, responseTimes));
+    }
+
+    private Map<String,List<ApiCall>> getApiCalls(String application, String operation,
+                                                  long start, long end) throws DataStoreException {
+        Map<String,List<ApiCall>> apiCalls = new HashMap<>();
+        scan(application, API_CALL, start, end, (requestTimestamp, payload) -> {
+            long timestamp = payload.getLong();
+            int timeElapsed = payload.getInt();
+            int sequenceNumber = payload.getInt();
+            String requestId = MappedSegment.getString(payload);
+            String requestOperation = MappedSegment.getString(payload);
+            if (operation != null && !operation.equals(requestOperation)) {
+                return;
+            }
+            ApiCall call = ApiCall.newBuilder()
+                    .setRequestTimestamp(requestTimestamp)
+                    .setTimestamp(timestamp)
+                    .setTimeElapsed(timeElapsed)
+                    .setSequenceNumber(sequenceNumber)
+                    .setRequestOperation(requestOperation)
+                    .setService(MappedSegment.getString(payload))
+                    .setOperation(MappedSegment.getString(payload))
+                    .build();
+            apiCalls.computeIfAbsent(requestId, k -> new ArrayList<>()).add(call);
+        });
+        return apiCalls;
+    }
+
+    /**
+     * Build ApplicationRequests from the API calls of each request, sorted by timestamp. If
+     * response times are specified, requests without a response time are dropped.
+     */
+    private List<ApplicationRequest> toRequests(String application,
+                                                Map<String,List<ApiCall>> apiCalls,
+                                                Map<String,Integer> responseTimes) {
+        List<ApplicationRequest> requests = new ArrayList<>(apiCalls.size());
+        apiCalls.forEach((requestId, calls) -> {
+            calls.sort(ApiCall.SEQUENCE_ORDER);
+            ApiCall first = calls.get(0);
+            if (responseTimes == null) {
+                requests.add(new ApplicationRequest(requestId, first.getRequestTimestamp(),
+                        application, first.getRequestOperation(), ImmutableList.copyOf(calls)));
+            } else {
+                Integer responseTime = responseTimes.get(requestId);
+                if (responseTime != null) {
+                    requests.add(new ApplicationRequest(requestId, first.getRequestTimestamp(),
+                            application, first.getRequestOperation(),
+                            ImmutableList.copyOf(calls), responseTime));
+                }
+            }
+        });
+        requests.sort(ApplicationRequest.TIME_ORDER);
+        return requests;
+    }
+
+    /**
+     * Read the method and path fields of an access log record, and return the corresponding
+     * request type. Returns null if the method is not one of the supported HTTP methods.
+     */
+    private static String requestType(ByteBuffer payload) {
+        String method = MappedSegment.getString(payload).toUpperCase();
+        String path = MappedSegment.getString(payload);
+        return METHODS.contains(method) ? method + " " + path : null;
+    }
+
+    private static void skipString(ByteBuffer payload) {
+        int length = payload.getShort() & 0xffff;
+        payload.position(payload.position() + length);
+    }
+
+    private void append(String application, String stream, long timestamp,
+                        byte[] payload) throws DataStoreException {
+        try {
+            getLog(application, stream, true).append(timestamp, payload);
+        } catch (IOException e) {
+            throw new DataStoreException("Error while writing to segment file", e);
+        }
+    }
+
+    private void scan(String application, String stream, long start, long end,
+                      MappedSegment.RecordVisitor visitor) throws DataStoreException {
+        MappedRecordLog recordLog = getLog(application, stream, false);
+        if (recordLog != null) {
+            recordLog.scan(start, end, visitor);
+        }
+    }
+
+    private MappedRecordLog getLog(String application, String stream,
+                                   boolean create) throws DataStoreException {
+        checkArgument(!Strings.isNullOrEmpty(application), "Application is required");
+        checkArgument(application.indexOf('/') < 0 && application.indexOf('\\') < 0
+                && !application.startsWith("."), "Invalid application name: %s", application);
+        File logDirectory = new File(new File(directory, application), stream);
+        if (!create && !logDirectory.isDirectory()) {
+            return null;
+        }
+        try {
+            return logs.computeIfAbsent(application + "/" + stream, k -> {
+                try {
+                    return new MappedRecordLog(logDirectory, partitionSize, segmentSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            log.error("Failed to open segments in {}", logDirectory, e);
+            throw new DataStoreException("Error while opening segment files", e.getCause());
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private File directory;
+        private long partitionSize = 60 * 60 * 1000L;
+        private int segmentSize = 4 * 1024 * 1024;
+
+        private Builder() {
+        }
+
+        public Builder setDirectory(File directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder setDirectory(String directory) {
+            return setDirectory(new File(directory));
+        }
+
+        /**
+         * Set the length of the time partition covered by each segment file, in milliseconds.
+         */
+        public Builder setPartitionSize(long partitionSize) {
+            this.partitionSize = partitionSize;
+            return this;
+        }
+
+        /**
+         * Set the initial size of each segment file, in bytes. Segments grow as necessary.
+         */
+        public Builder setSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public MappedDataStore build() {
+            return new MappedDataStore(this);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package edu.ucsb.cs.roots.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A time-partitioned sequence of MappedSegment files stored in a single directory. Each
+ * segment holds the records whose timestamps fall into one partition, and is named after the
+ * start time of the partition. Segments are created on demand as records are appended.
+ */
+final class MappedRecordLog {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedRecordLog.class);
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File directory;
+    private final long partitionSize;
+    private final int segmentSize;
+    private final ConcurrentSkipListMap<Long,MappedSegment> segments = new ConcurrentSkipListMap<>();
+
+    MappedRecordLog(File directory, long partitionSize, int segmentSize) throws IOException {
+        checkArgument(partitionSize > 0, "Partition size must be positive");
+        this.directory = directory;
+        this.partitionSize = partitionSize;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory);
+        }
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                long start = Long.parseLong(name.substring(0, name.length() -
+                        SEGMENT_SUFFIX.length()));
+                segments.put(start, new MappedSegment(file, start, partitionSize, segmentSize));
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Loaded {} segments from {}", segments.size(), directory);
+        }
+    }
+
+    void append(long timestamp, byte[] payload) throws IOException {
+        long start = Math.floorDiv(timestamp, partitionSize) * partitionSize;
+        MappedSegment segment;
+        try {
+            segment = segments.computeIfAbsent(start, k -> {
+                try {
+                    return new MappedSegment(new File(directory, k + SEGMENT_SUFFIX), k,
+                            partitionSize, segmentSize);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        segment.append(timestamp, payload);
+    }
+
+    /**
+     * Visit the records with timestamps in the interval [start, end), one segment at a time.
+     */
+    void scan(long start, long end, MappedSegment.RecordVisitor visitor) {
+        if (start >= end) {
+            return;
+        }
+        Long first = segments.floorKey(start);
+        ConcurrentNavigableMap<Long,MappedSegment> overlapping = segments.subMap(
+                first != null ? first : start, true, end, false);
+        overlapping.values().forEach(s -> s.scan(start, end, visitor));
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    void force() {
+        segments.values().forEach(MappedSegment::force);
+    }
+
+    void close() {
+        segments.values().forEach(s -> {
+            s.force();
+            s.close();
+        });
+        segments.clear();
+    }
+}
@@ -0,0 +1,251 @@
+package edu.ucsb.cs.roots.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An append-only, memory-mapped file holding the records of a single time partition.
+ * Each record consists of a length, a timestamp and an opaque payload. The file starts with
+ * a header that holds the end of the last committed record, so that a segment can be reopened
+ * after a restart. The mapping grows (by remapping a larger region of the file) as records are
+ * appended.
+ *
+ * Records may be appended in any time order. Each segment therefore maintains a time index in
+ * memory, which splits the partition into a fixed number of buckets, and keeps the offsets of
+ * the records that fall into each bucket. The index is rebuilt by scanning the file when the
+ * segment is opened.
+ */
+final class MappedSegment {
+
+    interface RecordVisitor {
+        /**
+         * Visit a single record. The payload buffer is positioned at the start of the record
+         * payload, and limited to its end. The buffer is only valid for the duration of the call.
+         */
+        void visit(long timestamp, ByteBuffer payload);
+    }
+
+    private static final int MAGIC = 0x524f4f54;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int INDEX_BUCKETS = 64;
+
+    private final File file;
+    private final long start;
+    private final long end;
+    private final long bucketWidth;
+    private final int[][] index = new int[INDEX_BUCKETS][];
+    private final int[] indexSizes = new int[INDEX_BUCKETS];
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+    private int records;
+
+    /**
+     * Open the segment file for the partition [start, start + partitionSize), creating it
+     * with the given initial capacity if it does not exist.
+     */
+    MappedSegment(File file, long start, long partitionSize, int initialCapacity) throws IOException {
+        checkArgument(partitionSize > 0, "Partition size must be positive");
+        checkArgument(initialCapacity > HEADER_SIZE, "Initial capacity is too small");
+        this.file = file;
+        this.start = start;
+        this.end = start + partitionSize;
+        this.bucketWidth = Math.max(1L, (partitionSize + INDEX_BUCKETS - 1) / INDEX_BUCKETS);
+
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        try {
+            long capacity = Math.max(initialCapacity, channel.size());
+            checkArgument(capacity <= Integer.MAX_VALUE, "Segment file is too large: %s", file);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            if (exists) {
+                load();
+            } else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                commit(HEADER_SIZE);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    synchronized int size() {
+        return records;
+    }
+
+    /**
+     * Returns the number of bytes occupied by committed records (including the header).
+     */
+    synchronized int getPosition() {
+        return position;
+    }
+
+    synchronized void append(long timestamp, byte[] payload) throws IOException {
+        checkArgument(timestamp >= start && timestamp < end,
+                "Timestamp %s does not belong to segment [%s, %s)", timestamp, start, end);
+        int length = RECORD_HEADER_SIZE + payload.length;
+        ensureCapacity(length);
+        int offset = position;
+        buffer.putInt(offset, length);
+        buffer.putLong(offset + 4, timestamp);
+        ByteBuffer target = buffer.duplicate();
+        target.position(offset + RECORD_HEADER_SIZE);
+        target.put(payload);
+        commit(offset + length);
+        addToIndex(timestamp, offset);
+    }
+
+    /**
+     * Visit the records with timestamps in the interval [from, to). Records are visited in
+     * bucket order, and in append order within a bucket. They are not sorted by timestamp.
+     */
+    synchronized void scan(long from, long to, RecordVisitor visitor) {
+        if (from >= end || to <= start || from >= to) {
+            return;
+        }
+        int first = bucket(Math.max(from, start));
+        int last = bucket(Math.min(to, end) - 1);
+        ByteBuffer view = buffer.duplicate();
+        for (int b = first; b <= last; b++) {
+            int[] offsets = index[b];
+            for (int i = 0; i < indexSizes[b]; i++) {
+                int offset = offsets[i];
+                long timestamp = buffer.getLong(offset + 4);
+                if (timestamp < from || timestamp >= to) {
+                    continue;
+                }
+                view.limit(offset + buffer.getInt(offset));
+                view.position(offset + RECORD_HEADER_SIZE);
+                visitor.visit(timestamp, view);
+                view.clear();
+            }
+        }
+    }
+
+    /**
+     * Flush committed records to the underlying file.
+     */
+    synchronized void force() {
+        buffer.force();
+    }
+
+    synchronized void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+            if (raf != null) {
+                raf.close();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            channel = null;
+            raf = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getPath();
+    }
+
+    static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        checkArgument(bytes.length <= 0xffff, "String is too long");
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of bytes required to store the given string with putString.
+     */
+    static int stringSize(String s) {
+        return 2 + s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private void load() throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a valid segment file: " + file);
+        }
+        int committed = (int) buffer.getLong(8);
+        if (committed < HEADER_SIZE || committed > buffer.capacity()) {
+            throw new IOException("Corrupted segment header: " + file);
+        }
+        int offset = HEADER_SIZE;
+        while (offset < committed) {
+            int length = buffer.getInt(offset);
+            if (length < RECORD_HEADER_SIZE || offset + length > committed) {
+                throw new IOException("Corrupted record at offset " + offset + ": " + file);
+            }
+            addToIndex(buffer.getLong(offset + 4), offset);
+            offset += length;
+        }
+        position = committed;
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        long required = (long) position + length;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long capacity = Math.max(required, 2L * buffer.capacity());
+        if (capacity > Integer.MAX_VALUE) {
+            capacity = Integer.MAX_VALUE;
+            checkArgument(required <= capacity, "Segment is full: %s", file);
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void commit(int position) {
+        this.position = position;
+        buffer.putLong(8, position);
+    }
+
+    private int bucket(long timestamp) {
+        return (int) Math.min(INDEX_BUCKETS - 1, (timestamp - start) / bucketWidth);
+    }
+
+    private void addToIndex(long timestamp, int offset) {
+        int b = bucket(timestamp);
+        int[] offsets = index[b];
+        if (offsets == null) {
+            offsets = new int[16];
+        } else if (indexSizes[b] == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[indexSizes[b]++] = offset;
+        index[b] = offsets;
+        records++;
+    }
+}
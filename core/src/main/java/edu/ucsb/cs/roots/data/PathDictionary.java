@@ -0,0 +1,145 @@
+package edu.ucsb.cs.roots.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maps execution paths to 64-bit keys, and keys back to readable paths. The key of a path is
+ * its fingerprint (a 64-bit FNV-1a hash of the path string), so that requests can be grouped
+ * by path without building path strings. Fingerprint collisions are detected by comparing
+ * against the registered path, and resolved by probing for the next free key. Keys are
+ * therefore only meaningful within the dictionary that issued them. Instances are thread-safe.
+ */
+public final class PathDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(PathDictionary.class);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String SEPARATOR = ", ";
+
+    private final ConcurrentHashMap<Long,String> paths = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the key of the path taken by the given request, registering the path if it
+     * has not been seen before.
+     */
+    public long getKey(ApplicationRequest request) {
+        long key = request.getPathFingerprint();
+        while (true) {
+            String path = paths.get(key);
+            if (path == null) {
+                path = paths.putIfAbsent(key, request.getPathAsString());
+                if (path == null) {
+                    return key;
+                }
+            }
+            if (matches(path, request.getApiCalls())) {
+                return key;
+            }
+            log.warn("Path fingerprint collision: {}", Long.toHexString(key));
+            key++;
+        }
+    }
+
+    /**
+     * Returns the key of the given path string, registering the path if it has not been
+     * seen before.
+     */
+    public long getKey(String path) {
+        checkNotNull(path, "Path is required");
+        long key = fingerprint(path);
+        while (true) {
+            String existing = paths.putIfAbsent(key, path);
+            if (existing == null || existing.equals(path)) {
+                return key;
+            }
+            log.warn("Path fingerprint collision: {}", Long.toHexString(key));
+            key++;
+        }
+    }
+
+    /**
+     * Returns the readable path registered under the given key, or null if no such path.
+     */
+    public String getPath(long key) {
+        return paths.get(key);
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    /**
+     * Compute the fingerprint of a path string.
+     */
+    public static long fingerprint(String path) {
+        return update(FNV_OFFSET_BASIS, path);
+    }
+
+    /**
+     * Compute the fingerprint of the path formed by a sequence of API calls. Equal to the
+     * fingerprint of the corresponding path string, but computed without building it.
+     */
+    public static long fingerprint(List<ApiCall> apiCalls) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < apiCalls.size(); i++) {
+            if (i > 0) {
+                hash = update(hash, SEPARATOR);
+            }
+            ApiCall call = apiCalls.get(i);
+            hash = update(hash, call.getService());
+            hash = update(hash, ':');
+            hash = update(hash, call.getOperation());
+        }
+        return hash;
+    }
+
+    private static long update(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash = update(hash, s.charAt(i));
+        }
+        return hash;
+    }
+
+    private static long update(long hash, char c) {
+        hash ^= (c & 0xff);
+        hash *= FNV_PRIME;
+        hash ^= (c >>> 8);
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    private static boolean matches(String path, List<ApiCall> apiCalls) {
+        int offset = 0;
+        for (int i = 0; i < apiCalls.size(); i++) {
+            if (i > 0) {
+                if (!path.startsWith(SEPARATOR, offset)) {
+                    return false;
+                }
+                offset += SEPARATOR.length();
+            }
+            ApiCall call = apiCalls.get(i);
+            String service = call.getService();
+            String operation = call.getOperation();
+            if (!path.startsWith(service, offset)) {
+                return false;
+            }
+            offset += service.length();
+            if (offset >= path.length() || path.charAt(offset) != ':') {
+                return false;
+            }
+            offset++;
+            if (!path.startsWith(operation, offset)) {
+                return false;
+            }
+            offset += operation.length();
+        }
+        return offset == path.length();
+    }
+}
@@ -0,0 +1,84 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Strings;
+
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Uniquely identifies a DataStore query by its type, the target application and operation,
+ * and the queried time range. Used to key cached and in-flight query results.
+ */
+final class QueryKey {
+
+    private final String type;
+    private final String application;
+    private final String operation;
+    private final long start;
+    private final long end;
+    private final long period;
+
+    QueryKey(String type, String application, String operation, long start, long end,
+             long period) {
+        checkArgument(!Strings.isNullOrEmpty(type), "Type is required");
+        checkArgument(!Strings.isNullOrEmpty(application), "Application is required");
+        this.type = type;
+        this.application = application;
+        this.operation = operation;
+        this.start = start;
+        this.end = end;
+        this.period = period;
+    }
+
+    QueryKey(String type, String application, long start, long end) {
+        this(type, application, null, start, end, -1L);
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getApplication() {
+        return application;
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getEnd() {
+        return end;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        } else if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        QueryKey other = (QueryKey) o;
+        return start == other.start && end == other.end && period == other.period
+                && type.equals(other.type) && application.equals(other.application)
+                && Objects.equals(operation, other.operation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, application, operation, start, end, period);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("type", type)
+                .add("application", application)
+                .add("operation", operation)
+                .add("start", start)
+                .add("end", end)
+                .add("period", period)
+                .toString();
+    }
+}
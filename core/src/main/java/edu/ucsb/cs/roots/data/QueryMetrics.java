@@ -0,0 +1,180 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import edu.ucsb.cs.roots.utils.ImmutableCollectors;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A registry of ElasticSearch query statistics, broken down by the query type (by default, the
+ * simple name of the Query class) and the application being queried. Scans issued by a query on
+ * behalf of another query are recorded under the type of the outer query. A single registry is
+ * shared by all the data stores of a Roots pod, so it can be used to find which detectors are
+ * issuing the slowest, or the heaviest queries. All the recording methods are thread-safe.
+ */
+public final class QueryMetrics {
+
+    private static final String NO_APPLICATION = "-";
+
+    private final ConcurrentMap<String,Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the statistics of the given query type and application, creating them if
+     * necessary.
+     */
+    public Stats get(String queryType, String application) {
+        checkArgument(!Strings.isNullOrEmpty(queryType), "Query type is required");
+        String app = Strings.isNullOrEmpty(application) ? NO_APPLICATION : application;
+        return stats.computeIfAbsent(queryType + '|' + app, k -> new Stats(queryType, app));
+    }
+
+    /**
+     * Returns the statistics recorded so far, ordered by query type and application.
+     */
+    public ImmutableList<Stats> getStats() {
+        return stats.values().stream()
+                .sorted(Comparator.comparing(Stats::getQueryType)
+                        .thenComparing(Stats::getApplication))
+                .collect(ImmutableCollectors.toList());
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Returns a human readable dump of the registry, one line per query type and application.
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        getStats().forEach(s -> sb.append(s).append('\n'));
+        return sb.toString();
+    }
+
+    public static final class Stats {
+
+        private final String queryType;
+        private final String application;
+
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LongAccumulator maxResponseBytes = new LongAccumulator(Math::max, 0L);
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder scrollPages = new LongAdder();
+        private final LongAdder totalLatencyNanos = new LongAdder();
+        private final LatencySketch latency = new LatencySketch();
+
+        private Stats(String queryType, String application) {
+            this.queryType = queryType;
+            this.application = application;
+        }
+
+        /**
+         * Record the completion of a query, and the time it took end-to-end (including all
+         * the HTTP requests and scroll pages it required).
+         */
+        public void recordQuery(long latencyNanos, boolean failed) {
+            queries.increment();
+            if (failed) {
+                errors.increment();
+            }
+            totalLatencyNanos.add(latencyNanos);
+            synchronized (latency) {
+                latency.add(latencyNanos / 1e6);
+            }
+        }
+
+        /**
+         * Record a single HTTP response received from ElasticSearch.
+         */
+        public void recordResponse(long bytes, int hits) {
+            requests.increment();
+            responseBytes.add(bytes);
+            maxResponseBytes.accumulate(bytes);
+            this.hits.add(hits);
+        }
+
+        public void recordScrollPage() {
+            scrollPages.increment();
+        }
+
+        public String getQueryType() {
+            return queryType;
+        }
+
+        public String getApplication() {
+            return application;
+        }
+
+        public long getQueries() {
+            return queries.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        /**
+         * Returns the number of HTTP requests sent, including the scroll pages.
+         */
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        /**
+         * Returns the total size of the (decompressed) response bodies received.
+         */
+        public long getResponseBytes() {
+            return responseBytes.sum();
+        }
+
+        public long getMaxResponseBytes() {
+            return maxResponseBytes.get();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getScrollPages() {
+            return scrollPages.sum();
+        }
+
+        public double getMeanLatencyMillis() {
+            long count = queries.sum();
+            if (count == 0) {
+                return 0.0;
+            }
+            return totalLatencyNanos.sum() / 1e6 / count;
+        }
+
+        /**
+         * Returns an estimate of the q-th quantile of the query latency in milliseconds, or
+         * NaN if no queries have been recorded.
+         */
+        public double getLatencyQuantile(double q) {
+            synchronized (latency) {
+                return latency.getQuantile(q);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[%s] queries: %d, errors: %d, requests: %d, " +
+                    "scroll pages: %d, hits: %d, bytes: %d, max bytes: %d, mean: %.3fms, " +
+                    "p50: %.3fms, p99: %.3fms", queryType, application, getQueries(),
+                    getErrors(), getRequests(), getScrollPages(), getHits(), getResponseBytes(),
+                    getMaxResponseBytes(), getMeanLatencyMillis(), getLatencyQuantile(0.5),
+                    getLatencyQuantile(0.99));
+        }
+    }
+}
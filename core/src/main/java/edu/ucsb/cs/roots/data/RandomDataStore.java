@@ -3,67 +3,127 @@ package edu.ucsb.cs.roots.data;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSortedSet;
-import edu.ucsb.cs.roots.utils.ImmutableCollectors;
+import com.google.common.collect.ImmutableTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static edu.ucsb.cs.roots.data.SyntheticWorkload.call;
+
+/**
+ * A DataStore that serves synthetic monitoring data produced by a SyntheticWorkload. Results
+ * are computed from lazily generated request streams, without materializing the requests
+ * except when they are explicitly queried.
+ */
 public class RandomDataStore implements DataStore {
 
     private static final Logger log = LoggerFactory.getLogger(RandomDataStore.class);
 
-    private static final Random RAND = new Random();
+    private final SyntheticWorkload workload;
+
+    public RandomDataStore() {
+        this(defaultWorkload(0L));
+    }
+
+    public RandomDataStore(SyntheticWorkload workload) {
+        checkNotNull(workload, "Workload is required");
+        this.workload = workload;
+    }
+
+    /**
+     * Returns a workload with two operations: "GET /", which makes 3 datastore calls, and
+     * "POST /", which makes 2.
+     */
+    public static SyntheticWorkload defaultWorkload(long seed) {
+        return SyntheticWorkload.newBuilder()
+                .setSeed(seed)
+                .addOperation("GET /", 1.0, 5, 5)
+                .addPath("GET /", 1.0, call("datastore", "op0", 15, 15),
+                        call("datastore", "op1", 15, 15), call("datastore", "op2", 15, 15))
+                .addOperation("POST /", 0.5, 5, 5)
+                .addPath("POST /", 1.0, call("datastore", "op0", 15, 15),
+                        call("datastore", "op1", 15, 15))
+                .build();
+    }
+
+    public SyntheticWorkload getWorkload() {
+        return workload;
+    }
 
     @Override
     public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
             String application, long start, long end) {
-        List<BenchmarkResult> logEntries = generateRandomResults(application, start, end);
-        Map<String,List<BenchmarkResult>> groupedEntries = logEntries.stream()
-                .collect(Collectors.groupingBy(BenchmarkResult::getRequestType));
-        return groupedEntries.entrySet().stream().collect(ImmutableCollectors.toMap(
-                        Map.Entry::getKey, e -> new ResponseTimeSummary(start, e.getValue())));
+        ImmutableMap.Builder<String,ResponseTimeSummary> builder = ImmutableMap.builder();
+        for (String operation : workload.getOperations()) {
+            long[] summary = summarize(application, operation, start, end, end - start);
+            if (summary[1] > 0) {
+                builder.put(operation, new ResponseTimeSummary(start,
+                        (double) summary[0] / summary[1], summary[1]));
+            }
+        }
+        return builder.build();
     }
 
     @Override
-    public ImmutableList<Double> getWorkloadSummary(
-            String application, String operation, long start, long end,
-            long period) throws DataStoreException {
-        ImmutableList.Builder<Double> builder = ImmutableList.builder();
-        double changePoint = start + (end - start) * 0.7;
-        boolean injectChange = RAND.nextBoolean();
-        for (long i = start; i < end; i += period) {
-            Double element = (double) RAND.nextInt(10);
-            if (injectChange && i >= changePoint) {
-                element += 20;
+    public ImmutableListMultimap<String,ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) {
+        checkArgument(period > 0, "Period must be positive");
+        ImmutableListMultimap.Builder<String,ResponseTimeSummary> builder =
+                ImmutableListMultimap.builder();
+        for (String operation : workload.getOperations()) {
+            long[] summary = summarize(application, operation, start, end, period);
+            for (int i = 0; i < summary.length; i += 2) {
+                if (summary[i + 1] > 0) {
+                    builder.put(operation, new ResponseTimeSummary(start + (i / 2) * period,
+                            (double) summary[i] / summary[i + 1], summary[i + 1]));
+                }
             }
-            builder.add(element);
         }
         return builder.build();
     }
 
     @Override
-    public ImmutableListMultimap<String,ResponseTimeSummary> getResponseTimeHistory(
+    public ImmutableListMultimap<String,ResponseTimeRollup> getResponseTimeRollups(
             String application, long start, long end, long period) {
-        ImmutableMap<String,ResponseTimeSummary> lastPeriod = getResponseTimeSummary(
-                application, end - period, end);
-        ImmutableListMultimap.Builder<String,ResponseTimeSummary> builder =
+        checkArgument(period > 0, "Period must be positive");
+        ImmutableListMultimap.Builder<String,ResponseTimeRollup> builder =
                 ImmutableListMultimap.builder();
-        lastPeriod.forEach(builder::put);
+        for (String operation : workload.getOperations()) {
+            Map<Long,ResponseTimeRollup.Builder> rollups = new TreeMap<>();
+            workload.requests(application, operation, start, end).forEachOrdered(r -> {
+                long bucket = start + (r.getTimestamp() - start) / period * period;
+                rollups.computeIfAbsent(bucket, ResponseTimeRollup::newBuilder)
+                        .add(r.getResponseTime());
+            });
+            rollups.values().forEach(r -> builder.put(operation, r.build()));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableList<Double> getWorkloadSummary(
+            String application, String operation, long start, long end,
+            long period) throws DataStoreException {
+        checkArgument(period > 0, "Period must be positive");
+        ImmutableList.Builder<Double> builder = ImmutableList.builder();
+        for (long i = start; i < end; i += period) {
+            builder.add((double) workload.count(operation, i, Math.min(i + period, end)));
+        }
         return builder.build();
     }
 
     @Override
     public ImmutableListMultimap<String,BenchmarkResult> getBenchmarkResults(
             String application, long start, long end) {
-        List<BenchmarkResult> logEntries = generateRandomResults(application, start, end, 2);
-        Map<String,List<BenchmarkResult>> groupedEntries = logEntries.stream()
-                .collect(Collectors.groupingBy(BenchmarkResult::getRequestType));
         ImmutableListMultimap.Builder<String,BenchmarkResult> builder =
                 ImmutableListMultimap.builder();
-        groupedEntries.forEach(builder::putAll);
+        workload.benchmarkResults(application, start, end)
+                .forEach(r -> builder.put(r.getRequestType(), r));
         return builder.build();
     }
 
@@ -72,74 +132,56 @@ public class RandomDataStore implements DataStore {
             String application, long start, long end) {
         ImmutableListMultimap.Builder<String,ApplicationRequest> builder =
                 ImmutableListMultimap.builder();
-        builder.putAll("GET /", getApplicationRequests(
-                application, "GET /", start, end, RAND.nextInt(50), 3));
-        builder.putAll("POST /", getApplicationRequests(
-                application, "POST /", start, end, RAND.nextInt(50), 2));
+        for (String operation : workload.getOperations()) {
+            builder.putAll(operation, getRequestInfo(application, operation, start, end));
+        }
         return builder.build();
     }
 
     @Override
     public ImmutableList<ApplicationRequest> getRequestInfo(
-            String application, String operation, long start, long end) throws DataStoreException {
-        return getApplicationRequests(application, operation, start, end, RAND.nextInt(50), 3);
+            String application, String operation, long start, long end) {
+        return ImmutableList.copyOf(workload.requests(application, operation, start, end)
+                .collect(Collectors.toList()));
     }
 
     @Override
-    public void recordBenchmarkResult(BenchmarkResult entry) {
-        log.info("Recording access log entry for {} {} {} {}", entry.getApplication(),
-                entry.getMethod(), entry.getPath(), entry.getResponseTime());
-    }
-
-    private ImmutableList<ApplicationRequest> getApplicationRequests(
-            String application, String operation, long start, long end, int recordCount,
-            int apiCalls) {
-        ImmutableSortedSet.Builder<ApplicationRequest> builder = ImmutableSortedSet.orderedBy(
-                ApplicationRequest.TIME_ORDER);
-        for (int i = 0; i < recordCount; i++) {
-            long offset = RAND.nextInt((int) (end - start));
-            ImmutableList.Builder<ApiCall> callBuilder = ImmutableList.builder();
-            for (int j = 0; j < apiCalls; j++) {
-                ApiCall call = ApiCall.newBuilder()
-                        .setService("datastore")
-                        .setOperation("op" + j)
-                        .setRequestTimestamp(start + offset)
-                        .setTimeElapsed(RAND.nextInt(30))
-                        .setTimestamp(start + offset)
-                        .setRequestOperation(operation)
-                        .build();
-                callBuilder.add(call);
-            }
-            ImmutableList<ApiCall> apiCallList = callBuilder.build();
-            int total = apiCallList.stream().mapToInt(ApiCall::getTimeElapsed).sum()
-                    + RAND.nextInt(10);
-            ApplicationRequest record = new ApplicationRequest(UUID.randomUUID().toString(),
-                    start + offset, application, operation, apiCallList, total);
-            builder.add(record);
+    public ImmutableTable<String, String, Integer> getPathDistribution(
+            String application, long start, long end) {
+        ImmutableTable.Builder<String,String,Integer> builder = ImmutableTable.builder();
+        for (String operation : workload.getOperations()) {
+            Map<String,Long> counts = workload.requests(application, operation, start, end)
+                    .collect(Collectors.groupingBy(ApplicationRequest::getPathAsString,
+                            Collectors.counting()));
+            counts.forEach((path, count) -> builder.put(operation, path, count.intValue()));
         }
-        return ImmutableList.copyOf(builder.build());
+        return builder.build();
     }
 
-    private List<BenchmarkResult> generateRandomResults(
-            String application, long start, long end) {
-        return generateRandomResults(application, start, end, RAND.nextInt(100));
+    @Override
+    public void recordBenchmarkResult(BenchmarkResult entry) {
+        log.info("Recording access log entry for {} {} {} {}", entry.getApplication(),
+                entry.getMethod(), entry.getPath(), entry.getResponseTime());
     }
 
-    private ImmutableList<BenchmarkResult> generateRandomResults(
-            String application, long start, long end, int recordCount) {
-        ImmutableList.Builder<BenchmarkResult> builder = ImmutableList.builder();
-        for (int i = 0; i < recordCount; i++) {
-            long offset = RAND.nextInt((int) (end - start));
-            String method;
-            if (i % 2 == 0) {
-                method = "GET";
-            } else {
-                method = "POST";
-            }
-            BenchmarkResult record = new BenchmarkResult(start + offset, application,
-                    method, "/", RAND.nextInt(50));
-            builder.add(record);
-        }
-        return builder.build();
+    /**
+     * Returns the total response time and the request count of each period within
+     * [start, end), as consecutive array elements.
+     */
+    private long[] summarize(String application, String operation, long start, long end,
+                             long period) {
+        int periods = (int) Math.max(1L, (end - start + period - 1) / period);
+        return workload.requests(application, operation, start, end).collect(
+                () -> new long[periods * 2],
+                (summary, r) -> {
+                    int index = (int) ((r.getTimestamp() - start) / period) * 2;
+                    summary[index] += r.getResponseTime();
+                    summary[index + 1]++;
+                },
+                (left, right) -> {
+                    for (int i = 0; i < left.length; i++) {
+                        left[i] += right[i];
+                    }
+                });
     }
 }
@@ -0,0 +1,163 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static edu.ucsb.cs.roots.data.DataStoreRecording.Method;
+
+/**
+ * A DataStore decorator that captures the arguments and results of every query made against
+ * the underlying data store into a recording file, which can later be served back by a
+ * ReplayDataStore. Benchmark results written through this data store are passed through to
+ * the underlying data store, but are not recorded.
+ */
+public final class RecordingDataStore implements DataStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RecordingDataStore.class);
+
+    @FunctionalInterface
+    private interface DataStoreQuery<T> {
+        T execute() throws DataStoreException;
+    }
+
+    private final DataStore delegate;
+    private final File file;
+    private final DataStoreRecording.Writer writer;
+    private final AtomicLong calls = new AtomicLong(0L);
+
+    public RecordingDataStore(DataStore delegate, File file) throws IOException {
+        checkNotNull(delegate, "Delegate DataStore is required");
+        checkNotNull(file, "Recording file is required");
+        this.delegate = delegate;
+        this.file = file;
+        this.writer = new DataStoreRecording.Writer(file);
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            writer.close();
+            log.info("Recorded {} calls to {}", calls.get(), file);
+        } catch (IOException e) {
+            log.error("Error while closing the recording: {}", file, e);
+        }
+        delegate.destroy();
+    }
+
+    /**
+     * Flush the recorded calls to disk.
+     */
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+            String application, long start, long end) throws DataStoreException {
+        return record(Method.RESPONSE_TIME_SUMMARY, application, null, start, end, -1L,
+                () -> delegate.getResponseTimeSummary(application, start, end));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) throws DataStoreException {
+        return record(Method.RESPONSE_TIME_HISTORY, application, null, start, end, period,
+                () -> delegate.getResponseTimeHistory(application, start, end, period));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        return record(Method.RESPONSE_TIME_ROLLUPS, application, null, start, end, period,
+                () -> delegate.getResponseTimeRollups(application, start, end, period));
+    }
+
+    @Override
+    public ImmutableList<Double> getWorkloadSummary(
+            String application, String operation, long start, long end,
+            long period) throws DataStoreException {
+        return record(Method.WORKLOAD_SUMMARY, application, operation, start, end, period,
+                () -> delegate.getWorkloadSummary(application, operation, start, end, period));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
+            String application, long start, long end) throws DataStoreException {
+        return record(Method.BENCHMARK_RESULTS, application, null, start, end, -1L,
+                () -> delegate.getBenchmarkResults(application, start, end));
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ApplicationRequest> getRequestInfo(
+            String application, long start, long end) throws DataStoreException {
+        return record(Method.REQUEST_INFO, application, null, start, end, -1L,
+                () -> delegate.getRequestInfo(application, start, end));
+    }
+
+    @Override
+    public ImmutableList<ApplicationRequest> getRequestInfo(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        return record(Method.REQUEST_INFO_BY_OPERATION, application, operation, start, end, -1L,
+                () -> delegate.getRequestInfo(application, operation, start, end));
+    }
+
+    @Override
+    public ImmutableTable<String, String, Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        return record(Method.PATH_DISTRIBUTION, application, null, start, end, -1L,
+                () -> delegate.getPathDistribution(application, start, end));
+    }
+
+    @Override
+    public void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
+        delegate.recordBenchmarkResult(result);
+    }
+
+    @Override
+    public void recordBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        delegate.recordBenchmarkResults(results);
+    }
+
+    private <T> T record(Method method, String application, String operation, long start,
+                         long end, long period, DataStoreQuery<T> query) throws DataStoreException {
+        long startTime = System.nanoTime();
+        T result;
+        try {
+            result = query.execute();
+        } catch (DataStoreException e) {
+            write(new DataStoreRecording.Call(method, application, operation, start, end, period,
+                    System.nanoTime() - startTime, null, String.valueOf(e.getMessage())));
+            throw e;
+        }
+        write(new DataStoreRecording.Call(method, application, operation, start, end, period,
+                System.nanoTime() - startTime, result, null));
+        return result;
+    }
+
+    private void write(DataStoreRecording.Call call) {
+        try {
+            writer.write(call);
+            calls.incrementAndGet();
+        } catch (IOException e) {
+            // Recording is best-effort; never fail the query because of it
+            log.error("Error while recording a {} call", call.method, e);
+        }
+    }
+}
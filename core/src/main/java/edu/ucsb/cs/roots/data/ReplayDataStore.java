@@ -0,0 +1,213 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static edu.ucsb.cs.roots.data.DataStoreRecording.Method;
+
+/**
+ * A DataStore that serves back the results captured by a RecordingDataStore. A query is
+ * matched against the recorded calls of the same method and arguments. Repeated queries are
+ * answered with the recorded calls in their original order, and the last recorded result is
+ * reused once they run out.
+ *
+ * In sequential mode, queries that do not match any recorded arguments are answered with the
+ * next unused call recorded for the same method, application and operation. This allows
+ * detectors, whose query windows are derived from the current time, to be rerun against a
+ * recording.
+ *
+ * By default results are served at full speed. When a speed factor is set, each query is
+ * delayed by its recorded execution time divided by the factor (1.0 reproduces the recorded
+ * latencies).
+ */
+public final class ReplayDataStore implements DataStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayDataStore.class);
+
+    private final double speed;
+    private final boolean sequential;
+    private final Map<QueryKey,Replay> exact = new HashMap<>();
+    private final Map<QueryKey,Replay> streams = new HashMap<>();
+
+    private ReplayDataStore(Builder builder) throws IOException {
+        checkNotNull(builder.file, "Recording file is required");
+        checkArgument(builder.speed >= 0, "Speed must be non-negative");
+        this.speed = builder.speed;
+        this.sequential = builder.sequential;
+        List<DataStoreRecording.Call> calls = DataStoreRecording.read(builder.file);
+        calls.forEach(call -> {
+            exact.computeIfAbsent(exactKey(call.method, call.application, call.operation,
+                    call.start, call.end, call.period), k -> new Replay()).calls.add(call);
+            streams.computeIfAbsent(streamKey(call.method, call.application, call.operation,
+                    call.period), k -> new Replay()).calls.add(call);
+        });
+        log.info("Loaded {} recorded calls from {}", calls.size(), builder.file);
+    }
+
+    @Override
+    public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+            String application, long start, long end) throws DataStoreException {
+        return replay(Method.RESPONSE_TIME_SUMMARY, application, null, start, end, -1L);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) throws DataStoreException {
+        return replay(Method.RESPONSE_TIME_HISTORY, application, null, start, end, period);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        return replay(Method.RESPONSE_TIME_ROLLUPS, application, null, start, end, period);
+    }
+
+    @Override
+    public ImmutableList<Double> getWorkloadSummary(
+            String application, String operation, long start, long end,
+            long period) throws DataStoreException {
+        return replay(Method.WORKLOAD_SUMMARY, application, operation, start, end, period);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
+            String application, long start, long end) throws DataStoreException {
+        return replay(Method.BENCHMARK_RESULTS, application, null, start, end, -1L);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ApplicationRequest> getRequestInfo(
+            String application, long start, long end) throws DataStoreException {
+        return replay(Method.REQUEST_INFO, application, null, start, end, -1L);
+    }
+
+    @Override
+    public ImmutableList<ApplicationRequest> getRequestInfo(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        return replay(Method.REQUEST_INFO_BY_OPERATION, application, operation, start, end, -1L);
+    }
+
+    @Override
+    public ImmutableTable<String, String, Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        return replay(Method.PATH_DISTRIBUTION, application, null, start, end, -1L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T replay(Method method, String application, String operation, long start,
+                         long end, long period) throws DataStoreException {
+        DataStoreRecording.Call call;
+        synchronized (this) {
+            Replay replay = exact.get(exactKey(method, application, operation, start, end,
+                    period));
+            if (replay != null) {
+                call = replay.next(true);
+            } else if (sequential) {
+                replay = streams.get(streamKey(method, application, operation, period));
+                call = replay != null ? replay.next(false) : null;
+            } else {
+                call = null;
+            }
+        }
+        if (call == null) {
+            throw new DataStoreException(String.format("No recorded result for %s(%s, %s, %d, " +
+                    "%d, %d)", method, application, operation, start, end, period));
+        }
+
+        if (speed > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep((long) (call.elapsedNanos / speed));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataStoreException("Interrupted while replaying a call", e);
+            }
+        }
+        if (call.error != null) {
+            throw new DataStoreException(call.error);
+        }
+        return (T) call.result;
+    }
+
+    private static QueryKey exactKey(Method method, String application, String operation,
+                                     long start, long end, long period) {
+        return new QueryKey(method.name(), application, operation, start, end, period);
+    }
+
+    private static QueryKey streamKey(Method method, String application, String operation,
+                                      long period) {
+        return new QueryKey(method.name(), application, operation, 0L, 0L, period);
+    }
+
+    private static final class Replay {
+
+        private final List<DataStoreRecording.Call> calls = new ArrayList<>();
+        private int next = 0;
+
+        /**
+         * Returns the next recorded call. Once all calls have been served, the last one is
+         * served again if repeatLast is set, and null is returned otherwise.
+         */
+        private DataStoreRecording.Call next(boolean repeatLast) {
+            if (next < calls.size()) {
+                return calls.get(next++);
+            }
+            return repeatLast ? calls.get(calls.size() - 1) : null;
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private File file;
+        private double speed = 0D;
+        private boolean sequential = false;
+
+        private Builder() {
+        }
+
+        public Builder setFile(File file) {
+            this.file = file;
+            return this;
+        }
+
+        public Builder setFile(String file) {
+            return setFile(new File(file));
+        }
+
+        /**
+         * Set the replay speed factor. 0 serves results without delay, and 1.0 reproduces
+         * the recorded query latencies.
+         */
+        public Builder setSpeed(double speed) {
+            this.speed = speed;
+            return this;
+        }
+
+        public Builder setSequential(boolean sequential) {
+            this.sequential = sequential;
+            return this;
+        }
+
+        public ReplayDataStore build() throws IOException {
+            return new ReplayDataStore(this);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * A columnar representation of the requests processed by a single operation within a time
+ * window. Requests are grouped by their execution path (i.e. the sequence of API calls made by
+ * the request). For each path, the timestamps, the response times and the execution time of
+ * each API call are held in primitive arrays with one entry per request, sorted by timestamp.
+ * API call names are dictionary encoded, and stored once per batch. Request IDs are not
+ * retained.
+ */
+public final class RequestBatch {
+
+    private final String application;
+    private final String operation;
+    private final ImmutableList<String> names;
+    private final ImmutableList<Path> paths;
+    private final int size;
+
+    private RequestBatch(Builder builder) {
+        this.application = builder.application;
+        this.operation = builder.operation;
+        this.names = ImmutableList.copyOf(builder.names);
+        ImmutableList.Builder<Path> paths = ImmutableList.builder();
+        builder.paths.values().forEach(p -> paths.add(p.build(names)));
+        this.paths = paths.build();
+        this.size = this.paths.stream().mapToInt(Path::size).sum();
+    }
+
+    public String getApplication() {
+        return application;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the total number of requests in the batch, across all paths.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public ImmutableList<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Returns the API call dictionary of the batch.
+     */
+    public ImmutableList<String> getCallNames() {
+        return names;
+    }
+
+    /**
+     * Convert a list of ApplicationRequest objects into a RequestBatch.
+     */
+    public static RequestBatch of(String application, String operation,
+                                  Collection<ApplicationRequest> requests) {
+        Builder builder = newBuilder(application, operation);
+        requests.forEach(r -> {
+            ImmutableList<ApiCall> apiCalls = r.getApiCalls();
+            List<String> callNames = new ArrayList<>(apiCalls.size());
+            int[] timings = new int[apiCalls.size()];
+            for (int i = 0; i < timings.length; i++) {
+                callNames.add(apiCalls.get(i).name());
+                timings[i] = apiCalls.get(i).getTimeElapsed();
+            }
+            builder.add(r.getTimestamp(), r.getResponseTime(), callNames, timings);
+        });
+        return builder.build();
+    }
+
+    public static Builder newBuilder(String application, String operation) {
+        return new Builder(application, operation);
+    }
+
+    /**
+     * The requests of a batch that took the same execution path. Rows are sorted by timestamp.
+     * Instances may be views over a range of rows of a larger path (see slice).
+     */
+    public static final class Path {
+
+        private final ImmutableList<String> names;
+        private final int[] calls;
+        private final long[] timestamps;
+        private final int[] responseTimes;
+        private final int[][] timings;
+        private final int offset;
+        private final int length;
+
+        private Path(ImmutableList<String> names, int[] calls, long[] timestamps,
+                     int[] responseTimes, int[][] timings, int offset, int length) {
+            this.names = names;
+            this.calls = calls;
+            this.timestamps = timestamps;
+            this.responseTimes = responseTimes;
+            this.timings = timings;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns the number of requests (rows) in this path.
+         */
+        public int size() {
+            return length;
+        }
+
+        /**
+         * Returns the number of API calls made by each request in this path.
+         */
+        public int getCallCount() {
+            return calls.length;
+        }
+
+        public String getCallName(int call) {
+            return names.get(calls[call]);
+        }
+
+        public ImmutableList<String> getCallNames() {
+            ImmutableList.Builder<String> builder = ImmutableList.builder();
+            for (int call : calls) {
+                builder.add(names.get(call));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the same string as ApplicationRequest.getPathAsString() would for the
+         * requests in this path.
+         */
+        public String getPathAsString() {
+            return String.join(", ", getCallNames());
+        }
+
+        /**
+         * Returns the same fingerprint as ApplicationRequest.getPathFingerprint() would for
+         * the requests in this path.
+         */
+        public long getPathFingerprint() {
+            return PathDictionary.fingerprint(getPathAsString());
+        }
+
+        public long getTimestamp(int row) {
+            return timestamps[index(row)];
+        }
+
+        public int getResponseTime(int row) {
+            return responseTimes[index(row)];
+        }
+
+        public int getTimeElapsed(int call, int row) {
+            return timings[call][index(row)];
+        }
+
+        /**
+         * Returns the time spent by the request outside of API calls (i.e. response time minus
+         * the sum of API call execution times).
+         */
+        public int getLocalTime(int row) {
+            int index = index(row);
+            int local = responseTimes[index];
+            for (int[] column : timings) {
+                local -= column[index];
+            }
+            return local;
+        }
+
+        /**
+         * Returns an array of length n+1 where the first n entries correspond to the execution
+         * times of the n API calls made by the request. The last entry corresponds to the
+         * local execution time.
+         */
+        public int[] getResponseTimeVector(int row) {
+            int index = index(row);
+            int[] vector = new int[calls.length + 1];
+            int local = responseTimes[index];
+            for (int i = 0; i < calls.length; i++) {
+                vector[i] = timings[i][index];
+                local -= vector[i];
+            }
+            vector[calls.length] = local;
+            return vector;
+        }
+
+        /**
+         * Returns an array of length n+1 where the first n entries correspond to the execution
+         * times of the n API calls made by the request. The last entry corresponds to the
+         * total response time of the request.
+         */
+        public double[] getTotalTimeVector(int row) {
+            int index = index(row);
+            double[] vector = new double[calls.length + 1];
+            for (int i = 0; i < calls.length; i++) {
+                vector[i] = timings[i][index];
+            }
+            vector[calls.length] = responseTimes[index];
+            return vector;
+        }
+
+        /**
+         * Returns the index of the first row with a timestamp greater than or equal to the
+         * specified value, or size() if there is no such row.
+         */
+        public int indexOf(long timestamp) {
+            int low = offset;
+            int high = offset + length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low - offset;
+        }
+
+        /**
+         * Returns a view over the rows [from, to) of this path.
+         */
+        public Path slice(int from, int to) {
+            checkPositionIndexes(from, to, length);
+            return new Path(names, calls, timestamps, responseTimes, timings, offset + from,
+                    to - from);
+        }
+
+        /**
+         * Split the rows of this path into consecutive time periods of the specified length,
+         * starting from the specified time. Returns a map of period start times and the
+         * rows that fall into each period. Empty periods are omitted.
+         */
+        public ImmutableSortedMap<Long,Path> groupByTime(long start, long period) {
+            checkArgument(period > 0, "Period must be positive");
+            ImmutableSortedMap.Builder<Long,Path> builder = ImmutableSortedMap.naturalOrder();
+            int from = 0;
+            while (from < length) {
+                long group = Math.floorDiv(getTimestamp(from) - start, period) * period + start;
+                int to = indexOf(group + period);
+                builder.put(group, slice(from, to));
+                from = to;
+            }
+            return builder.build();
+        }
+
+        private int index(int row) {
+            checkElementIndex(row, length);
+            return offset + row;
+        }
+    }
+
+    public static final class Builder {
+
+        private final String application;
+        private final String operation;
+        private final Map<String,Integer> dictionary = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private final Map<PathKey,PathBuilder> paths = new LinkedHashMap<>();
+
+        private Builder(String application, String operation) {
+            checkArgument(!Strings.isNullOrEmpty(application), "Application is required");
+            checkArgument(!Strings.isNullOrEmpty(operation), "Operation is required");
+            this.application = application;
+            this.operation = operation;
+        }
+
+        /**
+         * Add a request to the batch.
+         *
+         * @param timestamp Timestamp of the request
+         * @param responseTime Total response time of the request
+         * @param callNames Names of the API calls made by the request, in invocation order
+         * @param timings Execution time of each API call
+         */
+        public Builder add(long timestamp, int responseTime, List<String> callNames,
+                           int[] timings) {
+            checkNotNull(callNames, "API call names are required");
+            checkArgument(callNames.size() == timings.length,
+                    "Each API call must have an execution time");
+            int[] calls = new int[timings.length];
+            for (int i = 0; i < calls.length; i++) {
+                calls[i] = dictionary.computeIfAbsent(callNames.get(i), name -> {
+                    names.add(name);
+                    return names.size() - 1;
+                });
+            }
+            paths.computeIfAbsent(new PathKey(calls), k -> new PathBuilder(calls))
+                    .add(timestamp, responseTime, timings);
+            return this;
+        }
+
+        public RequestBatch build() {
+            return new RequestBatch(this);
+        }
+    }
+
+    private static final class PathKey {
+
+        private final int[] calls;
+
+        private PathKey(int[] calls) {
+            this.calls = calls;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof PathKey && Arrays.equals(calls, ((PathKey) o).calls));
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(calls);
+        }
+    }
+
+    private static final class PathBuilder {
+
+        private final int[] calls;
+        private long[] timestamps = new long[16];
+        private int[] responseTimes = new int[16];
+        private int[][] timings;
+        private int size = 0;
+        private boolean sorted = true;
+
+        private PathBuilder(int[] calls) {
+            this.calls = calls;
+            this.timings = new int[calls.length][16];
+        }
+
+        private void add(long timestamp, int responseTime, int[] callTimings) {
+            if (size == timestamps.length) {
+                int capacity = size * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                responseTimes = Arrays.copyOf(responseTimes, capacity);
+                for (int i = 0; i < timings.length; i++) {
+                    timings[i] = Arrays.copyOf(timings[i], capacity);
+                }
+            }
+            if (size > 0 && timestamp < timestamps[size - 1]) {
+                sorted = false;
+            }
+            timestamps[size] = timestamp;
+            responseTimes[size] = responseTime;
+            for (int i = 0; i < timings.length; i++) {
+                timings[i][size] = callTimings[i];
+            }
+            size++;
+        }
+
+        private Path build(ImmutableList<String> names) {
+            long[] ts = Arrays.copyOf(timestamps, size);
+            int[] rt = Arrays.copyOf(responseTimes, size);
+            int[][] columns = new int[timings.length][];
+            for (int i = 0; i < timings.length; i++) {
+                columns[i] = Arrays.copyOf(timings[i], size);
+            }
+            if (!sorted) {
+                // Stable sort of the row indices by timestamp, then permute every column
+                int[] order = IntStream.range(0, size).boxed()
+                        .sorted((a, b) -> Long.compare(timestamps[a], timestamps[b]))
+                        .mapToInt(Integer::intValue).toArray();
+                for (int row = 0; row < size; row++) {
+                    ts[row] = timestamps[order[row]];
+                    rt[row] = responseTimes[order[row]];
+                    for (int i = 0; i < timings.length; i++) {
+                        columns[i][row] = timings[i][order[row]];
+                    }
+                }
+            }
+            return new Path(names, calls, ts, rt, columns, 0, size);
+        }
+    }
+}
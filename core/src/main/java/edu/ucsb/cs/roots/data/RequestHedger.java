@@ -0,0 +1,213 @@
+package edu.ucsb.cs.roots.data;
+
+import edu.ucsb.cs.roots.utils.RootsThreadFactory;
+import org.apache.http.HttpHost;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Sends hedged requests to ElasticSearch. If a read-only request has not completed within a
+ * configured percentile of the recently observed latency, the same request is sent to
+ * another endpoint. The first successful response wins, and the other request is cancelled.
+ * This keeps a single slow node (e.g. one stuck in a GC pause) from stalling the caller.
+ *
+ * Recent latency is tracked in two rotating sketches, so the hedging delay follows changes
+ * in the cluster. Requests are not hedged until enough samples have been collected. The
+ * latency of a hedged request is measured from the start of the original request, so that
+ * slow requests stay in the sketches, and the hedge rate stays close to 1 - percentile.
+ */
+public final class RequestHedger {
+
+    private static final int WINDOW_SIZE = 1000;
+    private static final int MIN_SAMPLES = 20;
+    private static final int UPDATE_INTERVAL = 20;
+
+    private final double percentile;
+    private final long minDelay;
+    private final ScheduledExecutorService timer;
+
+    private LatencySketch current = new LatencySketch();
+    private LatencySketch previous = new LatencySketch();
+    private long samples = 0L;
+    private volatile long delay = -1L;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    RequestHedger(double percentile, long minDelay, String name) {
+        checkArgument(percentile > 0 && percentile < 1,
+                "Hedging percentile must be in the interval (0,1)");
+        checkArgument(minDelay >= 0, "Minimum hedging delay must be non-negative");
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new RootsThreadFactory(name));
+    }
+
+    /**
+     * Execute an idempotent request, hedging it on another endpoint if it does not complete
+     * within the current hedging delay.
+     */
+    public <T> CompletableFuture<T> execute(EndpointSelector endpoints,
+                                            Function<HttpHost,CompletableFuture<T>> call) {
+        requests.increment();
+        return new HedgedCall<>(endpoints, call).start();
+    }
+
+    /**
+     * Returns the current hedging delay in milliseconds, or -1 if not enough requests have
+     * been observed yet.
+     */
+    public long getDelay() {
+        return delay;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * Returns the number of hedged requests that completed before the original request.
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    public double getHedgeRate() {
+        long total = requests.sum();
+        return total == 0 ? 0.0 : hedges.sum() * 100.0 / total;
+    }
+
+    public double getHedgeWinRate() {
+        long total = hedges.sum();
+        return total == 0 ? 0.0 : hedgeWins.sum() * 100.0 / total;
+    }
+
+    void close() {
+        timer.shutdownNow();
+    }
+
+    private synchronized void record(long startNanos) {
+        current.add((System.nanoTime() - startNanos) / 1e6);
+        samples++;
+        if (current.getCount() >= WINDOW_SIZE) {
+            previous = current;
+            current = new LatencySketch();
+        }
+        if (samples >= MIN_SAMPLES && samples % UPDATE_INTERVAL == 0) {
+            LatencySketch recent = previous.copy();
+            recent.merge(current);
+            delay = Math.max(minDelay, (long) Math.ceil(recent.getQuantile(percentile)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests: %d, hedged: %d (%.2f%%), hedge wins: %d (%.2f%%), " +
+                "delay: %dms", getRequests(), getHedges(), getHedgeRate(), getHedgeWins(),
+                getHedgeWinRate(), delay);
+    }
+
+    private final class HedgedCall<T> {
+
+        private final EndpointSelector endpoints;
+        private final Function<HttpHost,CompletableFuture<T>> call;
+        private final Set<ElasticSearchEndpoint> tried = ConcurrentHashMap.newKeySet();
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private CompletableFuture<T> primary;
+        private CompletableFuture<T> hedge;
+        private ScheduledFuture<?> hedgeTask;
+        private long start;
+        private int attempts = 0;
+        private int failures = 0;
+
+        private HedgedCall(EndpointSelector endpoints,
+                           Function<HttpHost,CompletableFuture<T>> call) {
+            this.endpoints = endpoints;
+            this.call = call;
+        }
+
+        private synchronized CompletableFuture<T> start() {
+            start = System.nanoTime();
+            attempts++;
+            primary = endpoints.executeAsync(call, true, tried);
+            primary.whenComplete((value, error) -> onComplete(false, value, error));
+            long currentDelay = delay;
+            if (currentDelay >= 0 && !result.isDone() &&
+                    endpoints.getEndpoints().size() > 1) {
+                hedgeTask = timer.schedule(this::sendHedge, currentDelay, TimeUnit.MILLISECONDS);
+            }
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    cancelAll();
+                }
+            });
+            return result;
+        }
+
+        private synchronized void sendHedge() {
+            if (result.isDone() || tried.size() >= endpoints.getEndpoints().size()) {
+                return;
+            }
+            attempts++;
+            hedges.increment();
+            hedge = endpoints.executeAsync(call, true, tried);
+            hedge.whenComplete((value, error) -> onComplete(true, value, error));
+        }
+
+        private synchronized void onComplete(boolean hedged, T value, Throwable error) {
+            if (result.isDone()) {
+                return;
+            }
+            if (error == null) {
+                // Measured from the original request even if the hedge won: recording the
+                // hedge's own latency would drop the slow tail, and shrink the delay
+                record(start);
+                if (hedged) {
+                    hedgeWins.increment();
+                }
+                // Release the losing request before handing over the result
+                cancelAll();
+                result.complete(value);
+                return;
+            }
+
+            // Wait for the other request, if any. The original request has already failed
+            // over to other endpoints, so there is no point in hedging it after a failure.
+            failures++;
+            if (failures == attempts) {
+                if (hedgeTask != null) {
+                    hedgeTask.cancel(false);
+                }
+                result.completeExceptionally(error);
+            }
+        }
+
+        private synchronized void cancelAll() {
+            if (hedgeTask != null) {
+                hedgeTask.cancel(false);
+            }
+            if (primary != null && !primary.isDone()) {
+                primary.cancel(true);
+            }
+            if (hedge != null && !hedge.isDone()) {
+                hedge.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A set of disjoint time segments, each holding the ApplicationRequests of a single
+ * operation that fall within that segment. Used to serve overlapping time windows
+ * from previously fetched data, so that only the missing ranges need to be fetched from the
+ * underlying data store. Segments are kept as they were fetched (adjacent segments are not
+ * merged, which would copy their contents on every addition), and are dropped with trim once
+ * they fall behind the retention horizon. Instances are not thread-safe.
+ */
+final class RequestSegments {
+
+    private static final Ordering<ApplicationRequest> TIME_ORDERING = Ordering.from(
+            ApplicationRequest.TIME_ORDER);
+
+    private final TreeMap<Long,Segment> segments = new TreeMap<>();
+    private long bytes = 0L;
+    private long latestStart = Long.MIN_VALUE;
+
+    /**
+     * Compute the sub ranges of the interval [start, end) not covered by any segment.
+     *
+     * @return A list of [start, end) pairs sorted by start time
+     */
+    List<long[]> missingRanges(long start, long end) {
+        List<long[]> missing = new ArrayList<>();
+        long cursor = start;
+        for (Segment s : overlapping(start, end).values()) {
+            if (s.end <= cursor) {
+                continue;
+            }
+            if (s.start > cursor) {
+                missing.add(new long[]{cursor, s.start});
+            }
+            cursor = s.end;
+            if (cursor >= end) {
+                break;
+            }
+        }
+        if (cursor < end) {
+            missing.add(new long[]{cursor, end});
+        }
+        return missing;
+    }
+
+    /**
+     * Add a new segment. The specified interval must not overlap with any existing segment.
+     */
+    void add(long start, long end, List<ApplicationRequest> requests) {
+        checkArgument(start < end, "Start time must precede end time");
+        List<long[]> missing = missingRanges(start, end);
+        checkArgument(missing.size() == 1 && missing.get(0)[0] == start
+                && missing.get(0)[1] == end, "Segment overlaps existing data");
+        if (!TIME_ORDERING.isOrdered(requests)) {
+            requests = TIME_ORDERING.sortedCopy(requests);
+        }
+
+        Segment segment = new Segment(start, end, ImmutableList.copyOf(requests));
+        segments.put(start, segment);
+        bytes += segment.bytes;
+    }
+
+    /**
+     * Add the requests within [start, end) that fall into time ranges not already covered
+     * by a segment. Used when the same range may have been filled concurrently.
+     */
+    void addMissing(long start, long end, List<ApplicationRequest> requests) {
+        for (long[] range : missingRanges(start, end)) {
+            if (range[0] == start && range[1] == end) {
+                add(start, end, requests);
+            } else {
+                add(range[0], range[1], requests.stream()
+                        .filter(r -> r.getTimestamp() >= range[0] && r.getTimestamp() < range[1])
+                        .collect(Collectors.toList()));
+            }
+        }
+    }
+
+    /**
+     * Collect the requests that fall within [start, end) into the given builder, in
+     * time order.
+     */
+    void collect(long start, long end, ImmutableList.Builder<ApplicationRequest> builder) {
+        for (Segment s : overlapping(start, end).values()) {
+            int from = s.lowerBound(Math.max(start, s.start));
+            int to = s.lowerBound(Math.min(end, s.end));
+            if (from < to) {
+                builder.addAll(s.requests.subList(from, to));
+            }
+        }
+    }
+
+    /**
+     * Drop the segments that end before the given retention period, counted back from the
+     * latest start time seen so far. A segment that straddles the horizon is retained as a
+     * whole, so that its contents are not copied.
+     *
+     * @param start Start of the window being served
+     * @param retention Retention period in milliseconds
+     * @return Number of segments dropped
+     */
+    int trim(long start, long retention) {
+        latestStart = Math.max(latestStart, start);
+        long horizon = latestStart - retention;
+        int removed = 0;
+        while (!segments.isEmpty() && segments.firstEntry().getValue().end <= horizon) {
+            bytes -= segments.pollFirstEntry().getValue().bytes;
+            removed++;
+        }
+        return removed;
+    }
+
+    int size() {
+        return segments.size();
+    }
+
+    long estimateBytes() {
+        return bytes;
+    }
+
+    private NavigableMap<Long,Segment> overlapping(long start, long end) {
+        Long from = segments.floorKey(start);
+        if (from == null) {
+            return segments.headMap(end, false);
+        }
+        return segments.subMap(from, true, end, false);
+    }
+
+    private static final class Segment {
+
+        private final long start;
+        private final long end;
+        private final ImmutableList<ApplicationRequest> requests;
+        private final long[] timestamps;
+        private final long bytes;
+
+        private Segment(long start, long end, ImmutableList<ApplicationRequest> requests) {
+            this.start = start;
+            this.end = end;
+            this.requests = requests;
+            this.timestamps = requests.stream().mapToLong(ApplicationRequest::getTimestamp)
+                    .toArray();
+            this.bytes = CachingDataStore.estimateRequests(requests) + 8L * timestamps.length;
+        }
+
+        /**
+         * Index of the first request with a timestamp greater than or equal to the given value.
+         */
+        private int lowerBound(long timestamp) {
+            int low = 0;
+            int high = timestamps.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[mid] < timestamp) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package edu.ucsb.cs.roots.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Aggregated response time statistics of an operation over a period: request count,
+ * total, minimum and maximum response time, and a sketch of the latency distribution.
+ * Rollups of adjacent periods can be merged into a rollup of a coarser period.
+ */
+public final class ResponseTimeRollup {
+
+    private final long timestamp;
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+    private final LatencySketch sketch;
+
+    /**
+     * Create a new rollup. The rollup takes ownership of the sketch, which must not be
+     * modified afterwards.
+     */
+    public ResponseTimeRollup(long timestamp, long count, double sum, double min, double max,
+                              LatencySketch sketch) {
+        checkArgument(count >= 0, "Count must be non-negative");
+        checkNotNull(sketch, "Sketch is required");
+        this.timestamp = timestamp;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.sketch = sketch;
+    }
+
+    /**
+     * Create a rollup from a collection of response time values.
+     */
+    public static ResponseTimeRollup of(long timestamp, double... values) {
+        Builder builder = newBuilder(timestamp);
+        for (double value : values) {
+            builder.add(value);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Approximate a rollup from a summary, treating all requests as having the mean
+     * response time.
+     */
+    public static ResponseTimeRollup of(ResponseTimeSummary summary) {
+        long count = (long) summary.getRequestCount();
+        double mean = summary.getMeanResponseTime();
+        LatencySketch sketch = new LatencySketch();
+        sketch.add(mean, count);
+        return new ResponseTimeRollup(summary.getTimestamp(), count, mean * count, mean, mean,
+                sketch);
+    }
+
+    /**
+     * Merge with the rollup of another period. The result is timestamped with the earlier
+     * of the two timestamps.
+     */
+    public ResponseTimeRollup merge(ResponseTimeRollup other) {
+        LatencySketch merged = sketch.copy();
+        merged.merge(other.sketch);
+        return new ResponseTimeRollup(Math.min(timestamp, other.timestamp), count + other.count,
+                sum + other.sum, minOf(min, other.min), maxOf(max, other.max), merged);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    LatencySketch getSketch() {
+        return sketch;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count > 0 ? sum / count : 0.0;
+    }
+
+    public double getQuantile(double q) {
+        return sketch.getQuantile(q);
+    }
+
+    public ResponseTimeSummary toSummary() {
+        return new ResponseTimeSummary(timestamp, getMean(), count);
+    }
+
+    public static Builder newBuilder(long timestamp) {
+        return new Builder(timestamp);
+    }
+
+    /**
+     * Accumulates individual response time values into a rollup.
+     */
+    public static class Builder {
+
+        private final long timestamp;
+        private final LatencySketch sketch = new LatencySketch();
+        private long count = 0L;
+        private double sum = 0D;
+        private double min = Double.NaN;
+        private double max = Double.NaN;
+
+        private Builder(long timestamp) {
+            this.timestamp = timestamp;
+        }
+
+        public Builder add(double value) {
+            sketch.add(value);
+            count++;
+            sum += value;
+            min = minOf(min, value);
+            max = maxOf(max, value);
+            return this;
+        }
+
+        public ResponseTimeRollup build() {
+            return new ResponseTimeRollup(timestamp, count, sum, min, max, sketch.copy());
+        }
+    }
+
+    private static double minOf(double a, double b) {
+        return Double.isNaN(a) ? b : (Double.isNaN(b) ? a : Math.min(a, b));
+    }
+
+    private static double maxOf(double a, double b) {
+        return Double.isNaN(a) ? b : (Double.isNaN(b) ? a : Math.max(a, b));
+    }
+}
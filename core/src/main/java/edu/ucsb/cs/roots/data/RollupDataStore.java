@@ -0,0 +1,349 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A DataStore decorator that maintains per-operation, per-period response time rollups
+ * in memory. Each base period is fetched from the underlying data store once, after it has
+ * become immutable (i.e. it ends before the ingestion delay). Response time summary, history
+ * and rollup queries over windows aligned to the base period are then answered by merging the
+ * stored rollups, for any history length within the retention period and any multiple of the
+ * base period. Other queries are passed through to the underlying data store.
+ */
+public final class RollupDataStore implements DataStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RollupDataStore.class);
+
+    private final DataStore delegate;
+    private final long period;
+    private final long retention;
+    private final long ingestionDelay;
+
+    private final Map<String,ApplicationRollups> rollups = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong(0L);
+    private final AtomicLong fetches = new AtomicLong(0L);
+
+    private RollupDataStore(Builder builder) {
+        checkNotNull(builder.delegate, "Delegate DataStore is required");
+        checkArgument(builder.period > 0, "Period must be positive");
+        checkArgument(builder.retention >= builder.period,
+                "Retention must not be shorter than the period");
+        checkArgument(builder.ingestionDelay >= 0, "Ingestion delay must be non-negative");
+        this.delegate = builder.delegate;
+        this.period = builder.period;
+        this.retention = builder.retention;
+        this.ingestionDelay = builder.ingestionDelay;
+    }
+
+    @Override
+    public void init() {
+        delegate.init();
+    }
+
+    @Override
+    public void destroy() {
+        log.info("Rollup statistics - hits: {}, fetches: {}", hits.get(), fetches.get());
+        rollups.clear();
+        delegate.destroy();
+    }
+
+    /**
+     * Returns the number of queries answered from the stored rollups.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of rollup queries made against the underlying data store.
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    @Override
+    public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+            String application, long start, long end) throws DataStoreException {
+        if (!canServe(start, end, end - start)) {
+            return delegate.getResponseTimeSummary(application, start, end);
+        }
+        ImmutableMap.Builder<String,ResponseTimeSummary> builder = ImmutableMap.builder();
+        rollup(application, start, end, end - start).entries().forEach(
+                e -> builder.put(e.getKey(), e.getValue().toSummary()));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeSummary> getResponseTimeHistory(
+            String application, long start, long end, long period) throws DataStoreException {
+        if (!canServe(start, end, period)) {
+            return delegate.getResponseTimeHistory(application, start, end, period);
+        }
+        ImmutableListMultimap.Builder<String,ResponseTimeSummary> builder =
+                ImmutableListMultimap.builder();
+        rollup(application, start, end, period).entries().forEach(
+                e -> builder.put(e.getKey(), e.getValue().toSummary()));
+        return builder.build();
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+            String application, long start, long end, long period) throws DataStoreException {
+        if (!canServe(start, end, period)) {
+            return delegate.getResponseTimeRollups(application, start, end, period);
+        }
+        return rollup(application, start, end, period);
+    }
+
+    @Override
+    public ImmutableList<Double> getWorkloadSummary(
+            String application, String operation, long start, long end,
+            long period) throws DataStoreException {
+        return delegate.getWorkloadSummary(application, operation, start, end, period);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
+            String application, long start, long end) throws DataStoreException {
+        return delegate.getBenchmarkResults(application, start, end);
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ApplicationRequest> getRequestInfo(
+            String application, long start, long end) throws DataStoreException {
+        return delegate.getRequestInfo(application, start, end);
+    }
+
+    @Override
+    public ImmutableList<ApplicationRequest> getRequestInfo(
+            String application, String operation,
+            long start, long end) throws DataStoreException {
+        return delegate.getRequestInfo(application, operation, start, end);
+    }
+
+    @Override
+    public ImmutableTable<String, String, Integer> getPathDistribution(
+            String application, long start, long end) throws DataStoreException {
+        return delegate.getPathDistribution(application, start, end);
+    }
+
+    @Override
+    public RequestBatch getRequestBatch(
+            String application, String operation, long start, long end) throws DataStoreException {
+        return delegate.getRequestBatch(application, operation, start, end);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableMap<String, ResponseTimeSummary>> getResponseTimeSummaryAsync(
+            String application, long start, long end) {
+        if (!canServe(start, end, end - start)) {
+            return delegate.getResponseTimeSummaryAsync(application, start, end);
+        }
+        return DataStoreFutures.completed(() -> getResponseTimeSummary(application, start, end));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeSummary>> getResponseTimeHistoryAsync(
+            String application, long start, long end, long period) {
+        if (!canServe(start, end, period)) {
+            return delegate.getResponseTimeHistoryAsync(application, start, end, period);
+        }
+        return DataStoreFutures.completed(() -> getResponseTimeHistory(
+                application, start, end, period));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeRollup>> getResponseTimeRollupsAsync(
+            String application, long start, long end, long period) {
+        if (!canServe(start, end, period)) {
+            return delegate.getResponseTimeRollupsAsync(application, start, end, period);
+        }
+        return DataStoreFutures.completed(() -> getResponseTimeRollups(
+                application, start, end, period));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<Double>> getWorkloadSummaryAsync(
+            String application, String operation, long start, long end, long period) {
+        return delegate.getWorkloadSummaryAsync(application, operation, start, end, period);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, BenchmarkResult>> getBenchmarkResultsAsync(
+            String application, long start, long end) {
+        return delegate.getBenchmarkResultsAsync(application, start, end);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ApplicationRequest>> getRequestInfoAsync(
+            String application, long start, long end) {
+        return delegate.getRequestInfoAsync(application, start, end);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<ApplicationRequest>> getRequestInfoAsync(
+            String application, String operation, long start, long end) {
+        return delegate.getRequestInfoAsync(application, operation, start, end);
+    }
+
+    @Override
+    public CompletableFuture<ImmutableTable<String, String, Integer>> getPathDistributionAsync(
+            String application, long start, long end) {
+        return delegate.getPathDistributionAsync(application, start, end);
+    }
+
+    @Override
+    public CompletableFuture<RequestBatch> getRequestBatchAsync(
+            String application, String operation, long start, long end) {
+        return delegate.getRequestBatchAsync(application, operation, start, end);
+    }
+
+    @Override
+    public void recordBenchmarkResult(BenchmarkResult result) throws DataStoreException {
+        delegate.recordBenchmarkResult(result);
+    }
+
+    @Override
+    public void recordBenchmarkResults(
+            Collection<BenchmarkResult> results) throws DataStoreException {
+        delegate.recordBenchmarkResults(results);
+    }
+
+    /**
+     * Returns true if the specified window is aligned to the base period, immutable, and
+     * within the retention period.
+     */
+    private boolean canServe(long start, long end, long period) {
+        if (start >= end || period <= 0 || period % this.period != 0
+                || Math.floorMod(start, this.period) != 0
+                || Math.floorMod(end, this.period) != 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        return end <= now - ingestionDelay && start >= now - retention;
+    }
+
+    private ImmutableListMultimap<String,ResponseTimeRollup> rollup(
+            String application, long start, long end, long period) throws DataStoreException {
+        ApplicationRollups stored = rollups.computeIfAbsent(application,
+                k -> new ApplicationRollups());
+        ImmutableListMultimap.Builder<String,ResponseTimeRollup> builder =
+                ImmutableListMultimap.builder();
+        synchronized (stored) {
+            fetchMissing(application, stored, start, end);
+            stored.operations.forEach((operation, periods) -> {
+                ResponseTimeRollup current = null;
+                for (ResponseTimeRollup r : periods.subMap(start, end).values()) {
+                    long bucket = start + (r.getTimestamp() - start) / period * period;
+                    if (current != null && current.getTimestamp() != bucket) {
+                        builder.put(operation, current);
+                        current = null;
+                    }
+                    if (current == null) {
+                        current = ResponseTimeRollup.newBuilder(bucket).build();
+                    }
+                    current = current.merge(r);
+                }
+                if (current != null) {
+                    builder.put(operation, current);
+                }
+            });
+        }
+        hits.incrementAndGet();
+        return builder.build();
+    }
+
+    private void fetchMissing(String application, ApplicationRollups stored, long start,
+                              long end) throws DataStoreException {
+        Range<Long> window = Range.closedOpen(start, end);
+        List<Range<Long>> missing = new ArrayList<>(
+                stored.covered.complement().subRangeSet(window).asRanges());
+        for (Range<Long> range : missing) {
+            long fetchStart = range.lowerEndpoint();
+            long fetchEnd = range.upperEndpoint();
+            log.debug("Fetching rollups for {} ({} - {})", application, fetchStart, fetchEnd);
+            ImmutableListMultimap<String,ResponseTimeRollup> fetched =
+                    delegate.getResponseTimeRollups(application, fetchStart, fetchEnd, period);
+            fetches.incrementAndGet();
+            fetched.entries().forEach(e -> stored.operations.computeIfAbsent(e.getKey(),
+                    k -> new TreeMap<>()).put(e.getValue().getTimestamp(), e.getValue()));
+            stored.covered.add(Range.closedOpen(fetchStart, fetchEnd));
+        }
+
+        long cutoff = System.currentTimeMillis() - retention;
+        stored.covered.remove(Range.lessThan(cutoff));
+        stored.operations.values().forEach(periods -> periods.headMap(cutoff).clear());
+        stored.operations.values().removeIf(Map::isEmpty);
+    }
+
+    private static final class ApplicationRollups {
+        private final RangeSet<Long> covered = TreeRangeSet.create();
+        private final Map<String,NavigableMap<Long,ResponseTimeRollup>> operations =
+                new TreeMap<>();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private DataStore delegate;
+        private long period = 60 * 1000L;
+        private long retention = 24 * 60 * 60 * 1000L;
+        private long ingestionDelay = 60 * 1000L;
+
+        private Builder() {
+        }
+
+        public Builder setDelegate(DataStore delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Set the base period of the rollups in milliseconds. Only windows aligned to this
+         * period are served from the rollups.
+         */
+        public Builder setPeriod(long period) {
+            this.period = period;
+            return this;
+        }
+
+        public Builder setRetention(long retention) {
+            this.retention = retention;
+            return this;
+        }
+
+        public Builder setIngestionDelay(long ingestionDelay) {
+            this.ingestionDelay = ingestionDelay;
+            return this;
+        }
+
+        public RollupDataStore build() {
+            return new RollupDataStore(this);
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A deterministic generator of synthetic application requests. Each operation is described
+ * by a request rate, and a set of weighted execution paths, each consisting of a sequence of
+ * API calls with a mean execution time and jitter. Latency, workload and path shift anomalies
+ * can be injected into specific time intervals.
+ *
+ * Time is divided into fixed ticks, and the requests of each operation within a tick are
+ * generated from a random number generator seeded by the workload seed, the operation and the
+ * tick. Therefore the same requests are produced for a given time, regardless of the query
+ * window they are requested with, or the order in which windows are requested. Requests are
+ * generated lazily, and ticks are generated in parallel when the returned streams are
+ * consumed in parallel. Streams are ordered by timestamp.
+ */
+public final class SyntheticWorkload {
+
+    public static final String LOCAL = "LOCAL";
+
+    public enum InjectionType {
+        /** Multiply the execution time of an API call (or LOCAL) by a factor */
+        LATENCY,
+        /** Multiply the request rate of an operation by a factor */
+        WORKLOAD,
+        /** Multiply the weight of an execution path by a factor */
+        PATH
+    }
+
+    private final long seed;
+    private final long tick;
+    private final long benchmarkPeriod;
+    private final ImmutableList<OperationProfile> operations;
+    private final ImmutableList<Injection> injections;
+
+    private SyntheticWorkload(Builder builder) {
+        checkArgument(builder.tick > 0, "Tick must be positive");
+        checkArgument(builder.benchmarkPeriod > 0, "Benchmark period must be positive");
+        checkArgument(!builder.operations.isEmpty(), "At least one operation is required");
+        this.seed = builder.seed;
+        this.tick = builder.tick;
+        this.benchmarkPeriod = builder.benchmarkPeriod;
+        ImmutableList.Builder<OperationProfile> operations = ImmutableList.builder();
+        builder.operations.values().forEach(o -> operations.add(o.build()));
+        this.operations = operations.build();
+        this.injections = ImmutableList.copyOf(builder.injections);
+        injections.forEach(i -> checkArgument(getOperation(i.operation) != null,
+                "Unknown operation: %s", i.operation));
+    }
+
+    public ImmutableList<String> getOperations() {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        operations.forEach(o -> builder.add(o.name));
+        return builder.build();
+    }
+
+    /**
+     * Returns the execution paths of an operation, as they would be reported by
+     * ApplicationRequest.getPathAsString().
+     */
+    public ImmutableList<String> getPaths(String operation) {
+        OperationProfile profile = getRequiredOperation(operation);
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        profile.paths.forEach(p -> builder.add(p.name));
+        return builder.build();
+    }
+
+    /**
+     * Returns the requests of all operations within [start, end), ordered by operation and
+     * then by timestamp.
+     */
+    public Stream<ApplicationRequest> requests(String application, long start, long end) {
+        return operations.stream().flatMap(o -> requests(application, o, start, end));
+    }
+
+    /**
+     * Returns the requests of the specified operation within [start, end), ordered by
+     * timestamp. Unknown operations have no requests.
+     */
+    public Stream<ApplicationRequest> requests(String application, String operation,
+                                               long start, long end) {
+        OperationProfile profile = getOperation(operation);
+        if (profile == null) {
+            return Stream.empty();
+        }
+        return requests(application, profile, start, end);
+    }
+
+    /**
+     * Returns the number of requests of the specified operation within [start, end). Only the
+     * ticks partially covered by the interval are generated in full.
+     */
+    public long count(String operation, long start, long end) {
+        OperationProfile profile = getOperation(operation);
+        if (profile == null || start >= end) {
+            return 0L;
+        }
+        return ticks(start, end).map(t -> {
+            if (t >= start && t + tick <= end) {
+                return newTickRandom(profile, t).count;
+            }
+            long[] timestamps = timestamps(newTickRandom(profile, t), t);
+            return Arrays.stream(timestamps).filter(ts -> ts >= start && ts < end && ts > 0)
+                    .count();
+        }).sum();
+    }
+
+    /**
+     * Returns one benchmark result per operation per benchmark period within [start, end),
+     * drawn from the same profile (and anomalies) as the requests.
+     */
+    public Stream<BenchmarkResult> benchmarkResults(String application, long start, long end) {
+        long first = Math.floorDiv(start + benchmarkPeriod - 1, benchmarkPeriod) * benchmarkPeriod;
+        return LongStream.iterate(first, t -> t + benchmarkPeriod)
+                .limit(Math.max(0L, (end - first + benchmarkPeriod - 1) / benchmarkPeriod))
+                .filter(t -> t > 0)
+                .boxed()
+                .flatMap(t -> operations.stream().map(o -> {
+                    SplittableRandom random = new SplittableRandom(mix(seed ^ 0x5bd1e995L,
+                            o.index, t));
+                    int responseTime = o.newRequest(this, random, t).responseTime;
+                    int separator = o.name.indexOf(' ');
+                    String method = separator > 0 ? o.name.substring(0, separator) : "GET";
+                    String path = separator > 0 ? o.name.substring(separator + 1) : o.name;
+                    return new BenchmarkResult(t, application, method, path, responseTime);
+                }));
+    }
+
+    private Stream<ApplicationRequest> requests(String application, OperationProfile profile,
+                                                long start, long end) {
+        if (start >= end) {
+            return Stream.empty();
+        }
+        return ticks(start, end).parallel()
+                .mapToObj(t -> generate(application, profile, t, start, end))
+                .flatMap(List::stream);
+    }
+
+    private LongStream ticks(long start, long end) {
+        long first = Math.floorDiv(start, tick);
+        long last = Math.floorDiv(end - 1, tick);
+        return LongStream.rangeClosed(first, last).map(t -> t * tick);
+    }
+
+    private List<ApplicationRequest> generate(String application, OperationProfile profile,
+                                              long tickStart, long start, long end) {
+        TickRandom tickRandom = newTickRandom(profile, tickStart);
+        if (tickRandom.count == 0) {
+            return Collections.emptyList();
+        }
+        SplittableRandom random = tickRandom.random;
+        long[] timestamps = timestamps(tickRandom, tickStart);
+
+        List<ApplicationRequest> requests = new ArrayList<>(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            // Always draw, so that the random sequence does not depend on the query window
+            GeneratedRequest request = profile.newRequest(this, random, timestamps[i]);
+            long timestamp = timestamps[i];
+            if (timestamp < start || timestamp >= end || timestamp <= 0) {
+                continue;
+            }
+            ImmutableList.Builder<ApiCall> calls = ImmutableList.builder();
+            for (int j = 0; j < request.path.calls.size(); j++) {
+                CallProfile call = request.path.calls.get(j);
+                calls.add(ApiCall.newBuilder()
+                        .setRequestTimestamp(timestamp)
+                        .setTimestamp(timestamp)
+                        .setSequenceNumber(j)
+                        .setService(call.service)
+                        .setOperation(call.operation)
+                        .setRequestOperation(profile.name)
+                        .setTimeElapsed(request.timings[j])
+                        .build());
+            }
+            requests.add(new ApplicationRequest(profile.index + "-" + tickStart + "-" + i,
+                    timestamp, application, profile.name, calls.build(), request.responseTime));
+        }
+        return requests;
+    }
+
+    private long[] timestamps(TickRandom tickRandom, long tickStart) {
+        long[] timestamps = new long[tickRandom.count];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = tickStart + tickRandom.random.nextLong(tick);
+        }
+        Arrays.sort(timestamps);
+        return timestamps;
+    }
+
+    private TickRandom newTickRandom(OperationProfile profile, long tickStart) {
+        SplittableRandom random = new SplittableRandom(mix(seed, profile.index, tickStart));
+        double expected = profile.rate * tick / 1000.0 * factor(InjectionType.WORKLOAD,
+                profile.name, null, tickStart);
+        int count = (int) expected;
+        if (random.nextDouble() < expected - count) {
+            count++;
+        }
+        return new TickRandom(random, count);
+    }
+
+    private double factor(InjectionType type, String operation, String target, long timestamp) {
+        double factor = 1.0;
+        for (Injection i : injections) {
+            if (i.type == type && i.operation.equals(operation) && timestamp >= i.start
+                    && timestamp < i.end && (target == null || target.equals(i.target))) {
+                factor *= i.factor;
+            }
+        }
+        return factor;
+    }
+
+    private OperationProfile getOperation(String operation) {
+        for (OperationProfile profile : operations) {
+            if (profile.name.equals(operation)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private OperationProfile getRequiredOperation(String operation) {
+        OperationProfile profile = getOperation(operation);
+        checkArgument(profile != null, "Unknown operation: %s", operation);
+        return profile;
+    }
+
+    /**
+     * Mix the seed, operation and time into a well distributed 64-bit seed (using the
+     * finalizer of MurmurHash3).
+     */
+    private static long mix(long seed, int operation, long timestamp) {
+        long h = seed ^ (operation * 0x9e3779b97f4a7c15L) ^ (timestamp * 0xc2b2ae3d27d4eb4fL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int jitter(SplittableRandom random, int mean, int jitter) {
+        if (jitter <= 0) {
+            return mean;
+        }
+        return Math.max(0, mean + random.nextInt(2 * jitter + 1) - jitter);
+    }
+
+    private static final class TickRandom {
+        private final SplittableRandom random;
+        private final int count;
+
+        private TickRandom(SplittableRandom random, int count) {
+            this.random = random;
+            this.count = count;
+        }
+    }
+
+    private static final class GeneratedRequest {
+        private final PathProfile path;
+        private final int[] timings;
+        private final int responseTime;
+
+        private GeneratedRequest(PathProfile path, int[] timings, int responseTime) {
+            this.path = path;
+            this.timings = timings;
+            this.responseTime = responseTime;
+        }
+    }
+
+    private static final class OperationProfile {
+
+        private final int index;
+        private final String name;
+        private final double rate;
+        private final int localTime;
+        private final int localJitter;
+        private final ImmutableList<PathProfile> paths;
+
+        private OperationProfile(int index, String name, double rate, int localTime,
+                                 int localJitter, ImmutableList<PathProfile> paths) {
+            this.index = index;
+            this.name = name;
+            this.rate = rate;
+            this.localTime = localTime;
+            this.localJitter = localJitter;
+            this.paths = paths;
+        }
+
+        private GeneratedRequest newRequest(SyntheticWorkload workload, SplittableRandom random,
+                                            long timestamp) {
+            PathProfile path = paths.get(0);
+            if (paths.size() > 1) {
+                double[] weights = new double[paths.size()];
+                double total = 0D;
+                for (int i = 0; i < weights.length; i++) {
+                    weights[i] = paths.get(i).weight * workload.factor(InjectionType.PATH,
+                            name, String.valueOf(i), timestamp);
+                    total += weights[i];
+                }
+                double pick = random.nextDouble() * total;
+                for (int i = 0; i < weights.length; i++) {
+                    pick -= weights[i];
+                    if (pick < 0 || i == weights.length - 1) {
+                        path = paths.get(i);
+                        break;
+                    }
+                }
+            }
+
+            int[] timings = new int[path.calls.size()];
+            int responseTime = 0;
+            for (int i = 0; i < timings.length; i++) {
+                CallProfile call = path.calls.get(i);
+                timings[i] = (int) (jitter(random, call.mean, call.jitter) * workload.factor(
+                        InjectionType.LATENCY, name, call.service + ":" + call.operation,
+                        timestamp));
+                responseTime += timings[i];
+            }
+            responseTime += (int) (jitter(random, localTime, localJitter) * workload.factor(
+                    InjectionType.LATENCY, name, LOCAL, timestamp));
+            return new GeneratedRequest(path, timings, responseTime);
+        }
+    }
+
+    private static final class PathProfile {
+
+        private final double weight;
+        private final ImmutableList<CallProfile> calls;
+        private final String name;
+
+        private PathProfile(double weight, ImmutableList<CallProfile> calls) {
+            checkArgument(weight > 0, "Path weight must be positive");
+            this.weight = weight;
+            this.calls = calls;
+            StringBuilder name = new StringBuilder();
+            calls.forEach(c -> {
+                if (name.length() > 0) {
+                    name.append(", ");
+                }
+                name.append(c.service).append(':').append(c.operation);
+            });
+            this.name = name.toString();
+        }
+    }
+
+    /**
+     * An API call made by the requests of an execution path.
+     */
+    public static final class CallProfile {
+
+        private final String service;
+        private final String operation;
+        private final int mean;
+        private final int jitter;
+
+        private CallProfile(String service, String operation, int mean, int jitter) {
+            checkArgument(!Strings.isNullOrEmpty(service), "Service is required");
+            checkArgument(!Strings.isNullOrEmpty(operation), "Operation is required");
+            checkArgument(mean >= 0, "Mean execution time must be non-negative");
+            checkArgument(jitter >= 0, "Jitter must be non-negative");
+            this.service = service;
+            this.operation = operation;
+            this.mean = mean;
+            this.jitter = jitter;
+        }
+    }
+
+    /**
+     * Create a call profile. Execution times are drawn uniformly from
+     * [mean - jitter, mean + jitter].
+     */
+    public static CallProfile call(String service, String operation, int mean, int jitter) {
+        return new CallProfile(service, operation, mean, jitter);
+    }
+
+    private static final class Injection {
+
+        private final InjectionType type;
+        private final String operation;
+        private final String target;
+        private final long start;
+        private final long end;
+        private final double factor;
+
+        private Injection(InjectionType type, String operation, String target, long start,
+                          long end, double factor) {
+            checkNotNull(type, "Injection type is required");
+            checkArgument(!Strings.isNullOrEmpty(operation), "Operation is required");
+            checkArgument(start < end, "Start time must precede end time");
+            checkArgument(factor >= 0, "Factor must be non-negative");
+            this.type = type;
+            this.operation = operation;
+            this.target = target;
+            this.start = start;
+            this.end = end;
+            this.factor = factor;
+        }
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private long seed = 0L;
+        private long tick = 1000L;
+        private long benchmarkPeriod = 15000L;
+        private final Map<String,OperationBuilder> operations = new LinkedHashMap<>();
+        private final List<Injection> injections = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Set the length of the time slices requests are generated in, in milliseconds.
+         */
+        public Builder setTick(long tick) {
+            this.tick = tick;
+            return this;
+        }
+
+        public Builder setBenchmarkPeriod(long benchmarkPeriod) {
+            this.benchmarkPeriod = benchmarkPeriod;
+            return this;
+        }
+
+        /**
+         * Add an operation (e.g. "GET /") receiving the given number of requests per second.
+         * Requests spend localTime +/- localJitter milliseconds outside of API calls.
+         */
+        public Builder addOperation(String name, double rate, int localTime, int localJitter) {
+            checkArgument(!Strings.isNullOrEmpty(name), "Operation name is required");
+            checkArgument(!operations.containsKey(name), "Duplicate operation: %s", name);
+            checkArgument(rate >= 0, "Rate must be non-negative");
+            checkArgument(localTime >= 0 && localJitter >= 0, "Local time must be non-negative");
+            operations.put(name, new OperationBuilder(operations.size(), name, rate, localTime,
+                    localJitter));
+            return this;
+        }
+
+        /**
+         * Add an execution path to an operation. Paths are chosen in proportion to their
+         * weights.
+         */
+        public Builder addPath(String operation, double weight, CallProfile... calls) {
+            OperationBuilder builder = operations.get(operation);
+            checkArgument(builder != null, "Unknown operation: %s", operation);
+            builder.paths.add(new PathProfile(weight, ImmutableList.copyOf(calls)));
+            return this;
+        }
+
+        /**
+         * Multiply the execution time of an API call ("service:operation", or LOCAL) made by
+         * an operation, during [start, end).
+         */
+        public Builder injectLatency(String operation, String call, long start, long end,
+                                     double factor) {
+            checkArgument(!Strings.isNullOrEmpty(call), "API call is required");
+            injections.add(new Injection(InjectionType.LATENCY, operation, call, start, end,
+                    factor));
+            return this;
+        }
+
+        /**
+         * Multiply the request rate of an operation during [start, end).
+         */
+        public Builder injectWorkload(String operation, long start, long end, double factor) {
+            injections.add(new Injection(InjectionType.WORKLOAD, operation, null, start, end,
+                    factor));
+            return this;
+        }
+
+        /**
+         * Multiply the weight of an execution path (by index, in the order paths were added)
+         * of an operation during [start, end).
+         */
+        public Builder injectPathShift(String operation, int path, long start, long end,
+                                       double factor) {
+            checkArgument(path >= 0, "Path index must be non-negative");
+            injections.add(new Injection(InjectionType.PATH, operation, String.valueOf(path),
+                    start, end, factor));
+            return this;
+        }
+
+        public SyntheticWorkload build() {
+            return new SyntheticWorkload(this);
+        }
+    }
+
+    private static final class OperationBuilder {
+
+        private final int index;
+        private final String name;
+        private final double rate;
+        private final int localTime;
+        private final int localJitter;
+        private final List<PathProfile> paths = new ArrayList<>();
+
+        private OperationBuilder(int index, String name, double rate, int localTime,
+                                 int localJitter) {
+            this.index = index;
+            this.name = name;
+            this.rate = rate;
+            this.localTime = localTime;
+            this.localJitter = localJitter;
+        }
+
+        private OperationProfile build() {
+            checkArgument(!paths.isEmpty(), "No paths defined for operation: %s", name);
+            return new OperationProfile(index, name, rate, localTime, localJitter,
+                    ImmutableList.copyOf(paths));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.common.base.Strings;
+import com.google.gson.stream.JsonReader;
+import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes access log hits into primitive column buffers: the request ID, and the response
+ * time in milliseconds of each entry. Field mappings are resolved once, when the decoder is
+ * created for a query, and values are written straight into the columns without boxing.
+ * Entries without a request ID are dropped.
+ */
+final class AccessLogDecoder implements SearchHitHandler {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final String requestIdField;
+    private final String responseTimeField;
+
+    private String[] requestIds = new String[INITIAL_CAPACITY];
+    private int[] responseTimes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // Open addressing index from request IDs to rows, built on first lookup
+    private int[] index;
+
+    /**
+     * Create a decoder for the response times of the access log entries.
+     *
+     * @param es ElasticSearch configuration used to resolve the field mappings
+     */
+    AccessLogDecoder(ElasticSearchConfig es) {
+        this.requestIdField = es.field(ResponseTimeSummaryQuery.ACCESS_LOG_REQ_ID, "request_id");
+        this.responseTimeField = es.field(ResponseTimeSummaryQuery.ACCESS_LOG_RESPONSE_TIME,
+                "time_duration");
+    }
+
+    @Override
+    public void handle(JsonReader source) throws IOException {
+        String requestId = null;
+        double timeDuration = 0D;
+        source.beginObject();
+        while (source.hasNext()) {
+            String name = source.nextName();
+            if (name.equals(requestIdField)) {
+                requestId = SearchResponse.nextNullableString(source);
+            } else if (name.equals(responseTimeField)) {
+                timeDuration = source.nextDouble();
+            } else {
+                source.skipValue();
+            }
+        }
+        source.endObject();
+        if (!Strings.isNullOrEmpty(requestId)) {
+            add(requestId, (int) (timeDuration * 1000));
+        }
+    }
+
+    private void add(String requestId, int responseTime) {
+        if (size == requestIds.length) {
+            int capacity = size * 2;
+            requestIds = Arrays.copyOf(requestIds, capacity);
+            responseTimes = Arrays.copyOf(responseTimes, capacity);
+        }
+        requestIds[size] = requestId;
+        responseTimes[size] = responseTime;
+        size++;
+        index = null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String getRequestId(int row) {
+        return requestIds[row];
+    }
+
+    int getResponseTime(int row) {
+        return responseTimes[row];
+    }
+
+    /**
+     * Returns the row of the last entry with the given request ID, or -1 if there is none.
+     */
+    int find(String requestId) {
+        if (size == 0) {
+            return -1;
+        }
+        if (index == null) {
+            buildIndex();
+        }
+        int mask = index.length - 1;
+        for (int slot = spread(requestId.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int row = index[slot] - 1;
+            if (row < 0) {
+                return -1;
+            } else if (requestIds[row].equals(requestId)) {
+                return row;
+            }
+        }
+    }
+
+    private void buildIndex() {
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        index = new int[capacity];
+        int mask = capacity - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = spread(requestIds[row].hashCode()) & mask;
+            while (index[slot] != 0 && !requestIds[index[slot] - 1].equals(requestIds[row])) {
+                slot = (slot + 1) & mask;
+            }
+            // Rows are stored off by one, so that 0 marks an empty slot
+            index[slot] = row + 1;
+        }
+    }
+
+    private static int spread(int hash) {
+        return (hash ^ (hash >>> 16)) * 0x45d9f3b;
+    }
+
+    /**
+     * Merge the decoders of the slices of a scroll search into one.
+     */
+    static AccessLogDecoder merge(List<AccessLogDecoder> slices) {
+        AccessLogDecoder first = slices.get(0);
+        for (int i = 1; i < slices.size(); i++) {
+            AccessLogDecoder slice = slices.get(i);
+            for (int row = 0; row < slice.size; row++) {
+                first.add(slice.requestIds[row], slice.responseTimes[row]);
+            }
+        }
+        return first;
+    }
+}
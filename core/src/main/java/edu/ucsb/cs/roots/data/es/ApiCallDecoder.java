@@ -0,0 +1,195 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.common.base.Strings;
+import com.google.gson.stream.JsonReader;
+import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+import edu.ucsb.cs.roots.data.RequestBatch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decodes API call hits into primitive column buffers, for the requests of a single operation:
+ * the request ID and timestamp, the sequence number, the timestamp, the (dictionary encoded)
+ * name and the execution time of each call. Field mappings are resolved once, when the decoder
+ * is created for a query. Hits are validated the same way ApiCall validates its fields.
+ */
+final class ApiCallDecoder implements SearchHitHandler {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final String requestTimestampField;
+    private final String timestampField;
+    private final String sequenceNumberField;
+    private final String serviceField;
+    private final String operationField;
+    private final String responseTimeField;
+    private final String requestIdField;
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String,Integer> dictionary = new HashMap<>();
+
+    private String[] requestIds = new String[INITIAL_CAPACITY];
+    private long[] requestTimestamps = new long[INITIAL_CAPACITY];
+    private int[] sequenceNumbers = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] calls = new int[INITIAL_CAPACITY];
+    private int[] timings = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    ApiCallDecoder(ElasticSearchConfig es) {
+        this.requestTimestampField = es.field(RequestInfoQuery.API_CALL_REQ_TIMESTAMP,
+                "requestTimestamp");
+        this.timestampField = es.field(RequestInfoQuery.API_CALL_TIMESTAMP, "timestamp");
+        this.sequenceNumberField = es.field(RequestInfoQuery.API_CALL_SEQ_NUMBER,
+                "sequenceNumber");
+        this.serviceField = es.field(RequestInfoQuery.API_CALL_SERVICE, "service");
+        this.operationField = es.field(RequestInfoQuery.API_CALL_OPERATION, "operation");
+        this.responseTimeField = es.field(RequestInfoQuery.API_CALL_RESPONSE_TIME, "elapsed");
+        this.requestIdField = es.field(RequestInfoQuery.API_CALL_REQ_ID, "requestId");
+    }
+
+    @Override
+    public void handle(JsonReader source) throws IOException {
+        String requestId = null;
+        long requestTimestamp = 0L;
+        long timestamp = 0L;
+        int sequenceNumber = 0;
+        String service = null;
+        String operation = null;
+        int timeElapsed = 0;
+        source.beginObject();
+        while (source.hasNext()) {
+            String name = source.nextName();
+            if (name.equals(requestTimestampField)) {
+                requestTimestamp = source.nextLong();
+            } else if (name.equals(timestampField)) {
+                timestamp = source.nextLong();
+            } else if (name.equals(sequenceNumberField)) {
+                sequenceNumber = source.nextInt();
+            } else if (name.equals(serviceField)) {
+                service = source.nextString();
+            } else if (name.equals(operationField)) {
+                operation = source.nextString();
+            } else if (name.equals(responseTimeField)) {
+                timeElapsed = source.nextInt();
+            } else if (name.equals(requestIdField)) {
+                requestId = source.nextString();
+            } else {
+                source.skipValue();
+            }
+        }
+        source.endObject();
+        checkArgument(requestId != null, "Request ID is required");
+        checkArgument(requestTimestamp > 0, "Request timestamp must be positive");
+        checkArgument(timestamp > 0, "Timestamp must be positive");
+        checkArgument(!Strings.isNullOrEmpty(service), "Service is required");
+        checkArgument(!Strings.isNullOrEmpty(operation), "Operation is required");
+        checkArgument(timeElapsed >= 0, "Time elapsed must be non-negative");
+        add(requestId, requestTimestamp, sequenceNumber, timestamp,
+                encode(service + ":" + operation), timeElapsed);
+    }
+
+    private int encode(String name) {
+        return dictionary.computeIfAbsent(name, n -> {
+            names.add(n);
+            return names.size() - 1;
+        });
+    }
+
+    private void add(String requestId, long requestTimestamp, int sequenceNumber,
+                     long timestamp, int call, int timeElapsed) {
+        if (size == requestIds.length) {
+            int capacity = size * 2;
+            requestIds = Arrays.copyOf(requestIds, capacity);
+            requestTimestamps = Arrays.copyOf(requestTimestamps, capacity);
+            sequenceNumbers = Arrays.copyOf(sequenceNumbers, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            calls = Arrays.copyOf(calls, capacity);
+            timings = Arrays.copyOf(timings, capacity);
+        }
+        requestIds[size] = requestId;
+        requestTimestamps[size] = requestTimestamp;
+        sequenceNumbers[size] = sequenceNumber;
+        timestamps[size] = timestamp;
+        calls[size] = call;
+        timings[size] = timeElapsed;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Group the decoded calls by request, and add each request found in the given access log
+     * to the batch builder. The calls of a request are ordered the same way as
+     * ApiCall.SEQUENCE_ORDER orders them.
+     *
+     * @return Number of requests added to the builder
+     */
+    int addTo(RequestBatch.Builder builder, AccessLogDecoder accessLog) {
+        // Hits are sorted by request timestamp, but calls of different requests with the
+        // same timestamp may be interleaved, so the rows are grouped by request ID here
+        int[] order = IntStream.range(0, size).boxed()
+                .sorted((a, b) -> {
+                    int result = Long.compare(requestTimestamps[a], requestTimestamps[b]);
+                    if (result == 0) {
+                        result = requestIds[a].compareTo(requestIds[b]);
+                    }
+                    if (result == 0) {
+                        result = Integer.compare(sequenceNumbers[a], sequenceNumbers[b]);
+                    }
+                    return result != 0 ? result : Long.compare(timestamps[a], timestamps[b]);
+                })
+                .mapToInt(Integer::intValue).toArray();
+
+        List<String> callNames = new ArrayList<>();
+        int added = 0;
+        int first = 0;
+        while (first < size) {
+            String requestId = requestIds[order[first]];
+            int last = first + 1;
+            while (last < size && requestIds[order[last]].equals(requestId)) {
+                last++;
+            }
+            int row = accessLog.find(requestId);
+            if (row >= 0) {
+                int[] requestTimings = new int[last - first];
+                callNames.clear();
+                for (int i = first; i < last; i++) {
+                    callNames.add(names.get(calls[order[i]]));
+                    requestTimings[i - first] = timings[order[i]];
+                }
+                builder.add(requestTimestamps[order[first]], accessLog.getResponseTime(row),
+                        callNames, requestTimings);
+                added++;
+            }
+            first = last;
+        }
+        return added;
+    }
+
+    /**
+     * Merge the decoders of the slices of a scroll search into one.
+     */
+    static ApiCallDecoder merge(List<ApiCallDecoder> slices) {
+        ApiCallDecoder first = slices.get(0);
+        for (int i = 1; i < slices.size(); i++) {
+            ApiCallDecoder slice = slices.get(i);
+            for (int row = 0; row < slice.size; row++) {
+                first.add(slice.requestIds[row], slice.requestTimestamps[row],
+                        slice.sequenceNumbers[row], slice.timestamps[row],
+                        first.encode(slice.names.get(slice.calls[row])), slice.timings[row]);
+            }
+        }
+        return first;
+    }
+}
@@ -2,13 +2,14 @@ package edu.ucsb.cs.roots.data.es;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableListMultimap;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import edu.ucsb.cs.roots.data.BenchmarkResult;
 import edu.ucsb.cs.roots.data.ElasticSearchConfig;
 
 import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -34,45 +35,108 @@ public final class BenchmarkResultsQuery extends Query<ImmutableListMultimap<Str
         this.application = builder.application;
     }
 
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
     @Override
     public ImmutableListMultimap<String, BenchmarkResult> run(ElasticSearchConfig es) throws IOException {
-        String path = String.format("/%s/%s/_search?scroll=1m", es.getBenchmarkIndex(), application);
-        ImmutableListMultimap.Builder<String,BenchmarkResult> builder = ImmutableListMultimap.builder();
-        JsonElement results = makeHttpCall(es, path);
-        String scrollId = results.getAsJsonObject().get("_scroll_id").getAsString();
-        long total = results.getAsJsonObject().getAsJsonObject("hits").get("total").getAsLong();
-        long received = 0L;
-        while (true) {
-            received += parseBenchmarkResults(es, results, builder);
-            if (received >= total) {
-                break;
-            }
-            results = nextBatch(es, scrollId);
+        return mergeSlices(scroll(es, path(es), jsonString(es),
+                () -> new BenchmarkResultHandler(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, BenchmarkResult>> runAsync(
+            ElasticSearchConfig es) {
+        return scrollAsync(es, path(es), jsonString(es), () -> new BenchmarkResultHandler(es))
+                .thenApply(BenchmarkResultsQuery::mergeSlices);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search?scroll=%s", es.getBenchmarkIndex(),
+                application, es.getScrollTimeout());
+    }
+
+    private static ImmutableListMultimap<String, BenchmarkResult> mergeSlices(
+            List<BenchmarkResultHandler> slices) {
+        if (slices.size() == 1) {
+            return slices.get(0).builder.build();
         }
+
+        ImmutableListMultimap.Builder<String,BenchmarkResult> builder = ImmutableListMultimap
+                .<String,BenchmarkResult>builder()
+                .orderValuesBy(Comparator.comparingLong(BenchmarkResult::getTimestamp));
+        slices.forEach(slice -> builder.putAll(slice.builder.build()));
         return builder.build();
     }
 
-    private int parseBenchmarkResults(ElasticSearchConfig es, JsonElement element,
-                                      ImmutableListMultimap.Builder<String,BenchmarkResult> builder) {
-        JsonArray hits = element.getAsJsonObject().getAsJsonObject("hits")
-                .getAsJsonArray("hits");
-        for (JsonElement hitElement : hits) {
-            JsonObject hit = hitElement.getAsJsonObject().getAsJsonObject("_source");
-            BenchmarkResult result = new BenchmarkResult(
-                    hit.get(es.field(BENCHMARK_TIMESTAMP, "timestamp")).getAsLong(),
-                    application,
-                    hit.get(es.field(BENCHMARK_METHOD, "method")).getAsString(),
-                    hit.get(es.field(BENCHMARK_PATH, "path")).getAsString(),
-                    hit.get(es.field(BENCHMARK_RESPONSE_TIME, "responseTime")).getAsInt());
+    /**
+     * Decodes benchmark results off the response stream. All the fields are required: a
+     * hit that lacks any of them fails the query, instead of yielding a bogus result.
+     */
+    final class BenchmarkResultHandler implements SearchHitHandler {
+
+        private final String timestampField;
+        private final String methodField;
+        private final String pathField;
+        private final String responseTimeField;
+        private final ImmutableListMultimap.Builder<String,BenchmarkResult> builder =
+                ImmutableListMultimap.builder();
+
+        BenchmarkResultHandler(ElasticSearchConfig es) {
+            this.timestampField = es.field(BENCHMARK_TIMESTAMP, "timestamp");
+            this.methodField = es.field(BENCHMARK_METHOD, "method");
+            this.pathField = es.field(BENCHMARK_PATH, "path");
+            this.responseTimeField = es.field(BENCHMARK_RESPONSE_TIME, "responseTime");
+        }
+
+        @Override
+        public void handle(JsonReader source) throws IOException {
+            long timestamp = 0L;
+            String method = null;
+            String path = null;
+            int responseTime = 0;
+            boolean hasTimestamp = false;
+            boolean hasResponseTime = false;
+            source.beginObject();
+            while (source.hasNext()) {
+                String name = source.nextName();
+                if (name.equals(timestampField)) {
+                    timestamp = source.nextLong();
+                    hasTimestamp = true;
+                } else if (name.equals(methodField)) {
+                    method = source.nextString();
+                } else if (name.equals(pathField)) {
+                    path = source.nextString();
+                } else if (name.equals(responseTimeField)) {
+                    responseTime = source.nextInt();
+                    hasResponseTime = true;
+                } else {
+                    source.skipValue();
+                }
+            }
+            source.endObject();
+            checkField(hasTimestamp, timestampField);
+            checkField(method != null, methodField);
+            checkField(path != null, pathField);
+            checkField(hasResponseTime, responseTimeField);
+            BenchmarkResult result = new BenchmarkResult(timestamp, application, method, path,
+                    responseTime);
             builder.put(result.getRequestType(), result);
         }
-        return hits.size();
+
+        private void checkField(boolean present, String field) throws IOException {
+            if (!present) {
+                throw new IOException("Benchmark result is missing the field: " + field);
+            }
+        }
     }
 
     @Override
     protected String jsonString(ElasticSearchConfig es) {
         return String.format(BENCHMARK_RESULTS_QUERY, es.field(BENCHMARK_TIMESTAMP, "timestamp"),
-                start, end, es.field(BENCHMARK_TIMESTAMP, "timestamp"));
+                start, end, es.field(BENCHMARK_TIMESTAMP, "timestamp"), es.getPageSize());
     }
 
     public static Builder newBuilder() {
@@ -0,0 +1,118 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableTable;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Counts the requests that took each execution path, per operation. The API calls of each
+ * request are grouped and ordered on the server using a scripted metric aggregation, so that
+ * only the counts are transferred to the client.
+ */
+public final class PathDistributionQuery extends Query<ImmutableTable<String,String,Integer>> {
+
+    private static final String PATH_DISTRIBUTION_QUERY = loadTemplate(
+            "path_distribution_query.json");
+
+    private final long start;
+    private final long end;
+    private final String application;
+
+    private PathDistributionQuery(Builder builder) {
+        checkArgument(builder.start <= builder.end);
+        checkArgument(!Strings.isNullOrEmpty(builder.application));
+        this.start = builder.start;
+        this.end = builder.end;
+        this.application = builder.application;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    public ImmutableTable<String,String,Integer> run(ElasticSearchConfig es) throws IOException {
+        return parsePathDistribution(makeHttpCall(es, path(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableTable<String,String,Integer>> runAsync(
+            ElasticSearchConfig es) {
+        return makeHttpCallAsync(es, path(es), jsonString(es))
+                .thenApply(PathDistributionQuery::parsePathDistribution);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search", es.getApiCallIndex(), application);
+    }
+
+    static ImmutableTable<String,String,Integer> parsePathDistribution(JsonElement results) {
+        ImmutableTable.Builder<String,String,Integer> builder = ImmutableTable.builder();
+        JsonElement value = results.getAsJsonObject().getAsJsonObject("aggregations")
+                .getAsJsonObject("paths").get("value");
+        if (value == null || !value.isJsonObject()) {
+            return builder.build();
+        }
+        for (Map.Entry<String,JsonElement> operation : value.getAsJsonObject().entrySet()) {
+            JsonObject paths = operation.getValue().getAsJsonObject();
+            for (Map.Entry<String,JsonElement> path : paths.entrySet()) {
+                builder.put(operation.getKey(), path.getKey(), path.getValue().getAsInt());
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String jsonString(ElasticSearchConfig es) {
+        return String.format(PATH_DISTRIBUTION_QUERY,
+                es.field(RequestInfoQuery.API_CALL_REQ_TIMESTAMP, "requestTimestamp"), start, end,
+                es.stringField(RequestInfoQuery.API_CALL_REQ_ID, "requestId"),
+                es.stringField(RequestInfoQuery.API_CALL_REQ_OPERATION, "requestOperation"),
+                es.field(RequestInfoQuery.API_CALL_SEQ_NUMBER, "sequenceNumber"),
+                es.field(RequestInfoQuery.API_CALL_TIMESTAMP, "timestamp"),
+                es.stringField(RequestInfoQuery.API_CALL_SERVICE, "service"),
+                es.stringField(RequestInfoQuery.API_CALL_OPERATION, "operation"));
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private long start;
+        private long end;
+        private String application;
+
+        private Builder() {
+        }
+
+        public Builder setStart(long start) {
+            this.start = start;
+            return this;
+        }
+
+        public Builder setEnd(long end) {
+            this.end = end;
+            return this;
+        }
+
+        public Builder setApplication(String application) {
+            this.application = application;
+            return this;
+        }
+
+        public PathDistributionQuery build() {
+            return new PathDistributionQuery(this);
+        }
+    }
+}
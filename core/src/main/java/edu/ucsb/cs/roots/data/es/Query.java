@@ -1,72 +1,579 @@
 package edu.ucsb.cs.roots.data.es;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CountingInputStream;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+import edu.ucsb.cs.roots.data.QueryMetrics;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public abstract class Query<T> {
 
     private static final String SCROLL_QUERY = "{\"scroll_id\": \"%s\", \"scroll\": \"%s\"}";
+    private static final String CLEAR_SCROLL_QUERY = "{\"scroll_id\": [\"%s\"]}";
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     public abstract T run(ElasticSearchConfig es) throws IOException;
     protected abstract String jsonString(ElasticSearchConfig es);
 
+    /**
+     * Run the query without blocking the calling thread. Queries that support non-blocking
+     * execution should override this method. The default implementation simply runs the
+     * blocking version of the query on the calling thread.
+     */
+    public CompletableFuture<T> runAsync(ElasticSearchConfig es) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(run(es));
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Returns true if the query can be safely sent to another ElasticSearch node, after a
+     * failure that may have occurred after the request reached the original node. Queries
+     * that modify data should override this method to return false.
+     */
+    protected boolean isIdempotent() {
+        return true;
+    }
+
+    /**
+     * Returns the application targeted by this query, or null if the query is not specific
+     * to an application. Used to break down the query metrics by application.
+     */
+    public String getApplication() {
+        return null;
+    }
+
+    /**
+     * Returns the query type under which the statistics of this query are recorded. Defaults
+     * to the simple name of the query class. Queries that run on behalf of another query
+     * should report the type of that query instead.
+     */
+    protected String getQueryType() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * Returns the statistics of this type of query (for the targeted application), from the
+     * metrics registry of the given ElasticSearch configuration.
+     */
+    public final QueryMetrics.Stats getStats(ElasticSearchConfig es) {
+        return es.getQueryMetrics().get(getQueryType(), getApplication());
+    }
+
     protected final JsonElement makeHttpCall(ElasticSearchConfig es, String url) throws IOException{
         return makeHttpCall(es, url, jsonString(es));
     }
 
-    protected final JsonElement nextBatch(ElasticSearchConfig es, String scrollId) throws IOException {
-        String json = String.format(SCROLL_QUERY, scrollId, "1m");
-        return makeHttpCall(es, "/_search/scroll", json);
+    protected final JsonElement makeHttpCall(ElasticSearchConfig es, String uri, String json) throws IOException {
+        if (isHedged(es)) {
+            // Hedging needs to run two requests at once, so use the non-blocking client
+            return await(makeHttpCallAsync(es, uri, json));
+        }
+        return execute(es, () -> newPost(es, uri, json),
+                new ElasticSearchResponseHandler(getStats(es)));
     }
 
-    protected final JsonElement makeHttpCall(ElasticSearchConfig es, String uri, String json) throws IOException {
-        String fullUri = String.format("http://%s:%d%s", es.getHost(), es.getPort(), uri);
-        log.debug("URL: {}; Payload: {}", fullUri, json);
-        HttpPost post = new HttpPost(fullUri);
-        post.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
-        return es.getClient().execute(post, new ElasticSearchResponseHandler());
+    /**
+     * Streaming variant of makeHttpCall for search requests. Hits are decoded directly off the
+     * response stream, and handed over to the specified SearchHitHandler one at a time. The
+     * full JSON tree of the response is never built.
+     */
+    protected final SearchResponse makeHttpCall(ElasticSearchConfig es, String uri, String json,
+                                                SearchHitHandler handler) throws IOException {
+        return execute(es, () -> newPost(es, uri, json),
+                new StreamingResponseHandler(handler, getStats(es)));
+    }
+
+    protected final CompletableFuture<JsonElement> makeHttpCallAsync(ElasticSearchConfig es,
+                                                                     String uri, String json) {
+        return executeAsync(es, () -> newPost(es, uri, json),
+                new ElasticSearchResponseHandler(getStats(es)), isHedged(es));
+    }
+
+    protected final CompletableFuture<SearchResponse> makeHttpCallAsync(
+            ElasticSearchConfig es, String uri, String json, SearchHitHandler handler) {
+        return executeAsync(es, () -> newPost(es, uri, json),
+                new StreamingResponseHandler(handler, getStats(es)), false);
+    }
+
+    /**
+     * Execute the request on one of the configured ElasticSearch nodes, failing over to
+     * other nodes if necessary. A new request is created for each attempt.
+     */
+    private <R> R execute(ElasticSearchConfig es, Supplier<HttpRequest> request,
+                          ResponseHandler<R> handler) throws IOException {
+        return execute(es, request, handler, isIdempotent());
+    }
+
+    /**
+     * Execute the request, failing over to other nodes if necessary. Requests that are not
+     * idempotent are only retried when they never reached the server.
+     */
+    private <R> R execute(ElasticSearchConfig es, Supplier<HttpRequest> request,
+                          ResponseHandler<R> handler, boolean idempotent) throws IOException {
+        return es.getEndpoints().execute(host -> es.getClient().execute(host, request.get(),
+                handler), idempotent);
+    }
+
+    /**
+     * Returns true if requests of this query should be hedged on another endpoint when they
+     * are slow. Only idempotent requests whose responses are fully buffered are hedged:
+     * streamed hits would be handed over twice, and scroll pages advance the scroll context
+     * on the server.
+     */
+    private boolean isHedged(ElasticSearchConfig es) {
+        return es.getRequestHedger() != null && isIdempotent();
+    }
+
+    /**
+     * Execute the request on the non-blocking HTTP client. The client buffers the whole
+     * response, so unlike the blocking path hits are not streamed off the socket. The response
+     * is decoded on the decode executor, so that large responses neither stall other in-flight
+     * requests on the I/O reactor threads, nor occupy the JVM-wide common pool. Cancelling the
+     * returned future aborts the request in flight.
+     */
+    private <R> CompletableFuture<R> executeAsync(ElasticSearchConfig es,
+                                                  Supplier<HttpRequest> request,
+                                                  ResponseHandler<R> handler, boolean hedged,
+                                                  boolean idempotent) {
+        Function<HttpHost,CompletableFuture<R>> call = host -> {
+            CompletableFuture<HttpResponse> sent = send(es, host, request.get());
+            CompletableFuture<R> decoded = sent.thenApplyAsync(response -> {
+                try {
+                    return handler.handleResponse(response);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, es.getDecodeExecutor());
+            decoded.whenComplete((result, error) -> {
+                if (decoded.isCancelled()) {
+                    sent.cancel(true);
+                }
+            });
+            return decoded;
+        };
+        if (hedged) {
+            return es.getRequestHedger().execute(es.getEndpoints(), call);
+        }
+        return es.getEndpoints().executeAsync(call, idempotent);
+    }
+
+    private <R> CompletableFuture<R> executeAsync(ElasticSearchConfig es,
+                                                  Supplier<HttpRequest> request,
+                                                  ResponseHandler<R> handler, boolean hedged) {
+        return executeAsync(es, request, handler, hedged, isIdempotent());
+    }
+
+    private <R> CompletableFuture<R> executeAsync(ElasticSearchConfig es,
+                                                  Supplier<HttpRequest> request,
+                                                  ResponseHandler<R> handler) {
+        return executeAsync(es, request, handler, false);
+    }
+
+    private static CompletableFuture<HttpResponse> send(ElasticSearchConfig es, HttpHost host,
+                                                        HttpRequest request) {
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        Future<HttpResponse> exchange = es.getAsyncClient().execute(host, request,
+                new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Fetch the next page of a scroll search. Scroll continuations advance the scroll context
+     * on the server, so a continuation that may have reached the server is never retried:
+     * the retry would silently skip the page. Only the initial search is retried.
+     */
+    protected final SearchResponse nextBatch(ElasticSearchConfig es, String scrollId,
+                                             SearchHitHandler handler) throws IOException {
+        String json = String.format(SCROLL_QUERY, scrollId, es.getScrollTimeout());
+        return execute(es, () -> newPost(es, "/_search/scroll", json),
+                new StreamingResponseHandler(handler, getStats(es)), false);
+    }
+
+    /**
+     * Run a scroll search, and stream all the resulting hits into the specified handler.
+     * The scroll context is cleared as soon as the search is complete.
+     *
+     * @param es ElasticSearch configuration
+     * @param uri Search URI, including the scroll parameter
+     * @param json Search query
+     * @param handler SearchHitHandler that consumes the hits
+     * @return Total number of hits received
+     */
+    protected final long scroll(ElasticSearchConfig es, String uri, String json,
+                                SearchHitHandler handler) throws IOException {
+        String scrollId = null;
+        try {
+            SearchResponse response = makeHttpCall(es, uri, json, handler);
+            scrollId = response.getScrollId();
+            QueryMetrics.Stats stats = getStats(es);
+            long received = 0L;
+            while (true) {
+                stats.recordScrollPage();
+                received += response.getHits();
+                if (received >= response.getTotal() || response.getHits() == 0) {
+                    break;
+                }
+                response = nextBatch(es, scrollId, handler);
+                scrollId = response.getScrollId();
+            }
+            return received;
+        } finally {
+            if (scrollId != null) {
+                clearScroll(es, scrollId);
+            }
+        }
+    }
+
+    /**
+     * Run a scroll search as a sliced scroll, with one slice per each parallel worker
+     * configured in ElasticSearchConfig. Each slice streams its hits into a separate
+     * SearchHitHandler obtained from the given supplier, so the handlers need not be
+     * thread-safe. Callers are responsible for merging the results of the returned handlers.
+     * Hits are only ordered within a slice, never across slices.
+     *
+     * @param es ElasticSearch configuration
+     * @param uri Search URI, including the scroll parameter
+     * @param json Search query
+     * @param handlers Supplier of SearchHitHandler instances (one per slice)
+     * @return List of handlers that consumed the hits of each slice
+     */
+    protected final <H extends SearchHitHandler> List<H> scroll(
+            ElasticSearchConfig es, String uri, String json,
+            Supplier<H> handlers) throws IOException {
+        int slices = es.getScrollSlices();
+        if (slices == 1) {
+            H handler = handlers.get();
+            scroll(es, uri, json, handler);
+            return ImmutableList.of(handler);
+        }
+
+        ImmutableList.Builder<H> results = ImmutableList.builder();
+        List<Future<Long>> futures = new ArrayList<>(slices);
+        for (int i = 0; i < slices; i++) {
+            H handler = handlers.get();
+            String slice = sliceQuery(json, i, slices);
+            results.add(handler);
+            futures.add(es.getScrollExecutor().submit(() -> scroll(es, uri, slice, handler)));
+        }
+
+        try {
+            for (Future<Long> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for scroll slices");
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error while executing scroll slice", cause);
+        }
+        return results.build();
+    }
+
+    /**
+     * Non-blocking variant of scroll. Pages are requested one after the other, but no
+     * thread is blocked while waiting for them.
+     */
+    protected final CompletableFuture<Long> scrollAsync(ElasticSearchConfig es, String uri,
+                                                        String json, SearchHitHandler handler) {
+        AtomicReference<String> scrollId = new AtomicReference<>();
+        CompletableFuture<Long> future = makeHttpCallAsync(es, uri, json, handler)
+                .thenCompose(response -> nextPages(es, response, 0L, scrollId, handler));
+        future.whenComplete((received, error) -> {
+            if (scrollId.get() != null) {
+                clearScrollAsync(es, scrollId.get());
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Long> nextPages(ElasticSearchConfig es, SearchResponse response,
+                                              long received, AtomicReference<String> scrollId,
+                                              SearchHitHandler handler) {
+        scrollId.set(response.getScrollId());
+        getStats(es).recordScrollPage();
+        long total = received + response.getHits();
+        if (total >= response.getTotal() || response.getHits() == 0) {
+            return CompletableFuture.completedFuture(total);
+        }
+        // Continuations are not retried, same as in nextBatch
+        String json = String.format(SCROLL_QUERY, response.getScrollId(), es.getScrollTimeout());
+        return executeAsync(es, () -> newPost(es, "/_search/scroll", json),
+                new StreamingResponseHandler(handler, getStats(es)), false, false)
+                .thenCompose(next -> nextPages(es, next, total, scrollId, handler));
+    }
+
+    /**
+     * Non-blocking variant of the sliced scroll. All slices are requested concurrently.
+     */
+    protected final <H extends SearchHitHandler> CompletableFuture<List<H>> scrollAsync(
+            ElasticSearchConfig es, String uri, String json, Supplier<H> handlers) {
+        int slices = es.getScrollSlices();
+        ImmutableList.Builder<H> results = ImmutableList.builder();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[slices];
+        for (int i = 0; i < slices; i++) {
+            H handler = handlers.get();
+            String slice = slices == 1 ? json : sliceQuery(json, i, slices);
+            results.add(handler);
+            futures[i] = scrollAsync(es, uri, slice, handler);
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> results.build());
+    }
+
+    /**
+     * Wait for the specified future to complete, and return its result. Failures are
+     * rethrown as IOExceptions.
+     */
+    protected static <R> R await(CompletableFuture<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for query");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Error while executing query", cause);
+        }
+    }
+
+    static String sliceQuery(String json, int id, int max) {
+        JsonObject query = new JsonParser().parse(json).getAsJsonObject();
+        JsonObject slice = new JsonObject();
+        slice.addProperty("id", id);
+        slice.addProperty("max", max);
+        query.add("slice", slice);
+        return query.toString();
+    }
+
+    private void clearScroll(ElasticSearchConfig es, String scrollId) {
+        try {
+            execute(es, () -> newClearScroll(es, scrollId), response -> {
+                EntityUtils.consume(response.getEntity());
+                return null;
+            });
+        } catch (IOException e) {
+            // Not fatal, the context will eventually expire on the server
+            log.warn("Failed to clear scroll context", e);
+        }
+    }
+
+    private void clearScrollAsync(ElasticSearchConfig es, String scrollId) {
+        executeAsync(es, () -> newClearScroll(es, scrollId), response -> {
+            EntityUtils.consume(response.getEntity());
+            return null;
+        }).exceptionally(e -> {
+            log.warn("Failed to clear scroll context", e);
+            return null;
+        });
+    }
+
+    private HttpDeleteWithBody newClearScroll(ElasticSearchConfig es, String scrollId) {
+        HttpDeleteWithBody delete = new HttpDeleteWithBody("/_search/scroll");
+        delete.setEntity(newEntity(es, String.format(CLEAR_SCROLL_QUERY, scrollId)));
+        return delete;
+    }
+
+    private HttpPost newPost(ElasticSearchConfig es, String uri, String json) {
+        log.debug("URI: {}; Payload: {}", uri, json);
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(newEntity(es, json));
+        return post;
+    }
+
+    /**
+     * Create a request entity for the given JSON payload. The payload is compressed up front
+     * (rather than streamed through a compressing entity), so the same entity can be used by
+     * both the blocking and the non-blocking clients.
+     */
+    private static HttpEntity newEntity(ElasticSearchConfig es, String json) {
+        if (!es.isCompression()) {
+            return new StringEntity(json, ContentType.APPLICATION_JSON);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length() / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compress request", e);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(out.toByteArray(),
+                ContentType.APPLICATION_JSON);
+        entity.setContentEncoding("gzip");
+        return entity;
+    }
+
+    private static HttpEntity checkStatus(HttpResponse response) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        if (status != 200 && status != 201) {
+            String error = entity != null ? EntityUtils.toString(entity) : null;
+            throw new ClientProtocolException("Unexpected status code: " + status
+                    + "; response: " + error);
+        }
+        return entity;
+    }
+
+    private static Reader newReader(HttpEntity entity, InputStream in) {
+        ContentType contentType = ContentType.getOrDefault(entity);
+        Charset charset = contentType.getCharset() != null ?
+                contentType.getCharset() : Charset.defaultCharset();
+        return new InputStreamReader(in, charset);
+    }
+
+    /**
+     * Returns the number of hits in the hits.hits array of a search response, or 0 if the
+     * response does not contain any hits.
+     */
+    private static int countHits(JsonElement element) {
+        if (element == null || !element.isJsonObject()) {
+            return 0;
+        }
+        JsonElement hits = element.getAsJsonObject().get("hits");
+        if (hits == null || !hits.isJsonObject()) {
+            return 0;
+        }
+        JsonElement array = hits.getAsJsonObject().get("hits");
+        return array != null && array.isJsonArray() ? ((JsonArray) array).size() : 0;
     }
 
     private static class ElasticSearchResponseHandler implements ResponseHandler<JsonElement> {
+
+        private final QueryMetrics.Stats stats;
+
+        private ElasticSearchResponseHandler(QueryMetrics.Stats stats) {
+            this.stats = stats;
+        }
+
         @Override
         public JsonElement handleResponse(HttpResponse response) throws IOException {
-            int status = response.getStatusLine().getStatusCode();
-            HttpEntity entity = response.getEntity();
-            if (status != 200 && status != 201) {
-                String error = entity != null ? EntityUtils.toString(entity) : null;
-                throw new ClientProtocolException("Unexpected status code: " + status
-                        + "; response: " + error);
-            }
-
+            HttpEntity entity = checkStatus(response);
             if (entity == null) {
+                stats.recordResponse(0L, 0);
                 return null;
             }
+            CountingInputStream in = new CountingInputStream(entity.getContent());
             JsonParser parser = new JsonParser();
-            ContentType contentType = ContentType.getOrDefault(entity);
-            Charset charset = contentType.getCharset() != null ?
-                    contentType.getCharset() : Charset.defaultCharset();
-            return parser.parse(new InputStreamReader(entity.getContent(), charset));
+            JsonElement element = parser.parse(newReader(entity, in));
+            stats.recordResponse(in.getCount(), countHits(element));
+            return element;
+        }
+    }
+
+    private static class StreamingResponseHandler implements ResponseHandler<SearchResponse> {
+
+        private final SearchHitHandler handler;
+        private final QueryMetrics.Stats stats;
+
+        private StreamingResponseHandler(SearchHitHandler handler, QueryMetrics.Stats stats) {
+            this.handler = handler;
+            this.stats = stats;
+        }
+
+        @Override
+        public SearchResponse handleResponse(HttpResponse response) throws IOException {
+            HttpEntity entity = checkStatus(response);
+            if (entity == null) {
+                throw new ClientProtocolException("Response entity is empty");
+            }
+            CountingInputStream in = new CountingInputStream(entity.getContent());
+            try (JsonReader reader = new JsonReader(newReader(entity, in))) {
+                SearchResponse result = SearchResponse.parse(reader, handler);
+                stats.recordResponse(in.getCount(), result.getHits());
+                return result;
+            }
+        }
+    }
+
+    private static final class HttpDeleteWithBody extends HttpEntityEnclosingRequestBase {
+
+        private HttpDeleteWithBody(String uri) {
+            setURI(URI.create(uri));
+        }
+
+        @Override
+        public String getMethod() {
+            return HttpDelete.METHOD_NAME;
         }
     }
 
@@ -23,6 +23,16 @@ public class RecordBenchmarkResultQuery extends Query<Void> {
         return null;
     }
 
+    @Override
+    public String getApplication() {
+        return result.getApplication();
+    }
+
+    @Override
+    protected boolean isIdempotent() {
+        return false;
+    }
+
     @Override
     protected String jsonString(ElasticSearchConfig es) {
         return GSON.toJson(result);
@@ -0,0 +1,67 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import edu.ucsb.cs.roots.data.BenchmarkResult;
+import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes a batch of BenchmarkResult instances to ElasticSearch using the bulk API. The
+ * whole batch is sent in a single HTTP request.
+ */
+public class RecordBenchmarkResultsQuery extends Query<Void> {
+
+    private static final Gson GSON = new Gson();
+    private static final String BULK_ACTION = "{\"index\":{\"_index\":%s,\"_type\":%s}}\n";
+
+    private final ImmutableList<BenchmarkResult> results;
+
+    public RecordBenchmarkResultsQuery(Collection<BenchmarkResult> results) {
+        checkArgument(!results.isEmpty(), "At least one result is required");
+        this.results = ImmutableList.copyOf(results);
+    }
+
+    @Override
+    public Void run(ElasticSearchConfig es) throws IOException {
+        JsonElement response = makeHttpCall(es, "/_bulk");
+        JsonObject object = response.getAsJsonObject();
+        if (object.has("errors") && object.get("errors").getAsBoolean()) {
+            long failed = 0;
+            String error = null;
+            for (JsonElement item : object.getAsJsonArray("items")) {
+                JsonObject action = item.getAsJsonObject().getAsJsonObject("index");
+                if (action != null && action.has("error")) {
+                    failed++;
+                    if (error == null) {
+                        error = action.get("error").toString();
+                    }
+                }
+            }
+            throw new IOException(String.format("Failed to index %d of %d benchmark results; " +
+                    "first error: %s", failed, results.size(), error));
+        }
+        return null;
+    }
+
+    @Override
+    protected boolean isIdempotent() {
+        return false;
+    }
+
+    @Override
+    protected String jsonString(ElasticSearchConfig es) {
+        String index = GSON.toJson(es.getBenchmarkIndex());
+        StringBuilder sb = new StringBuilder();
+        results.forEach(r -> sb.append(String.format(BULK_ACTION, index,
+                GSON.toJson(r.getApplication())))
+                .append(GSON.toJson(r)).append('\n'));
+        return sb.toString();
+    }
+}
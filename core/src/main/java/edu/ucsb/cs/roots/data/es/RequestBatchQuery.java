@@ -0,0 +1,98 @@
+package edu.ucsb.cs.roots.data.es;
+
+import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+import edu.ucsb.cs.roots.data.RequestBatch;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Retrieves the requests of a single operation as a columnar RequestBatch. Runs the same
+ * scans as RequestInfoByOperationQuery, but decodes the API call hits into primitive columns
+ * (see ApiCallDecoder), and joins them with the response times straight into the batch,
+ * without materializing an ApiCall or an ApplicationRequest per hit.
+ */
+public final class RequestBatchQuery extends Query<RequestBatch> {
+
+    private final RequestInfoByOperationQuery query;
+    private final String application;
+    private final String operation;
+
+    private RequestBatchQuery(Builder builder) {
+        this.query = RequestInfoByOperationQuery.newBuilder()
+                .setStart(builder.start)
+                .setEnd(builder.end)
+                .setApplication(builder.application)
+                .setOperation(builder.operation)
+                .setQueryType(getQueryType())
+                .build();
+        this.application = builder.application;
+        this.operation = builder.operation;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    public RequestBatch run(ElasticSearchConfig es) throws IOException {
+        return await(runAsync(es));
+    }
+
+    @Override
+    public CompletableFuture<RequestBatch> runAsync(ElasticSearchConfig es) {
+        return query.getApiCallColumnsAsync(es).thenCombine(query.getResponseTimesAsync(es),
+                this::toBatch);
+    }
+
+    private RequestBatch toBatch(ApiCallDecoder apiCalls, AccessLogDecoder accessLog) {
+        RequestBatch.Builder builder = RequestBatch.newBuilder(application, operation);
+        apiCalls.addTo(builder, accessLog);
+        return builder.build();
+    }
+
+    @Override
+    public String jsonString(ElasticSearchConfig es) {
+        return query.jsonString(es);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private long start;
+        private long end;
+        private String application;
+        private String operation;
+
+        private Builder() {
+        }
+
+        public Builder setStart(long start) {
+            this.start = start;
+            return this;
+        }
+
+        public Builder setEnd(long end) {
+            this.end = end;
+            return this;
+        }
+
+        public Builder setApplication(String application) {
+            this.application = application;
+            return this;
+        }
+
+        public Builder setOperation(String operation) {
+            this.operation = operation;
+            return this;
+        }
+
+        public RequestBatchQuery build() {
+            return new RequestBatchQuery(this);
+        }
+    }
+}
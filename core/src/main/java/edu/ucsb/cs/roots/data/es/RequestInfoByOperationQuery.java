@@ -3,32 +3,35 @@ package edu.ucsb.cs.roots.data.es;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import edu.ucsb.cs.roots.data.*;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+/**
+ * Retrieves the requests of a single operation, along with the API calls made by each request.
+ * The API call scan and the access log scan run concurrently. The access log scan is restricted
+ * to the method and path of the operation, and only retains the response time of each request.
+ * The API calls of each request are then joined with the response times as they are grouped.
+ * Access log hits are decoded by an AccessLogDecoder, straight into primitive columns.
+ */
 public class RequestInfoByOperationQuery extends Query<ImmutableList<ApplicationRequest>> {
 
     private static final String REQUEST_INFO_QUERY = loadTemplate(
             "request_info_by_operation_query.json");
     private static final String ACCESS_LOG_QUERY = loadTemplate(
+            "access_log_by_operation_query.json");
+    private static final String UNFILTERED_ACCESS_LOG_QUERY = loadTemplate(
             "benchmark_results_query.json");
 
-    private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-
     private final long start;
     private final long end;
     private final String application;
     private final String operation;
+    private final String queryType;
 
     private RequestInfoByOperationQuery(Builder builder) {
         checkArgument(builder.start <= builder.end);
@@ -38,27 +41,70 @@ public class RequestInfoByOperationQuery extends Query<ImmutableList<Application
         this.end = builder.end;
         this.application = builder.application;
         this.operation = builder.operation;
+        this.queryType = builder.queryType;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    protected String getQueryType() {
+        return queryType != null ? queryType : super.getQueryType();
     }
 
     @Override
     public ImmutableList<ApplicationRequest> run(ElasticSearchConfig es) throws IOException {
-        String path = String.format("/%s/%s/_search?scroll=1m", es.getApiCallIndex(), application);
-        ImmutableListMultimap<String,ApiCall> apiCalls = RequestInfoQuery.getRequestInfo(this, es, path);
+        return await(runAsync(es));
+    }
+
+    /**
+     * Runs the API call scan and the access log scan concurrently, and joins their results
+     * on the request ID once both scans are complete. Only the API call side is fully
+     * materialized; the access log side is reduced to a response time per request.
+     */
+    @Override
+    public CompletableFuture<ImmutableList<ApplicationRequest>> runAsync(ElasticSearchConfig es) {
+        return getApiCallsAsync(es).thenCombine(getResponseTimesAsync(es), this::join);
+    }
 
-        String json = String.format(ACCESS_LOG_QUERY,
-                es.field(ResponseTimeSummaryQuery.ACCESS_LOG_TIMESTAMP, "@timestamp"),
-                start, end, es.field(ResponseTimeSummaryQuery.ACCESS_LOG_TIMESTAMP, "@timestamp"));
-        path = String.format("/%s/%s/_search?scroll=1m", es.getAccessLogIndex(), application);
-        ImmutableMap<String,AccessLogEntry> accessLogEntries = getAccessLogEntries(
-                es, application, path, json);
+    CompletableFuture<ImmutableListMultimap<String,ApiCall>> getApiCallsAsync(
+            ElasticSearchConfig es) {
+        String path = String.format("/%s/%s/_search?scroll=%s", es.getApiCallIndex(),
+                application, es.getScrollTimeout());
+        return RequestInfoQuery.getRequestInfoAsync(this, es, path);
+    }
 
+    /**
+     * Runs the API call scan, decoding the hits into primitive columns instead of ApiCall
+     * objects.
+     */
+    CompletableFuture<ApiCallDecoder> getApiCallColumnsAsync(ElasticSearchConfig es) {
+        String path = String.format("/%s/%s/_search?scroll=%s", es.getApiCallIndex(),
+                application, es.getScrollTimeout());
+        return scrollAsync(es, path, jsonString(es), () -> new ApiCallDecoder(es))
+                .thenApply(ApiCallDecoder::merge);
+    }
+
+    CompletableFuture<AccessLogDecoder> getResponseTimesAsync(ElasticSearchConfig es) {
+        String path = String.format("/%s/%s/_search?scroll=%s", es.getAccessLogIndex(),
+                application, es.getScrollTimeout());
+        return scrollAsync(es, path, accessLogQuery(es), () -> new AccessLogDecoder(es))
+                .thenApply(AccessLogDecoder::merge);
+    }
+
+    private ImmutableList<ApplicationRequest> join(ImmutableListMultimap<String,ApiCall> apiCalls,
+                                                   AccessLogDecoder accessLog) {
         ImmutableSortedSet.Builder<ApplicationRequest> builder = ImmutableSortedSet.orderedBy(
                 ApplicationRequest.TIME_ORDER);
-        apiCalls.keySet().stream().filter(accessLogEntries::containsKey).forEach(requestId -> {
-            ImmutableList<ApiCall> calls = apiCalls.get(requestId);
-            ApplicationRequest req = new ApplicationRequest(requestId, calls.get(0).getRequestTimestamp(),
-                    application, operation, calls, accessLogEntries.get(requestId).getResponseTime());
-            builder.add(req);
+        apiCalls.keySet().forEach(requestId -> {
+            int row = accessLog.find(requestId);
+            if (row >= 0) {
+                ImmutableList<ApiCall> calls = apiCalls.get(requestId);
+                builder.add(new ApplicationRequest(requestId, calls.get(0).getRequestTimestamp(),
+                        application, operation, calls, accessLog.getResponseTime(row)));
+            }
         });
         return ImmutableList.copyOf(builder.build());
     }
@@ -71,57 +117,33 @@ public class RequestInfoByOperationQuery extends Query<ImmutableList<Application
                 es.field(RequestInfoQuery.API_CALL_REQ_TIMESTAMP, "requestTimestamp"),
                 start, end,
                 es.field(RequestInfoQuery.API_CALL_REQ_TIMESTAMP, "requestTimestamp"),
-                es.field(RequestInfoQuery.API_CALL_SEQ_NUMBER, "sequenceNumber"));
+                es.field(RequestInfoQuery.API_CALL_SEQ_NUMBER, "sequenceNumber"),
+                es.getPageSize());
     }
 
-    private ImmutableMap<String,AccessLogEntry> getAccessLogEntries(ElasticSearchConfig es,
-            String application, String path, String query) throws IOException {
-
-        ImmutableMap.Builder<String,AccessLogEntry> builder = ImmutableMap.builder();
-        JsonElement results = makeHttpCall(es, path, query);
-        String scrollId = results.getAsJsonObject().get("_scroll_id").getAsString();
-        long total = results.getAsJsonObject().getAsJsonObject("hits").get("total").getAsLong();
-        long received = 0L;
-        while (true) {
-            received += parseAccessLogEntries(es, application, results, builder);
-            if (received >= total) {
-                break;
-            }
-            results = nextBatch(es, scrollId);
+    /**
+     * Build the access log query. Operations are of the form "METHOD path". Operations that
+     * do not follow this form fall back to scanning the whole access log of the application.
+     */
+    String accessLogQuery(ElasticSearchConfig es) {
+        String timestampField = es.field(ResponseTimeSummaryQuery.ACCESS_LOG_TIMESTAMP,
+                "@timestamp");
+        int separator = operation.indexOf(' ');
+        if (separator <= 0 || separator == operation.length() - 1) {
+            return String.format(UNFILTERED_ACCESS_LOG_QUERY, timestampField, start, end,
+                    timestampField, es.getPageSize());
         }
-        return builder.build();
-    }
 
-    private int parseAccessLogEntries(ElasticSearchConfig es, String application, JsonElement element,
-                                      ImmutableMap.Builder<String,AccessLogEntry> builder) {
-        JsonArray hits = element.getAsJsonObject().getAsJsonObject("hits")
-                .getAsJsonArray("hits");
-        for (JsonElement hitElement : hits) {
-            JsonObject hit = hitElement.getAsJsonObject().getAsJsonObject("_source");
-            JsonElement requestIdElem = hit.get(es.field(ResponseTimeSummaryQuery.ACCESS_LOG_REQ_ID,
-                    "request_id"));
-            if (requestIdElem == null) {
-                continue;
-            }
-            String requestId = requestIdElem.getAsString();
-            String timeString = hit.get(es.field(ResponseTimeSummaryQuery.ACCESS_LOG_TIMESTAMP,
-                    "@timestamp")).getAsString();
-            String method = hit.get(es.field(ResponseTimeSummaryQuery.ACCESS_LOG_METHOD,
-                    "http_verb")).getAsString();
-            String path = hit.get(es.field(ResponseTimeSummaryQuery.ACCESS_LOG_PATH,
-                    "http_request")).getAsString();
-            int timeDuration = (int) (hit.get(es.field(ResponseTimeSummaryQuery.ACCESS_LOG_RESPONSE_TIME,
-                    "time_duration")).getAsDouble() * 1000);
-            try {
-                AccessLogEntry entry = new AccessLogEntry(requestId,
-                        dateFormat.parse(timeString).getTime(), application,
-                        method, path, timeDuration);
-                builder.put(entry.getRequestId(), entry);
-            } catch (ParseException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        return hits.size();
+        // Methods are upper-cased when summarized, so the stored value may be in either case
+        String method = operation.substring(0, separator);
+        String path = operation.substring(separator + 1);
+        return String.format(ACCESS_LOG_QUERY, timestampField, start, end,
+                es.stringField(ResponseTimeSummaryQuery.ACCESS_LOG_METHOD, "http_verb"),
+                method.toUpperCase(), method.toLowerCase(),
+                es.stringField(ResponseTimeSummaryQuery.ACCESS_LOG_PATH, "http_request"), path,
+                es.field(ResponseTimeSummaryQuery.ACCESS_LOG_REQ_ID, "request_id"),
+                es.field(ResponseTimeSummaryQuery.ACCESS_LOG_RESPONSE_TIME, "time_duration"),
+                es.getPageSize());
     }
 
     public static Builder newBuilder() {
@@ -134,6 +156,7 @@ public class RequestInfoByOperationQuery extends Query<ImmutableList<Application
         private long end;
         private String application;
         private String operation;
+        private String queryType;
 
         private Builder() {
         }
@@ -158,6 +181,14 @@ public class RequestInfoByOperationQuery extends Query<ImmutableList<Application
             return this;
         }
 
+        /**
+         * Record the statistics of the scans under the type of the query that runs them.
+         */
+        Builder setQueryType(String queryType) {
+            this.queryType = queryType;
+            return this;
+        }
+
         public RequestInfoByOperationQuery build() {
             return new RequestInfoByOperationQuery(this);
         }
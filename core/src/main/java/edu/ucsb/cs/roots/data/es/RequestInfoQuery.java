@@ -4,14 +4,14 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
 import edu.ucsb.cs.roots.data.ApiCall;
 import edu.ucsb.cs.roots.data.ApplicationRequest;
 import edu.ucsb.cs.roots.data.ElasticSearchConfig;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -42,11 +42,29 @@ public class RequestInfoQuery extends Query<ImmutableListMultimap<String, Applic
         this.application = builder.application;
     }
 
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
     @Override
     public ImmutableListMultimap<String, ApplicationRequest> run(ElasticSearchConfig es) throws IOException {
-        String path = String.format("/%s/%s/_search?scroll=1m", es.getApiCallIndex(), application);
-        ImmutableListMultimap<String,ApiCall> apiCalls = getRequestInfo(this, es, path);
+        return toRequests(getRequestInfo(this, es, path(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ApplicationRequest>> runAsync(
+            ElasticSearchConfig es) {
+        return getRequestInfoAsync(this, es, path(es)).thenApply(this::toRequests);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search?scroll=%s", es.getApiCallIndex(),
+                application, es.getScrollTimeout());
+    }
 
+    private ImmutableListMultimap<String, ApplicationRequest> toRequests(
+            ImmutableListMultimap<String,ApiCall> apiCalls) {
         ImmutableSetMultimap.Builder<String,ApplicationRequest> builder = ImmutableSetMultimap
                 .<String,ApplicationRequest>builder().orderValuesBy(ApplicationRequest.TIME_ORDER);
         apiCalls.keySet().forEach(requestId -> {
@@ -60,45 +78,86 @@ public class RequestInfoQuery extends Query<ImmutableListMultimap<String, Applic
     }
 
     static ImmutableListMultimap<String,ApiCall> getRequestInfo(
-            Query q, ElasticSearchConfig es, String path) throws IOException {
-        ImmutableListMultimap.Builder<String,ApiCall> builder = ImmutableListMultimap.builder();
-        JsonElement results = q.makeHttpCall(es, path);
-        String scrollId = results.getAsJsonObject().get("_scroll_id").getAsString();
-        long total = results.getAsJsonObject().getAsJsonObject("hits").get("total").getAsLong();
-        long received = 0L;
-        while (true) {
-            received += parseApiCalls(es, results, builder);
-            if (received >= total) {
-                break;
-            }
-            results = q.nextBatch(es, scrollId);
+            Query<?> q, ElasticSearchConfig es, String path) throws IOException {
+        return mergeSlices(q.scroll(es, path, q.jsonString(es), () -> new ApiCallHandler(es)));
+    }
+
+    static CompletableFuture<ImmutableListMultimap<String,ApiCall>> getRequestInfoAsync(
+            Query<?> q, ElasticSearchConfig es, String path) {
+        return q.scrollAsync(es, path, q.jsonString(es), () -> new ApiCallHandler(es))
+                .thenApply(RequestInfoQuery::mergeSlices);
+    }
+
+    private static ImmutableListMultimap<String,ApiCall> mergeSlices(List<ApiCallHandler> slices) {
+        if (slices.size() == 1) {
+            return slices.get(0).builder.build();
         }
+
+        // Calls of the same request may be scattered across slices
+        ImmutableListMultimap.Builder<String,ApiCall> builder = ImmutableListMultimap
+                .<String,ApiCall>builder().orderValuesBy(ApiCall.SEQUENCE_ORDER);
+        slices.forEach(slice -> builder.putAll(slice.builder.build()));
         return builder.build();
     }
 
-    private static int parseApiCalls(ElasticSearchConfig es, JsonElement element,
-                              ImmutableListMultimap.Builder<String,ApiCall> builder) {
-        JsonArray hits = element.getAsJsonObject().getAsJsonObject("hits")
-                .getAsJsonArray("hits");
-        for (JsonElement hitElement : hits) {
-            JsonObject hit = hitElement.getAsJsonObject().getAsJsonObject("_source");
-            ApiCall call = ApiCall.newBuilder()
-                    .setRequestTimestamp(
-                            hit.get(es.field(API_CALL_REQ_TIMESTAMP, "requestTimestamp")).getAsLong())
-                    .setRequestOperation(
-                            hit.get(es.field(API_CALL_REQ_OPERATION, "requestOperation")).getAsString())
-                    .setTimestamp(
-                            hit.get(es.field(API_CALL_TIMESTAMP, "timestamp")).getAsLong())
-                    .setService(
-                            hit.get(es.field(API_CALL_SERVICE, "service")).getAsString())
-                    .setOperation(
-                            hit.get(es.field(API_CALL_OPERATION, "operation")).getAsString())
-                    .setTimeElapsed(
-                            hit.get(es.field(API_CALL_RESPONSE_TIME, "elapsed")).getAsInt())
-                    .build();
-            builder.put(hit.get(es.field(API_CALL_REQ_ID, "requestId")).getAsString(), call);
+    /**
+     * Decodes API call records off the response stream. Field names are resolved once
+     * per query instead of once per hit.
+     */
+    private static final class ApiCallHandler implements SearchHitHandler {
+
+        private final String requestTimestampField;
+        private final String requestOperationField;
+        private final String timestampField;
+        private final String sequenceNumberField;
+        private final String serviceField;
+        private final String operationField;
+        private final String responseTimeField;
+        private final String requestIdField;
+        private final ImmutableListMultimap.Builder<String,ApiCall> builder =
+                ImmutableListMultimap.builder();
+
+        private ApiCallHandler(ElasticSearchConfig es) {
+            this.requestTimestampField = es.field(API_CALL_REQ_TIMESTAMP, "requestTimestamp");
+            this.requestOperationField = es.field(API_CALL_REQ_OPERATION, "requestOperation");
+            this.timestampField = es.field(API_CALL_TIMESTAMP, "timestamp");
+            this.sequenceNumberField = es.field(API_CALL_SEQ_NUMBER, "sequenceNumber");
+            this.serviceField = es.field(API_CALL_SERVICE, "service");
+            this.operationField = es.field(API_CALL_OPERATION, "operation");
+            this.responseTimeField = es.field(API_CALL_RESPONSE_TIME, "elapsed");
+            this.requestIdField = es.field(API_CALL_REQ_ID, "requestId");
+        }
+
+        @Override
+        public void handle(JsonReader source) throws IOException {
+            ApiCall.Builder call = ApiCall.newBuilder();
+            String requestId = null;
+            source.beginObject();
+            while (source.hasNext()) {
+                String name = source.nextName();
+                if (name.equals(requestTimestampField)) {
+                    call.setRequestTimestamp(source.nextLong());
+                } else if (name.equals(requestOperationField)) {
+                    call.setRequestOperation(source.nextString());
+                } else if (name.equals(timestampField)) {
+                    call.setTimestamp(source.nextLong());
+                } else if (name.equals(sequenceNumberField)) {
+                    call.setSequenceNumber(source.nextInt());
+                } else if (name.equals(serviceField)) {
+                    call.setService(source.nextString());
+                } else if (name.equals(operationField)) {
+                    call.setOperation(source.nextString());
+                } else if (name.equals(responseTimeField)) {
+                    call.setTimeElapsed(source.nextInt());
+                } else if (name.equals(requestIdField)) {
+                    requestId = source.nextString();
+                } else {
+                    source.skipValue();
+                }
+            }
+            source.endObject();
+            builder.put(requestId, call.build());
         }
-        return hits.size();
     }
 
     @Override
@@ -106,7 +165,7 @@ public class RequestInfoQuery extends Query<ImmutableListMultimap<String, Applic
         return String.format(REQUEST_INFO_QUERY,
                 es.field(API_CALL_REQ_TIMESTAMP, "requestTimestamp"), start, end,
                 es.field(API_CALL_REQ_TIMESTAMP, "requestTimestamp"),
-                es.field(API_CALL_SEQ_NUMBER, "sequenceNumber"));
+                es.field(API_CALL_SEQ_NUMBER, "sequenceNumber"), es.getPageSize());
     }
 
     public static Builder newBuilder() {
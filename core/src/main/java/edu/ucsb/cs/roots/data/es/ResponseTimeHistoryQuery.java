@@ -9,6 +9,7 @@ import edu.ucsb.cs.roots.data.ElasticSearchConfig;
 import edu.ucsb.cs.roots.data.ResponseTimeSummary;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -34,11 +35,30 @@ public class ResponseTimeHistoryQuery extends Query<ImmutableListMultimap<String
         this.application = builder.application;
     }
 
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
     @Override
     public ImmutableListMultimap<String, ResponseTimeSummary> run(ElasticSearchConfig es) throws IOException {
-        String path = String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+        return parseResponseTimeHistory(makeHttpCall(es, path(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeSummary>> runAsync(
+            ElasticSearchConfig es) {
+        return makeHttpCallAsync(es, path(es), jsonString(es))
+                .thenApply(this::parseResponseTimeHistory);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+    }
+
+    private ImmutableListMultimap<String, ResponseTimeSummary> parseResponseTimeHistory(
+            JsonElement results) {
         ImmutableListMultimap.Builder<String,ResponseTimeSummary> builder = ImmutableListMultimap.builder();
-        JsonElement results = makeHttpCall(es, path);
         parseResponseTimeHistory(results, builder);
         return builder.build();
     }
@@ -0,0 +1,165 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+import edu.ucsb.cs.roots.data.LatencySketch;
+import edu.ucsb.cs.roots.data.ResponseTimeRollup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Computes per-period response time rollups. The latency sketch of each period is
+ * reconstructed from the deciles computed by ElasticSearch, with each decile standing
+ * for a tenth of the requests in the period.
+ */
+public class ResponseTimeRollupQuery extends Query<ImmutableListMultimap<String,ResponseTimeRollup>> {
+
+    private static final String RESPONSE_TIME_ROLLUP_QUERY = loadTemplate(
+            "response_time_rollup_query.json");
+
+    private final long start;
+    private final long end;
+    private final long period;
+    private final String application;
+
+    private ResponseTimeRollupQuery(Builder builder) {
+        checkArgument(builder.start <= builder.end);
+        checkArgument(builder.period > 0);
+        checkArgument(!Strings.isNullOrEmpty(builder.application));
+        this.start = builder.start;
+        this.end = builder.end;
+        this.period = builder.period;
+        this.application = builder.application;
+    }
+
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
+    @Override
+    public ImmutableListMultimap<String, ResponseTimeRollup> run(ElasticSearchConfig es) throws IOException {
+        return parseResponseTimeRollups(makeHttpCall(es, path(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableListMultimap<String, ResponseTimeRollup>> runAsync(
+            ElasticSearchConfig es) {
+        return makeHttpCallAsync(es, path(es), jsonString(es))
+                .thenApply(this::parseResponseTimeRollups);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+    }
+
+    @Override
+    protected String jsonString(ElasticSearchConfig es) {
+        String responseTime = es.field(ResponseTimeSummaryQuery.ACCESS_LOG_RESPONSE_TIME,
+                "time_duration");
+        return String.format(RESPONSE_TIME_ROLLUP_QUERY,
+                es.field(ResponseTimeSummaryQuery.ACCESS_LOG_TIMESTAMP, "@timestamp"),
+                start, end,
+                es.stringField(ResponseTimeSummaryQuery.ACCESS_LOG_METHOD, "http_verb"),
+                es.stringField(ResponseTimeSummaryQuery.ACCESS_LOG_PATH, "http_request"),
+                es.field(ResponseTimeSummaryQuery.ACCESS_LOG_TIMESTAMP, "@timestamp"),
+                period, start % period, start, end - period,
+                responseTime, responseTime);
+    }
+
+    private ImmutableListMultimap<String, ResponseTimeRollup> parseResponseTimeRollups(
+            JsonElement element) {
+        ImmutableListMultimap.Builder<String,ResponseTimeRollup> builder =
+                ImmutableListMultimap.builder();
+        JsonArray methods = element.getAsJsonObject().getAsJsonObject("aggregations")
+                .getAsJsonObject("methods").getAsJsonArray("buckets");
+        for (JsonElement methodElement : methods) {
+            JsonObject method = methodElement.getAsJsonObject();
+            String methodName = method.get("key").getAsString().toUpperCase();
+            if (!ResponseTimeSummaryQuery.METHODS.contains(methodName)) {
+                continue;
+            }
+            JsonArray paths = method.getAsJsonObject("paths").getAsJsonArray("buckets");
+            for (JsonElement pathElement : paths) {
+                JsonObject path = pathElement.getAsJsonObject();
+                String key = methodName + " " + path.get("key").getAsString();
+                JsonArray periods = path.getAsJsonObject("periods").getAsJsonArray("buckets");
+                for (JsonElement periodElement : periods) {
+                    JsonObject period = periodElement.getAsJsonObject();
+                    long count = period.get("doc_count").getAsLong();
+                    if (count > 0) {
+                        builder.put(key, newResponseTimeRollup(period.get("key").getAsLong(),
+                                count, period));
+                    }
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static ResponseTimeRollup newResponseTimeRollup(long timestamp, long count,
+                                                            JsonObject bucket) {
+        // Response times are recorded in seconds
+        JsonObject stats = bucket.getAsJsonObject("stats_time");
+        JsonObject percentiles = bucket.getAsJsonObject("pct_time").getAsJsonObject("values");
+        LatencySketch sketch = new LatencySketch();
+        long remaining = count;
+        int deciles = percentiles.entrySet().size();
+        int index = 0;
+        for (Map.Entry<String,JsonElement> entry : percentiles.entrySet()) {
+            long share = ++index == deciles ? remaining : count / deciles;
+            sketch.add(entry.getValue().getAsDouble() * 1000.0, share);
+            remaining -= share;
+        }
+        return new ResponseTimeRollup(timestamp, count,
+                stats.get("sum").getAsDouble() * 1000.0,
+                stats.get("min").getAsDouble() * 1000.0,
+                stats.get("max").getAsDouble() * 1000.0, sketch);
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long start;
+        private long end;
+        private long period;
+        private String application;
+
+        private Builder() {
+        }
+
+        public Builder setStart(long start) {
+            this.start = start;
+            return this;
+        }
+
+        public Builder setEnd(long end) {
+            this.end = end;
+            return this;
+        }
+
+        public Builder setPeriod(long period) {
+            this.period = period;
+            return this;
+        }
+
+        public Builder setApplication(String application) {
+            this.application = application;
+            return this;
+        }
+
+        public ResponseTimeRollupQuery build() {
+            return new ResponseTimeRollupQuery(this);
+        }
+    }
+}
@@ -10,6 +10,7 @@ import edu.ucsb.cs.roots.data.ElasticSearchConfig;
 import edu.ucsb.cs.roots.data.ResponseTimeSummary;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -39,11 +40,30 @@ public class ResponseTimeSummaryQuery extends Query<ImmutableMap<String,Response
 
     }
 
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
     @Override
     public ImmutableMap<String, ResponseTimeSummary> run(ElasticSearchConfig es) throws IOException {
-        String path = String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+        return parseResponseTimeSummary(makeHttpCall(es, path(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableMap<String, ResponseTimeSummary>> runAsync(
+            ElasticSearchConfig es) {
+        return makeHttpCallAsync(es, path(es), jsonString(es))
+                .thenApply(this::parseResponseTimeSummary);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+    }
+
+    private ImmutableMap<String, ResponseTimeSummary> parseResponseTimeSummary(
+            JsonElement results) {
         ImmutableMap.Builder<String,ResponseTimeSummary> builder = ImmutableMap.builder();
-        JsonElement results = makeHttpCall(es, path);
         parseResponseTimeSummary(results, start, builder);
         return builder.build();
     }
@@ -0,0 +1,23 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * Consumes the search hits of an ElasticSearch response as they are read off the wire.
+ * Used by the streaming decode path in Query, so that scroll pages never have to be
+ * materialized as a full JSON tree.
+ */
+@FunctionalInterface
+interface SearchHitHandler {
+
+    /**
+     * Consume the _source object of a single search hit. The reader is positioned at the
+     * start of the object, and the implementation must consume the object entirely.
+     *
+     * @param source JsonReader positioned at the _source object of a hit
+     */
+    void handle(JsonReader source) throws IOException;
+
+}
@@ -0,0 +1,115 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Metadata of a single search (or scroll) response, decoded in a streaming fashion. The
+ * actual hits are handed over to a SearchHitHandler as they are parsed, and only the
+ * scroll ID, the total hit count and the number of hits in the page are retained here.
+ */
+final class SearchResponse {
+
+    private final String scrollId;
+    private final long total;
+    private final int hits;
+
+    private SearchResponse(String scrollId, long total, int hits) {
+        this.scrollId = scrollId;
+        this.total = total;
+        this.hits = hits;
+    }
+
+    String getScrollId() {
+        return scrollId;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    int getHits() {
+        return hits;
+    }
+
+    static SearchResponse parse(JsonReader reader, SearchHitHandler handler) throws IOException {
+        String scrollId = null;
+        long total = 0L;
+        int hits = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("_scroll_id".equals(name)) {
+                scrollId = reader.nextString();
+            } else if ("hits".equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String hitsField = reader.nextName();
+                    if ("total".equals(hitsField)) {
+                        total = parseTotal(reader);
+                    } else if ("hits".equals(hitsField)) {
+                        hits += parseHits(reader, handler);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new SearchResponse(scrollId, total, hits);
+    }
+
+    private static long parseTotal(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            return reader.nextLong();
+        }
+
+        // Newer ElasticSearch versions report the total as {"value": n, "relation": "eq"}
+        long total = 0L;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("value".equals(reader.nextName())) {
+                total = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return total;
+    }
+
+    private static int parseHits(JsonReader reader, SearchHitHandler handler) throws IOException {
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("_source".equals(reader.nextName())) {
+                    handler.handle(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Returns the next value of the reader as a String, or null if the value is a JSON null.
+     */
+    static String nextNullableString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -7,6 +7,7 @@ import com.google.gson.JsonElement;
 import edu.ucsb.cs.roots.data.ElasticSearchConfig;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -36,11 +37,28 @@ public final class WorkloadSummaryQuery extends Query<ImmutableList<Double>> {
         this.application = builder.application;
     }
 
+    @Override
+    public String getApplication() {
+        return application;
+    }
+
     @Override
     public ImmutableList<Double> run(ElasticSearchConfig es) throws IOException {
-        String path = String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+        return parseWorkloadSummary(makeHttpCall(es, path(es)));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<Double>> runAsync(ElasticSearchConfig es) {
+        return makeHttpCallAsync(es, path(es), jsonString(es))
+                .thenApply(this::parseWorkloadSummary);
+    }
+
+    private String path(ElasticSearchConfig es) {
+        return String.format("/%s/%s/_search", es.getAccessLogIndex(), application);
+    }
+
+    private ImmutableList<Double> parseWorkloadSummary(JsonElement results) {
         ImmutableList.Builder<Double> builder = ImmutableList.builder();
-        JsonElement results = makeHttpCall(es, path);
         JsonArray periods = results.getAsJsonObject().getAsJsonObject("aggregations")
                 .getAsJsonObject("periods").getAsJsonArray("buckets");
         periods.forEach(p -> builder.add(
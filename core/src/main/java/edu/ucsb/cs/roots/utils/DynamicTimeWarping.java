@@ -0,0 +1,151 @@
+package edu.ucsb.cs.roots.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Computes dynamic time warping (DTW) distances between two series, using the same
+ * formulation as the defaults of the R dtw package: absolute difference as the local cost,
+ * the symmetric2 step pattern, and the unnormalized cumulative cost of the optimal path as
+ * the distance. For the same inputs, distances agree with R's dtw(x, y)$distance to within
+ * a relative error of 1e-9 (the recurrence is evaluated in the same order).
+ *
+ * Optionally, warping can be restricted to a Sakoe-Chiba band (|i - j| <= window, same as
+ * R's window.type = "sakoechiba"), and both series can be z-normalized before comparison.
+ * Only two rows of the cost matrix are kept, and all work buffers are reused across calls,
+ * so instances are not thread-safe.
+ */
+public final class DynamicTimeWarping {
+
+    public static final int NO_WINDOW = -1;
+
+    private final int window;
+    private final boolean normalize;
+
+    private double[] previous = new double[0];
+    private double[] current = new double[0];
+    private double[] xBuffer = new double[0];
+    private double[] yBuffer = new double[0];
+
+    public DynamicTimeWarping() {
+        this(NO_WINDOW, false);
+    }
+
+    /**
+     * @param window Sakoe-Chiba band radius, or NO_WINDOW for unconstrained warping
+     * @param normalize Whether the series should be z-normalized before comparison
+     */
+    public DynamicTimeWarping(int window, boolean normalize) {
+        checkArgument(window >= 0 || window == NO_WINDOW, "Invalid window size: %s", window);
+        this.window = window;
+        this.normalize = normalize;
+    }
+
+    public double distance(double[] x, double[] y) {
+        return distance(x, y, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compute the DTW distance between x and y, abandoning the computation as soon as the
+     * distance is known to exceed the given cutoff. In that case positive infinity is
+     * returned.
+     */
+    public double distance(double[] x, double[] y, double cutoff) {
+        return distance(x, x.length, y, y.length, cutoff);
+    }
+
+    /**
+     * Compute the DTW distance between the first n elements of x, and the first m elements
+     * of y.
+     */
+    public double distance(double[] x, int n, double[] y, int m, double cutoff) {
+        checkNotNull(x);
+        checkNotNull(y);
+        checkArgument(n > 0 && n <= x.length, "Invalid length for x: %s", n);
+        checkArgument(m > 0 && m <= y.length, "Invalid length for y: %s", m);
+        checkArgument(window == NO_WINDOW || Math.abs(n - m) <= window,
+                "No warping path exists within a window of %s", window);
+        if (normalize) {
+            xBuffer = normalize(x, n, xBuffer);
+            yBuffer = normalize(y, m, yBuffer);
+            x = xBuffer;
+            y = yBuffer;
+        }
+        if (previous.length < m) {
+            previous = new double[m];
+            current = new double[m];
+        }
+
+        double[] prev = previous;
+        double[] curr = current;
+        int prevLo = 0;
+        int prevHi = -1;
+        for (int i = 0; i < n; i++) {
+            int lo = window == NO_WINDOW ? 0 : Math.max(0, i - window);
+            int hi = window == NO_WINDOW ? m - 1 : Math.min(m - 1, i + window);
+            double xi = x[i];
+            double rowMin = Double.POSITIVE_INFINITY;
+            for (int j = lo; j <= hi; j++) {
+                double cost = Math.abs(xi - y[j]);
+                double g;
+                if (i == 0 && j == 0) {
+                    g = cost;
+                } else {
+                    // symmetric2: diagonal steps are weighted twice
+                    g = Double.POSITIVE_INFINITY;
+                    if (j - 1 >= prevLo && j - 1 <= prevHi) {
+                        g = prev[j - 1] + 2 * cost;
+                    }
+                    if (j > lo) {
+                        g = Math.min(g, curr[j - 1] + cost);
+                    }
+                    if (j >= prevLo && j <= prevHi) {
+                        g = Math.min(g, prev[j] + cost);
+                    }
+                }
+                curr[j] = g;
+                if (g < rowMin) {
+                    rowMin = g;
+                }
+            }
+            // Cumulative costs never decrease along a path
+            if (rowMin > cutoff) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double[] swap = prev;
+            prev = curr;
+            curr = swap;
+            prevLo = lo;
+            prevHi = hi;
+        }
+        return prev[m - 1];
+    }
+
+    private static double[] normalize(double[] values, int length, double[] buffer) {
+        if (buffer.length < length) {
+            buffer = new double[length];
+        }
+        double mean = 0.0;
+        for (int i = 0; i < length; i++) {
+            mean += values[i];
+        }
+        mean /= length;
+        double variance = 0.0;
+        for (int i = 0; i < length; i++) {
+            double diff = values[i] - mean;
+            variance += diff * diff;
+        }
+        // Sample standard deviation, same as R's sd()
+        double sd = length > 1 ? Math.sqrt(variance / (length - 1)) : 0.0;
+        for (int i = 0; i < length; i++) {
+            buffer[i] = sd > 0 ? (values[i] - mean) / sd : 0.0;
+        }
+        return buffer;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DynamicTimeWarping[window: %d, normalize: %s]", window,
+                normalize);
+    }
+}
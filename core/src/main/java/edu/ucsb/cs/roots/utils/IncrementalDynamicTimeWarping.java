@@ -0,0 +1,129 @@
+package edu.ucsb.cs.roots.utils;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Computes the DTW distance between two series that grow one point at a time. Each call to
+ * append extends the cumulative cost matrix by one row and one column, so the distance
+ * between the first k points of both series is available after each append, at O(k) cost
+ * (instead of recomputing the whole O(k^2) matrix). Only the last row and column of the
+ * matrix are retained.
+ *
+ * Distances are the same as the ones computed by DynamicTimeWarping (and R's dtw), with an
+ * optional Sakoe-Chiba band. Z-normalization is not supported, since normalizing a prefix
+ * changes all of its costs.
+ */
+public final class IncrementalDynamicTimeWarping {
+
+    private final int window;
+
+    private double[] x = new double[16];
+    private double[] y = new double[16];
+    private double[] row = new double[16];
+    private double[] column = new double[16];
+    private double[] nextRow = new double[16];
+    private double[] nextColumn = new double[16];
+    private int size = 0;
+
+    public IncrementalDynamicTimeWarping() {
+        this(DynamicTimeWarping.NO_WINDOW);
+    }
+
+    /**
+     * @param window Sakoe-Chiba band radius, or DynamicTimeWarping.NO_WINDOW for
+     *               unconstrained warping
+     */
+    public IncrementalDynamicTimeWarping(int window) {
+        checkArgument(window >= 0 || window == DynamicTimeWarping.NO_WINDOW,
+                "Invalid window size: %s", window);
+        this.window = window;
+    }
+
+    /**
+     * Append a point to both series, and return the DTW distance between them.
+     */
+    public double append(double xValue, double yValue) {
+        int k = size;
+        if (k == x.length) {
+            int capacity = k * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            row = Arrays.copyOf(row, capacity);
+            column = Arrays.copyOf(column, capacity);
+            nextRow = new double[capacity];
+            nextColumn = new double[capacity];
+        }
+        x[k] = xValue;
+        y[k] = yValue;
+
+        // Cells outside the band are never reached
+        int lo = window == DynamicTimeWarping.NO_WINDOW ? 0 : Math.max(0, k - window);
+        for (int i = 0; i < lo; i++) {
+            nextColumn[i] = Double.POSITIVE_INFINITY;
+            nextRow[i] = Double.POSITIVE_INFINITY;
+        }
+
+        // New column k (rows lo..k-1), from column k-1 (old column) and the cells above
+        for (int i = lo; i < k; i++) {
+            double cost = Math.abs(x[i] - yValue);
+            double g = column[i] + cost;
+            if (i > 0) {
+                g = Math.min(g, column[i - 1] + 2 * cost);
+                g = Math.min(g, nextColumn[i - 1] + cost);
+            }
+            nextColumn[i] = g;
+        }
+
+        // New row k (columns lo..k-1), from row k-1 (old row) and the cells to the left
+        for (int j = lo; j < k; j++) {
+            double cost = Math.abs(xValue - y[j]);
+            double g = row[j] + cost;
+            if (j > 0) {
+                g = Math.min(g, row[j - 1] + 2 * cost);
+                g = Math.min(g, nextRow[j - 1] + cost);
+            }
+            nextRow[j] = g;
+        }
+
+        // Corner cell (k, k)
+        double cost = Math.abs(xValue - yValue);
+        double corner;
+        if (k == 0) {
+            corner = cost;
+        } else {
+            corner = row[k - 1] + 2 * cost;
+            corner = Math.min(corner, nextRow[k - 1] + cost);
+            corner = Math.min(corner, nextColumn[k - 1] + cost);
+        }
+        nextRow[k] = corner;
+        nextColumn[k] = corner;
+
+        double[] swap = row;
+        row = nextRow;
+        nextRow = swap;
+        swap = column;
+        column = nextColumn;
+        nextColumn = swap;
+        size++;
+        return corner;
+    }
+
+    /**
+     * Returns the DTW distance between the series appended so far.
+     */
+    public double distance() {
+        checkState(size > 0, "No points have been appended");
+        return row[size - 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+}
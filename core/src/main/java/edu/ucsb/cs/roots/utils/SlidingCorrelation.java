@@ -0,0 +1,113 @@
+package edu.ucsb.cs.roots.utils;
+
+/**
+ * Maintains the means, variances and covariance of a window of (x, y) pairs, so that the
+ * Pearson correlation of the window is available at any time. Pairs can be added to and
+ * removed from the window in O(1), using Welford's updates for the co-moments. Removing a
+ * pair that was never added leaves the accumulator in an undefined state.
+ *
+ * Removals leave rounding errors behind, so a window that has become constant may still have
+ * a tiny positive second moment. The errors scale with the largest values that went through
+ * the window, so variances below an epsilon relative to those values are treated as 0.
+ * Callers that slide the window for long should rebuild the accumulator from time to time.
+ */
+public final class SlidingCorrelation {
+
+    private static final double EPSILON = 1e-12;
+
+    private long count = 0L;
+    private double meanX = 0.0;
+    private double meanY = 0.0;
+    private double m2X = 0.0;
+    private double m2Y = 0.0;
+    private double cXY = 0.0;
+    private double scaleX = 0.0;
+    private double scaleY = 0.0;
+
+    public void add(double x, double y) {
+        count++;
+        scaleX = Math.max(scaleX, Math.abs(x));
+        scaleY = Math.max(scaleY, Math.abs(y));
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX += dx / count;
+        meanY += dy / count;
+        m2X += dx * (x - meanX);
+        m2Y += dy * (y - meanY);
+        cXY += dx * (y - meanY);
+    }
+
+    public void remove(double x, double y) {
+        if (count <= 1) {
+            clear();
+            return;
+        }
+        count--;
+        double dx = x - meanX;
+        double dy = y - meanY;
+        meanX -= dx / count;
+        meanY -= dy / count;
+        m2X = Math.max(0.0, m2X - dx * (x - meanX));
+        m2Y = Math.max(0.0, m2Y - dy * (y - meanY));
+        cXY -= dx * (y - meanY);
+    }
+
+    public void clear() {
+        count = 0L;
+        meanX = 0.0;
+        meanY = 0.0;
+        m2X = 0.0;
+        m2Y = 0.0;
+        cXY = 0.0;
+        scaleX = 0.0;
+        scaleY = 0.0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanX() {
+        return meanX;
+    }
+
+    public double getMeanY() {
+        return meanY;
+    }
+
+    /**
+     * Returns the sample variance of x, or NaN if the window has fewer than 2 pairs.
+     */
+    public double getVarianceX() {
+        return count > 1 ? m2X / (count - 1) : Double.NaN;
+    }
+
+    public double getVarianceY() {
+        return count > 1 ? m2Y / (count - 1) : Double.NaN;
+    }
+
+    public double getCovariance() {
+        return count > 1 ? cXY / (count - 1) : Double.NaN;
+    }
+
+    /**
+     * Returns the Pearson correlation of the window, or NaN if it is undefined (fewer than
+     * 2 pairs, or one of the variables is constant). Same as R's cor(x, y), which returns
+     * NA in those cases.
+     */
+    public double getCorrelation() {
+        if (count < 2 || isConstant(m2X, scaleX) || isConstant(m2Y, scaleY)) {
+            return Double.NaN;
+        }
+        double r = cXY / Math.sqrt(m2X * m2Y);
+        return Math.max(-1.0, Math.min(1.0, r));
+    }
+
+    /**
+     * Returns true if the second moment is indistinguishable from rounding errors, given the
+     * largest magnitude added since the accumulator was last cleared.
+     */
+    private boolean isConstant(double m2, double scale) {
+        return m2 <= EPSILON * count * scale * scale;
+    }
+}
@@ -0,0 +1,64 @@
+package edu.ucsb.cs.roots.utils;
+
+/**
+ * Mean and standard deviation of a window of values, updated in O(1) as values enter and
+ * leave the window (Welford's algorithm, with removal). Results match those of a
+ * SummaryStatistics over the same values: the standard deviation is the sample standard
+ * deviation, 0 for a single value, and NaN (along with the mean) for an empty window.
+ */
+public final class SlidingStatSummary {
+
+    private long count = 0L;
+    private double mean = 0.0;
+    private double m2 = 0.0;
+
+    public void add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+    }
+
+    /**
+     * Remove a value previously added to the window.
+     */
+    public void remove(double value) {
+        if (count <= 1) {
+            clear();
+            return;
+        }
+        count--;
+        double delta = value - mean;
+        mean -= delta / count;
+        m2 = Math.max(0.0, m2 - delta * (value - mean));
+    }
+
+    public void clear() {
+        count = 0L;
+        mean = 0.0;
+        m2 = 0.0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    public double getVariance() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return count > 1 ? m2 / (count - 1) : 0.0;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public StatSummary toStatSummary() {
+        return new StatSummary(getMean(), getStandardDeviation());
+    }
+}
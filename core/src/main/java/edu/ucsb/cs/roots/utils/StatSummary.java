@@ -9,7 +9,7 @@ public final class StatSummary {
     private final double mean;
     private final double standardDeviation;
 
-    private StatSummary(double mean, double standardDeviation) {
+    StatSummary(double mean, double standardDeviation) {
         this.mean = mean;
         this.standardDeviation = standardDeviation;
     }
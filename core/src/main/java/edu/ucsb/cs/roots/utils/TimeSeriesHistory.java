@@ -0,0 +1,86 @@
+package edu.ucsb.cs.roots.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A set of keyed time series (e.g. one per operation), each stored in a TimeSeriesRing.
+ * All series have the same columns, and start out with the same capacity. A key is removed
+ * when all of its points have expired, same as a key of a multimap with no values.
+ */
+public final class TimeSeriesHistory<K> {
+
+    private final Map<K,TimeSeriesRing> series = new HashMap<>();
+    private final int columns;
+    private final int capacity;
+
+    /**
+     * @param columns Number of values in each data point
+     * @param capacity Expected number of data points retained per key
+     */
+    public TimeSeriesHistory(int columns, int capacity) {
+        checkArgument(columns > 0, "Number of columns must be positive");
+        checkArgument(capacity > 0, "Capacity must be positive");
+        this.columns = columns;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the series of the given key, or null if there is none.
+     */
+    public TimeSeriesRing get(K key) {
+        return series.get(key);
+    }
+
+    public TimeSeriesRing getOrCreate(K key) {
+        return series.computeIfAbsent(key, k -> new TimeSeriesRing(columns, capacity));
+    }
+
+    public void append(K key, long timestamp, double value) {
+        getOrCreate(key).append(timestamp, value);
+    }
+
+    public void append(K key, long timestamp, double value1, double value2) {
+        getOrCreate(key).append(timestamp, value1, value2);
+    }
+
+    /**
+     * Remove all the points older than the given cutoff, and the keys left with no points.
+     */
+    public void expire(long cutoff) {
+        series.values().removeIf(ring -> {
+            ring.expire(cutoff);
+            return ring.isEmpty();
+        });
+    }
+
+    public boolean containsKey(K key) {
+        return series.containsKey(key);
+    }
+
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(series.keySet());
+    }
+
+    public void forEach(BiConsumer<K,TimeSeriesRing> action) {
+        series.forEach(action);
+    }
+
+    /**
+     * Returns the series with the most points, or null if there are no series.
+     */
+    public TimeSeriesRing getLongest() {
+        TimeSeriesRing longest = null;
+        for (TimeSeriesRing ring : series.values()) {
+            if (longest == null || ring.size() > longest.size()) {
+                longest = ring;
+            }
+        }
+        return longest;
+    }
+}
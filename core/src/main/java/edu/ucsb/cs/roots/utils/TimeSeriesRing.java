@@ -0,0 +1,215 @@
+package edu.ucsb.cs.roots.utils;
+
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A time-ordered series of data points, held in primitive columns (one long timestamp and a
+ * fixed number of double values per point) in a ring buffer. Points are appended at the end
+ * and expired from the start, both in O(1). Index 0 is always the oldest point.
+ *
+ * The buffer is sized up front for the expected number of live points, and only grows if
+ * more points than that are retained. Points are expected to arrive in timestamp order. An
+ * out of order point is inserted at its position, so that expiry by timestamp stays correct.
+ *
+ * The mean and standard deviation of each column are maintained as points are appended and
+ * expired, so that they are available in O(1) through summarize.
+ */
+public final class TimeSeriesRing {
+
+    private final int columns;
+    private long[] timestamps;
+    private double[][] values;
+    private final SlidingStatSummary[] summaries;
+    private int head = 0;
+    private int size = 0;
+
+    public TimeSeriesRing(int columns, int capacity) {
+        checkArgument(columns > 0, "Number of columns must be positive");
+        checkArgument(capacity > 0, "Capacity must be positive");
+        this.columns = columns;
+        this.timestamps = new long[capacity];
+        this.values = new double[columns][capacity];
+        this.summaries = new SlidingStatSummary[columns];
+        for (int c = 0; c < columns; c++) {
+            summaries[c] = new SlidingStatSummary();
+        }
+    }
+
+    public void append(long timestamp, double value) {
+        checkArgument(columns == 1, "Expected %s values", columns);
+        int slot = reserve();
+        values[0][slot] = value;
+        summaries[0].add(value);
+        commit(timestamp, slot);
+    }
+
+    public void append(long timestamp, double value1, double value2) {
+        checkArgument(columns == 2, "Expected %s values", columns);
+        int slot = reserve();
+        values[0][slot] = value1;
+        values[1][slot] = value2;
+        summaries[0].add(value1);
+        summaries[1].add(value2);
+        commit(timestamp, slot);
+    }
+
+    /**
+     * Remove all the points older than the given cutoff.
+     *
+     * @return Number of points removed
+     */
+    public int expire(long cutoff) {
+        int removed = 0;
+        while (size > 0 && timestamps[head] < cutoff) {
+            removeFirst();
+            removed++;
+        }
+        if (removed > 0 && size <= removed) {
+            // Recompute from the remaining points (typically after a reset, when only the
+            // last point is retained), which costs no more than the removals did, and keeps
+            // rounding errors from building up in the summaries.
+            for (int c = 0; c < columns; c++) {
+                summaries[c].clear();
+                for (int i = 0; i < size; i++) {
+                    summaries[c].add(values[c][slot(i)]);
+                }
+            }
+        }
+        return removed;
+    }
+
+    public void removeFirst() {
+        checkState(size > 0, "Time series is empty");
+        for (int c = 0; c < columns; c++) {
+            summaries[c].remove(values[c][head]);
+        }
+        head = (head + 1) % timestamps.length;
+        size--;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+        for (SlidingStatSummary summary : summaries) {
+            summary.clear();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[slot(index)];
+    }
+
+    public double get(int index) {
+        return get(0, index);
+    }
+
+    public double get(int column, int index) {
+        return values[column][slot(index)];
+    }
+
+    public long getLastTimestamp() {
+        return getTimestamp(size - 1);
+    }
+
+    public double getLast(int column) {
+        return get(column, size - 1);
+    }
+
+    /**
+     * Copy a column into a new array, oldest point first.
+     */
+    public double[] toArray(int column) {
+        double[] result = new double[size];
+        int first = Math.min(size, timestamps.length - head);
+        System.arraycopy(values[column], head, result, 0, first);
+        System.arraycopy(values[column], 0, result, first, size - first);
+        return result;
+    }
+
+    /**
+     * Returns the mean and standard deviation of a column.
+     */
+    public StatSummary summarize(int column) {
+        return summaries[column].toStatSummary();
+    }
+
+    public DoubleStream stream(int column) {
+        double[] data = values[column];
+        return IntStream.range(0, size).mapToDouble(i -> data[(head + i) % data.length]);
+    }
+
+    private int slot(int index) {
+        checkElementIndex(index, size);
+        return (head + index) % timestamps.length;
+    }
+
+    private int reserve() {
+        int capacity = timestamps.length;
+        if (size == capacity) {
+            // Unroll the ring into a larger buffer
+            long[] newTimestamps = new long[capacity * 2];
+            double[][] newValues = new double[columns][capacity * 2];
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % capacity;
+                newTimestamps[i] = timestamps[slot];
+                for (int c = 0; c < columns; c++) {
+                    newValues[c][i] = values[c][slot];
+                }
+            }
+            timestamps = newTimestamps;
+            values = newValues;
+            head = 0;
+        }
+        return (head + size) % timestamps.length;
+    }
+
+    private void commit(long timestamp, int slot) {
+        timestamps[slot] = timestamp;
+        size++;
+        // Move an out of order point back to its position
+        int capacity = timestamps.length;
+        int current = slot;
+        for (int i = size - 1; i > 0; i--) {
+            int previous = (current - 1 + capacity) % capacity;
+            if (timestamps[previous] <= timestamps[current]) {
+                break;
+            }
+            swap(previous, current);
+            current = previous;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long timestamp = timestamps[a];
+        timestamps[a] = timestamps[b];
+        timestamps[b] = timestamp;
+        for (int c = 0; c < columns; c++) {
+            double value = values[c][a];
+            values[c][a] = values[c][b];
+            values[c][b] = value;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimeSeriesRing[size: %d, capacity: %d, columns: %d]", size,
+                timestamps.length, columns);
+    }
+}
@@ -52,4 +52,26 @@ public class ApplicationRequestTest {
         Assert.assertEquals(20, request.getResponseTime());
     }
 
+    @Test
+    public void testPathFingerprint() {
+        ApplicationRequest r1 = new ApplicationRequest("r1", 100, "app", "op", ImmutableList.of(
+                newApiCall(100, "foo", "bar", 10), newApiCall(100, "foo", "baz", 10)));
+        ApplicationRequest r2 = new ApplicationRequest("r2", 200, "app", "op", ImmutableList.of(
+                newApiCall(200, "foo", "bar", 5), newApiCall(200, "foo", "baz", 20)));
+        ApplicationRequest r3 = new ApplicationRequest("r3", 300, "app", "op", ImmutableList.of(
+                newApiCall(300, "foo", "baz", 10), newApiCall(300, "foo", "bar", 10)));
+        Assert.assertEquals(r1.getPathFingerprint(), r2.getPathFingerprint());
+        Assert.assertFalse(r1.getPathFingerprint() == r3.getPathFingerprint());
+        Assert.assertEquals(PathDictionary.fingerprint(r1.getPathAsString()),
+                r1.getPathFingerprint());
+
+        PathDictionary dictionary = new PathDictionary();
+        long key = dictionary.getKey(r1);
+        Assert.assertEquals(key, dictionary.getKey(r2));
+        Assert.assertEquals(key, dictionary.getKey("foo:bar, foo:baz"));
+        Assert.assertFalse(key == dictionary.getKey(r3));
+        Assert.assertEquals("foo:bar, foo:baz", dictionary.getPath(key));
+        Assert.assertEquals(2, dictionary.size());
+        Assert.assertNull(dictionary.getPath(key + 1));
+    }
 }
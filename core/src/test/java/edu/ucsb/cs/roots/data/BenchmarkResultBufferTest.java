@@ -0,0 +1,117 @@
+package edu.ucsb.cs.roots.data;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BenchmarkResultBufferTest {
+
+    private BenchmarkResult newResult(long timestamp) {
+        return new BenchmarkResult(timestamp, "app", "GET", "/", 10);
+    }
+
+    @Test
+    public void testFlushBySize() throws Exception {
+        List<Integer> batches = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        BenchmarkResultBuffer buffer = new BenchmarkResultBuffer("test", 100, 5, 60000, 1000,
+                batch -> {
+                    synchronized (batches) {
+                        batches.add(batch.size());
+                    }
+                    latch.countDown();
+                });
+        for (int i = 0; i < 10; i++) {
+            buffer.add(newResult(i));
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        buffer.close(10000);
+        synchronized (batches) {
+            Assert.assertEquals(2, batches.size());
+            Assert.assertEquals(5, batches.get(0).intValue());
+            Assert.assertEquals(5, batches.get(1).intValue());
+        }
+    }
+
+    @Test
+    public void testFlushOnClose() throws Exception {
+        List<BenchmarkResult> written = new ArrayList<>();
+        BenchmarkResultBuffer buffer = new BenchmarkResultBuffer("test", 100, 50, 60000, 1000,
+                batch -> {
+                    synchronized (written) {
+                        written.addAll(batch);
+                    }
+                });
+        for (int i = 0; i < 7; i++) {
+            buffer.add(newResult(i));
+        }
+        buffer.close(10000);
+        synchronized (written) {
+            Assert.assertEquals(7, written.size());
+        }
+
+        try {
+            buffer.add(newResult(100));
+            Assert.fail("No exception thrown on closed buffer");
+        } catch (DataStoreException expected) {
+        }
+    }
+
+    @Test
+    public void testNoResultsLostOnClose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            AtomicInteger written = new AtomicInteger(0);
+            AtomicInteger accepted = new AtomicInteger(0);
+            BenchmarkResultBuffer buffer = new BenchmarkResultBuffer("test", 1000, 10, 60000,
+                    1000, batch -> written.addAndGet(batch.size()));
+            ExecutorService exec = Executors.newFixedThreadPool(4);
+            CountDownLatch started = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                exec.submit(() -> {
+                    started.countDown();
+                    try {
+                        while (true) {
+                            buffer.add(newResult(1));
+                            accepted.incrementAndGet();
+                        }
+                    } catch (DataStoreException expected) {
+                    }
+                });
+            }
+            started.await();
+            Assert.assertTrue(buffer.close(10000));
+            exec.shutdown();
+            Assert.assertTrue(exec.awaitTermination(10, TimeUnit.SECONDS));
+            Assert.assertEquals(accepted.get(), written.get());
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        BenchmarkResultBuffer buffer = new BenchmarkResultBuffer("test", 2, 1, 60000, 10,
+                batch -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+        try {
+            for (int i = 0; i < 10; i++) {
+                buffer.add(newResult(i));
+            }
+            Assert.fail("No exception thrown on full buffer");
+        } catch (DataStoreException expected) {
+        } finally {
+            release.countDown();
+            buffer.close(10000);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Ordering;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CachingDataStoreTest {
+
+    private static class RequestDataStore implements DataStore {
+
+        private final List<DataStoreCall> calls = new ArrayList<>();
+
+        @Override
+        public ImmutableList<ApplicationRequest> getRequestInfo(
+                String application, String operation, long start, long end) {
+            calls.add(new DataStoreCall(start, end, "REQUEST_INFO", application));
+            ImmutableList.Builder<ApplicationRequest> builder = ImmutableList.builder();
+            for (long t = start; t < end; t += 1000) {
+                builder.add(new ApplicationRequest("r" + t, t, application, operation,
+                        ImmutableList.of()));
+            }
+            return builder.build();
+        }
+
+        @Override
+        public ImmutableList<Double> getWorkloadSummary(
+                String application, String operation, long start, long end, long period) {
+            calls.add(new DataStoreCall(start, end, "WORKLOAD_SUMMARY", application));
+            return ImmutableList.of(1.0, 2.0);
+        }
+    }
+
+    @Test
+    public void testIncrementalRequestInfo() throws Exception {
+        RequestDataStore delegate = new RequestDataStore();
+        CachingDataStore cache = CachingDataStore.newBuilder()
+                .setDelegate(delegate)
+                .build();
+
+        ImmutableList<ApplicationRequest> requests = cache.getRequestInfo("app", "GET /",
+                60000, 120000);
+        Assert.assertEquals(60, requests.size());
+        Assert.assertEquals(1, delegate.calls.size());
+
+        // Overlapping window: only the delta should be fetched
+        requests = cache.getRequestInfo("app", "GET /", 90000, 150000);
+        Assert.assertEquals(60, requests.size());
+        Assert.assertEquals(90000, requests.get(0).getTimestamp());
+        Assert.assertEquals(149000, requests.get(59).getTimestamp());
+        Assert.assertEquals(2, delegate.calls.size());
+        Assert.assertEquals(120000, delegate.calls.get(1).getStart());
+        Assert.assertEquals(150000, delegate.calls.get(1).getEnd());
+
+        // Window with gaps on both sides
+        requests = cache.getRequestInfo("app", "GET /", 30000, 180000);
+        Assert.assertEquals(150, requests.size());
+        Assert.assertTrue(Ordering.from(ApplicationRequest.TIME_ORDER).isOrdered(requests));
+        Assert.assertEquals(4, delegate.calls.size());
+        Assert.assertEquals(30000, delegate.calls.get(2).getStart());
+        Assert.assertEquals(60000, delegate.calls.get(2).getEnd());
+        Assert.assertEquals(150000, delegate.calls.get(3).getStart());
+        Assert.assertEquals(180000, delegate.calls.get(3).getEnd());
+
+        // Fully cached window
+        requests = cache.getRequestInfo("app", "GET /", 100000, 110000);
+        Assert.assertEquals(10, requests.size());
+        Assert.assertEquals(4, delegate.calls.size());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void testAsyncRequestInfo() throws Exception {
+        RequestDataStore delegate = new RequestDataStore();
+        CachingDataStore cache = CachingDataStore.newBuilder()
+                .setDelegate(delegate)
+                .build();
+
+        ImmutableList<ApplicationRequest> requests = cache.getRequestInfoAsync("app", "GET /",
+                60000, 120000).get();
+        Assert.assertEquals(60, requests.size());
+        requests = cache.getRequestInfoAsync("app", "GET /", 90000, 150000).get();
+        Assert.assertEquals(60, requests.size());
+        Assert.assertEquals(2, delegate.calls.size());
+        Assert.assertEquals(120000, delegate.calls.get(1).getStart());
+
+        // Async and blocking calls share the same cached segments
+        requests = cache.getRequestInfo("app", "GET /", 60000, 150000);
+        Assert.assertEquals(90, requests.size());
+        Assert.assertEquals(2, delegate.calls.size());
+    }
+
+    @Test
+    public void testPathDistribution() throws Exception {
+        List<DataStoreCall> calls = new ArrayList<>();
+        DataStore delegate = new DataStore() {
+            @Override
+            public ImmutableListMultimap<String, ApplicationRequest> getRequestInfo(
+                    String application, long start, long end) {
+                calls.add(new DataStoreCall(start, end, "REQUEST_INFO", application));
+                ImmutableListMultimap.Builder<String,ApplicationRequest> builder =
+                        ImmutableListMultimap.builder();
+                for (int i = 0; i < 5; i++) {
+                    ImmutableList<ApiCall> apiCalls = ImmutableList.of(
+                            newApiCall("datastore", "get"), newApiCall("memcache", "put"));
+                    builder.put("GET /", new ApplicationRequest("r" + i, start + i, application,
+                            "GET /", i < 3 ? apiCalls : apiCalls.subList(0, 1)));
+                }
+                return builder.build();
+            }
+        };
+        CachingDataStore cache = CachingDataStore.newBuilder()
+                .setDelegate(delegate)
+                .build();
+
+        ImmutableTable<String,String,Integer> paths = cache.getPathDistribution("app", 60000, 120000);
+        Assert.assertEquals(2, paths.size());
+        Assert.assertEquals(3, (int) paths.get("GET /", "datastore:get, memcache:put"));
+        Assert.assertEquals(2, (int) paths.get("GET /", "datastore:get"));
+        Assert.assertSame(paths, cache.getPathDistribution("app", 60000, 120000));
+        Assert.assertEquals(1, calls.size());
+    }
+
+    private static ApiCall newApiCall(String service, String operation) {
+        return ApiCall.newBuilder()
+                .setRequestTimestamp(1)
+                .setTimestamp(1)
+                .setService(service)
+                .setOperation(operation)
+                .setRequestOperation("GET /")
+                .build();
+    }
+
+    @Test
+    public void testRequestSegments() {
+        RequestSegments segments = new RequestSegments();
+        segments.add(100, 200, ImmutableList.of());
+        segments.add(300, 400, ImmutableList.of());
+        Assert.assertEquals(2, segments.size());
+        List<long[]> missing = segments.missingRanges(0, 500);
+        Assert.assertEquals(3, missing.size());
+        Assert.assertEquals(0, missing.get(0)[0]);
+        Assert.assertEquals(100, missing.get(0)[1]);
+        Assert.assertEquals(200, missing.get(1)[0]);
+        Assert.assertEquals(300, missing.get(1)[1]);
+        Assert.assertEquals(400, missing.get(2)[0]);
+        Assert.assertEquals(500, missing.get(2)[1]);
+        Assert.assertTrue(segments.missingRanges(150, 180).isEmpty());
+
+        // Adjacent segments are not merged
+        segments.add(200, 300, ImmutableList.of());
+        Assert.assertEquals(3, segments.size());
+        Assert.assertTrue(segments.missingRanges(100, 400).isEmpty());
+        segments.addMissing(0, 500, ImmutableList.of());
+        Assert.assertEquals(5, segments.size());
+        Assert.assertTrue(segments.missingRanges(0, 500).isEmpty());
+
+        // Segments ending before the horizon are dropped, straddling ones are retained
+        Assert.assertEquals(2, segments.trim(350, 100));
+        Assert.assertEquals(3, segments.size());
+        Assert.assertEquals(1, segments.missingRanges(0, 500).size());
+        Assert.assertEquals(200, segments.missingRanges(0, 500).get(0)[1]);
+        // The horizon never moves back
+        Assert.assertEquals(0, segments.trim(0, 100));
+        Assert.assertEquals(3, segments.trim(600, 0));
+        Assert.assertEquals(0, segments.estimateBytes());
+    }
+
+    @Test
+    public void testSegmentRetention() throws Exception {
+        RequestDataStore delegate = new RequestDataStore();
+        CachingDataStore cache = CachingDataStore.newBuilder()
+                .setDelegate(delegate)
+                .setSegmentRetention(30000)
+                .build();
+
+        // Sliding window: only the new period is fetched each time, and old data is dropped
+        for (int i = 0; i < 20; i++) {
+            long start = 60000 + i * 10000;
+            ImmutableList<ApplicationRequest> requests = cache.getRequestInfo("app", "GET /",
+                    start, start + 60000);
+            Assert.assertEquals(60, requests.size());
+            Assert.assertEquals(start, requests.get(0).getTimestamp());
+        }
+        Assert.assertEquals(20, delegate.calls.size());
+        Assert.assertEquals(1, cache.size());
+
+        // Data older than the retention period has to be fetched again
+        cache.getRequestInfo("app", "GET /", 60000, 120000);
+        Assert.assertEquals(21, delegate.calls.size());
+        cache.getRequestInfo("app", "GET /", 230000, 250000);
+        Assert.assertEquals(21, delegate.calls.size());
+    }
+
+    @Test
+    public void testRecentWindowsNotCached() throws Exception {
+        RequestDataStore delegate = new RequestDataStore();
+        CachingDataStore cache = CachingDataStore.newBuilder()
+                .setDelegate(delegate)
+                .setIngestionDelay(60000)
+                .build();
+        long end = System.currentTimeMillis();
+        cache.getWorkloadSummary("app", "GET /", end - 60000, end, 1000);
+        cache.getWorkloadSummary("app", "GET /", end - 60000, end, 1000);
+        Assert.assertEquals(2, delegate.calls.size());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        RequestDataStore delegate = new RequestDataStore();
+        CachingDataStore cache = CachingDataStore.newBuilder()
+                .setDelegate(delegate)
+                .setMaxEntries(2)
+                .build();
+        cache.getWorkloadSummary("app", "GET /a", 0, 1000, 1000);
+        cache.getWorkloadSummary("app", "GET /b", 0, 1000, 1000);
+        cache.getWorkloadSummary("app", "GET /a", 0, 1000, 1000);
+        cache.getWorkloadSummary("app", "GET /c", 0, 1000, 1000);
+        Assert.assertEquals(3, delegate.calls.size());
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(1, cache.getEvictions());
+
+        // GET /b was the least recently used entry
+        cache.getWorkloadSummary("app", "GET /a", 0, 1000, 1000);
+        Assert.assertEquals(3, delegate.calls.size());
+        cache.getWorkloadSummary("app", "GET /b", 0, 1000, 1000);
+        Assert.assertEquals(4, delegate.calls.size());
+    }
+}
@@ -0,0 +1,175 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableMap;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoalescingDataStoreTest {
+
+    @Test
+    public void testConcurrentCallsCoalesced() throws Exception {
+        AtomicInteger delegateCalls = new AtomicInteger(0);
+        CountDownLatch release = new CountDownLatch(1);
+        ImmutableMap<String,ResponseTimeSummary> summary = ImmutableMap.of(
+                "GET /", new ResponseTimeSummary(0, 10.0, 5));
+        DataStore delegate = new DataStore() {
+            @Override
+            public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+                    String application, long start, long end) throws DataStoreException {
+                delegateCalls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new DataStoreException("Interrupted", e);
+                }
+                return summary;
+            }
+        };
+
+        CoalescingDataStore dataStore = new CoalescingDataStore(delegate);
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ImmutableMap<String,ResponseTimeSummary>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(exec.submit(() -> dataStore.getResponseTimeSummary("app", 0, 100)));
+            }
+            while (dataStore.getSavedCalls() < 3) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<ImmutableMap<String,ResponseTimeSummary>> f : futures) {
+                Assert.assertSame(summary, f.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        Assert.assertEquals(1, delegateCalls.get());
+        Assert.assertEquals(3, dataStore.getSavedCalls());
+
+        // Sequential calls are not coalesced
+        dataStore.getResponseTimeSummary("app", 0, 100);
+        Assert.assertEquals(2, delegateCalls.get());
+    }
+
+    @Test
+    public void testFailuresShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DataStore delegate = new DataStore() {
+            @Override
+            public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+                    String application, long start, long end) throws DataStoreException {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                throw new DataStoreException("Query failed");
+            }
+        };
+
+        CoalescingDataStore dataStore = new CoalescingDataStore(delegate);
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<ImmutableMap<String,ResponseTimeSummary>>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(exec.submit(() -> dataStore.getResponseTimeSummary("app", 0, 100)));
+            }
+            while (dataStore.getSavedCalls() < 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<ImmutableMap<String,ResponseTimeSummary>> f : futures) {
+                try {
+                    f.get(10, TimeUnit.SECONDS);
+                    Assert.fail("No exception thrown");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof DataStoreException);
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testErrorsShared() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DataStore delegate = new DataStore() {
+            @Override
+            public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+                    String application, long start, long end) throws DataStoreException {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+                throw new OutOfMemoryError("Query failed");
+            }
+        };
+
+        CoalescingDataStore dataStore = new CoalescingDataStore(delegate);
+        ExecutorService exec = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<ImmutableMap<String,ResponseTimeSummary>>> futures = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                futures.add(exec.submit(() -> dataStore.getResponseTimeSummary("app", 0, 100)));
+            }
+            while (dataStore.getSavedCalls() < 1) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<ImmutableMap<String,ResponseTimeSummary>> f : futures) {
+                try {
+                    f.get(10, TimeUnit.SECONDS);
+                    Assert.fail("No exception thrown");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof OutOfMemoryError);
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAsyncCallsCoalesced() throws Exception {
+        AtomicInteger delegateCalls = new AtomicInteger(0);
+        CompletableFuture<ImmutableMap<String,ResponseTimeSummary>> pending =
+                new CompletableFuture<>();
+        DataStore delegate = new DataStore() {
+            @Override
+            public CompletableFuture<ImmutableMap<String, ResponseTimeSummary>> getResponseTimeSummaryAsync(
+                    String application, long start, long end) {
+                delegateCalls.incrementAndGet();
+                return pending;
+            }
+        };
+
+        CoalescingDataStore dataStore = new CoalescingDataStore(delegate);
+        CompletableFuture<ImmutableMap<String,ResponseTimeSummary>> first =
+                dataStore.getResponseTimeSummaryAsync("app", 0, 100);
+        CompletableFuture<ImmutableMap<String,ResponseTimeSummary>> second =
+                dataStore.getResponseTimeSummaryAsync("app", 0, 100);
+        Assert.assertEquals(1, delegateCalls.get());
+        Assert.assertEquals(1, dataStore.getSavedCalls());
+        Assert.assertFalse(second.isDone());
+
+        ImmutableMap<String,ResponseTimeSummary> summary = ImmutableMap.of(
+                "GET /", new ResponseTimeSummary(0, 10.0, 5));
+        pending.complete(summary);
+        Assert.assertSame(summary, first.get(10, TimeUnit.SECONDS));
+        Assert.assertSame(summary, second.get(10, TimeUnit.SECONDS));
+
+        dataStore.getResponseTimeSummaryAsync("app", 0, 100);
+        Assert.assertEquals(2, delegateCalls.get());
+    }
+}
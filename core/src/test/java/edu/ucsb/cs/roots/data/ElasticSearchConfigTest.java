@@ -0,0 +1,134 @@
+package edu.ucsb.cs.roots.data;
+
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ElasticSearchConfigTest {
+
+    @Test
+    public void testPoolConfiguration() {
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .setHost("localhost")
+                .setPort(9200)
+                .setMaxConnections(8)
+                .setMaxConnectionsPerRoute(4)
+                .setScrollSlices(6)
+                .build();
+        try {
+            // Scroll slices must be able to hold a connection each
+            Assert.assertEquals(6, es.getMaxConnectionsPerRoute());
+            Assert.assertEquals(8, es.getMaxConnections());
+            Assert.assertEquals(8, es.getConnectionPoolMetrics().getMax());
+            Assert.assertEquals(0, es.getConnectionPoolMetrics().getLeases());
+        } finally {
+            es.cleanup();
+        }
+    }
+
+    @Test
+    public void testCompressionAndLeaseMetrics() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            String body = IOUtils.toString(new GZIPInputStream(exchange.getRequestBody()),
+                    StandardCharsets.UTF_8);
+            byte[] response = (encoding + ":" + body).getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(response);
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, compressed.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                compressed.writeTo(out);
+            }
+        });
+        server.start();
+
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .setHost("localhost")
+                .setPort(server.getAddress().getPort())
+                .setCompression(true)
+                .build();
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(payload)) {
+                gzip.write("{}".getBytes(StandardCharsets.UTF_8));
+            }
+            for (int i = 0; i < 3; i++) {
+                HttpPost post = new HttpPost("http://localhost:" +
+                        server.getAddress().getPort() + "/_search");
+                ByteArrayEntity entity = new ByteArrayEntity(payload.toByteArray());
+                entity.setContentEncoding("gzip");
+                post.setEntity(entity);
+                String response = es.getClient().execute(post,
+                        r -> EntityUtils.toString(r.getEntity()));
+                Assert.assertEquals("gzip:{}", response);
+            }
+
+            ConnectionPoolMetrics metrics = es.getConnectionPoolMetrics();
+            Assert.assertEquals(3, metrics.getLeases());
+            Assert.assertEquals(0, metrics.getLeased());
+            // Connections are kept alive and reused
+            Assert.assertEquals(1, metrics.getAvailable());
+        } finally {
+            es.cleanup();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testAsyncLeaseMetrics() throws Exception {
+        byte[] response = "ok".getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .setHost("localhost")
+                .setPort(server.getAddress().getPort())
+                .setMaxConnections(8)
+                .setMaxConnectionsPerRoute(4)
+                .setLeaseTimeout(1000)
+                .build();
+        try {
+            Assert.assertNull(es.getAsyncConnectionPoolMetrics());
+            for (int i = 0; i < 3; i++) {
+                HttpResponse r = es.getAsyncClient().execute(new HttpGet("http://localhost:" +
+                        server.getAddress().getPort() + "/"), null).get(10, TimeUnit.SECONDS);
+                Assert.assertEquals("ok", EntityUtils.toString(r.getEntity()));
+            }
+
+            ConnectionPoolMetrics metrics = es.getAsyncConnectionPoolMetrics();
+            Assert.assertEquals(8, metrics.getMax());
+            Assert.assertEquals(3, metrics.getLeases());
+            Assert.assertEquals(0, metrics.getLeased());
+            Assert.assertEquals(1, metrics.getAvailable());
+            // The blocking pool is tracked separately
+            Assert.assertEquals(0, es.getConnectionPoolMetrics().getLeases());
+        } finally {
+            es.cleanup();
+            server.stop(0);
+        }
+    }
+}
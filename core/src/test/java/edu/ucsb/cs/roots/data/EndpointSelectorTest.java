@@ -0,0 +1,366 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EndpointSelectorTest {
+
+    private static class StubServer {
+
+        private final HttpServer server;
+        private final ExecutorService exec = Executors.newCachedThreadPool();
+        private final AtomicInteger requests = new AtomicInteger(0);
+        private volatile long delay = 0L;
+
+        StubServer(String name) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            server.setExecutor(exec);
+            server.createContext("/", exchange -> {
+                requests.incrementAndGet();
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                byte[] response = name.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            });
+            server.start();
+        }
+
+        int getPort() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+            exec.shutdownNow();
+        }
+    }
+
+    private static String get(ElasticSearchConfig es, boolean idempotent) throws IOException {
+        return es.getEndpoints().execute(host -> es.getClient().execute(host, new HttpGet("/"),
+                r -> EntityUtils.toString(r.getEntity())), idempotent);
+    }
+
+    private static CompletableFuture<String> hedgedGet(ElasticSearchConfig es) {
+        return es.getRequestHedger().execute(es.getEndpoints(), host -> {
+            CompletableFuture<String> result = new CompletableFuture<>();
+            Future<HttpResponse> exchange = es.getAsyncClient().execute(host, new HttpGet("/"),
+                    new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        result.complete(EntityUtils.toString(response.getEntity()));
+                    } catch (IOException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    result.completeExceptionally(e);
+                }
+
+                @Override
+                public void cancelled() {
+                    result.cancel(false);
+                }
+            });
+            result.whenComplete((value, error) -> {
+                if (result.isCancelled()) {
+                    exchange.cancel(true);
+                }
+            });
+            return result;
+        });
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        StubServer a = new StubServer("a");
+        StubServer b = new StubServer("b");
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoints("localhost:" + a.getPort() + ", localhost:" + b.getPort())
+                .build();
+        try {
+            for (int i = 0; i < 10; i++) {
+                get(es, true);
+            }
+            Assert.assertEquals(5, a.requests.get());
+            Assert.assertEquals(5, b.requests.get());
+        } finally {
+            es.cleanup();
+            a.stop();
+            b.stop();
+        }
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        StubServer a = new StubServer("a");
+        int deadPort = unusedPort();
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoint("localhost", deadPort)
+                .addEndpoint("localhost", a.getPort())
+                .setFailureThreshold(2)
+                .setRetryInterval(60000)
+                .build();
+        try {
+            for (int i = 0; i < 6; i++) {
+                // Connection failures are retried even for non-idempotent requests
+                Assert.assertEquals("a", get(es, i % 2 == 0));
+            }
+            Assert.assertEquals(6, a.requests.get());
+
+            ElasticSearchEndpoint dead = es.getEndpoints().getEndpoints().get(0);
+            Assert.assertEquals(2, dead.getFailures());
+            Assert.assertFalse(dead.isAvailable(System.currentTimeMillis()));
+            Assert.assertEquals(0, dead.getOutstanding());
+        } finally {
+            es.cleanup();
+            a.stop();
+        }
+    }
+
+    @Test
+    public void testAllEndpointsDown() throws Exception {
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoint("localhost", unusedPort())
+                .addEndpoint("localhost", unusedPort())
+                .build();
+        try {
+            get(es, true);
+            Assert.fail("No exception thrown");
+        } catch (IOException expected) {
+        } finally {
+            es.cleanup();
+        }
+    }
+
+    @Test
+    public void testAsyncFailover() throws Exception {
+        StubServer a = new StubServer("a");
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoint("localhost", unusedPort())
+                .addEndpoint("localhost", a.getPort())
+                .build();
+        try {
+            for (int i = 0; i < 4; i++) {
+                CompletableFuture<Integer> future = es.getEndpoints().executeAsync(host -> {
+                    CompletableFuture<Integer> result = new CompletableFuture<>();
+                    es.getAsyncClient().execute(host, new HttpGet("/"),
+                            new FutureCallback<HttpResponse>() {
+                        @Override
+                        public void completed(HttpResponse response) {
+                            result.complete(response.getStatusLine().getStatusCode());
+                        }
+
+                        @Override
+                        public void failed(Exception e) {
+                            result.completeExceptionally(e);
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            result.cancel(false);
+                        }
+                    });
+                    return result;
+                }, true);
+                Assert.assertEquals(200, (int) future.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(4, a.requests.get());
+        } finally {
+            es.cleanup();
+            a.stop();
+        }
+    }
+
+    @Test
+    public void testHedging() throws Exception {
+        StubServer a = new StubServer("a");
+        StubServer b = new StubServer("b");
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoints("localhost:" + a.getPort() + ",localhost:" + b.getPort())
+                .setHedgePercentile(0.9)
+                .setHedgeMinDelay(50)
+                .build();
+        try {
+            RequestHedger hedger = es.getRequestHedger();
+            Assert.assertEquals(-1L, hedger.getDelay());
+            for (int i = 0; i < 40; i++) {
+                hedgedGet(es).get(10, TimeUnit.SECONDS);
+            }
+            Assert.assertTrue(hedger.getDelay() >= 50);
+
+            // Requests sent to the slow node are answered by the other one
+            a.delay = 5000;
+            long hedges = hedger.getHedges();
+            long wins = hedger.getHedgeWins();
+            for (int i = 0; i < 6; i++) {
+                long start = System.currentTimeMillis();
+                Assert.assertEquals("b", hedgedGet(es).get(10, TimeUnit.SECONDS));
+                Assert.assertTrue(System.currentTimeMillis() - start < 2500);
+            }
+            Assert.assertTrue(hedger.getHedges() - hedges >= 3);
+            Assert.assertTrue(hedger.getHedgeWins() - wins >= 3);
+            Assert.assertEquals(46, hedger.getRequests());
+            Assert.assertEquals(0, es.getEndpoints().getEndpoints().get(0).getOutstanding());
+        } finally {
+            es.cleanup();
+            a.stop();
+            b.stop();
+        }
+    }
+
+    @Test
+    public void testHedgeRate() throws Exception {
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoints("host1:9200,host2:9200")
+                .build();
+        RequestHedger hedger = new RequestHedger(0.9, 0, "test-hedge");
+        ScheduledExecutorService responder = Executors.newScheduledThreadPool(4);
+        Semaphore inFlight = new Semaphore(50);
+        Random random = new Random(42);
+        try {
+            long hedges = 0L;
+            for (int i = 0; i < 3000; i++) {
+                if (i == 1000) {
+                    // Let the delay settle before measuring
+                    hedges = hedger.getHedges();
+                }
+                // Original requests take 5-50ms, while hedges are answered right away
+                long latency = 5 + random.nextInt(46);
+                AtomicInteger attempts = new AtomicInteger(0);
+                inFlight.acquire();
+                hedger.execute(es.getEndpoints(), host -> {
+                    CompletableFuture<String> response = new CompletableFuture<>();
+                    responder.schedule(() -> response.complete(host.getHostName()),
+                            attempts.getAndIncrement() == 0 ? latency : 1,
+                            TimeUnit.MILLISECONDS);
+                    return response;
+                }).whenComplete((value, error) -> inFlight.release());
+            }
+            inFlight.acquire(50);
+            double rate = (hedger.getHedges() - hedges) / 2000.0;
+            Assert.assertTrue("Hedge rate: " + rate, rate > 0.05 && rate < 0.16);
+        } finally {
+            hedger.close();
+            responder.shutdownNow();
+            es.cleanup();
+        }
+    }
+
+    @Test
+    public void testScrollContinuationNotRetried() throws Exception {
+        byte[] page = ("{\"_scroll_id\": \"s1\", \"hits\": {\"total\": 2, \"hits\": [" +
+                "{\"_source\": {\"timestamp\": 1000, \"method\": \"GET\", \"path\": \"/\", " +
+                "\"responseTime\": 5}}]}}").getBytes(StandardCharsets.UTF_8);
+        AtomicInteger searches = new AtomicInteger(0);
+        AtomicInteger continuations = new AtomicInteger(0);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/_search/scroll") &&
+                    exchange.getRequestMethod().equals("POST")) {
+                // Drop the connection without a response
+                continuations.incrementAndGet();
+                exchange.close();
+                return;
+            } else if (exchange.getRequestMethod().equals("POST")) {
+                searches.incrementAndGet();
+                exchange.sendResponseHeaders(200, page.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(page);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+
+        String endpoint = "localhost:" + server.getAddress().getPort();
+        ElasticSearchDataStore dataStore = new ElasticSearchDataStore(
+                ElasticSearchConfig.newBuilder()
+                        .addEndpoints(endpoint + "," + endpoint)
+                        .setBenchmarkIndex("benchmark")
+                        .setFailureThreshold(10));
+        try {
+            dataStore.getBenchmarkResults("app", 0, 60000);
+            Assert.fail("No exception thrown");
+        } catch (DataStoreException expected) {
+        } finally {
+            dataStore.destroy();
+            server.stop(0);
+        }
+        Assert.assertEquals(1, searches.get());
+        Assert.assertEquals(1, continuations.get());
+    }
+
+    @Test
+    public void testLeastOutstanding() {
+        ElasticSearchConfig es = ElasticSearchConfig.newBuilder()
+                .addEndpoints("host1:9200,host2:9200,host3:9200")
+                .setRouting(EndpointSelector.Routing.LEAST_OUTSTANDING)
+                .build();
+        try {
+            EndpointSelector selector = es.getEndpoints();
+            ElasticSearchEndpoint host1 = selector.getEndpoints().get(0);
+            ElasticSearchEndpoint host2 = selector.getEndpoints().get(1);
+            ElasticSearchEndpoint host3 = selector.getEndpoints().get(2);
+            host1.begin();
+            host1.begin();
+            host3.begin();
+            for (int i = 0; i < 3; i++) {
+                Assert.assertSame(host2, selector.select(ImmutableSet.of()));
+            }
+            Assert.assertSame(host3, selector.select(ImmutableSet.of(host2)));
+        } finally {
+            es.cleanup();
+        }
+    }
+
+    @Test
+    public void testParseEndpoints() {
+        Assert.assertEquals(65535, EndpointSelector.parseEndpoints(" host1:9200,host2:65535 ")
+                .get(1).getHttpHost().getPort());
+        try {
+            EndpointSelector.parseEndpoints("host1:65536");
+            Assert.fail("No exception thrown for invalid port");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class MappedDataStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedDataStore newDataStore(File dir) {
+        return MappedDataStore.newBuilder()
+                .setDirectory(dir)
+                .setPartitionSize(10000)
+                .setSegmentSize(64)
+                .build();
+    }
+
+    private ApiCall newApiCall(long requestTimestamp, int seq, String op, int timeElapsed) {
+        return ApiCall.newBuilder()
+                .setRequestTimestamp(requestTimestamp)
+                .setTimestamp(requestTimestamp + seq)
+                .setSequenceNumber(seq)
+                .setService("datastore")
+                .setOperation(op)
+                .setTimeElapsed(timeElapsed)
+                .setRequestOperation("GET /foo")
+                .build();
+    }
+
+    @Test
+    public void testAccessLog() throws Exception {
+        File dir = folder.newFolder("segments");
+        MappedDataStore ds = newDataStore(dir);
+        ds.ingest(new AccessLogEntry("r1", 1000, "app", "GET", "/foo", 10));
+        ds.ingest(new AccessLogEntry("r2", 16000, "app", "get", "/foo", 30));
+        ds.ingest(new AccessLogEntry("r3", 5000, "app", "POST", "/bar", 20));
+        ds.ingest(new AccessLogEntry("r4", 12000, "app", "GET", "/foo", 20));
+        ds.ingest(new AccessLogEntry("r5", 13000, "app", "HEAD", "/foo", 20));
+        ds.ingest(new AccessLogEntry("r6", 13000, "other", "GET", "/foo", 100));
+
+        ImmutableMap<String,ResponseTimeSummary> summary = ds.getResponseTimeSummary(
+                "app", 0, 20000);
+        Assert.assertEquals(2, summary.size());
+        Assert.assertEquals(20.0, summary.get("GET /foo").getMeanResponseTime());
+        Assert.assertEquals(3.0, summary.get("GET /foo").getRequestCount());
+        Assert.assertEquals(0L, summary.get("GET /foo").getTimestamp());
+        Assert.assertEquals(1.0, summary.get("POST /bar").getRequestCount());
+
+        summary = ds.getResponseTimeSummary("app", 1000, 12000);
+        Assert.assertEquals(10.0, summary.get("GET /foo").getMeanResponseTime());
+        Assert.assertTrue(ds.getResponseTimeSummary("missing", 0, 20000).isEmpty());
+
+        ImmutableListMultimap<String,ResponseTimeSummary> history = ds.getResponseTimeHistory(
+                "app", 0, 20000, 5000);
+        ImmutableList<ResponseTimeSummary> foo = history.get("GET /foo");
+        Assert.assertEquals(3, foo.size());
+        Assert.assertEquals(0L, foo.get(0).getTimestamp());
+        Assert.assertEquals(10000L, foo.get(1).getTimestamp());
+        Assert.assertEquals(15000L, foo.get(2).getTimestamp());
+        Assert.assertEquals(30.0, foo.get(2).getMeanResponseTime());
+        Assert.assertEquals(5000L, history.get("POST /bar").get(0).getTimestamp());
+        ds.destroy();
+
+        // Segments are reloaded from disk
+        ds = newDataStore(dir);
+        summary = ds.getResponseTimeSummary("app", 0, 20000);
+        Assert.assertEquals(3.0, summary.get("GET /foo").getRequestCount());
+        ds.destroy();
+    }
+
+    @Test
+    public void testBenchmarkResults() throws Exception {
+        File dir = folder.newFolder("segments");
+        MappedDataStore ds = newDataStore(dir);
+        for (int i = 0; i < 100; i++) {
+            // Out of order appends, across several partitions, growing each segment
+            long timestamp = 1000L + ((i * 37) % 100) * 500L;
+            ds.recordBenchmarkResult(new BenchmarkResult(timestamp, "app", "GET", "/foo", i));
+        }
+        ds.recordBenchmarkResults(ImmutableList.of(
+                new BenchmarkResult(2000, "app", "POST", "/bar", 5)));
+
+        ImmutableListMultimap<String,BenchmarkResult> results = ds.getBenchmarkResults(
+                "app", 0, 100000);
+        Assert.assertEquals(100, results.get("GET /foo").size());
+        Assert.assertEquals(1, results.get("POST /bar").size());
+        long last = -1L;
+        for (BenchmarkResult r : results.get("GET /foo")) {
+            Assert.assertTrue(r.getTimestamp() > last);
+            last = r.getTimestamp();
+        }
+
+        results = ds.getBenchmarkResults("app", 11000, 21000);
+        Assert.assertEquals(20, results.get("GET /foo").size());
+        ds.destroy();
+    }
+
+    @Test
+    public void testRequestInfo() throws Exception {
+        File dir = folder.newFolder("segments");
+        MappedDataStore ds = newDataStore(dir);
+        ds.ingest("app", "r1", newApiCall(1000, 1, "get", 5));
+        ds.ingest("app", "r1", newApiCall(1000, 0, "put", 10));
+        ds.ingest("app", "r2", newApiCall(500, 0, "put", 15));
+        ds.ingest("app", "r3", newApiCall(30000, 0, "put", 15));
+        ds.ingest(new AccessLogEntry("r1", 1010, "app", "GET", "/foo", 40));
+
+        ImmutableListMultimap<String,ApplicationRequest> requests = ds.getRequestInfo(
+                "app", 0, 20000);
+        ImmutableList<ApplicationRequest> foo = requests.get("GET /foo");
+        Assert.assertEquals(2, foo.size());
+        Assert.assertEquals("r2", foo.get(0).getRequestId());
+        Assert.assertEquals("r1", foo.get(1).getRequestId());
+        Assert.assertEquals("datastore:put, datastore:get", foo.get(1).getPathAsString());
+        Assert.assertEquals(15, foo.get(1).getResponseTime());
+
+        ImmutableList<ApplicationRequest> joined = ds.getRequestInfo("app", "GET /foo", 0, 20000);
+        Assert.assertEquals(1, joined.size());
+        Assert.assertEquals("r1", joined.get(0).getRequestId());
+        Assert.assertEquals(40, joined.get(0).getResponseTime());
+        Assert.assertTrue(ds.getRequestInfo("app", "POST /foo", 0, 20000).isEmpty());
+        ds.destroy();
+    }
+}
@@ -0,0 +1,103 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public class QueryMetricsTest {
+
+    private static final String SUMMARY_RESPONSE = "{\"hits\": {\"total\": 5, \"hits\": []}, " +
+            "\"aggregations\": {\"methods\": {\"buckets\": [{\"key\": \"get\", \"paths\": " +
+            "{\"buckets\": [{\"key\": \"/\", \"doc_count\": 5, \"avg_time\": {\"value\": 0.1}}]}}]}}}";
+
+    @Test
+    public void testRegistry() {
+        QueryMetrics metrics = new QueryMetrics();
+        QueryMetrics.Stats stats = metrics.get("FooQuery", "app");
+        Assert.assertSame(stats, metrics.get("FooQuery", "app"));
+        Assert.assertTrue(Double.isNaN(stats.getLatencyQuantile(0.5)));
+
+        stats.recordQuery(10000000L, false);
+        stats.recordQuery(30000000L, true);
+        stats.recordResponse(100L, 10);
+        stats.recordResponse(300L, 0);
+        stats.recordScrollPage();
+        Assert.assertEquals(2, stats.getQueries());
+        Assert.assertEquals(1, stats.getErrors());
+        Assert.assertEquals(2, stats.getRequests());
+        Assert.assertEquals(400, stats.getResponseBytes());
+        Assert.assertEquals(300, stats.getMaxResponseBytes());
+        Assert.assertEquals(10, stats.getHits());
+        Assert.assertEquals(1, stats.getScrollPages());
+        Assert.assertEquals(20.0, stats.getMeanLatencyMillis(), 1e-9);
+        Assert.assertEquals(30.0, stats.getLatencyQuantile(1.0), 30.0 * 0.01);
+
+        metrics.get("BarQuery", null).recordQuery(1000000L, false);
+        Assert.assertEquals(2, metrics.getStats().size());
+        Assert.assertEquals("BarQuery", metrics.getStats().get(0).getQueryType());
+        Assert.assertEquals("-", metrics.getStats().get(0).getApplication());
+        Assert.assertTrue(metrics.dump().contains("FooQuery[app] queries: 2, errors: 1"));
+
+        metrics.reset();
+        Assert.assertTrue(metrics.getStats().isEmpty());
+    }
+
+    @Test
+    public void testElasticSearchQueryMetrics() throws Exception {
+        byte[] response = SUMMARY_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().startsWith("/logs/app/")) {
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            } else {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        QueryMetrics metrics = new QueryMetrics();
+        ElasticSearchDataStore dataStore = new ElasticSearchDataStore(
+                ElasticSearchConfig.newBuilder()
+                        .setHost("localhost")
+                        .setPort(server.getAddress().getPort())
+                        .setAccessLogIndex("logs")
+                        .setQueryMetrics(metrics));
+        try {
+            ImmutableMap<String,ResponseTimeSummary> summary =
+                    dataStore.getResponseTimeSummary("app", 0, 60000);
+            Assert.assertEquals(5.0, summary.get("GET /").getRequestCount());
+            dataStore.getResponseTimeSummaryAsync("app", 0, 60000).get();
+            try {
+                dataStore.getResponseTimeSummary("other", 0, 60000);
+                Assert.fail("No error thrown for failed query");
+            } catch (DataStoreException expected) {
+            }
+
+            QueryMetrics.Stats stats = metrics.get("ResponseTimeSummaryQuery", "app");
+            Assert.assertEquals(2, stats.getQueries());
+            Assert.assertEquals(0, stats.getErrors());
+            Assert.assertEquals(2, stats.getRequests());
+            Assert.assertEquals(2L * response.length, stats.getResponseBytes());
+            Assert.assertEquals(response.length, stats.getMaxResponseBytes());
+            Assert.assertEquals(0, stats.getHits());
+            Assert.assertFalse(Double.isNaN(stats.getLatencyQuantile(0.5)));
+
+            stats = metrics.get("ResponseTimeSummaryQuery", "other");
+            Assert.assertEquals(1, stats.getQueries());
+            Assert.assertEquals(1, stats.getErrors());
+            Assert.assertEquals(0, stats.getRequests());
+        } finally {
+            dataStore.destroy();
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableTable;
+import junit.framework.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class ReplayDataStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class SourceDataStore implements DataStore {
+
+        private int calls = 0;
+
+        @Override
+        public ImmutableMap<String, ResponseTimeSummary> getResponseTimeSummary(
+                String application, long start, long end) throws DataStoreException {
+            calls++;
+            if (start < 0) {
+                throw new DataStoreException("Invalid start");
+            }
+            return ImmutableMap.of("GET /", new ResponseTimeSummary(start, 10.0 + calls, 5));
+        }
+
+        @Override
+        public ImmutableList<ApplicationRequest> getRequestInfo(
+                String application, String operation, long start, long end) {
+            ApiCall call = ApiCall.newBuilder()
+                    .setRequestTimestamp(start)
+                    .setTimestamp(start + 1)
+                    .setService("datastore")
+                    .setOperation("get")
+                    .setRequestOperation(operation)
+                    .setTimeElapsed(7)
+                    .setSequenceNumber(0)
+                    .build();
+            return ImmutableList.of(new ApplicationRequest("r" + start, start, application,
+                    operation, ImmutableList.of(call), 20));
+        }
+
+        @Override
+        public ImmutableTable<String, String, Integer> getPathDistribution(
+                String application, long start, long end) {
+            return ImmutableTable.of("GET /", "datastore:get", 3);
+        }
+
+        @Override
+        public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+                String application, long start, long end, long period) {
+            return ImmutableListMultimap.of("GET /", ResponseTimeRollup.of(start, 0.5, 10, 20, 400));
+        }
+
+        @Override
+        public ImmutableListMultimap<String, BenchmarkResult> getBenchmarkResults(
+                String application, long start, long end) {
+            return ImmutableListMultimap.of("GET /",
+                    new BenchmarkResult(start, application, "GET", "/", 12));
+        }
+    }
+
+    private File record() throws Exception {
+        File file = new File(folder.getRoot(), "recording.bin");
+        RecordingDataStore recorder = new RecordingDataStore(new SourceDataStore(), file);
+        recorder.getResponseTimeSummary("app", 1000, 2000);
+        recorder.getResponseTimeSummary("app", 1000, 2000);
+        recorder.getResponseTimeSummary("app", 2000, 3000);
+        try {
+            recorder.getResponseTimeSummary("app", -1, 2000);
+            Assert.fail("No error thrown");
+        } catch (DataStoreException expected) {
+        }
+        recorder.getRequestInfo("app", "GET /", 1000, 2000);
+        recorder.getPathDistribution("app", 1000, 2000);
+        recorder.getBenchmarkResults("app", 1000, 2000);
+        recorder.getResponseTimeRollups("app", 1000, 2000, 1000);
+        recorder.destroy();
+        return file;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        ReplayDataStore replay = ReplayDataStore.newBuilder().setFile(record()).build();
+        Assert.assertEquals(11.0, replay.getResponseTimeSummary("app", 1000, 2000)
+                .get("GET /").getMeanResponseTime());
+        Assert.assertEquals(12.0, replay.getResponseTimeSummary("app", 1000, 2000)
+                .get("GET /").getMeanResponseTime());
+        // Last recorded result is reused
+        Assert.assertEquals(12.0, replay.getResponseTimeSummary("app", 1000, 2000)
+                .get("GET /").getMeanResponseTime());
+        Assert.assertEquals(2000L, replay.getResponseTimeSummary("app", 2000, 3000)
+                .get("GET /").getTimestamp());
+
+        try {
+            replay.getResponseTimeSummary("app", -1, 2000);
+            Assert.fail("No error thrown");
+        } catch (DataStoreException e) {
+            Assert.assertEquals("Invalid start", e.getMessage());
+        }
+        try {
+            replay.getResponseTimeSummary("app", 5000, 6000);
+            Assert.fail("No error thrown");
+        } catch (DataStoreException expected) {
+        }
+
+        ImmutableList<ApplicationRequest> requests = replay.getRequestInfo(
+                "app", "GET /", 1000, 2000);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals("r1000", requests.get(0).getRequestId());
+        Assert.assertEquals(20, requests.get(0).getResponseTime());
+        Assert.assertEquals("datastore:get", requests.get(0).getPathAsString());
+        Assert.assertEquals(7, requests.get(0).getApiCalls().get(0).getTimeElapsed());
+
+        // Derived queries are served from the recorded calls
+        RequestBatch batch = replay.getRequestBatch("app", "GET /", 1000, 2000);
+        Assert.assertEquals(1, batch.size());
+
+        Assert.assertEquals(Integer.valueOf(3), replay.getPathDistribution("app", 1000, 2000)
+                .get("GET /", "datastore:get"));
+        BenchmarkResult result = replay.getBenchmarkResults("app", 1000, 2000).get("GET /").get(0);
+        Assert.assertEquals("app", result.getApplication());
+        Assert.assertEquals(12, result.getResponseTime());
+
+        ResponseTimeRollup expected = ResponseTimeRollup.of(1000, 0.5, 10, 20, 400);
+        ResponseTimeRollup rollup = replay.getResponseTimeRollups("app", 1000, 2000, 1000)
+                .get("GET /").get(0);
+        Assert.assertEquals(1000L, rollup.getTimestamp());
+        Assert.assertEquals(4, rollup.getCount());
+        Assert.assertEquals(expected.getSum(), rollup.getSum());
+        Assert.assertEquals(0.5, rollup.getMin());
+        Assert.assertEquals(400.0, rollup.getMax());
+        for (double q : new double[]{0.0, 0.5, 0.9, 1.0}) {
+            Assert.assertEquals(expected.getQuantile(q), rollup.getQuantile(q));
+        }
+    }
+
+    @Test
+    public void testSequentialReplay() throws Exception {
+        ReplayDataStore replay = ReplayDataStore.newBuilder()
+                .setFile(record())
+                .setSequential(true)
+                .build();
+        Assert.assertEquals(11.0, replay.getResponseTimeSummary("app", 7000, 8000)
+                .get("GET /").getMeanResponseTime());
+        Assert.assertEquals(12.0, replay.getResponseTimeSummary("app", 8000, 9000)
+                .get("GET /").getMeanResponseTime());
+        Assert.assertEquals(13.0, replay.getResponseTimeSummary("app", 9000, 10000)
+                .get("GET /").getMeanResponseTime());
+        try {
+            replay.getResponseTimeSummary("app", 10000, 11000);
+            Assert.fail("No error thrown");
+        } catch (DataStoreException e) {
+            Assert.assertEquals("Invalid start", e.getMessage());
+        }
+        try {
+            replay.getResponseTimeSummary("app", 11000, 12000);
+            Assert.fail("No error thrown for exhausted recording");
+        } catch (DataStoreException expected) {
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class RequestBatchTest {
+
+    private ApiCall newApiCall(long timestamp, String service, String op, int timeElapsed) {
+        return ApiCall.newBuilder()
+                .setRequestTimestamp(timestamp)
+                .setTimestamp(timestamp)
+                .setService(service)
+                .setOperation(op)
+                .setTimeElapsed(timeElapsed)
+                .setRequestOperation("GET /test")
+                .build();
+    }
+
+    private ApplicationRequest newRequest(long timestamp, int responseTime, int... timings) {
+        ImmutableList.Builder<ApiCall> calls = ImmutableList.builder();
+        for (int i = 0; i < timings.length; i++) {
+            calls.add(newApiCall(timestamp, "foo", "op" + i, timings[i]));
+        }
+        return new ApplicationRequest("r" + timestamp, timestamp, "app", "GET /test",
+                calls.build(), responseTime);
+    }
+
+    @Test
+    public void testFromRequests() {
+        ImmutableList<ApplicationRequest> requests = ImmutableList.of(
+                newRequest(300, 50, 10, 20),
+                newRequest(100, 40, 10, 5),
+                newRequest(200, 30, 15),
+                newRequest(150, 20, 10, 2));
+        RequestBatch batch = RequestBatch.of("app", "GET /test", requests);
+        Assert.assertEquals(4, batch.size());
+        Assert.assertEquals(2, batch.getPaths().size());
+        Assert.assertEquals(ImmutableList.of("foo:op0", "foo:op1"), batch.getCallNames());
+
+        RequestBatch.Path path = batch.getPaths().get(0);
+        Assert.assertEquals(requests.get(0).getPathAsString(), path.getPathAsString());
+        Assert.assertEquals(3, path.size());
+        Assert.assertEquals(2, path.getCallCount());
+        Assert.assertEquals(100L, path.getTimestamp(0));
+        Assert.assertEquals(150L, path.getTimestamp(1));
+        Assert.assertEquals(300L, path.getTimestamp(2));
+        Assert.assertEquals(20, path.getTimeElapsed(1, 2));
+        Assert.assertEquals(8, path.getLocalTime(1));
+
+        int[] vector = path.getResponseTimeVector(0);
+        Assert.assertEquals(3, vector.length);
+        Assert.assertEquals(10, vector[0]);
+        Assert.assertEquals(5, vector[1]);
+        Assert.assertEquals(25, vector[2]);
+
+        double[] totals = path.getTotalTimeVector(0);
+        Assert.assertEquals(40.0, totals[2]);
+
+        RequestBatch.Path other = batch.getPaths().get(1);
+        Assert.assertEquals("foo:op0", other.getPathAsString());
+        Assert.assertEquals(1, other.size());
+        Assert.assertEquals(15, other.getLocalTime(0));
+    }
+
+    @Test
+    public void testSliceAndGroupByTime() {
+        RequestBatch.Builder builder = RequestBatch.newBuilder("app", "GET /test");
+        ImmutableList<String> names = ImmutableList.of("foo:bar");
+        for (long t = 0; t < 10; t++) {
+            builder.add(t * 100, 10, names, new int[]{(int) t});
+        }
+        RequestBatch.Path path = builder.build().getPaths().get(0);
+        Assert.assertEquals(3, path.indexOf(250));
+        Assert.assertEquals(3, path.indexOf(300));
+        Assert.assertEquals(10, path.indexOf(5000));
+
+        RequestBatch.Path slice = path.slice(3, 6);
+        Assert.assertEquals(3, slice.size());
+        Assert.assertEquals(300L, slice.getTimestamp(0));
+        Assert.assertEquals(5, slice.getTimeElapsed(0, 2));
+        Assert.assertEquals(1, slice.indexOf(400));
+        try {
+            slice.getTimestamp(3);
+            Assert.fail("No error thrown for out of range row");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        ImmutableSortedMap<Long,RequestBatch.Path> groups = path.groupByTime(50, 300);
+        Assert.assertEquals(ImmutableList.of(-250L, 50L, 350L, 650L),
+                groups.keySet().asList());
+        Assert.assertEquals(1, groups.get(-250L).size());
+        Assert.assertEquals(3, groups.get(50L).size());
+        Assert.assertEquals(100L, groups.get(50L).getTimestamp(0));
+        Assert.assertEquals(3, groups.get(650L).size());
+        Assert.assertEquals(900L, groups.get(650L).getTimestamp(2));
+    }
+}
@@ -0,0 +1,118 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+import static edu.ucsb.cs.roots.data.SyntheticWorkload.call;
+
+public class RollupDataStoreTest {
+
+    private static class CountingDataStore extends RandomDataStore {
+
+        private int rollupCalls = 0;
+        private int historyCalls = 0;
+
+        private CountingDataStore() {
+            super(SyntheticWorkload.newBuilder()
+                    .addOperation("GET /", 5.0, 5, 5)
+                    .addPath("GET /", 1.0, call("datastore", "get", 20, 10))
+                    .build());
+        }
+
+        @Override
+        public ImmutableListMultimap<String, ResponseTimeRollup> getResponseTimeRollups(
+                String application, long start, long end, long period) {
+            rollupCalls++;
+            return super.getResponseTimeRollups(application, start, end, period);
+        }
+
+        @Override
+        public ImmutableListMultimap<String, ResponseTimeSummary> getResponseTimeHistory(
+                String application, long start, long end, long period) {
+            historyCalls++;
+            return super.getResponseTimeHistory(application, start, end, period);
+        }
+    }
+
+    @Test
+    public void testRollups() throws Exception {
+        CountingDataStore delegate = new CountingDataStore();
+        RollupDataStore rollups = RollupDataStore.newBuilder()
+                .setDelegate(delegate)
+                .build();
+        long end = System.currentTimeMillis() - 10 * 60 * 1000L;
+        end -= end % 60000L;
+        long start = end - 30 * 60 * 1000L;
+
+        ImmutableListMultimap<String,ResponseTimeSummary> history =
+                rollups.getResponseTimeHistory("app", start, end, 60000L);
+        List<ResponseTimeSummary> expected = delegate.getResponseTimeHistory(
+                "app", start, end, 60000L).get("GET /");
+        Assert.assertEquals(1, delegate.rollupCalls);
+        Assert.assertEquals(30, history.get("GET /").size());
+        for (int i = 0; i < expected.size(); i++) {
+            ResponseTimeSummary s = history.get("GET /").get(i);
+            Assert.assertEquals(expected.get(i).getTimestamp(), s.getTimestamp());
+            Assert.assertEquals(expected.get(i).getRequestCount(), s.getRequestCount());
+            Assert.assertEquals(expected.get(i).getMeanResponseTime(),
+                    s.getMeanResponseTime(), 1e-9);
+        }
+
+        // Coarser periods and shorter histories are served from the stored rollups
+        history = rollups.getResponseTimeHistory("app", start + 60000L, end - 60000L, 120000L);
+        Assert.assertEquals(1, delegate.rollupCalls);
+        Assert.assertEquals(14, history.get("GET /").size());
+        Assert.assertEquals(start + 60000L, history.get("GET /").get(0).getTimestamp());
+        Assert.assertEquals(
+                expected.get(1).getRequestCount() + expected.get(2).getRequestCount(),
+                history.get("GET /").get(0).getRequestCount());
+
+        ImmutableMap<String,ResponseTimeSummary> summary = rollups.getResponseTimeSummary(
+                "app", start, end);
+        Assert.assertEquals(1, delegate.rollupCalls);
+        Assert.assertEquals(expected.stream().mapToDouble(ResponseTimeSummary::getRequestCount)
+                .sum(), summary.get("GET /").getRequestCount());
+
+        ResponseTimeRollup rollup = rollups.getResponseTimeRollups("app", start, end, end - start)
+                .get("GET /").get(0);
+        Assert.assertTrue(rollup.getMin() <= rollup.getQuantile(0.5));
+        Assert.assertTrue(rollup.getQuantile(0.5) <= rollup.getMax());
+        Assert.assertTrue(rollup.getMax() <= 45);
+
+        // Only the new period is fetched
+        rollups.getResponseTimeSummary("app", end, end + 60000L);
+        Assert.assertEquals(2, delegate.rollupCalls);
+        rollups.getResponseTimeHistory("app", start, end + 60000L, 60000L);
+        Assert.assertEquals(2, delegate.rollupCalls);
+
+        // Unaligned and recent windows are passed through
+        int historyCalls = delegate.historyCalls;
+        rollups.getResponseTimeHistory("app", start + 1, end, 60000L);
+        rollups.getResponseTimeHistory("app", end, System.currentTimeMillis(), 60000L);
+        Assert.assertEquals(historyCalls + 2, delegate.historyCalls);
+        Assert.assertEquals(2, delegate.rollupCalls);
+    }
+
+    @Test
+    public void testLatencySketch() {
+        LatencySketch first = new LatencySketch();
+        LatencySketch second = new LatencySketch();
+        for (int i = 1; i <= 1000; i++) {
+            first.add(i);
+            second.add(i * 10);
+        }
+        Assert.assertEquals(500.0, first.getQuantile(0.5), 500.0 * 0.01);
+        Assert.assertEquals(990.0, first.getQuantile(0.99), 990.0 * 0.01);
+
+        first.merge(second);
+        Assert.assertEquals(2000L, first.getCount());
+        // 1..1000 and 10..10000 overlap below 1000, so the median is ~909
+        Assert.assertEquals(909.0, first.getQuantile(0.5), 909.0 * 0.01);
+        Assert.assertEquals(9800.0, first.getQuantile(0.99), 9800.0 * 0.01);
+        Assert.assertTrue(Double.isNaN(new LatencySketch().getQuantile(0.5)));
+    }
+}
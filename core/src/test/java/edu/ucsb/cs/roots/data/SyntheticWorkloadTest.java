@@ -0,0 +1,118 @@
+package edu.ucsb.cs.roots.data;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableTable;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static edu.ucsb.cs.roots.data.SyntheticWorkload.call;
+
+public class SyntheticWorkloadTest {
+
+    private SyntheticWorkload.Builder newWorkload(long seed) {
+        return SyntheticWorkload.newBuilder()
+                .setSeed(seed)
+                .addOperation("GET /", 50.0, 5, 2)
+                .addPath("GET /", 0.9, call("datastore", "get", 10, 5))
+                .addPath("GET /", 0.1, call("datastore", "get", 10, 5),
+                        call("datastore", "put", 20, 5));
+    }
+
+    @Test
+    public void testDeterminism() {
+        SyntheticWorkload w1 = newWorkload(42L).build();
+        SyntheticWorkload w2 = newWorkload(42L).build();
+        List<ApplicationRequest> r1 = w1.requests("app", "GET /", 1000, 11000)
+                .collect(Collectors.toList());
+        List<ApplicationRequest> r2 = w2.requests("app", "GET /", 1000, 11000)
+                .collect(Collectors.toList());
+        Assert.assertEquals(500, r1.size());
+        Assert.assertEquals(r1.size(), r2.size());
+        long last = 0L;
+        for (int i = 0; i < r1.size(); i++) {
+            ApplicationRequest r = r1.get(i);
+            Assert.assertEquals(r.getRequestId(), r2.get(i).getRequestId());
+            Assert.assertEquals(r.getTimestamp(), r2.get(i).getTimestamp());
+            Assert.assertEquals(r.getResponseTime(), r2.get(i).getResponseTime());
+            Assert.assertEquals(r.getPathAsString(), r2.get(i).getPathAsString());
+            Assert.assertTrue(r.getTimestamp() >= last);
+            Assert.assertTrue(r.getTimestamp() >= 1000 && r.getTimestamp() < 11000);
+            last = r.getTimestamp();
+        }
+
+        // Requests do not depend on the query window
+        List<ApplicationRequest> partial = w1.requests("app", "GET /", 1500, 2500)
+                .collect(Collectors.toList());
+        List<ApplicationRequest> expected = r1.stream()
+                .filter(r -> r.getTimestamp() >= 1500 && r.getTimestamp() < 2500)
+                .collect(Collectors.toList());
+        Assert.assertEquals(expected.size(), partial.size());
+        Assert.assertEquals(expected.size(), w1.count("GET /", 1500, 2500));
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getRequestId(), partial.get(i).getRequestId());
+            Assert.assertEquals(expected.get(i).getResponseTime(),
+                    partial.get(i).getResponseTime());
+        }
+
+        SyntheticWorkload w3 = newWorkload(43L).build();
+        List<Long> timestamps = r1.stream().map(ApplicationRequest::getTimestamp)
+                .collect(Collectors.toList());
+        Assert.assertFalse(timestamps.equals(w3.requests("app", "GET /", 1000, 11000)
+                .map(ApplicationRequest::getTimestamp).collect(Collectors.toList())));
+        Assert.assertEquals(0L, w1.requests("app", "POST /", 1000, 11000).count());
+    }
+
+    @Test
+    public void testInjectedAnomalies() {
+        SyntheticWorkload workload = newWorkload(7L)
+                .injectLatency("GET /", "datastore:get", 10000, 20000, 10.0)
+                .injectWorkload("GET /", 20000, 30000, 4.0)
+                .injectPathShift("GET /", 1, 30000, 40000, 81.0)
+                .build();
+
+        double normal = workload.requests("app", "GET /", 0, 10000)
+                .mapToInt(ApplicationRequest::getResponseTime).average().getAsDouble();
+        double slow = workload.requests("app", "GET /", 10000, 20000)
+                .mapToInt(ApplicationRequest::getResponseTime).average().getAsDouble();
+        Assert.assertTrue(normal < 20);
+        Assert.assertTrue(slow > 80);
+
+        Assert.assertEquals(500L, workload.count("GET /", 10000, 20000));
+        Assert.assertEquals(2000L, workload.count("GET /", 20000, 30000));
+        Assert.assertEquals(2000L, workload.requests("app", "GET /", 20000, 30000).count());
+
+        long shifted = workload.requests("app", "GET /", 30000, 40000)
+                .filter(r -> r.getApiCalls().size() == 2).count();
+        long unshifted = workload.requests("app", "GET /", 0, 10000)
+                .filter(r -> r.getApiCalls().size() == 2).count();
+        Assert.assertTrue(unshifted < 100);
+        Assert.assertTrue(shifted > 400);
+    }
+
+    @Test
+    public void testRandomDataStore() throws Exception {
+        RandomDataStore dataStore = new RandomDataStore(newWorkload(1L).build());
+        ImmutableList<Double> workload = dataStore.getWorkloadSummary("app", "GET /", 0, 10000,
+                1000);
+        Assert.assertEquals(10, workload.size());
+        workload.forEach(w -> Assert.assertEquals(50.0, w));
+
+        ResponseTimeSummary summary = dataStore.getResponseTimeSummary("app", 0, 10000)
+                .get("GET /");
+        Assert.assertEquals(500.0, summary.getRequestCount());
+        Assert.assertEquals(10, dataStore.getResponseTimeHistory("app", 0, 10000, 1000)
+                .get("GET /").size());
+
+        ImmutableTable<String,String,Integer> paths = dataStore.getPathDistribution(
+                "app", 0, 10000);
+        Assert.assertEquals(500, paths.row("GET /").values().stream()
+                .mapToInt(Integer::intValue).sum());
+        Assert.assertEquals(2, paths.row("GET /").size());
+
+        Assert.assertEquals(1, dataStore.getBenchmarkResults("app", 1, 30001).keySet().size());
+        Assert.assertEquals(2, dataStore.getBenchmarkResults("app", 1, 30001).size());
+    }
+}
@@ -1,12 +1,20 @@
 package edu.ucsb.cs.roots.data.es;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableTable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
 import edu.ucsb.cs.roots.data.ElasticSearchConfig;
+import edu.ucsb.cs.roots.data.RequestBatch;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
 public class QueryTest {
 
     private static final ElasticSearchConfig config = ElasticSearchConfig.newBuilder()
@@ -204,9 +212,200 @@ public class QueryTest {
                 .getAsString());
     }
 
+    @Test
+    public void testSlicedScrollQuery() {
+        ElasticSearchConfig slicedConfig = ElasticSearchConfig.newBuilder()
+                .setHost("test.host.com")
+                .setPort(9200)
+                .setPageSize(1000)
+                .build();
+        String string = BenchmarkResultsQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .build().jsonString(slicedConfig);
+        JsonObject element = parseString(Query.sliceQuery(string, 2, 4));
+        Assert.assertEquals(1000, element.get("size").getAsInt());
+
+        JsonObject slice = element.getAsJsonObject("slice");
+        Assert.assertEquals(2, slice.get("id").getAsInt());
+        Assert.assertEquals(4, slice.get("max").getAsInt());
+        Assert.assertEquals("asc", element.getAsJsonObject("sort").get("timestamp").getAsString());
+    }
+
     private JsonObject parseString(String s) {
         JsonParser parser = new JsonParser();
         return parser.parse(s).getAsJsonObject();
     }
 
+    @Test
+    public void testAccessLogByOperationQuery() {
+        RequestInfoByOperationQuery query = RequestInfoByOperationQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .setOperation("GET /bar")
+                .build();
+        JsonObject element = parseString(query.accessLogQuery(config));
+        JsonArray filters = element.getAsJsonObject("query").getAsJsonObject("bool")
+                .getAsJsonArray("filter");
+        Assert.assertEquals(3, filters.size());
+        JsonArray methods = filters.get(1).getAsJsonObject().getAsJsonObject("terms")
+                .getAsJsonArray("method");
+        Assert.assertEquals("GET", methods.get(0).getAsString());
+        Assert.assertEquals("get", methods.get(1).getAsString());
+        Assert.assertEquals("/bar", filters.get(2).getAsJsonObject().getAsJsonObject("term")
+                .get("path").getAsString());
+        Assert.assertEquals(2, element.getAsJsonArray("_source").size());
+
+        // Operations not of the form "METHOD path" scan the whole access log
+        query = RequestInfoByOperationQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .setOperation("bar")
+                .build();
+        element = parseString(query.accessLogQuery(config));
+        Assert.assertTrue(element.getAsJsonObject("query").getAsJsonObject("bool")
+                .get("filter").isJsonObject());
+    }
+
+    @Test
+    public void testQueryType() {
+        RequestInfoByOperationQuery.Builder builder = RequestInfoByOperationQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .setOperation("GET /");
+        Assert.assertEquals("RequestInfoByOperationQuery",
+                builder.build().getStats(config).getQueryType());
+        Assert.assertEquals("RequestBatchQuery", builder.setQueryType("RequestBatchQuery")
+                .build().getStats(config).getQueryType());
+        Assert.assertEquals("RequestBatchQuery", RequestBatchQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .setOperation("GET /")
+                .build().getStats(config).getQueryType());
+    }
+
+    @Test
+    public void testBenchmarkResultHandler() throws Exception {
+        BenchmarkResultsQuery query = BenchmarkResultsQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .build();
+        BenchmarkResultsQuery.BenchmarkResultHandler handler =
+                query.new BenchmarkResultHandler(config);
+        handler.handle(new JsonReader(new StringReader("{\"timestamp\": 10, " +
+                "\"method\": \"GET\", \"path\": \"/\", \"responseTime\": 0}")));
+        String[] incomplete = {
+                "{\"method\": \"GET\", \"path\": \"/\", \"responseTime\": 5}",
+                "{\"timestamp\": 10, \"method\": \"GET\", \"path\": \"/\"}",
+                "{\"timestamp\": 10, \"path\": \"/\", \"responseTime\": 5}",
+        };
+        for (String hit : incomplete) {
+            try {
+                handler.handle(new JsonReader(new StringReader(hit)));
+                Assert.fail("No exception thrown for incomplete hit: " + hit);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testAccessLogDecoder() throws Exception {
+        AccessLogDecoder decoder = new AccessLogDecoder(config);
+        decoder.handle(new JsonReader(new StringReader(
+                "{\"request_id\": \"r1\", \"responseTime\": 0.25, \"other\": [1, 2]}")));
+        decoder.handle(new JsonReader(new StringReader(
+                "{\"request_id\": null, \"responseTime\": 0.5}")));
+        Assert.assertEquals(1, decoder.size());
+        Assert.assertEquals(250, decoder.getResponseTime(decoder.find("r1")));
+        Assert.assertEquals(-1, decoder.find("r2"));
+
+        AccessLogDecoder other = new AccessLogDecoder(config);
+        for (int i = 0; i < 1000; i++) {
+            other.handle(new JsonReader(new StringReader(
+                    "{\"request_id\": \"s" + i + "\", \"responseTime\": " + i + "}")));
+        }
+        decoder = AccessLogDecoder.merge(Arrays.asList(decoder, other));
+        Assert.assertEquals(1001, decoder.size());
+        Assert.assertEquals(250, decoder.getResponseTime(decoder.find("r1")));
+        Assert.assertEquals(999000, decoder.getResponseTime(decoder.find("s999")));
+    }
+
+    @Test
+    public void testApiCallDecoder() throws Exception {
+        ApiCallDecoder decoder = new ApiCallDecoder(config);
+        ApiCallDecoder other = new ApiCallDecoder(config);
+        // Calls of r1 and r2 are interleaved, and scattered across slices
+        decoder.handle(apiCall("r2", 1000, 0, "s", "b", 5));
+        decoder.handle(apiCall("r1", 1000, 1, "s", "b", 2));
+        other.handle(apiCall("r1", 1000, 0, "s", "a", 1));
+        other.handle(apiCall("r2", 1000, 1, "s", "c", 6));
+        other.handle(apiCall("r3", 2000, 0, "s", "a", 7));
+        other.handle(apiCall("r4", 3000, 0, "s", "a", 9));
+        decoder = ApiCallDecoder.merge(Arrays.asList(decoder, other));
+        Assert.assertEquals(6, decoder.size());
+
+        AccessLogDecoder accessLog = new AccessLogDecoder(config);
+        for (String requestId : new String[]{"r1", "r2", "r3"}) {
+            accessLog.handle(new JsonReader(new StringReader(
+                    "{\"request_id\": \"" + requestId + "\", \"responseTime\": 0.02}")));
+        }
+        RequestBatch.Builder builder = RequestBatch.newBuilder("app", "GET /");
+        Assert.assertEquals(3, decoder.addTo(builder, accessLog));
+        RequestBatch batch = builder.build();
+        Assert.assertEquals(3, batch.size());
+        Assert.assertEquals(ImmutableList.of("s:a", "s:b", "s:c"), batch.getCallNames());
+        Assert.assertEquals(3, batch.getPaths().size());
+        RequestBatch.Path path = batch.getPaths().get(0);
+        Assert.assertEquals("s:a, s:b", path.getPathAsString());
+        Assert.assertEquals(1000, path.getTimestamp(0));
+        Assert.assertEquals(20, path.getResponseTime(0));
+        Assert.assertEquals(2, path.getTimeElapsed(1, 0));
+        Assert.assertEquals("s:b, s:c", batch.getPaths().get(1).getPathAsString());
+        Assert.assertEquals("s:a", batch.getPaths().get(2).getPathAsString());
+
+        try {
+            decoder.handle(new JsonReader(new StringReader("{\"requestId\": \"r5\"}")));
+            Assert.fail("No error thrown for incomplete API call");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static JsonReader apiCall(String requestId, long requestTimestamp,
+                                      int sequenceNumber, String service, String operation,
+                                      int elapsed) {
+        return new JsonReader(new StringReader(String.format("{\"requestId\": \"%s\", " +
+                "\"requestTimestamp\": %d, \"timestamp\": %d, \"sequenceNumber\": %d, " +
+                "\"service\": \"%s\", \"operation\": \"%s\", \"elapsed\": %d}",
+                requestId, requestTimestamp, requestTimestamp + sequenceNumber, sequenceNumber,
+                service, operation, elapsed)));
+    }
+
+    @Test
+    public void testPathDistributionQuery() {
+        String string = PathDistributionQuery.newBuilder()
+                .setStart(0)
+                .setEnd(100)
+                .setApplication("foo")
+                .build().jsonString(config);
+        JsonObject element = parseString(string);
+        Assert.assertEquals(0, element.get("size").getAsInt());
+        JsonObject params = element.getAsJsonObject("aggs").getAsJsonObject("paths")
+                .getAsJsonObject("scripted_metric").getAsJsonObject("params");
+        Assert.assertEquals("requestId", params.get("requestId").getAsString());
+        Assert.assertEquals("sequenceNumber", params.get("sequenceNumber").getAsString());
+
+        JsonObject response = parseString("{\"aggregations\": {\"paths\": {\"value\": " +
+                "{\"GET /\": {\"a:b, c:d\": 3, \"a:b\": 1}, \"POST /\": {\"\": 2}}}}}");
+        ImmutableTable<String,String,Integer> paths = PathDistributionQuery
+                .parsePathDistribution(response);
+        Assert.assertEquals(3, paths.size());
+        Assert.assertEquals(3, (int) paths.get("GET /", "a:b, c:d"));
+        Assert.assertEquals(2, (int) paths.get("POST /", ""));
+    }
 }
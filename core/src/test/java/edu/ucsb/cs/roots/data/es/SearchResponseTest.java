@@ -0,0 +1,60 @@
+package edu.ucsb.cs.roots.data.es;
+
+import com.google.gson.stream.JsonReader;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SearchResponseTest {
+
+    @Test
+    public void testScrollPage() throws IOException {
+        String json = "{\"_scroll_id\":\"abc123\",\"took\":5,\"timed_out\":false," +
+                "\"_shards\":{\"total\":5,\"successful\":5,\"failed\":0}," +
+                "\"hits\":{\"total\":10,\"max_score\":null,\"hits\":[" +
+                "{\"_index\":\"i\",\"_type\":\"t\",\"_id\":\"1\",\"_score\":null," +
+                "\"_source\":{\"name\":\"a\",\"nested\":{\"x\":[1,2]},\"value\":1}," +
+                "\"sort\":[1]}," +
+                "{\"_index\":\"i\",\"_type\":\"t\",\"_id\":\"2\",\"_score\":null," +
+                "\"_source\":{\"value\":2,\"name\":null}}]}}";
+        List<String> names = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        SearchResponse response = SearchResponse.parse(new JsonReader(new StringReader(json)),
+                source -> {
+                    source.beginObject();
+                    while (source.hasNext()) {
+                        String name = source.nextName();
+                        if ("name".equals(name)) {
+                            names.add(SearchResponse.nextNullableString(source));
+                        } else if ("value".equals(name)) {
+                            values.add(source.nextInt());
+                        } else {
+                            source.skipValue();
+                        }
+                    }
+                    source.endObject();
+                });
+        Assert.assertEquals("abc123", response.getScrollId());
+        Assert.assertEquals(10L, response.getTotal());
+        Assert.assertEquals(2, response.getHits());
+        Assert.assertEquals(2, names.size());
+        Assert.assertEquals("a", names.get(0));
+        Assert.assertNull(names.get(1));
+        Assert.assertEquals(1, values.get(0).intValue());
+        Assert.assertEquals(2, values.get(1).intValue());
+    }
+
+    @Test
+    public void testObjectTotal() throws IOException {
+        String json = "{\"hits\":{\"total\":{\"value\":42,\"relation\":\"eq\"},\"hits\":[]}}";
+        SearchResponse response = SearchResponse.parse(new JsonReader(new StringReader(json)),
+                source -> Assert.fail("Unexpected hit"));
+        Assert.assertNull(response.getScrollId());
+        Assert.assertEquals(42L, response.getTotal());
+        Assert.assertEquals(0, response.getHits());
+    }
+}
@@ -0,0 +1,143 @@
+package edu.ucsb.cs.roots.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DynamicTimeWarpingTest {
+
+    /**
+     * Straightforward implementation of R's dtw(x, y)$distance, with the symmetric2 step
+     * pattern, over the full cost matrix.
+     */
+    private static double reference(double[] x, double[] y, int window) {
+        int n = x.length, m = y.length;
+        double[][] g = new double[n][m];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                double d = Math.abs(x[i] - y[j]);
+                if (window >= 0 && Math.abs(i - j) > window) {
+                    g[i][j] = Double.POSITIVE_INFINITY;
+                } else if (i == 0 && j == 0) {
+                    g[i][j] = d;
+                } else {
+                    double diag = i > 0 && j > 0 ? g[i - 1][j - 1] + 2 * d : Double.POSITIVE_INFINITY;
+                    double left = j > 0 ? g[i][j - 1] + d : Double.POSITIVE_INFINITY;
+                    double up = i > 0 ? g[i - 1][j] + d : Double.POSITIVE_INFINITY;
+                    g[i][j] = Math.min(diag, Math.min(left, up));
+                }
+            }
+        }
+        return g[n - 1][m - 1];
+    }
+
+    private static double[] randomSeries(Random random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble() * 100.0;
+        }
+        return values;
+    }
+
+    @Test
+    public void testDistance() {
+        DynamicTimeWarping dtw = new DynamicTimeWarping();
+        // Same as dtw(c(1,2,3), c(2,2,2))$distance in R
+        Assert.assertEquals(2.0, dtw.distance(new double[]{1, 2, 3}, new double[]{2, 2, 2}));
+        Assert.assertEquals(0.0, dtw.distance(new double[]{1, 2, 3}, new double[]{1, 2, 2, 3}));
+        Assert.assertEquals(4.0, dtw.distance(new double[]{5}, new double[]{1}));
+
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            double[] x = randomSeries(random, 1 + random.nextInt(40));
+            double[] y = randomSeries(random, 1 + random.nextInt(40));
+            double expected = reference(x, y, -1);
+            Assert.assertEquals(expected, dtw.distance(x, y), expected * 1e-9);
+        }
+    }
+
+    @Test
+    public void testWindow() {
+        Random random = new Random(7);
+        double[] x = randomSeries(random, 30);
+        double[] y = randomSeries(random, 30);
+        for (int window : new int[]{0, 1, 3, 10, 29}) {
+            DynamicTimeWarping dtw = new DynamicTimeWarping(window, false);
+            double expected = reference(x, y, window);
+            Assert.assertEquals(expected, dtw.distance(x, y), expected * 1e-9);
+        }
+
+        // A zero-width band only allows the diagonal
+        double diagonal = Math.abs(x[0] - y[0]);
+        for (int i = 1; i < x.length; i++) {
+            diagonal += 2 * Math.abs(x[i] - y[i]);
+        }
+        Assert.assertEquals(diagonal, new DynamicTimeWarping(0, false).distance(x, y), 1e-9);
+
+        try {
+            new DynamicTimeWarping(2, false).distance(new double[5], new double[10]);
+            Assert.fail("No error thrown for unreachable end point");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testEarlyAbandoning() {
+        Random random = new Random(11);
+        double[] x = randomSeries(random, 25);
+        double[] y = randomSeries(random, 25);
+        DynamicTimeWarping dtw = new DynamicTimeWarping();
+        double distance = dtw.distance(x, y);
+        Assert.assertEquals(distance, dtw.distance(x, y, distance));
+        Assert.assertEquals(Double.POSITIVE_INFINITY, dtw.distance(x, y, distance / 2));
+
+        // Buffers are reused across calls of different lengths
+        Assert.assertEquals(reference(new double[]{1, 2}, new double[]{3, 1, 2}, -1),
+                dtw.distance(new double[]{1, 2}, new double[]{3, 1, 2}));
+        Assert.assertEquals(distance, dtw.distance(x, y));
+        Assert.assertEquals(reference(new double[]{x[0], x[1], x[2]},
+                new double[]{y[0], y[1], y[2]}, -1), dtw.distance(x, 3, y, 3,
+                Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void testNormalization() {
+        double[] x = {10, 20, 30, 20, 10, 20, 30};
+        double[] y = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            y[i] = 3 * x[i] + 100;
+        }
+        DynamicTimeWarping dtw = new DynamicTimeWarping(DynamicTimeWarping.NO_WINDOW, true);
+        Assert.assertEquals(0.0, dtw.distance(x, y), 1e-9);
+        Assert.assertTrue(new DynamicTimeWarping().distance(x, y) > 0);
+        Assert.assertEquals(0.0, dtw.distance(new double[]{5, 5, 5}, new double[]{1, 1, 1}));
+    }
+
+    @Test
+    public void testIncremental() {
+        Random random = new Random(3);
+        double[] x = randomSeries(random, 100);
+        double[] y = randomSeries(random, 100);
+        for (int window : new int[]{DynamicTimeWarping.NO_WINDOW, 0, 2, 15}) {
+            DynamicTimeWarping dtw = new DynamicTimeWarping(window, false);
+            IncrementalDynamicTimeWarping incremental = new IncrementalDynamicTimeWarping(window);
+            for (int k = 1; k <= x.length; k++) {
+                double expected = dtw.distance(x, k, y, k, Double.POSITIVE_INFINITY);
+                Assert.assertEquals(expected, incremental.append(x[k - 1], y[k - 1]),
+                        expected * 1e-9);
+                Assert.assertEquals(k, incremental.size());
+            }
+            Assert.assertEquals(reference(x, y, window), incremental.distance(),
+                    incremental.distance() * 1e-9);
+        }
+
+        IncrementalDynamicTimeWarping incremental = new IncrementalDynamicTimeWarping();
+        incremental.append(100, 0);
+        incremental.reset();
+        Assert.assertEquals(0, incremental.size());
+        incremental.append(1, 2);
+        incremental.append(2, 2);
+        Assert.assertEquals(2.0, incremental.append(3, 2));
+    }
+}
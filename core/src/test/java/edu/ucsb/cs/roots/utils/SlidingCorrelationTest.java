@@ -0,0 +1,102 @@
+package edu.ucsb.cs.roots.utils;
+
+import junit.framework.Assert;
+import org.apache.commons.math3.stat.correlation.Covariance;
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.stat.descriptive.moment.Mean;
+import org.apache.commons.math3.stat.descriptive.moment.Variance;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SlidingCorrelationTest {
+
+    @Test
+    public void testSlidingWindow() {
+        Random random = new Random(17);
+        int length = 500, window = 60;
+        double[] x = new double[length];
+        double[] y = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = 1000 + random.nextInt(200);
+            y[i] = 0.05 * x[i] + random.nextGaussian() * 5 + (i > 300 ? 40 : 0);
+        }
+
+        SlidingCorrelation correlation = new SlidingCorrelation();
+        for (int i = 0; i < length; i++) {
+            correlation.add(x[i], y[i]);
+            if (i >= window) {
+                correlation.remove(x[i - window], y[i - window]);
+            }
+            int start = Math.max(0, i - window + 1);
+            double[] xs = Arrays.copyOfRange(x, start, i + 1);
+            double[] ys = Arrays.copyOfRange(y, start, i + 1);
+            Assert.assertEquals(xs.length, correlation.getCount());
+            Assert.assertEquals(new Mean().evaluate(xs), correlation.getMeanX(), 1e-9);
+            Assert.assertEquals(new Mean().evaluate(ys), correlation.getMeanY(), 1e-9);
+            if (xs.length > 2) {
+                Assert.assertEquals(new Variance().evaluate(xs), correlation.getVarianceX(), 1e-6);
+                Assert.assertEquals(new Variance().evaluate(ys), correlation.getVarianceY(), 1e-6);
+                Assert.assertEquals(new Covariance().covariance(xs, ys),
+                        correlation.getCovariance(), 1e-6);
+                Assert.assertEquals(new PearsonsCorrelation().correlation(xs, ys),
+                        correlation.getCorrelation(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testUndefinedCorrelation() {
+        SlidingCorrelation correlation = new SlidingCorrelation();
+        Assert.assertTrue(Double.isNaN(correlation.getCorrelation()));
+        correlation.add(1, 2);
+        Assert.assertTrue(Double.isNaN(correlation.getCorrelation()));
+        Assert.assertTrue(Double.isNaN(correlation.getVarianceX()));
+
+        // Constant series
+        correlation.add(2, 2);
+        correlation.add(3, 2);
+        Assert.assertTrue(Double.isNaN(correlation.getCorrelation()));
+
+        correlation.remove(1, 2);
+        correlation.remove(2, 2);
+        correlation.remove(3, 2);
+        Assert.assertEquals(0, correlation.getCount());
+        correlation.add(1, 10);
+        correlation.add(2, 20);
+        correlation.add(3, 30);
+        Assert.assertEquals(1.0, correlation.getCorrelation(), 1e-12);
+        correlation.add(4, -100);
+        Assert.assertTrue(correlation.getCorrelation() < 0);
+    }
+
+    @Test
+    public void testSlideIntoConstantWindow() {
+        // Varying values (start, spread), followed by a constant that leaves rounding errors
+        // behind once the varying values slide out of the window
+        double[][] cases = {{1234567.891, 1e5, 1234567.891}, {123.7, 50, 123.7}, {0, 1e4, 0.1}};
+        for (double[] c : cases) {
+            Random random = new Random(5);
+            int window = 30;
+            double[] x = new double[200];
+            double[] y = new double[200];
+            for (int i = 0; i < x.length; i++) {
+                x[i] = i < 100 ? c[0] + random.nextDouble() * c[1] : c[2];
+                y[i] = 10 + random.nextGaussian() * 3;
+            }
+
+            SlidingCorrelation correlation = new SlidingCorrelation();
+            for (int i = 0; i < x.length; i++) {
+                correlation.add(x[i], y[i]);
+                if (i >= window) {
+                    correlation.remove(x[i - window], y[i - window]);
+                }
+                if (i >= 100 + window - 1) {
+                    Assert.assertTrue("Expected NaN for " + c[2] + " at " + i,
+                            Double.isNaN(correlation.getCorrelation()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package edu.ucsb.cs.roots.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SlidingStatSummaryTest {
+
+    @Test
+    public void testSlidingWindow() {
+        Random random = new Random(23);
+        double[] values = new double[400];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1e6 + random.nextGaussian() * 50 + (i > 200 ? 500 : 0);
+        }
+
+        int window = 30;
+        SlidingStatSummary summary = new SlidingStatSummary();
+        for (int i = 0; i < values.length; i++) {
+            summary.add(values[i]);
+            if (i >= window) {
+                summary.remove(values[i - window]);
+            }
+            StatSummary expected = StatSummary.calculate(Arrays.stream(values,
+                    Math.max(0, i - window + 1), i + 1));
+            StatSummary actual = summary.toStatSummary();
+            Assert.assertEquals(expected.getMean(), actual.getMean(), 1e-6);
+            Assert.assertEquals(expected.getStandardDeviation(),
+                    actual.getStandardDeviation(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testEdgeCases() {
+        SlidingStatSummary summary = new SlidingStatSummary();
+        Assert.assertTrue(Double.isNaN(summary.getMean()));
+        Assert.assertTrue(Double.isNaN(summary.getStandardDeviation()));
+        summary.add(5.0);
+        Assert.assertEquals(5.0, summary.getMean());
+        Assert.assertEquals(0.0, summary.getStandardDeviation());
+        summary.add(7.0);
+        Assert.assertEquals(6.0, summary.getMean());
+        Assert.assertEquals(Math.sqrt(2.0), summary.getStandardDeviation(), 1e-12);
+        summary.remove(5.0);
+        Assert.assertEquals(7.0, summary.getMean());
+        Assert.assertEquals(0.0, summary.getStandardDeviation());
+        summary.remove(7.0);
+        Assert.assertEquals(0, summary.getCount());
+        Assert.assertTrue(Double.isNaN(summary.getMean()));
+    }
+}
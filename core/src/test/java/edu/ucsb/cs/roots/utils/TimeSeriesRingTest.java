@@ -0,0 +1,110 @@
+package edu.ucsb.cs.roots.utils;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+public class TimeSeriesRingTest {
+
+    @Test
+    public void testAppendAndExpire() {
+        TimeSeriesRing ring = new TimeSeriesRing(2, 4);
+        for (int i = 0; i < 100; i++) {
+            ring.append(i * 1000, i, i * 10);
+            Assert.assertEquals(i < 3 ? 0 : 1, ring.expire((i - 2) * 1000));
+            Assert.assertEquals(Math.min(i + 1, 3), ring.size());
+            Assert.assertEquals(i * 1000, ring.getLastTimestamp());
+            Assert.assertEquals((double) i, ring.getLast(0));
+            Assert.assertEquals(i * 10.0, ring.getLast(1));
+        }
+        // The buffer never needs to grow
+        Assert.assertTrue(ring.toString().contains("capacity: 4"));
+        Assert.assertEquals(97000, ring.getTimestamp(0));
+        Assert.assertEquals(97.0, ring.get(0, 0));
+        Assert.assertEquals(980.0, ring.get(1, 1));
+        Assert.assertEquals(3, ring.toArray(0).length);
+        Assert.assertEquals(990.0, ring.toArray(1)[2]);
+        Assert.assertEquals(97.0 + 98.0 + 99.0, ring.stream(0).sum());
+
+        Assert.assertEquals(3, ring.expire(Long.MAX_VALUE));
+        Assert.assertTrue(ring.isEmpty());
+        try {
+            ring.getTimestamp(0);
+            Assert.fail("No error thrown for empty ring");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void testGrowth() {
+        TimeSeriesRing ring = new TimeSeriesRing(1, 2);
+        ring.append(0, 0.0);
+        ring.append(1, 1.0);
+        ring.removeFirst();
+        // Wraps around, then grows
+        for (int i = 2; i < 10; i++) {
+            ring.append(i, i);
+        }
+        Assert.assertEquals(9, ring.size());
+        for (int i = 0; i < ring.size(); i++) {
+            Assert.assertEquals(i + 1, ring.getTimestamp(i));
+            Assert.assertEquals(i + 1.0, ring.get(i));
+        }
+        double[] values = ring.toArray(0);
+        Assert.assertEquals(9, values.length);
+        Assert.assertEquals(9.0, values[8]);
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        TimeSeriesRing ring = new TimeSeriesRing(1, 8);
+        ring.append(10, 1.0);
+        ring.append(30, 3.0);
+        ring.append(20, 2.0);
+        ring.append(5, 0.5);
+        Assert.assertEquals(5, ring.getTimestamp(0));
+        Assert.assertEquals(0.5, ring.get(0));
+        Assert.assertEquals(20, ring.getTimestamp(2));
+        Assert.assertEquals(3.0, ring.getLast(0));
+        Assert.assertEquals(2, ring.expire(20));
+        Assert.assertEquals(2.0, ring.get(0));
+    }
+
+    @Test
+    public void testSummaries() {
+        TimeSeriesRing ring = new TimeSeriesRing(1, 4);
+        for (int i = 0; i < 20; i++) {
+            ring.append(i, i % 7);
+            ring.expire(i - 5);
+            StatSummary expected = StatSummary.calculate(ring.stream(0));
+            Assert.assertEquals(expected.getMean(), ring.summarize(0).getMean(), 1e-9);
+            Assert.assertEquals(expected.getStandardDeviation(),
+                    ring.summarize(0).getStandardDeviation(), 1e-9);
+        }
+
+        // Reset after an anomaly, retaining only the last point
+        ring.expire(ring.getLastTimestamp());
+        Assert.assertEquals(1, ring.size());
+        Assert.assertEquals(ring.getLast(0), ring.summarize(0).getMean());
+        Assert.assertEquals(0.0, ring.summarize(0).getStandardDeviation());
+        ring.clear();
+        Assert.assertTrue(Double.isNaN(ring.summarize(0).getMean()));
+    }
+
+    @Test
+    public void testHistory() {
+        TimeSeriesHistory<String> history = new TimeSeriesHistory<>(1, 4);
+        history.append("a", 1000, 1.0);
+        history.append("a", 2000, 2.0);
+        history.append("b", 2000, 5.0);
+        Assert.assertEquals(2, history.keySet().size());
+        Assert.assertEquals(2, history.getLongest().size());
+        Assert.assertNull(history.get("c"));
+
+        history.expire(1500);
+        Assert.assertEquals(1, history.get("a").size());
+        history.expire(3000);
+        Assert.assertFalse(history.containsKey("a"));
+        Assert.assertTrue(history.keySet().isEmpty());
+        Assert.assertNull(history.getLongest());
+    }
+}